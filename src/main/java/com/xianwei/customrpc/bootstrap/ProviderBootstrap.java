@@ -5,6 +5,7 @@ import com.xianwei.customrpc.config.RegistryConfig;
 import com.xianwei.customrpc.config.RpcConfig;
 import com.xianwei.customrpc.model.ServiceMetaInfo;
 import com.xianwei.customrpc.model.ServiceRegisterInfo;
+import com.xianwei.customrpc.protocol.ProtocolConstant;
 import com.xianwei.customrpc.registry.LocalRegistry;
 import com.xianwei.customrpc.registry.Registry;
 import com.xianwei.customrpc.registry.RegistryFactory;
@@ -45,6 +46,7 @@ public class ProviderBootstrap {
             serviceMetaInfo.setServiceName(serviceName);
             serviceMetaInfo.setServiceHost(rpcConfig.getServerHost());
             serviceMetaInfo.setServicePort(rpcConfig.getServerPort());
+            serviceMetaInfo.setProtocolVersion(ProtocolConstant.MAX_PROTOCOL_VERSION);
 
             try {
                 registry.register(serviceMetaInfo); // Remote registration
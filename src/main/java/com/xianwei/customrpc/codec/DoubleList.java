@@ -0,0 +1,112 @@
+package com.xianwei.customrpc.codec;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Double List
+ *
+ * A growable {@code List<Double>} backed by a {@code double[]}, so large series of measurements are
+ * held without one boxed object per element. Packed codecs decode {@code List<Double>} into it
+ * and write it straight from its array. Use {@link #getDouble}/{@link #addDouble} to stay unboxed.
+ * Null elements are not supported.
+ */
+public class DoubleList extends AbstractList<Double> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private double[] elements;
+
+    private int size;
+
+    public DoubleList() {
+        this(10);
+    }
+
+    public DoubleList(int capacity) {
+        this.elements = new double[capacity];
+    }
+
+    /**
+     * Wrap an array without copying it.
+     */
+    public DoubleList(double[] elements) {
+        this.elements = elements;
+        this.size = elements.length;
+    }
+
+    public double getDouble(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public void addDouble(double value) {
+        ensureCapacity(size + 1);
+        elements[size++] = value;
+    }
+
+    /**
+     * The backing array; only the first {@link #size()} elements are valid.
+     */
+    public double[] elements() {
+        return elements;
+    }
+
+    public double[] toDoubleArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override
+    public Double get(int index) {
+        return getDouble(index);
+    }
+
+    @Override
+    public Double set(int index, Double value) {
+        checkIndex(index);
+        double previous = elements[index];
+        elements[index] = value;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Double value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Double remove(int index) {
+        checkIndex(index);
+        double previous = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1) + 1));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.xianwei.customrpc.codec;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Long List
+ *
+ * A growable {@code List<Long>} backed by a {@code long[]}, so large id or timestamp lists are
+ * held without one boxed object per element. Packed codecs decode {@code List<Long>} into it
+ * and write it straight from its array. Use {@link #getLong}/{@link #addLong} to stay unboxed.
+ * Null elements are not supported.
+ */
+public class LongList extends AbstractList<Long> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] elements;
+
+    private int size;
+
+    public LongList() {
+        this(10);
+    }
+
+    public LongList(int capacity) {
+        this.elements = new long[capacity];
+    }
+
+    /**
+     * Wrap an array without copying it.
+     */
+    public LongList(long[] elements) {
+        this.elements = elements;
+        this.size = elements.length;
+    }
+
+    public long getLong(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    public void addLong(long value) {
+        ensureCapacity(size + 1);
+        elements[size++] = value;
+    }
+
+    /**
+     * The backing array; only the first {@link #size()} elements are valid.
+     */
+    public long[] elements() {
+        return elements;
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override
+    public Long get(int index) {
+        return getLong(index);
+    }
+
+    @Override
+    public Long set(int index, Long value) {
+        checkIndex(index);
+        long previous = elements[index];
+        elements[index] = value;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Long value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = value;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Long remove(int index) {
+        checkIndex(index);
+        long previous = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        size--;
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > elements.length) {
+            elements = Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1) + 1));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
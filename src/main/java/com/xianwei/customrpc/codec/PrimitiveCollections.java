@@ -0,0 +1,112 @@
+package com.xianwei.customrpc.codec;
+
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.PackedArrayUtils;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Primitive Collection Codec
+ *
+ * Packed encodings for numeric collections, used by generated codecs for fields declared as
+ * {@code List<Long>}, {@code List<Double>} or {@code Map<Long, Double>}:
+ * - lists are written as one packed array block (see {@link PackedArrayUtils}) and decoded
+ *   into a {@link LongList}/{@link DoubleList} that wraps the decoded array
+ * - maps are written as varint(size + 1) followed by a key block and a value block,
+ *   and decoded into a HashMap
+ * Null collections are supported, null elements, keys and values are not.
+ */
+public class PrimitiveCollections {
+
+    public static void writeLongList(Buffer buffer, Collection<Long> values) {
+        if (values instanceof LongList) {
+            LongList list = (LongList) values;
+            PackedArrayUtils.writeLongs(buffer, list.elements(), list.size());
+            return;
+        }
+        PackedArrayUtils.writeLongs(buffer, toLongArray(values));
+    }
+
+    public static LongList readLongList(BufferReader reader) {
+        long[] values = PackedArrayUtils.readLongs(reader);
+        return values == null ? null : new LongList(values);
+    }
+
+    public static void writeDoubleList(Buffer buffer, Collection<Double> values) {
+        if (values instanceof DoubleList) {
+            DoubleList list = (DoubleList) values;
+            PackedArrayUtils.writeDoubles(buffer, list.elements(), list.size());
+            return;
+        }
+        PackedArrayUtils.writeDoubles(buffer, toDoubleArray(values));
+    }
+
+    public static DoubleList readDoubleList(BufferReader reader) {
+        double[] values = PackedArrayUtils.readDoubles(reader);
+        return values == null ? null : new DoubleList(values);
+    }
+
+    public static void writeLongDoubleMap(Buffer buffer, Map<Long, Double> map) {
+        if (map == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+            return;
+        }
+        int size = map.size();
+        long[] keys = new long[size];
+        double[] values = new double[size];
+        int i = 0;
+        for (Map.Entry<Long, Double> entry : map.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+        VarIntUtils.writeVarInt(buffer, size + 1);
+        PackedArrayUtils.writeLongs(buffer, keys);
+        PackedArrayUtils.writeDoubles(buffer, values);
+    }
+
+    public static Map<Long, Double> readLongDoubleMap(BufferReader reader) {
+        int size = reader.readVarInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        long[] keys = PackedArrayUtils.readLongs(reader);
+        double[] values = PackedArrayUtils.readDoubles(reader);
+        if (keys == null || values == null || keys.length != size || values.length != size) {
+            throw new RuntimeException("Malformed packed map of size " + size);
+        }
+        Map<Long, Double> map = new HashMap<>((int) (size / 0.75f) + 1);
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return map;
+    }
+
+    private static long[] toLongArray(Collection<Long> values) {
+        if (values == null) {
+            return null;
+        }
+        long[] array = new long[values.size()];
+        int i = 0;
+        for (Long value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    private static double[] toDoubleArray(Collection<Double> values) {
+        if (values == null) {
+            return null;
+        }
+        double[] array = new double[values.size()];
+        int i = 0;
+        for (Double value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+}
@@ -0,0 +1,25 @@
+package com.xianwei.customrpc.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generated Codec Annotation
+ *
+ * Marks a DTO used in service interfaces. At compile time, {@code RpcCodecProcessor} generates
+ * a {@link ValueCodec} named {@code <SimpleName>RpcCodec} next to the class and registers it,
+ * so the DTO is encoded field by field without reflection.
+ *
+ * The class needs a no-arg constructor visible to its package. Every non-static, non-transient
+ * field (superclass fields first) is written in declaration order, read either directly when
+ * not private or through its getter/setter (e.g. generated by Lombok @Data).
+ * Both ends must use the same version of the class, since fields are not tagged.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RpcCodec {
+}
@@ -0,0 +1,44 @@
+package com.xianwei.customrpc.codec;
+
+import com.xianwei.customrpc.serializer.Serializer;
+import com.xianwei.customrpc.utils.BufferReader;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+
+/**
+ * Value Codec Interface
+ *
+ * A dedicated encoder/decoder for one class, usually generated from a class annotated with
+ * {@link RpcCodec}. Implementations are registered through the SPI mechanism, keyed by the
+ * name of the class they encode, and picked up by {@link ValueCodecs}.
+ *
+ * @param <T> the encoded class
+ */
+public interface ValueCodec<T> {
+
+    /**
+     * The class this codec encodes (exactly; subclasses are not covered).
+     */
+    Class<T> getType();
+
+    /**
+     * Append a non-null value to the buffer.
+     *
+     * @param value    the value to encode
+     * @param out      the buffer to append to
+     * @param fallback serializer for field values no codec covers
+     * @throws IOException if a field value cannot be serialized
+     */
+    void encode(T value, Buffer out, Serializer fallback) throws IOException;
+
+    /**
+     * Read a value written by {@link #encode}.
+     *
+     * @param in       reader positioned at the value
+     * @param fallback serializer for field values no codec covers
+     * @return the decoded value
+     * @throws IOException if a field value cannot be deserialized
+     */
+    T decode(BufferReader in, Serializer fallback) throws IOException;
+}
@@ -0,0 +1,114 @@
+package com.xianwei.customrpc.codec;
+
+import com.xianwei.customrpc.protocol.ClassIdTable;
+import com.xianwei.customrpc.protocol.PrimitiveValueCodec;
+import com.xianwei.customrpc.serializer.Serializer;
+import com.xianwei.customrpc.spi.SpiLoader;
+import com.xianwei.customrpc.utils.BufferReader;
+import io.vertx.core.buffer.Buffer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Value Codec Registry
+ *
+ * Holds the {@link ValueCodec}s registered through SPI (generated codecs are listed in
+ * META-INF/rpc/custom by the annotation processor) and provides the self-describing value
+ * encoding that generated code uses for fields that are neither primitives nor Strings:
+ *   class token (0 = null) | value
+ * where the value is written by {@link PrimitiveValueCodec}, by the class's codec, or as
+ * int32 length + bytes of the fallback serializer.
+ */
+@Slf4j
+public class ValueCodecs {
+
+    /**
+     * Codecs by encoded class (read-only after loading)
+     */
+    private static final Map<Class<?>, ValueCodec<?>> CODECS = loadCodecs();
+
+    private static Map<Class<?>, ValueCodec<?>> loadCodecs() {
+        Map<Class<?>, ValueCodec<?>> codecs = new HashMap<>();
+        for (String key : SpiLoader.load(ValueCodec.class).keySet()) {
+            ValueCodec<?> codec = SpiLoader.getInstance(ValueCodec.class, key);
+            codecs.put(codec.getType(), codec);
+        }
+        log.info("Loaded {} generated value codecs", codecs.size());
+        return codecs;
+    }
+
+    /**
+     * Whether no codec is registered at all.
+     */
+    public static boolean isEmpty() {
+        return CODECS.isEmpty();
+    }
+
+    /**
+     * Get the codec registered for exactly this class.
+     *
+     * @param clazz the value class
+     * @return the codec, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ValueCodec<T> get(Class<T> clazz) {
+        return (ValueCodec<T>) CODECS.get(clazz);
+    }
+
+    /**
+     * Append a nullable value of any class, preceded by its runtime class.
+     *
+     * @param out      the buffer to append to
+     * @param value    the value to write
+     * @param fallback serializer for classes without a codec
+     * @throws IOException if the value cannot be serialized
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void writeValue(Buffer out, Object value, Serializer fallback) throws IOException {
+        if (value == null) {
+            ClassIdTable.writeClass(out, null);
+            return;
+        }
+        Class<?> valueClass = value.getClass();
+        ClassIdTable.writeClass(out, valueClass);
+        if (PrimitiveValueCodec.isSupported(valueClass)) {
+            PrimitiveValueCodec.write(out, value);
+            return;
+        }
+        ValueCodec codec = CODECS.get(valueClass);
+        if (codec != null) {
+            codec.encode(value, out, fallback);
+            return;
+        }
+        int lengthIndex = out.length();
+        out.appendInt(0);
+        fallback.serialize(value, out);
+        out.setInt(lengthIndex, out.length() - lengthIndex - 4);
+    }
+
+    /**
+     * Read a value written by {@link #writeValue}.
+     *
+     * @param in       reader positioned at the value
+     * @param fallback serializer for classes without a codec
+     * @return the value, or null
+     * @throws IOException if the value cannot be deserialized
+     */
+    public static Object readValue(BufferReader in, Serializer fallback) throws IOException {
+        Class<?> valueClass = ClassIdTable.readClass(in);
+        if (valueClass == null) {
+            return null;
+        }
+        if (PrimitiveValueCodec.isSupported(valueClass)) {
+            return PrimitiveValueCodec.read(in, valueClass);
+        }
+        ValueCodec<?> codec = CODECS.get(valueClass);
+        if (codec != null) {
+            return codec.decode(in, fallback);
+        }
+        return fallback.deserialize(in.readSlice(in.readInt()), valueClass);
+    }
+}
@@ -0,0 +1,436 @@
+package com.xianwei.customrpc.codec.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * RpcCodec Annotation Processor
+ *
+ * Generates a {@code ValueCodec} for every class annotated with {@code @RpcCodec} and lists it in
+ * META-INF/rpc/custom/com.xianwei.customrpc.codec.ValueCodec, where the SPI loader finds it at
+ * runtime. The generated code writes the fields in a fixed order: primitives and Strings directly,
+ * int[]/long[]/double[], {@code List<Long>}, {@code List<Double>} and {@code Map<Long, Double>}
+ * as packed blocks, everything else through {@code ValueCodecs.writeValue} (which uses other
+ * generated codecs or falls back to the configured serializer).
+ *
+ * Registered in META-INF/services, so it runs whenever the framework jar is on the compile classpath.
+ */
+public class RpcCodecProcessor extends AbstractProcessor {
+
+    private static final String ANNOTATION_NAME = "com.xianwei.customrpc.codec.RpcCodec";
+
+    private static final String SPI_FILE = "META-INF/rpc/custom/com.xianwei.customrpc.codec.ValueCodec";
+
+    private static final String CODEC_SUFFIX = "RpcCodec";
+
+    /**
+     * SPI entries collected over all rounds: DTO binary name → codec class name
+     */
+    private final Map<String, String> spiEntries = new TreeMap<>();
+
+    private Filer filer;
+
+    private Messager messager;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.filer = processingEnv.getFiler();
+        this.messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION_NAME);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeSpiFile();
+            return false;
+        }
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION_NAME);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@RpcCodec can only be applied to classes", element);
+                continue;
+            }
+            try {
+                generateCodec((TypeElement) element);
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Failed to generate codec: " + e.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generate the codec source for one DTO class.
+     */
+    private void generateCodec(TypeElement type) throws IOException {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@RpcCodec class must not be abstract", type);
+            return;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@RpcCodec inner class must be static", type);
+            return;
+        }
+        if (!hasNoArgConstructor(type)) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "@RpcCodec class needs a non-private no-arg constructor", type);
+            return;
+        }
+
+        List<FieldAccess> fields = new ArrayList<>();
+        if (!collectFields(type, fields)) {
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String typeName = type.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String codecName = flatName(type) + CODEC_SUFFIX;
+        String qualifiedCodecName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+                .append(" * Generated by RpcCodecProcessor for {@link ").append(typeName).append("}. Do not edit.\n")
+                .append(" */\n")
+                .append("public final class ").append(codecName)
+                .append(" implements com.xianwei.customrpc.codec.ValueCodec<").append(typeName).append("> {\n\n");
+
+        source.append("    @Override\n")
+                .append("    public Class<").append(typeName).append("> getType() {\n")
+                .append("        return ").append(typeName).append(".class;\n")
+                .append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    public void encode(").append(typeName).append(" value, io.vertx.core.buffer.Buffer out,\n")
+                .append("                       com.xianwei.customrpc.serializer.Serializer fallback) throws java.io.IOException {\n");
+        for (FieldAccess field : fields) {
+            source.append("        ").append(writeStatement(field)).append("\n");
+        }
+        source.append("    }\n\n");
+
+        source.append("    @Override\n")
+                .append("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("    public ").append(typeName).append(" decode(com.xianwei.customrpc.utils.BufferReader in,\n")
+                .append("                       com.xianwei.customrpc.serializer.Serializer fallback) throws java.io.IOException {\n")
+                .append("        ").append(typeName).append(" value = new ").append(typeName).append("();\n");
+        for (FieldAccess field : fields) {
+            source.append("        ").append(field.assign(readExpression(field))).append("\n");
+        }
+        source.append("        return value;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        try (Writer writer = filer.createSourceFile(qualifiedCodecName, type).openWriter()) {
+            writer.write(source.toString());
+        }
+        spiEntries.put(binaryName, qualifiedCodecName);
+    }
+
+    /**
+     * Collect the serializable fields of a class, superclass fields first.
+     *
+     * @return false if a field cannot be handled (an error has been reported)
+     */
+    private boolean collectFields(TypeElement type, List<FieldAccess> fields) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement superElement = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (!superElement.getQualifiedName().contentEquals("java.lang.Object") && !collectFields(superElement, fields)) {
+                return false;
+            }
+        }
+        List<ExecutableElement> methods = ElementFilter.methodsIn(type.getEnclosedElements());
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            if (modifiers.contains(Modifier.FINAL)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@RpcCodec fields must not be final", field);
+                return false;
+            }
+            fields.add(new FieldAccess(field, !modifiers.contains(Modifier.PRIVATE), methods));
+        }
+        return true;
+    }
+
+    private static boolean hasNoArgConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Simple name, prefixed with the enclosing class names for nested classes (Outer_Inner).
+     */
+    private static String flatName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private String writeStatement(FieldAccess field) {
+        String get = field.get();
+        switch (field.type.getKind()) {
+            case BOOLEAN:
+                return "out.appendByte(" + get + " ? (byte) 1 : (byte) 0);";
+            case BYTE:
+                return "out.appendByte(" + get + ");";
+            case SHORT:
+            case INT:
+                return "com.xianwei.customrpc.utils.VarIntUtils.writeSignedVarInt(out, " + get + ");";
+            case LONG:
+                return "com.xianwei.customrpc.utils.VarIntUtils.writeSignedVarLong(out, " + get + ");";
+            case CHAR:
+                return "com.xianwei.customrpc.utils.VarIntUtils.writeVarInt(out, " + get + ");";
+            case FLOAT:
+                return "out.appendIntLE(Float.floatToRawIntBits(" + get + "));";
+            case DOUBLE:
+                return "out.appendLongLE(Double.doubleToRawLongBits(" + get + "));";
+            default:
+                if (isString(field.type)) {
+                    return "com.xianwei.customrpc.utils.VarIntUtils.writeString(out, " + get + ");";
+                }
+                String packedType = packedType(field.type);
+                if (packedType != null) {
+                    return packedType + ".write" + packedName(field.type) + "(out, " + get + ");";
+                }
+                return "com.xianwei.customrpc.codec.ValueCodecs.writeValue(out, " + get + ", fallback);";
+        }
+    }
+
+    private String readExpression(FieldAccess field) {
+        switch (field.type.getKind()) {
+            case BOOLEAN:
+                return "in.readByte() != 0";
+            case BYTE:
+                return "in.readByte()";
+            case SHORT:
+                return "(short) in.readSignedVarInt()";
+            case INT:
+                return "in.readSignedVarInt()";
+            case LONG:
+                return "in.readSignedVarLong()";
+            case CHAR:
+                return "(char) in.readVarInt()";
+            case FLOAT:
+                return "Float.intBitsToFloat(in.readIntLE())";
+            case DOUBLE:
+                return "Double.longBitsToDouble(in.readLongLE())";
+            default:
+                if (isString(field.type)) {
+                    return "in.readString()";
+                }
+                String packedType = packedType(field.type);
+                if (packedType != null) {
+                    return packedType + ".read" + packedName(field.type) + "(in)";
+                }
+                String erasure = processingEnv.getTypeUtils().erasure(field.type).toString();
+                return "(" + erasure + ") com.xianwei.customrpc.codec.ValueCodecs.readValue(in, fallback)";
+        }
+    }
+
+    /**
+     * Helper class that writes a field of this declared type as a packed block, or null.
+     */
+    private String packedType(TypeMirror type) {
+        String name = packedName(type);
+        if (name == null) {
+            return null;
+        }
+        return type.getKind() == TypeKind.ARRAY ? "com.xianwei.customrpc.utils.PackedArrayUtils"
+                : "com.xianwei.customrpc.codec.PrimitiveCollections";
+    }
+
+    /**
+     * Suffix of the packed read/write methods for this declared type, or null.
+     * Collections qualify only when declared as the interface, since they decode into LongList,
+     * DoubleList or HashMap.
+     */
+    private String packedName(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            switch (((ArrayType) type).getComponentType().getKind()) {
+                case INT:
+                    return "Ints";
+                case LONG:
+                    return "Longs";
+                case DOUBLE:
+                    return "Doubles";
+                default:
+                    return null;
+            }
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        String erasure = processingEnv.getTypeUtils().erasure(type).toString();
+        List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+        if ((erasure.equals("java.util.List") || erasure.equals("java.util.Collection")) && typeArguments.size() == 1) {
+            String element = typeArguments.get(0).toString();
+            if (element.equals("java.lang.Long")) {
+                return "LongList";
+            }
+            if (element.equals("java.lang.Double")) {
+                return "DoubleList";
+            }
+        }
+        if (erasure.equals("java.util.Map") && typeArguments.size() == 2
+                && typeArguments.get(0).toString().equals("java.lang.Long")
+                && typeArguments.get(1).toString().equals("java.lang.Double")) {
+            return "LongDoubleMap";
+        }
+        return null;
+    }
+
+    private static boolean isString(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && type.toString().equals("java.lang.String");
+    }
+
+    /**
+     * Merge the entries of this compilation into the SPI file, keeping entries of classes that
+     * were not recompiled (incremental builds).
+     */
+    private void writeSpiFile() {
+        if (spiEntries.isEmpty()) {
+            return;
+        }
+        Map<String, String> entries = new TreeMap<>();
+        try {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", SPI_FILE);
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] strArray = line.split("=");
+                    if (strArray.length > 1) {
+                        entries.put(strArray[0].trim(), strArray[1].trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // No previous file
+        }
+        entries.putAll(spiEntries);
+        try {
+            FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SPI_FILE);
+            try (Writer writer = fileObject.openWriter()) {
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to write " + SPI_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * How generated code reads and writes one field.
+     */
+    private static class FieldAccess {
+
+        private final String name;
+
+        private final TypeMirror type;
+
+        /**
+         * Accessor method names; null when the field is accessed directly
+         */
+        private final String getter;
+
+        private final String setter;
+
+        FieldAccess(VariableElement field, boolean direct, List<ExecutableElement> methods) {
+            this.name = field.getSimpleName().toString();
+            this.type = field.asType();
+            if (direct) {
+                this.getter = null;
+                this.setter = null;
+                return;
+            }
+            // JavaBeans/Lombok naming: a boolean "isActive" has isActive()/setActive()
+            String property = name;
+            boolean isBoolean = type.getKind() == TypeKind.BOOLEAN;
+            if (isBoolean && name.length() > 2 && name.startsWith("is") && Character.isUpperCase(name.charAt(2))) {
+                property = name.substring(2);
+            }
+            String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+            String defaultGetter = (isBoolean ? "is" : "get") + capitalized;
+            // Accessors may not be visible yet when generated by another processor (Lombok);
+            // prefer declared ones and otherwise rely on the naming convention
+            this.getter = findMethod(methods, defaultGetter, 0) ? defaultGetter
+                    : findMethod(methods, "get" + capitalized, 0) ? "get" + capitalized : defaultGetter;
+            this.setter = "set" + capitalized;
+        }
+
+        String get() {
+            return getter == null ? "value." + name : "value." + getter + "()";
+        }
+
+        String assign(String expression) {
+            return setter == null ? "value." + name + " = " + expression + ";"
+                    : "value." + setter + "(" + expression + ");";
+        }
+
+        private static boolean findMethod(List<ExecutableElement> methods, String name, int parameterCount) {
+            for (ExecutableElement method : methods) {
+                if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameterCount) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
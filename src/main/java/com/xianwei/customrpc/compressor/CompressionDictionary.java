@@ -0,0 +1,58 @@
+package com.xianwei.customrpc.compressor;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.io.resource.ResourceUtil;
+import lombok.Getter;
+
+import java.util.zip.Adler32;
+
+/**
+ * Compression Dictionary
+ *
+ * A preset dictionary for the deflate codec: bytes that typical message bodies share
+ * (class and field names, common values), usually produced by {@link CompressionDictionaryTrainer}
+ * from sampled traffic. Both ends must load the same dictionary; it is identified by its
+ * Adler-32, as in the zlib stream header, and peers only use it once both announced the same id.
+ */
+@Getter
+public class CompressionDictionary {
+
+    /**
+     * Deflate only looks back 32 KB, so longer dictionaries are truncated to their tail
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private final byte[] bytes;
+
+    /**
+     * Adler-32 of the bytes
+     */
+    private final long id;
+
+    public CompressionDictionary(byte[] bytes) {
+        if (bytes.length > MAX_SIZE) {
+            byte[] tail = new byte[MAX_SIZE];
+            System.arraycopy(bytes, bytes.length - MAX_SIZE, tail, 0, MAX_SIZE);
+            bytes = tail;
+        }
+        this.bytes = bytes;
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, 0, bytes.length);
+        this.id = adler32.getValue();
+    }
+
+    /**
+     * Load a dictionary from a file path, or else from a classpath resource.
+     *
+     * @param location file path or classpath resource name
+     * @return the dictionary
+     */
+    public static CompressionDictionary load(String location) {
+        try {
+            byte[] bytes = FileUtil.isFile(location) ? FileUtil.readBytes(location) : ResourceUtil.readBytes(location);
+            return new CompressionDictionary(bytes);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Failed to load compression dictionary: " + location, e);
+        }
+    }
+}
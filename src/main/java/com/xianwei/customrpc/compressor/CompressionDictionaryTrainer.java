@@ -0,0 +1,168 @@
+package com.xianwei.customrpc.compressor;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compression Dictionary Trainer
+ *
+ * Keeps a uniform random sample (reservoir) of message bodies and builds a preset dictionary
+ * from the content they share. The training is a simplified version of zstd's "cover"
+ * algorithm: count in how many samples each 8-byte sequence occurs, then greedily pick the
+ * 64-byte segments covering the most frequent sequences not yet in the dictionary. The best
+ * segments go last, closest to the data, where deflate encodes references most cheaply.
+ */
+public class CompressionDictionaryTrainer {
+
+    /**
+     * Only the start of long bodies is kept; it holds most of their shared structure
+     */
+    private static final int MAX_SAMPLE_LENGTH = 16 * 1024;
+
+    private static final int GRAM_LENGTH = 8;
+
+    private static final int SEGMENT_LENGTH = 64;
+
+    private static final int SEGMENT_STEP = SEGMENT_LENGTH / 2;
+
+    private static final int HASH_BITS = 18;
+
+    private final int maxSamples;
+
+    private final List<byte[]> samples = new ArrayList<>();
+
+    private long seen;
+
+    /**
+     * @param maxSamples number of bodies kept for training
+     */
+    public CompressionDictionaryTrainer(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Offer a body to the sample; it is copied only if it is kept.
+     */
+    public synchronized void addSample(Buffer body) {
+        seen++;
+        int slot = samples.size() < maxSamples ? samples.size() : (int) ThreadLocalRandom.current().nextLong(seen);
+        if (slot >= maxSamples) {
+            return;
+        }
+        byte[] sample = body.getBytes(0, Math.min(body.length(), MAX_SAMPLE_LENGTH));
+        if (slot == samples.size()) {
+            samples.add(sample);
+        } else {
+            samples.set(slot, sample);
+        }
+    }
+
+    public synchronized int getSampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * Build a dictionary from the current sample.
+     *
+     * @param size maximum dictionary size in bytes (at most {@link CompressionDictionary#MAX_SIZE})
+     * @return the dictionary bytes, empty if the samples share nothing
+     */
+    public byte[] train(int size) {
+        List<byte[]> samples;
+        synchronized (this) {
+            samples = new ArrayList<>(this.samples);
+        }
+        size = Math.min(size, CompressionDictionary.MAX_SIZE);
+
+        // Number of samples containing each (hashed) 8-byte sequence
+        int[] frequencies = new int[1 << HASH_BITS];
+        int[] stamps = new int[1 << HASH_BITS];
+        int stamp = 0;
+        for (byte[] sample : samples) {
+            stamp++;
+            for (int i = 0; i + GRAM_LENGTH <= sample.length; i++) {
+                int hash = hash(sample, i);
+                if (stamps[hash] != stamp) {
+                    stamps[hash] = stamp;
+                    frequencies[hash]++;
+                }
+            }
+        }
+
+        // Candidate segments by score; scores only drop as sequences get covered, so they are
+        // re-scored lazily when they reach the head of the queue
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int start = 0; start + SEGMENT_LENGTH <= sample.length; start += SEGMENT_STEP) {
+                stamp++;
+                long score = score(sample, start, frequencies, stamps, stamp);
+                if (score > 0) {
+                    queue.add(new long[]{score, s, start});
+                }
+            }
+        }
+
+        List<long[]> selected = new ArrayList<>();
+        int total = 0;
+        while (!queue.isEmpty() && total + SEGMENT_LENGTH <= size) {
+            long[] candidate = queue.poll();
+            byte[] sample = samples.get((int) candidate[1]);
+            int start = (int) candidate[2];
+            stamp++;
+            long score = score(sample, start, frequencies, stamps, stamp);
+            if (score == 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek()[0]) {
+                candidate[0] = score;
+                queue.add(candidate);
+                continue;
+            }
+            selected.add(candidate);
+            total += SEGMENT_LENGTH;
+            // The segment's sequences are now covered
+            for (int i = start; i + GRAM_LENGTH <= start + SEGMENT_LENGTH; i++) {
+                frequencies[hash(sample, i)] = 0;
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(total);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            long[] segment = selected.get(i);
+            dictionary.write(samples.get((int) segment[1]), (int) segment[2], SEGMENT_LENGTH);
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Sum of the frequencies of the distinct shared sequences in a segment.
+     */
+    private static long score(byte[] sample, int start, int[] frequencies, int[] stamps, int stamp) {
+        long score = 0;
+        for (int i = start; i + GRAM_LENGTH <= start + SEGMENT_LENGTH; i++) {
+            int hash = hash(sample, i);
+            if (stamps[hash] != stamp) {
+                stamps[hash] = stamp;
+                // Sequences seen in a single sample do not help other messages
+                if (frequencies[hash] > 1) {
+                    score += frequencies[hash];
+                }
+            }
+        }
+        return score;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < GRAM_LENGTH; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+    }
+}
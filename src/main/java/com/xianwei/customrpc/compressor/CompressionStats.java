@@ -0,0 +1,125 @@
+package com.xianwei.customrpc.compressor;
+
+import cn.hutool.core.io.FileUtil;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression Statistics
+ *
+ * Byte and message counters of body compression in both directions, plus the body sample
+ * used to train dictionaries. One instance per JVM, registered with the platform MBean server
+ * when compression is first used.
+ */
+public class CompressionStats implements CompressionStatsMXBean {
+
+    private final LongAdder compressedMessages = new LongAdder();
+
+    private final LongAdder compressedInputBytes = new LongAdder();
+
+    private final LongAdder compressedOutputBytes = new LongAdder();
+
+    private final LongAdder uncompressedMessages = new LongAdder();
+
+    private final LongAdder uncompressedBytes = new LongAdder();
+
+    private final LongAdder decompressedMessages = new LongAdder();
+
+    private final LongAdder decompressedInputBytes = new LongAdder();
+
+    private final LongAdder decompressedOutputBytes = new LongAdder();
+
+    /**
+     * Body sample for dictionary training, or null when sampling is off
+     */
+    private final CompressionDictionaryTrainer trainer;
+
+    /**
+     * @param trainer trainer fed with sampled bodies, or null
+     */
+    public CompressionStats(CompressionDictionaryTrainer trainer) {
+        this.trainer = trainer;
+    }
+
+    public void recordCompressed(int inputBytes, int outputBytes) {
+        compressedMessages.increment();
+        compressedInputBytes.add(inputBytes);
+        compressedOutputBytes.add(outputBytes);
+    }
+
+    public void recordUncompressed(int bytes) {
+        uncompressedMessages.increment();
+        uncompressedBytes.add(bytes);
+    }
+
+    public void recordDecompressed(int inputBytes, int outputBytes) {
+        decompressedMessages.increment();
+        decompressedInputBytes.add(inputBytes);
+        decompressedOutputBytes.add(outputBytes);
+    }
+
+    public CompressionDictionaryTrainer getTrainer() {
+        return trainer;
+    }
+
+    @Override
+    public long getCompressedMessages() {
+        return compressedMessages.sum();
+    }
+
+    @Override
+    public long getCompressedInputBytes() {
+        return compressedInputBytes.sum();
+    }
+
+    @Override
+    public long getCompressedOutputBytes() {
+        return compressedOutputBytes.sum();
+    }
+
+    @Override
+    public long getUncompressedMessages() {
+        return uncompressedMessages.sum();
+    }
+
+    @Override
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    @Override
+    public long getDecompressedMessages() {
+        return decompressedMessages.sum();
+    }
+
+    @Override
+    public long getDecompressedInputBytes() {
+        return decompressedInputBytes.sum();
+    }
+
+    @Override
+    public long getDecompressedOutputBytes() {
+        return decompressedOutputBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long input = compressedInputBytes.sum();
+        return input == 0 ? 1 : (double) compressedOutputBytes.sum() / input;
+    }
+
+    @Override
+    public int getDictionarySamples() {
+        return trainer == null ? 0 : trainer.getSampleCount();
+    }
+
+    @Override
+    public int trainDictionary(String path, int size) {
+        if (trainer == null) {
+            throw new IllegalStateException("Dictionary sampling is off (compressionConfig.dictionarySamples = 0)");
+        }
+        byte[] dictionary = trainer.train(size);
+        FileUtil.writeBytes(dictionary, path);
+        return dictionary.length;
+    }
+}
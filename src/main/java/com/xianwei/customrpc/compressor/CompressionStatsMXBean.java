@@ -0,0 +1,69 @@
+package com.xianwei.customrpc.compressor;
+
+/**
+ * Compression Statistics (JMX view)
+ *
+ * Exported as {@code com.xianwei.customrpc:type=Compression} to tune the codec and threshold.
+ */
+public interface CompressionStatsMXBean {
+
+    /**
+     * Bodies sent compressed
+     */
+    long getCompressedMessages();
+
+    /**
+     * Size of those bodies before compression
+     */
+    long getCompressedInputBytes();
+
+    /**
+     * Size of those bodies after compression
+     */
+    long getCompressedOutputBytes();
+
+    /**
+     * Bodies sent uncompressed although compression was enabled for the connection
+     * (below the threshold, or not smaller once compressed)
+     */
+    long getUncompressedMessages();
+
+    /**
+     * Size of those bodies
+     */
+    long getUncompressedBytes();
+
+    /**
+     * Bodies received compressed
+     */
+    long getDecompressedMessages();
+
+    /**
+     * Size of those bodies on the wire
+     */
+    long getDecompressedInputBytes();
+
+    /**
+     * Size of those bodies after decompression
+     */
+    long getDecompressedOutputBytes();
+
+    /**
+     * Output / input size of the compressed bodies sent (1 when none)
+     */
+    double getCompressionRatio();
+
+    /**
+     * Bodies currently sampled for dictionary training
+     */
+    int getDictionarySamples();
+
+    /**
+     * Train a dictionary from the sampled bodies and write it to a file.
+     *
+     * @param path the file to write
+     * @param size maximum dictionary size in bytes
+     * @return the number of bytes written
+     */
+    int trainDictionary(String path, int size);
+}
@@ -0,0 +1,32 @@
+package com.xianwei.customrpc.compressor;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Compressor Interface
+ *
+ * Compresses message bodies on the wire. Implementations are loaded through SPI (see
+ * {@link CompressorFactory}) and must be thread-safe. Codecs without dictionary support
+ * ignore the dictionary arguments.
+ */
+public interface Compressor {
+
+    /**
+     * Compress the input and append the result to the output buffer.
+     *
+     * @param input      the bytes to compress
+     * @param out        the buffer to append to
+     * @param dictionary preset dictionary shared with the peer, or null
+     */
+    void compress(Buffer input, Buffer out, CompressionDictionary dictionary);
+
+    /**
+     * Decompress an input produced by {@link #compress}.
+     *
+     * @param input      the compressed bytes
+     * @param length     the exact uncompressed length; longer output is rejected
+     * @param dictionary the local preset dictionary, or null
+     * @return the uncompressed bytes
+     */
+    Buffer decompress(Buffer input, int length, CompressionDictionary dictionary);
+}
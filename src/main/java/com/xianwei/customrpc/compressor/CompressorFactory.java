@@ -0,0 +1,26 @@
+package com.xianwei.customrpc.compressor;
+
+import com.xianwei.customrpc.spi.SpiLoader;
+
+/**
+ * Compressor Factory (Factory Pattern)
+ *
+ * Provides Compressor instances by key (e.g., "snappy", "deflate"), loaded through SPI.
+ */
+public class CompressorFactory {
+
+    // Load all Compressor implementations using SPI at class loading time
+    static {
+        SpiLoader.load(Compressor.class);
+    }
+
+    /**
+     * Get a compressor instance by key.
+     *
+     * @param key the compressor name (e.g., "snappy", "deflate")
+     * @return the corresponding compressor instance
+     */
+    public static Compressor getInstance(String key) {
+        return SpiLoader.getInstance(Compressor.class, key);
+    }
+}
@@ -0,0 +1,24 @@
+package com.xianwei.customrpc.compressor;
+
+/**
+ * Compressor Key Constants
+ *
+ * Identifiers of the Compressor implementations, used in the configuration and with the CompressorFactory.
+ */
+public interface CompressorKeys {
+
+    /**
+     * No compression
+     */
+    String NONE = "none";
+
+    /**
+     * Snappy: fast, moderate ratio
+     */
+    String SNAPPY = "snappy";
+
+    /**
+     * Deflate (JDK zlib): slower, higher ratio, supports preset dictionaries
+     */
+    String DEFLATE = "deflate";
+}
@@ -0,0 +1,98 @@
+package com.xianwei.customrpc.compressor;
+
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate Compressor
+ *
+ * Uses the JDK's zlib Deflater/Inflater, at the level set in the compression configuration.
+ * Compresses better than Snappy at a higher CPU cost. With a preset dictionary (see
+ * {@link CompressionDictionary}) small messages compress well too, since their common
+ * field names and values are already in the window. The zlib stream records the
+ * dictionary's Adler-32, so a receiver with a different dictionary fails cleanly.
+ * Deflaters and inflaters are reused per thread.
+ */
+public class DeflateCompressor implements Compressor {
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private final ThreadLocal<byte[]> chunks = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    public DeflateCompressor() {
+        int level = RpcApplication.getRpcConfig().getCompressionConfig().getLevel();
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public void compress(Buffer input, Buffer out, CompressionDictionary dictionary) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary.getBytes());
+        }
+        ByteBuf source = heapBuf(input);
+        deflater.setInput(source.array(), source.arrayOffset() + source.readerIndex(), source.readableBytes());
+        deflater.finish();
+        byte[] chunk = chunks.get();
+        while (!deflater.finished()) {
+            int written = deflater.deflate(chunk);
+            out.appendBytes(chunk, 0, written);
+        }
+    }
+
+    @Override
+    public Buffer decompress(Buffer input, int length, CompressionDictionary dictionary) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        ByteBuf source = heapBuf(input);
+        inflater.setInput(source.array(), source.arrayOffset() + source.readerIndex(), source.readableBytes());
+        byte[] result = new byte[length];
+        int position = 0;
+        try {
+            while (!inflater.finished()) {
+                // Once the declared length is reached, probe with one byte to detect longer bodies
+                int read = position < length
+                        ? inflater.inflate(result, position, length - position)
+                        : inflater.inflate(chunks.get(), 0, 1);
+                if (read > 0) {
+                    if (position >= length) {
+                        throw new RuntimeException("Deflate body longer than " + length + " bytes");
+                    }
+                    position += read;
+                } else if (inflater.needsDictionary()) {
+                    long dictionaryId = inflater.getAdler() & 0xFFFFFFFFL;
+                    if (dictionary == null || dictionary.getId() != dictionaryId) {
+                        throw new RuntimeException("Deflate body uses an unknown dictionary: " + dictionaryId);
+                    }
+                    inflater.setDictionary(dictionary.getBytes());
+                } else if (inflater.needsInput()) {
+                    throw new RuntimeException("Truncated deflate body");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("Corrupt deflate body", e);
+        }
+        if (position != length) {
+            throw new RuntimeException("Deflate body length mismatch: " + position + " != " + length);
+        }
+        return Buffer.buffer(result);
+    }
+
+    /**
+     * The buffer's memory as a heap ByteBuf, copied only if it is direct.
+     */
+    private static ByteBuf heapBuf(Buffer input) {
+        ByteBuf byteBuf = ByteBufBuffers.unwrap(input);
+        return byteBuf.hasArray() ? byteBuf : Unpooled.wrappedBuffer(input.getBytes());
+    }
+}
@@ -0,0 +1,35 @@
+package com.xianwei.customrpc.config;
+
+import lombok.Data;
+
+/**
+ * RPC Framework Argument Cache Configuration
+ *
+ * Large arguments that a consumer sends again and again (the same configuration blob or feature
+ * vector) can be replaced by the hash of their serialized bytes once the provider has them.
+ * Consumers opt in with {@link #enabled}; it needs the envelope codec, and every provider called
+ * must support argument caching. Providers always keep the cache.
+ */
+@Data
+public class ArgumentCacheConfig {
+
+    /**
+     * Whether this consumer replaces repeated large arguments by their hash
+     */
+    private boolean enabled = false;
+
+    /**
+     * Serialized arguments smaller than this many bytes are always sent as they are
+     */
+    private int threshold = 16 * 1024;
+
+    /**
+     * Largest number of arguments cached per connection
+     */
+    private int maxEntries = 64;
+
+    /**
+     * Largest total size of the arguments a provider caches per connection, in bytes
+     */
+    private long maxBytes = 64L * 1024 * 1024;
+}
@@ -0,0 +1,43 @@
+package com.xianwei.customrpc.config;
+
+import com.xianwei.customrpc.compressor.CompressorKeys;
+import lombok.Data;
+
+import java.util.zip.Deflater;
+
+/**
+ * RPC Framework Body Compression Configuration
+ *
+ * Compression needs protocol version 2 on both ends. Each connection announces which codecs
+ * it can decode, and a sender only compresses with a codec the peer announced.
+ */
+@Data
+public class CompressionConfig {
+
+    /**
+     * Codec for outgoing bodies (e.g., none, snappy, deflate)
+     */
+    private String compressor = CompressorKeys.NONE;
+
+    /**
+     * Bodies smaller than this many bytes are sent uncompressed
+     */
+    private int threshold = 1024;
+
+    /**
+     * Deflate level, 1 (fastest) to 9 (smallest)
+     */
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Preset deflate dictionary (file path or classpath resource), or null.
+     * Used only with peers that loaded the same dictionary.
+     */
+    private String dictionary;
+
+    /**
+     * Number of outgoing bodies sampled for dictionary training (0 = no sampling).
+     * Train through the com.xianwei.customrpc:type=Compression MBean.
+     */
+    private int dictionarySamples = 0;
+}
@@ -33,5 +33,12 @@ public class RegistryConfig {
      * Timeout duration in milliseconds
      */
     private Long timeout = 10000L;
+
+    /**
+     * File the consumer keeps its latest discovery results in, or null for none. They are loaded
+     * when the registry is initialized, so routing works right away, and served while the
+     * registry is unreachable.
+     */
+    private String snapshotFile;
 }
 
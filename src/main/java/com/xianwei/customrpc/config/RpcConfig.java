@@ -37,6 +37,68 @@ public class RpcConfig {
      */
     private String serializer = SerializerKeys.JDK;
 
+    /**
+     * Whether to encode RpcRequest/RpcResponse with the compact envelope codec.
+     * The configured serializer is then only used for argument and result values.
+     * Providers answer in the same encoding as the request, so only consumers need this flag.
+     * It only applies to providers that advertise protocol version 2 or later.
+     */
+    private boolean envelopeCodec = false;
+
+    /**
+     * Whether requests whose parameters are all primitives, Strings, byte[] or primitive arrays
+     * use the envelope codec even when envelopeCodec is off, so their arguments are written
+     * directly instead of through the serializer. Like envelopeCodec, it only applies to providers
+     * that advertise protocol version 2 or later.
+     */
+    private boolean primitiveFastPath = true;
+
+    /**
+     * Number of stack frames a provider includes in error responses (0 = none).
+     * Business exceptions (RpcBusinessException) never carry a stack trace.
+     */
+    private int errorStackTraceDepth = 0;
+
+    /**
+     * How long a consumer waits for the response to a call, in milliseconds. A call that times out
+     * fails like any other, so the retry and tolerant strategies apply to it.
+     */
+    private long requestTimeout = 30000;
+
+    /**
+     * Largest frame accepted from a peer, in bytes (header included). Longer frames close the
+     * connection before any memory is reserved for them.
+     */
+    private int maxFrameSize = 16 * 1024 * 1024;
+
+    /**
+     * Frame size above which messages to version 2 peers are split into fragments, in bytes
+     * (header included). Must not exceed the peer's maxFrameSize.
+     */
+    private int fragmentSize = 1024 * 1024;
+
+    /**
+     * Largest fragmented message accepted from a peer, in bytes; also bounds the fragments
+     * buffered for all messages of one connection at a time
+     */
+    private long maxMessageSize = 256L * 1024 * 1024;
+
+    /**
+     * Largest number of results of @RpcConditional methods a consumer keeps
+     */
+    private int conditionalResultCacheSize = 1024;
+
+    /**
+     * Number of events a consumer lets a provider send ahead of those its listener has processed
+     */
+    private int eventCredits = 64;
+
+    /**
+     * Largest number of events a provider queues for a subscriber that has run out of credits;
+     * a subscriber that falls further behind is unsubscribed
+     */
+    private int maxPendingEvents = 1024;
+
     /**
      * Load balancing strategy (e.g., Round-Robin, Random, Consistent Hashing)
      */
@@ -61,4 +123,14 @@ public class RpcConfig {
      * Configuration for the service registry (e.g., Etcd, Zookeeper)
      */
     private RegistryConfig registryConfig = new RegistryConfig();
+
+    /**
+     * Configuration for body compression
+     */
+    private CompressionConfig compressionConfig = new CompressionConfig();
+
+    /**
+     * Configuration for the cache of repeated large arguments
+     */
+    private ArgumentCacheConfig argumentCacheConfig = new ArgumentCacheConfig();
 }
@@ -0,0 +1,278 @@
+package com.xianwei.customrpc.event;
+
+import cn.hutool.core.util.IdUtil;
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.exception.RpcErrorCodeEnum;
+import com.xianwei.customrpc.model.RpcError;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.protocol.ProtocolAttributeKeys;
+import com.xianwei.customrpc.protocol.ProtocolAttributes;
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolMessage;
+import com.xianwei.customrpc.protocol.ProtocolMessageStatusEnum;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import com.xianwei.customrpc.protocol.SerializationContext;
+import com.xianwei.customrpc.registry.LocalRegistry;
+import com.xianwei.customrpc.server.TcpMessageWriter;
+import com.xianwei.customrpc.utils.RpcErrorUtils;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event Publisher
+ *
+ * Provider side of server push (protocol version 2). A consumer subscribes to a topic of a
+ * registered service with a SUBSCRIBE message, whose request ID names the subscription and whose
+ * arguments are the number of events it lets the provider send ahead (its credits) and whether it
+ * opens the subscription. Published
+ * events are sent as EVENT messages while the subscriber has credits; the consumer sends further
+ * SUBSCRIBE messages with more credits as its listener processes them. Meanwhile events are
+ * queued, and a subscriber whose queue grows beyond maxPendingEvents is unsubscribed with
+ * EVENT_OVERFLOW, so a stalled consumer cannot exhaust the provider's memory.
+ *
+ * Subscriptions end with an UNSUBSCRIBE message from either side, or when the connection closes.
+ * Events of one subscription are sent in publishing order; an event larger than the fragment
+ * size can still be overtaken on the wire by smaller events published after it.
+ */
+@Slf4j
+public class EventPublisher {
+
+    /**
+     * Subscribers by topic: serviceName#topic → subscribers
+     */
+    private static final Map<String, Set<Subscriber>> TOPICS = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribers by connection: socket → subscription id → subscriber
+     */
+    private static final Map<NetSocket, Map<Long, Subscriber>> CONNECTIONS = new ConcurrentHashMap<>();
+
+    /**
+     * Publish an event to the current subscribers of a topic.
+     *
+     * @param serviceName name of the service the topic belongs to (its interface name)
+     * @param topic       the topic
+     * @param event       the event, not null
+     * @return the number of subscribers the event was sent or queued for
+     */
+    public static int publish(String serviceName, String topic, Object event) {
+        if (event == null) {
+            throw new IllegalArgumentException("event must not be null");
+        }
+        Set<Subscriber> subscribers = TOPICS.get(topicKey(serviceName, topic));
+        if (subscribers == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+            if (subscriber.offer(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of current subscribers of a topic.
+     */
+    public static int subscriberCount(String serviceName, String topic) {
+        Set<Subscriber> subscribers = TOPICS.get(topicKey(serviceName, topic));
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    /**
+     * Handle a SUBSCRIBE message: create the subscription, or add credits to it.
+     *
+     * @param socket      the consumer's connection
+     * @param context     the connection's serialization context
+     * @param header      header of the SUBSCRIBE message; its request ID is the subscription id
+     * @param serviceName name of the service
+     * @param topic       the topic
+     * @param credits     number of events the consumer lets the provider send ahead
+     * @param open        whether the message opens the subscription; credits for a subscription that
+     *                    has already ended are ignored
+     */
+    public static void subscribe(NetSocket socket, SerializationContext context, ProtocolMessage.Header header,
+                                 String serviceName, String topic, long credits, boolean open) {
+        Map<Long, Subscriber> subscribers = CONNECTIONS.computeIfAbsent(socket, key -> new ConcurrentHashMap<>());
+        Subscriber subscriber = subscribers.get(header.getRequestId());
+        if (subscriber != null || !open) {
+            if (subscriber != null) {
+                subscriber.grant(credits);
+            }
+            return;
+        }
+        subscriber = new Subscriber(socket, context, header, topicKey(serviceName, topic));
+        if (LocalRegistry.get(serviceName) == null) {
+            subscriber.end(RpcErrorUtils.toRpcError(RpcErrorCodeEnum.SERVICE_NOT_FOUND,
+                    "Service not found: " + serviceName));
+            return;
+        }
+        subscribers.put(header.getRequestId(), subscriber);
+        TOPICS.computeIfAbsent(subscriber.topicKey, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        subscriber.grant(credits);
+    }
+
+    /**
+     * Handle an UNSUBSCRIBE message from the consumer.
+     */
+    public static void unsubscribe(NetSocket socket, long subscriptionId) {
+        Map<Long, Subscriber> subscribers = CONNECTIONS.get(socket);
+        Subscriber subscriber = subscribers == null ? null : subscribers.get(subscriptionId);
+        if (subscriber != null) {
+            subscriber.remove();
+        }
+    }
+
+    /**
+     * Drop the subscriptions of a closed connection.
+     */
+    public static void connectionClosed(NetSocket socket) {
+        Map<Long, Subscriber> subscribers = CONNECTIONS.remove(socket);
+        if (subscribers != null) {
+            for (Subscriber subscriber : subscribers.values()) {
+                subscriber.remove();
+            }
+        }
+    }
+
+    private static String topicKey(String serviceName, String topic) {
+        return serviceName + "#" + topic;
+    }
+
+    /**
+     * One subscription: its credits and the events waiting for credits
+     */
+    private static class Subscriber {
+
+        private final NetSocket socket;
+
+        private final SerializationContext context;
+
+        private final long id;
+
+        private final byte version;
+
+        private final byte serializer;
+
+        private final String topicKey;
+
+        private final ArrayDeque<Object> pendingEvents = new ArrayDeque<>();
+
+        private long credits;
+
+        private boolean closed;
+
+        Subscriber(NetSocket socket, SerializationContext context, ProtocolMessage.Header header, String topicKey) {
+            this.socket = socket;
+            this.context = context;
+            this.id = header.getRequestId();
+            this.version = header.getVersion();
+            this.serializer = header.getSerializer();
+            this.topicKey = topicKey;
+        }
+
+        /**
+         * Send the event, or queue it until there are credits.
+         *
+         * @return false if the subscription has ended
+         */
+        synchronized boolean offer(Object event) {
+            if (closed) {
+                return false;
+            }
+            if (credits > 0 && pendingEvents.isEmpty()) {
+                credits--;
+                send(event);
+                return !closed;
+            }
+            if (pendingEvents.size() >= RpcApplication.getRpcConfig().getMaxPendingEvents()) {
+                log.warn("Subscriber {} of {} fell behind by {} events, unsubscribing it",
+                        id, topicKey, pendingEvents.size());
+                end(RpcErrorUtils.toRpcError(RpcErrorCodeEnum.EVENT_OVERFLOW,
+                        "Subscriber fell behind by more than " + pendingEvents.size() + " events"));
+                return false;
+            }
+            pendingEvents.add(event);
+            return true;
+        }
+
+        /**
+         * Add credits and send the queued events they cover.
+         */
+        synchronized void grant(long credits) {
+            this.credits += Math.max(credits, 0);
+            while (!closed && this.credits > 0 && !pendingEvents.isEmpty()) {
+                this.credits--;
+                send(pendingEvents.poll());
+            }
+        }
+
+        private void send(Object event) {
+            RpcResponse rpcResponse = new RpcResponse();
+            rpcResponse.setData(event);
+            rpcResponse.setDataType(event.getClass());
+            ProtocolMessage.Header header = newHeader(ProtocolMessageTypeEnum.EVENT, IdUtil.getSnowflakeNextId());
+            header.setAttributes(new ProtocolAttributes().setLong(ProtocolAttributeKeys.SUBSCRIPTION, id));
+            try {
+                TcpMessageWriter.write(socket, context, new ProtocolMessage<>(header, rpcResponse));
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to encode an event of {}", topicKey, e);
+                end(RpcErrorUtils.toRpcError(RpcErrorCodeEnum.RESPONSE_ENCODE_ERROR,
+                        "Event encoding error: " + e.getMessage()));
+            }
+        }
+
+        /**
+         * End the subscription from the provider side, telling the consumer why.
+         */
+        synchronized void end(RpcError rpcError) {
+            remove();
+            RpcResponse rpcResponse = new RpcResponse();
+            rpcResponse.setMessage(rpcError.getMessage());
+            rpcResponse.setError(rpcError);
+            try {
+                TcpMessageWriter.write(socket, context,
+                        new ProtocolMessage<>(newHeader(ProtocolMessageTypeEnum.UNSUBSCRIBE, id), rpcResponse));
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to end subscription {} of {}, closing connection to {}",
+                        id, topicKey, socket.remoteAddress(), e);
+                socket.close();
+            }
+        }
+
+        /**
+         * Forget the subscription without telling the consumer.
+         */
+        synchronized void remove() {
+            closed = true;
+            pendingEvents.clear();
+            Set<Subscriber> subscribers = TOPICS.get(topicKey);
+            if (subscribers != null) {
+                subscribers.remove(this);
+            }
+            Map<Long, Subscriber> connectionSubscribers = CONNECTIONS.get(socket);
+            if (connectionSubscribers != null) {
+                connectionSubscribers.remove(id, this);
+            }
+        }
+
+        private ProtocolMessage.Header newHeader(ProtocolMessageTypeEnum type, long requestId) {
+            ProtocolMessage.Header header = new ProtocolMessage.Header();
+            header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+            header.setVersion(version);
+            header.setSerializer(serializer);
+            header.setType((byte) type.getKey());
+            header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+            header.setRequestId(requestId);
+            return header;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.xianwei.customrpc.event;
+
+/**
+ * Event Listener
+ *
+ * Receives the events of a subscription to a provider topic (see {@link EventPublisher}).
+ * Events are delivered one at a time, in the order they arrive, on a worker thread; the
+ * provider only sends as many events ahead as the consumer's credits allow, so a slow
+ * listener holds back the provider instead of filling the consumer's memory.
+ *
+ * @param <T> type of the events
+ */
+public interface RpcEventListener<T> {
+
+    /**
+     * Handle one event.
+     *
+     * @param event the event
+     */
+    void onEvent(T event);
+
+    /**
+     * Called once when the subscription ends, after the events received before.
+     *
+     * @param cause null if the subscription was cancelled; otherwise why the provider ended it
+     *              or the connection closed
+     */
+    default void onClose(Throwable cause) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.xianwei.customrpc.event;
+
+/**
+ * Subscription
+ *
+ * A consumer's subscription to a provider topic, delivering events to an {@link RpcEventListener}.
+ */
+public interface Subscription {
+
+    /**
+     * End the subscription. Events not yet delivered are dropped and the listener's
+     * onClose is called with null.
+     */
+    void cancel();
+
+    /**
+     * Whether the subscription has ended.
+     */
+    boolean isClosed();
+}
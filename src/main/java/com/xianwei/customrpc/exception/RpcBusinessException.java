@@ -0,0 +1,23 @@
+package com.xianwei.customrpc.exception;
+
+/**
+ * Business Exception
+ *
+ * Base class for expected, well-known failures of a service method (validation errors,
+ * "not found" results, ...). No stack trace is captured when it is created, and it is
+ * reported to the consumer with its class and message only.
+ */
+public class RpcBusinessException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new RpcBusinessException with the specified error message.
+     *
+     * @param message The detail message for the exception
+     */
+    public RpcBusinessException(String message) {
+        super(message, null, false, false);
+    }
+
+}
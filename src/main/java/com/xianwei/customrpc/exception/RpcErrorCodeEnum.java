@@ -0,0 +1,50 @@
+package com.xianwei.customrpc.exception;
+
+import lombok.Getter;
+
+/**
+ * RPC Error Code Enum
+ *
+ * Error codes carried by RpcError in failed responses.
+ */
+@Getter // Lombok: generates getters for all fields
+public enum RpcErrorCodeEnum {
+
+    BUSINESS_ERROR("businessError", 1),              // The service threw an RpcBusinessException
+    SERVICE_ERROR("serviceError", 2),                // The service threw any other exception
+    SERVICE_NOT_FOUND("serviceNotFound", 3),         // No implementation registered for the service
+    METHOD_NOT_FOUND("methodNotFound", 4),           // The service has no such method
+    REQUEST_DECODE_ERROR("requestDecodeError", 5),   // The provider could not deserialize the arguments
+    RESPONSE_ENCODE_ERROR("responseEncodeError", 6), // The provider could not serialize the result
+    EVENT_OVERFLOW("eventOverflow", 7);              // A subscriber fell too far behind the published events
+
+    /**
+     * Human-readable description of the error
+     */
+    private final String text;
+
+    /**
+     * Numeric value sent in RpcError.code
+     */
+    private final int value;
+
+    RpcErrorCodeEnum(String text, int value) {
+        this.text = text;
+        this.value = value;
+    }
+
+    /**
+     * Get enum instance by numeric value
+     *
+     * @param value the error code
+     * @return the matching enum constant, or null if not found
+     */
+    public static RpcErrorCodeEnum getEnumByValue(int value) {
+        for (RpcErrorCodeEnum anEnum : RpcErrorCodeEnum.values()) {
+            if (anEnum.value == value) {
+                return anEnum;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,189 @@
+package com.xianwei.customrpc.model;
+
+import com.xianwei.customrpc.exception.RpcException;
+import com.xianwei.customrpc.utils.BufferInputStream;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RPC Blob
+ *
+ * A large binary argument or return value that travels next to the message instead of inside it.
+ * The serialized message only carries a placeholder (the attachment index and the length); the
+ * bytes are sent as attachment frames straight from their source, a file region with sendfile
+ * or a ByteBuffer without copying it, and are never handed to the serializer.
+ * Only top-level arguments and return values are sent this way, and only with protocol version 2.
+ *
+ * On the receiving side the bytes stay in the received frames: read them with {@link #openStream()}
+ * or write them to a file with {@link #saveTo(Path)}.
+ */
+public class RpcBlob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Position of the blob among the message's attachments
+     */
+    @Getter
+    @Setter
+    private int index;
+
+    /**
+     * Length in bytes
+     */
+    @Getter
+    @Setter
+    private long length;
+
+    /**
+     * Source file and offset of a file region, or null
+     */
+    private transient File file;
+
+    private transient long offset;
+
+    /**
+     * Bytes in memory (a wrapped ByteBuffer, or the received attachment), or null
+     */
+    private transient Buffer data;
+
+    public RpcBlob() {
+    }
+
+    /**
+     * A blob of a whole file.
+     */
+    public static RpcBlob fromFile(File file) {
+        return fromFile(file, 0, file.length());
+    }
+
+    /**
+     * A blob of a region of a file, sent with sendfile. The file must not shrink until the call completes.
+     */
+    public static RpcBlob fromFile(File file, long offset, long length) {
+        if (!file.isFile()) {
+            throw new RpcException("Not a file: " + file);
+        }
+        if (offset < 0 || length < 0 || offset + length > file.length()) {
+            throw new RpcException("Invalid region [" + offset + ", " + (offset + length) + ") of " + file);
+        }
+        RpcBlob blob = new RpcBlob();
+        blob.file = file;
+        blob.offset = offset;
+        blob.length = length;
+        return blob;
+    }
+
+    /**
+     * A blob of the remaining bytes of a (typically direct) ByteBuffer, sent without copying.
+     * The buffer must not be modified until the call completes.
+     */
+    public static RpcBlob fromByteBuffer(ByteBuffer byteBuffer) {
+        return fromBuffer(ByteBufBuffers.wrap(Unpooled.wrappedBuffer(byteBuffer.slice())));
+    }
+
+    /**
+     * A blob of the bytes of a Vert.x buffer, sent without copying.
+     */
+    public static RpcBlob fromBuffer(Buffer buffer) {
+        RpcBlob blob = new RpcBlob();
+        blob.data = buffer;
+        blob.length = buffer.length();
+        return blob;
+    }
+
+    /**
+     * Bind a received placeholder to its attachment.
+     */
+    public void attach(Buffer attachment) {
+        if (attachment.length() != length) {
+            throw new RpcException("Attachment " + index + " has " + attachment.length() + " bytes, expected " + length);
+        }
+        this.file = null;
+        this.data = attachment;
+    }
+
+    /**
+     * Read the bytes; a file region is memory-mapped rather than read.
+     */
+    public InputStream openStream() throws IOException {
+        return new BufferInputStream(toBuffer());
+    }
+
+    /**
+     * The bytes as a buffer, without copying them; a file region is memory-mapped.
+     */
+    public Buffer toBuffer() throws IOException {
+        if (data != null) {
+            return data;
+        }
+        if (file == null) {
+            throw new RpcException("Blob " + index + " has no content");
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new RpcException("Blob of " + length + " bytes is too large for a buffer");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ByteBufBuffers.wrap(Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, offset, length)));
+        }
+    }
+
+    /**
+     * Write the bytes to a file, replacing its content.
+     */
+    public void saveTo(Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (data == null && file != null) {
+                try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < length) {
+                        position += in.transferTo(offset + position, length - position, out);
+                    }
+                }
+                return;
+            }
+            ByteBuf byteBuf = ByteBufBuffers.unwrap(toBuffer());
+            for (ByteBuffer nioBuffer : byteBuf.nioBuffers()) {
+                while (nioBuffer.hasRemaining()) {
+                    out.write(nioBuffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the bytes in [position, position + count) to a socket: a file region with sendfile,
+     * bytes in memory without copying them.
+     *
+     * @return completed once the bytes are written
+     */
+    public Future<Void> writeTo(NetSocket socket, long position, int count) {
+        if (data != null) {
+            return socket.write(data.slice((int) position, (int) position + count));
+        }
+        if (file == null) {
+            return Future.failedFuture(new RpcException("Blob " + index + " has no content"));
+        }
+        if (file.length() < offset + position + count) {
+            // sendfile would silently send fewer bytes than announced
+            return Future.failedFuture(new RpcException("File " + file + " is shorter than its blob"));
+        }
+        return socket.sendFile(file.getPath(), offset + position, count);
+    }
+}
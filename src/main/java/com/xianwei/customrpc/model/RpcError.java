@@ -0,0 +1,44 @@
+package com.xianwei.customrpc.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * RPC Error
+ *
+ * Compact description of a failed call, sent instead of the serialized Exception.
+ * The consumer re-creates an exception of the same class from it (see RpcErrorUtils).
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class RpcError implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Error code (see RpcErrorCodeEnum)
+     */
+    private int code;
+
+    /**
+     * Fully qualified class name of the original exception
+     */
+    private String exceptionClass;
+
+    /**
+     * Message of the original exception
+     */
+    private String message;
+
+    /**
+     * Top stack frames of the original exception, empty unless enabled by
+     * RpcConfig.errorStackTraceDepth. Format: className.methodName(fileName:lineNumber)
+     */
+    private String[] stackTrace;
+}
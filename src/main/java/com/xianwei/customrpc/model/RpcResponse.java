@@ -34,8 +34,14 @@ public class RpcResponse implements Serializable {
     private String message;
 
     /**
-     * Exception details if the RPC call failed or threw an error
+     * Exception details if the RPC call failed or threw an error.
+     * Providers report failures through {@link #error} instead; kept for custom providers.
      */
     private Exception exception;
 
+    /**
+     * Compact error description if the RPC call failed
+     */
+    private RpcError error;
+
 }
@@ -2,6 +2,7 @@ package com.xianwei.customrpc.model;
 
 import cn.hutool.core.util.StrUtil;
 import com.xianwei.customrpc.constant.RpcConstant;
+import com.xianwei.customrpc.protocol.ProtocolConstant;
 import lombok.Data;
 
 /**
@@ -37,6 +38,12 @@ public class ServiceMetaInfo {
      */
     private String serviceGroup = "default";
 
+    /**
+     * Highest protocol version the provider understands; consumers speak the highest version
+     * both sides support. Entries registered without it are treated as version 1.
+     */
+    private int protocolVersion = ProtocolConstant.PROTOCOL_VERSION;
+
     /**
      * Get the service key (used for service identification)
      *
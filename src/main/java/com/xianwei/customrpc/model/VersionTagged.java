@@ -0,0 +1,16 @@
+package com.xianwei.customrpc.model;
+
+/**
+ * Version Tagged Result
+ *
+ * Implemented by results of {@link com.xianwei.customrpc.proxy.RpcConditional} methods that know
+ * their own version (e.g. a revision number), so the provider uses it as the version tag instead
+ * of hashing the serialized result. The tag must change whenever the content does.
+ */
+public interface VersionTagged {
+
+    /**
+     * @return the version of this result, not empty
+     */
+    String versionTag();
+}
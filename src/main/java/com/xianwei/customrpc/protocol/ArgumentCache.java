@@ -0,0 +1,123 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Argument Cache
+ *
+ * Per-connection cache of large serialized argument values, keyed by the SHA-256 digest of
+ * their bytes (see {@link RpcEnvelopeCodec}). The consumer remembers which digests it sent to the
+ * provider for caching; the provider keeps the bytes, least recently used first out, within the
+ * configured number of entries and bytes. The consumer's view is only a guess: when the provider
+ * no longer has a referenced value it answers NEED_BODY and the consumer sends the bytes again.
+ *
+ * The provider trusts the digest the consumer sends with a value, so a consumer can only
+ * confuse its own connection. Thread-safe: fragmented messages are encoded and decoded
+ * off the event loop.
+ */
+public class ArgumentCache {
+
+    /**
+     * Length of a digest in bytes
+     */
+    public static final int DIGEST_LENGTH = 32;
+
+    /**
+     * Outbound: digests sent to the peer for caching, least recently used first
+     */
+    private final Map<ByteBuffer, Boolean> sentDigests = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Inbound: cached values by digest, least recently used first
+     */
+    private final Map<ByteBuffer, Buffer> values = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long valueBytes;
+
+    /**
+     * SHA-256 digest of a serialized value.
+     */
+    public static byte[] digest(Buffer value) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (ByteBuffer nioBuffer : ByteBufBuffers.unwrap(value).nioBuffers()) {
+            messageDigest.update(nioBuffer);
+        }
+        return messageDigest.digest();
+    }
+
+    /**
+     * Whether the value was sent to the peer for caching.
+     *
+     * @param digest digest of the value
+     * @return true if the value can be referenced by its digest
+     */
+    public synchronized boolean isSent(byte[] digest) {
+        return sentDigests.get(ByteBuffer.wrap(digest)) != null;
+    }
+
+    /**
+     * Record a value as sent to the peer for caching, once the message carrying it is being written.
+     *
+     * @param digest     digest of the value
+     * @param maxEntries the number of digests to remember
+     */
+    public synchronized void recordSent(byte[] digest, int maxEntries) {
+        sentDigests.put(ByteBuffer.wrap(digest), Boolean.TRUE);
+        Iterator<ByteBuffer> eldest = sentDigests.keySet().iterator();
+        while (sentDigests.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Forget what was sent to the peer, after it reported a cached value missing.
+     */
+    public synchronized void clearSent() {
+        sentDigests.clear();
+    }
+
+    /**
+     * Cache a received value.
+     *
+     * @param digest     digest of the value, as sent by the peer
+     * @param value      the serialized value (copied)
+     * @param maxEntries largest number of cached values
+     * @param maxBytes   largest total size of the cached values
+     */
+    public synchronized void put(byte[] digest, Buffer value, int maxEntries, long maxBytes) {
+        if (value.length() > maxBytes) {
+            return;
+        }
+        Buffer previous = values.put(ByteBuffer.wrap(digest), value.copy());
+        valueBytes += value.length() - (previous == null ? 0 : previous.length());
+        Iterator<Buffer> eldest = values.values().iterator();
+        while (values.size() > maxEntries || valueBytes > maxBytes) {
+            valueBytes -= eldest.next().length();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Get a cached value.
+     *
+     * @param digest digest of the value
+     * @return the serialized value, or null if it is not cached
+     */
+    public synchronized Buffer get(byte[] digest) {
+        return values.get(ByteBuffer.wrap(digest));
+    }
+}
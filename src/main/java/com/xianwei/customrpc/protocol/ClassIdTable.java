@@ -0,0 +1,212 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.codec.DoubleList;
+import com.xianwei.customrpc.codec.LongList;
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class ID Table
+ *
+ * Interns frequently used classes into short numeric tokens so the envelope codec
+ * does not have to spell out fully qualified class names on every call.
+ *
+ * Token layout (written as a varint):
+ * - 0: null class
+ * - 1: class name follows inline as a length-prefixed string
+ * - 2 to 65: index into the well-known class table
+ * - 66 and above: dynamic id assigned on the current connection (see {@link SerializationContext})
+ *
+ * The table is part of the wire format: entries may only ever be appended,
+ * up to {@link #MAX_WELL_KNOWN_CLASSES}.
+ */
+public class ClassIdTable {
+
+    /**
+     * Token for a null class reference
+     */
+    public static final int NULL_TOKEN = 0;
+
+    /**
+     * Token signalling that the class name follows inline
+     */
+    public static final int INLINE_TOKEN = 1;
+
+    /**
+     * Token of the first well-known class
+     */
+    public static final int FIRST_WELL_KNOWN_TOKEN = 2;
+
+    /**
+     * Token range reserved for the well-known class table
+     */
+    public static final int MAX_WELL_KNOWN_CLASSES = 64;
+
+    /**
+     * Token of dynamic id 0; ids below 62 still fit in a single varint byte
+     */
+    public static final int FIRST_DYNAMIC_TOKEN = FIRST_WELL_KNOWN_TOKEN + MAX_WELL_KNOWN_CLASSES;
+
+    /**
+     * Well-known classes. APPEND ONLY — the position defines the token.
+     */
+    private static final Class<?>[] WELL_KNOWN_CLASSES = {
+            void.class, boolean.class, byte.class, char.class, short.class,
+            int.class, long.class, float.class, double.class,
+            Void.class, Boolean.class, Byte.class, Character.class, Short.class,
+            Integer.class, Long.class, Float.class, Double.class,
+            String.class, Object.class,
+            byte[].class, int[].class, long[].class, double[].class, Object[].class, String[].class,
+            List.class, ArrayList.class, LinkedList.class,
+            Map.class, HashMap.class, LinkedHashMap.class,
+            Set.class, HashSet.class, LinkedHashSet.class,
+            Collection.class, Date.class,
+            LongList.class, DoubleList.class
+    };
+
+    /**
+     * Reverse lookup: class → token
+     */
+    private static final Map<Class<?>, Integer> TOKEN_MAP = new HashMap<>();
+
+    /**
+     * Resolved inline class names (Class.forName is comparatively expensive)
+     */
+    private static final Map<String, Class<?>> NAME_CACHE = new ConcurrentHashMap<>();
+
+    static {
+        if (WELL_KNOWN_CLASSES.length > MAX_WELL_KNOWN_CLASSES) {
+            throw new IllegalStateException("Well-known class table exceeds its reserved token range");
+        }
+        for (int i = 0; i < WELL_KNOWN_CLASSES.length; i++) {
+            TOKEN_MAP.put(WELL_KNOWN_CLASSES[i], FIRST_WELL_KNOWN_TOKEN + i);
+            if (WELL_KNOWN_CLASSES[i].isPrimitive()) {
+                // Class.forName cannot resolve primitive names
+                NAME_CACHE.put(WELL_KNOWN_CLASSES[i].getName(), WELL_KNOWN_CLASSES[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the token of a well-known class.
+     *
+     * @param clazz the class to look up
+     * @return the token, or null if the class is not in the well-known table
+     */
+    public static Integer getToken(Class<?> clazz) {
+        return TOKEN_MAP.get(clazz);
+    }
+
+    /**
+     * Get a well-known class by token.
+     *
+     * @param token a token greater than or equal to {@link #FIRST_WELL_KNOWN_TOKEN}
+     * @return the class, or null if the token is out of range
+     */
+    public static Class<?> getClass(int token) {
+        int index = token - FIRST_WELL_KNOWN_TOKEN;
+        if (index < 0 || index >= WELL_KNOWN_CLASSES.length) {
+            return null;
+        }
+        return WELL_KNOWN_CLASSES[index];
+    }
+
+    /**
+     * Write a class reference as a token (plus inline name when not well-known).
+     */
+    public static void writeClass(Buffer buffer, Class<?> clazz) {
+        writeClass(buffer, clazz, null);
+    }
+
+    /**
+     * Write a class reference, using the connection's dictionary for classes outside the
+     * well-known table. An inline name defines the next dynamic id on both ends.
+     *
+     * @param context the connection's context, or null for stateless encoding
+     */
+    public static void writeClass(Buffer buffer, Class<?> clazz, SerializationContext context) {
+        if (clazz == null) {
+            VarIntUtils.writeVarInt(buffer, NULL_TOKEN);
+            return;
+        }
+        Integer token = TOKEN_MAP.get(clazz);
+        if (token != null) {
+            VarIntUtils.writeVarInt(buffer, token);
+            return;
+        }
+        if (context != null) {
+            Integer id = context.getOutboundId(clazz);
+            if (id != null) {
+                VarIntUtils.writeVarInt(buffer, FIRST_DYNAMIC_TOKEN + id);
+                return;
+            }
+            context.defineOutbound(clazz);
+        }
+        VarIntUtils.writeVarInt(buffer, INLINE_TOKEN);
+        VarIntUtils.writeString(buffer, clazz.getName());
+    }
+
+    /**
+     * Read a class reference written by {@link #writeClass}.
+     */
+    public static Class<?> readClass(BufferReader reader) {
+        return readClass(reader, null);
+    }
+
+    /**
+     * Read a class reference written by {@link #writeClass(Buffer, Class, SerializationContext)}.
+     *
+     * @param context the connection's context, or null for stateless decoding
+     */
+    public static Class<?> readClass(BufferReader reader, SerializationContext context) {
+        int token = reader.readVarInt();
+        if (token == NULL_TOKEN) {
+            return null;
+        }
+        if (token == INLINE_TOKEN) {
+            Class<?> clazz = forName(reader.readString());
+            if (context != null) {
+                context.defineInbound(clazz);
+            }
+            return clazz;
+        }
+        if (token >= FIRST_DYNAMIC_TOKEN) {
+            if (context == null) {
+                throw new RuntimeException("Dynamic class token " + token + " outside a connection context");
+            }
+            return context.getInbound(token - FIRST_DYNAMIC_TOKEN);
+        }
+        Class<?> clazz = getClass(token);
+        if (clazz == null) {
+            throw new RuntimeException("Unknown class token: " + token);
+        }
+        return clazz;
+    }
+
+    /**
+     * Resolve a class by name, caching the result.
+     * Primitive type names ("int", "void", ...) are resolved as well.
+     *
+     * @param className fully qualified class name, array descriptor or primitive name
+     * @return the resolved class
+     */
+    public static Class<?> forName(String className) {
+        Class<?> clazz = NAME_CACHE.get(className);
+        if (clazz != null) {
+            return clazz;
+        }
+        try {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            clazz = Class.forName(className, false,
+                    classLoader != null ? classLoader : ClassIdTable.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Class not found: " + className, e);
+        }
+        NAME_CACHE.put(className, clazz);
+        return clazz;
+    }
+}
@@ -0,0 +1,162 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.serializer.Serializer;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Lazily Decoded RPC Request
+ *
+ * A request whose arguments have not been deserialized yet. The provider decodes this much
+ * on the I/O thread, routes (or rejects) the request, and only calls {@link #decode()} on the
+ * thread that executes the method.
+ *
+ * - Envelope-encoded requests have their routing fields (service, method, version, parameter
+ *   types) and the runtime class of every argument decoded up front; the argument values
+ *   stay as slices of the received frame, except primitives, Strings and byte[], which are
+ *   read directly without the serializer.
+ * - Arguments sent as references to the connection's argument cache are looked up while the
+ *   envelope is decoded; if one is no longer cached, {@link #hasMissingArguments()} is true
+ *   and the provider asks for the request again with the values (NEED_BODY).
+ * - Requests serialized as a whole cannot be split: {@link #isRoutable()} is false and
+ *   everything is decoded by {@link #decode()}.
+ */
+public class LazyRpcRequest {
+
+    private final Serializer serializer;
+
+    /**
+     * Routing fields (args not set); null when the body was serialized as a whole
+     */
+    private final RpcRequest routing;
+
+    /**
+     * Whole serialized body; null for envelope-encoded requests
+     */
+    private final Buffer body;
+
+    /**
+     * Runtime class (null for null values) of each argument, the arguments already decoded
+     * and the serialized slice of those still to be deserialized (null once decoded)
+     */
+    private final Class<?>[] argClasses;
+    private final Object[] args;
+    private final Buffer[] argValues;
+
+    /**
+     * Whether an argument referenced the argument cache but was not found there
+     */
+    private final boolean missingArguments;
+
+    /**
+     * Blob attachments received with the request, or null
+     */
+    private List<Buffer> attachments;
+
+    /**
+     * Create a request from a decoded routing envelope.
+     */
+    LazyRpcRequest(Serializer serializer, RpcRequest routing, Class<?>[] argClasses, Object[] args,
+                   Buffer[] argValues, boolean missingArguments) {
+        this.serializer = serializer;
+        this.routing = routing;
+        this.body = null;
+        this.argClasses = argClasses;
+        this.args = args;
+        this.argValues = argValues;
+        this.missingArguments = missingArguments;
+    }
+
+    /**
+     * Create a request from a body serialized as a whole.
+     */
+    LazyRpcRequest(Serializer serializer, Buffer body) {
+        this.serializer = serializer;
+        this.routing = null;
+        this.body = body;
+        this.argClasses = null;
+        this.args = null;
+        this.argValues = null;
+        this.missingArguments = false;
+    }
+
+    /**
+     * Set the blob attachments to bind to the placeholders among the arguments.
+     */
+    void setAttachments(List<Buffer> attachments) {
+        this.attachments = attachments;
+    }
+
+    /**
+     * Whether the routing fields are available before {@link #decode()}.
+     */
+    public boolean isRoutable() {
+        return routing != null;
+    }
+
+    /**
+     * Serializer of the request, also used for its response
+     */
+    public Serializer getSerializer() {
+        return serializer;
+    }
+
+    /**
+     * Whether an argument referenced the argument cache but was not found there; the request
+     * cannot be decoded then.
+     */
+    public boolean hasMissingArguments() {
+        return missingArguments;
+    }
+
+    public String getServiceName() {
+        return routing != null ? routing.getServiceName() : null;
+    }
+
+    public String getMethodName() {
+        return routing != null ? routing.getMethodName() : null;
+    }
+
+    public String getServiceVersion() {
+        return routing != null ? routing.getServiceVersion() : null;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return routing != null ? routing.getParameterTypes() : null;
+    }
+
+    /**
+     * Deserialize the arguments and return the complete request.
+     *
+     * @return the full request
+     * @throws IOException if an argument cannot be deserialized, or a cached one is missing
+     */
+    public RpcRequest decode() throws IOException {
+        if (missingArguments) {
+            throw new IOException("Cached argument not found");
+        }
+        if (routing == null) {
+            RpcRequest rpcRequest = serializer.deserialize(body, RpcRequest.class);
+            MessageAttachments.bind(rpcRequest.getArgs(), attachments);
+            return rpcRequest;
+        }
+        RpcRequest rpcRequest = new RpcRequest();
+        rpcRequest.setServiceName(routing.getServiceName());
+        rpcRequest.setMethodName(routing.getMethodName());
+        rpcRequest.setServiceVersion(routing.getServiceVersion());
+        rpcRequest.setParameterTypes(routing.getParameterTypes());
+        if (argClasses != null) {
+            for (int i = 0; i < args.length; i++) {
+                if (argValues[i] != null) {
+                    args[i] = serializer.deserialize(argValues[i], argClasses[i]);
+                }
+            }
+            MessageAttachments.bind(args, attachments);
+            rpcRequest.setArgs(args);
+        }
+        return rpcRequest;
+    }
+}
@@ -0,0 +1,129 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.exception.RpcException;
+import com.xianwei.customrpc.model.RpcBlob;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message Attachments
+ *
+ * Blob arguments and results ({@link RpcBlob}) for protocol version 2. The message itself only
+ * serializes a placeholder per blob; the bytes are sent ahead of it in ATTACHMENT frames with the
+ * same request ID, and the ATTACHMENTS attribute lists their lengths. The receiver appends the
+ * attachment bytes after the message frame, and the decoder slices them from there and binds
+ * them to the placeholders. Only top-level arguments and result data are considered.
+ */
+public class MessageAttachments {
+
+    /**
+     * Collect the blobs of an outbound message, number them and announce them in its attributes.
+     *
+     * @param protocolMessage the message about to be encoded
+     * @return the blobs in attachment order, empty if there are none
+     */
+    public static List<RpcBlob> prepare(ProtocolMessage<?> protocolMessage) {
+        ProtocolMessage.Header header = protocolMessage.getHeader();
+        List<RpcBlob> blobs = collect(protocolMessage.getBody());
+        ProtocolAttributes attributes = header.getAttributes();
+        if (blobs.isEmpty()) {
+            if (attributes != null) {
+                attributes.remove(ProtocolAttributeKeys.ATTACHMENTS);
+            }
+            return blobs;
+        }
+        if (header.getVersion() < ProtocolConstant.PROTOCOL_VERSION_2) {
+            throw new RpcException("Blob arguments and results require protocol version 2");
+        }
+        Buffer lengths = Buffer.buffer();
+        for (int i = 0; i < blobs.size(); i++) {
+            RpcBlob blob = blobs.get(i);
+            blob.setIndex(i);
+            VarIntUtils.writeVarLong(lengths, blob.getLength());
+        }
+        attributes = attributes == null ? new ProtocolAttributes() : attributes;
+        attributes.setBytes(ProtocolAttributeKeys.ATTACHMENTS, lengths.getBytes());
+        header.setAttributes(attributes);
+        return blobs;
+    }
+
+    /**
+     * Slice the attachments that follow the message frame, as announced by the ATTACHMENTS attribute.
+     *
+     * @param header  the decoded header, with its attributes
+     * @param buffer  the message frame, followed by its attachments
+     * @param bodyEnd end of the message frame in the buffer
+     * @return the attachments, or null if the message has none
+     */
+    public static List<Buffer> read(ProtocolMessage.Header header, Buffer buffer, int bodyEnd) {
+        ProtocolAttributes attributes = header.getAttributes();
+        byte[] lengths = attributes == null ? null : attributes.getBytes(ProtocolAttributeKeys.ATTACHMENTS);
+        if (lengths == null) {
+            return null;
+        }
+        BufferReader reader = new BufferReader(Buffer.buffer(lengths));
+        List<Buffer> attachments = new ArrayList<>();
+        int position = bodyEnd;
+        while (reader.remaining() > 0) {
+            long length = reader.readVarLong();
+            if (length < 0 || length > buffer.length() - position) {
+                throw new RuntimeException("Invalid attachment length: " + length);
+            }
+            attachments.add(buffer.slice(position, position + (int) length));
+            position += (int) length;
+        }
+        if (position != buffer.length()) {
+            throw new RuntimeException("Received " + (buffer.length() - bodyEnd)
+                    + " attachment bytes, expected " + (position - bodyEnd));
+        }
+        return attachments;
+    }
+
+    /**
+     * Bind the blob placeholders among the values to their attachments.
+     */
+    public static void bind(Object[] values, List<Buffer> attachments) {
+        if (values != null) {
+            for (Object value : values) {
+                bind(value, attachments);
+            }
+        }
+    }
+
+    /**
+     * Bind the value to its attachment if it is a blob placeholder.
+     */
+    public static void bind(Object value, List<Buffer> attachments) {
+        if (!(value instanceof RpcBlob)) {
+            return;
+        }
+        RpcBlob blob = (RpcBlob) value;
+        if (attachments == null || blob.getIndex() < 0 || blob.getIndex() >= attachments.size()) {
+            throw new RuntimeException("Missing attachment " + blob.getIndex());
+        }
+        blob.attach(attachments.get(blob.getIndex()));
+    }
+
+    private static List<RpcBlob> collect(Object body) {
+        List<RpcBlob> blobs = null;
+        if (body instanceof RpcRequest && ((RpcRequest) body).getArgs() != null) {
+            for (Object arg : ((RpcRequest) body).getArgs()) {
+                if (arg instanceof RpcBlob) {
+                    blobs = blobs == null ? new ArrayList<>() : blobs;
+                    blobs.add((RpcBlob) arg);
+                }
+            }
+        } else if (body instanceof RpcResponse && ((RpcResponse) body).getData() instanceof RpcBlob) {
+            blobs = new ArrayList<>();
+            blobs.add((RpcBlob) ((RpcResponse) body).getData());
+        }
+        return blobs == null ? Collections.<RpcBlob>emptyList() : blobs;
+    }
+}
@@ -0,0 +1,233 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.compressor.CompressionDictionary;
+import com.xianwei.customrpc.compressor.CompressionDictionaryTrainer;
+import com.xianwei.customrpc.compressor.CompressionStats;
+import com.xianwei.customrpc.compressor.CompressorFactory;
+import com.xianwei.customrpc.compressor.CompressorKeys;
+import com.xianwei.customrpc.config.CompressionConfig;
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.buffer.Buffer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Message Compression
+ *
+ * Body compression for protocol version 2. A compressed body is written as
+ *   varint(uncompressed length) | compressed bytes
+ * and flagged with the COMPRESSION attribute. Compression is negotiated per connection:
+ * each end announces the codecs it can decode (and its dictionary id) on its first message,
+ * and a sender only compresses with its configured codec once the peer has announced it.
+ * Bodies below the configured threshold, or that do not shrink, are sent as they are.
+ */
+@Slf4j
+public class MessageCompression {
+
+    /**
+     * Upper bound on the declared uncompressed length, so a corrupt frame cannot trigger a huge allocation
+     */
+    private static final int MAX_UNCOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    private static volatile CompressionStats stats;
+
+    private static volatile String dictionaryLocation;
+
+    private static volatile CompressionDictionary dictionary;
+
+    /**
+     * Writes the (uncompressed) body of a message
+     */
+    public interface BodyWriter {
+        void write(Buffer out) throws IOException;
+    }
+
+    /**
+     * Append the attribute section and the body, compressing the body if the connection allows it.
+     * The COMPRESSION and announcement attributes are added to the header's attributes.
+     *
+     * @param header     the message header (version 2 or later)
+     * @param context    the connection's context, or null for stateless encoding (never compressed)
+     * @param buffer     the buffer to append to
+     * @param bodyWriter writes the body
+     * @throws IOException if serialization fails
+     */
+    public static void writeBody(ProtocolMessage.Header header, SerializationContext context, Buffer buffer,
+                                 BodyWriter bodyWriter) throws IOException {
+        ProtocolAttributes attributes = header.getAttributes();
+        if (attributes != null) {
+            attributes.remove(ProtocolAttributeKeys.COMPRESSION);
+        }
+        if (context == null) {
+            ProtocolAttributes.encode(attributes, buffer);
+            bodyWriter.write(buffer);
+            return;
+        }
+        CompressionConfig config = RpcApplication.getRpcConfig().getCompressionConfig();
+        CompressionDictionary localDictionary = getDictionary(config);
+        boolean announce = !context.isCompressionAnnounced();
+        if (announce) {
+            attributes = attributes == null ? new ProtocolAttributes() : attributes;
+            attributes.setLong(ProtocolAttributeKeys.ACCEPT_COMPRESSION, ProtocolMessageCompressorEnum.getAcceptMask());
+            if (localDictionary != null) {
+                attributes.setLong(ProtocolAttributeKeys.COMPRESSION_DICTIONARY, localDictionary.getId());
+            }
+            header.setAttributes(attributes);
+        }
+
+        ProtocolMessageCompressorEnum compressorEnum = getCompressor(config);
+        if (compressorEnum == null || (context.getPeerCompressionMask() & (1 << compressorEnum.getKey())) == 0) {
+            ProtocolAttributes.encode(attributes, buffer);
+            bodyWriter.write(buffer);
+        } else {
+            ByteBuf bodyMemory = PooledByteBufAllocator.DEFAULT.heapBuffer();
+            ByteBuf compressedMemory = null;
+            try {
+                Buffer body = ByteBufBuffers.wrap(bodyMemory);
+                bodyWriter.write(body);
+                int length = body.length();
+                Buffer compressed = null;
+                if (length >= config.getThreshold()) {
+                    sample(body);
+                    CompressionDictionary sharedDictionary = localDictionary != null
+                            && localDictionary.getId() == context.getPeerDictionaryId() ? localDictionary : null;
+                    compressedMemory = PooledByteBufAllocator.DEFAULT.heapBuffer(length / 2 + 64);
+                    compressed = ByteBufBuffers.wrap(compressedMemory);
+                    CompressorFactory.getInstance(compressorEnum.getValue()).compress(body, compressed, sharedDictionary);
+                }
+                if (compressed != null && compressed.length() + VarIntUtils.varIntSize(length) < length) {
+                    attributes = attributes == null ? new ProtocolAttributes() : attributes;
+                    attributes.setLong(ProtocolAttributeKeys.COMPRESSION, compressorEnum.getKey());
+                    header.setAttributes(attributes);
+                    ProtocolAttributes.encode(attributes, buffer);
+                    int start = buffer.length();
+                    VarIntUtils.writeVarInt(buffer, length);
+                    buffer.appendBuffer(compressed);
+                    getStats().recordCompressed(length, buffer.length() - start);
+                } else {
+                    ProtocolAttributes.encode(attributes, buffer);
+                    buffer.appendBuffer(body);
+                    getStats().recordUncompressed(length);
+                }
+            } finally {
+                bodyMemory.release();
+                if (compressedMemory != null) {
+                    compressedMemory.release();
+                }
+            }
+        }
+        if (announce) {
+            context.setCompressionAnnounced(true);
+        }
+    }
+
+    /**
+     * Record the peer's compression announcement, if any, and decompress the body if it is compressed.
+     *
+     * @param header  the decoded header, with its attributes
+     * @param context the connection's context, or null for stateless decoding
+     * @param body    the body as received
+     * @return the uncompressed body
+     */
+    public static Buffer readBody(ProtocolMessage.Header header, SerializationContext context, Buffer body) {
+        ProtocolAttributes attributes = header.getAttributes();
+        if (attributes == null) {
+            return body;
+        }
+        if (context != null && attributes.contains(ProtocolAttributeKeys.ACCEPT_COMPRESSION)) {
+            context.setPeerCompression((int) attributes.getLong(ProtocolAttributeKeys.ACCEPT_COMPRESSION, 0),
+                    attributes.getLong(ProtocolAttributeKeys.COMPRESSION_DICTIONARY, -1));
+        }
+        long codec = attributes.getLong(ProtocolAttributeKeys.COMPRESSION, 0);
+        if (codec == 0) {
+            return body;
+        }
+        ProtocolMessageCompressorEnum compressorEnum = ProtocolMessageCompressorEnum.getEnumByKey((int) codec);
+        if (compressorEnum == null) {
+            throw new RuntimeException("Unsupported compression codec: " + codec);
+        }
+        BufferReader reader = new BufferReader(body);
+        int length = reader.readVarInt();
+        if (length < 0 || length > MAX_UNCOMPRESSED_LENGTH) {
+            throw new RuntimeException("Invalid uncompressed body length: " + length);
+        }
+        Buffer compressed = body.slice(reader.position(), body.length());
+        CompressionDictionary localDictionary = compressorEnum == ProtocolMessageCompressorEnum.DEFLATE
+                ? getDictionary(RpcApplication.getRpcConfig().getCompressionConfig()) : null;
+        Buffer uncompressed = CompressorFactory.getInstance(compressorEnum.getValue())
+                .decompress(compressed, length, localDictionary);
+        getStats().recordDecompressed(body.length(), length);
+        return uncompressed;
+    }
+
+    /**
+     * The compression counters of this JVM.
+     */
+    public static CompressionStats getStats() {
+        if (stats == null) {
+            synchronized (MessageCompression.class) {
+                if (stats == null) {
+                    int samples = RpcApplication.getRpcConfig().getCompressionConfig().getDictionarySamples();
+                    CompressionStats newStats = new CompressionStats(
+                            samples > 0 ? new CompressionDictionaryTrainer(samples) : null);
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().registerMBean(newStats,
+                                new ObjectName("com.xianwei.customrpc:type=Compression"));
+                    } catch (Exception e) {
+                        log.warn("Failed to register the compression MBean", e);
+                    }
+                    stats = newStats;
+                }
+            }
+        }
+        return stats;
+    }
+
+    private static ProtocolMessageCompressorEnum getCompressor(CompressionConfig config) {
+        String key = config.getCompressor();
+        if (key == null || CompressorKeys.NONE.equals(key)) {
+            return null;
+        }
+        ProtocolMessageCompressorEnum compressorEnum = ProtocolMessageCompressorEnum.getEnumByValue(key);
+        if (compressorEnum == null) {
+            throw new RuntimeException("Unsupported compressor: " + key);
+        }
+        return compressorEnum;
+    }
+
+    /**
+     * The configured preset dictionary, loaded on first use.
+     */
+    private static CompressionDictionary getDictionary(CompressionConfig config) {
+        String location = config.getDictionary();
+        if (location == null) {
+            return null;
+        }
+        if (!location.equals(dictionaryLocation)) {
+            synchronized (MessageCompression.class) {
+                if (!location.equals(dictionaryLocation)) {
+                    dictionary = CompressionDictionary.load(location);
+                    dictionaryLocation = location;
+                    log.info("Loaded compression dictionary {} ({} bytes, id {})",
+                            location, dictionary.getBytes().length, dictionary.getId());
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    private static void sample(Buffer body) {
+        CompressionDictionaryTrainer trainer = getStats().getTrainer();
+        if (trainer != null) {
+            trainer.addSample(body);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.xianwei.customrpc.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Message Size Predictor
+ *
+ * Predicts the encoded size of the next message of a kind (e.g. one RPC method) from the sizes
+ * recently seen, so the encode buffer can be allocated once with the right capacity instead
+ * of growing while the body is written. The prediction jumps up to any larger size at once
+ * and decays slowly (by 1/8 of the difference) towards smaller ones, like Netty's adaptive
+ * receive buffer allocator.
+ * Sizes above the largest initial capacity are still tracked, so callers can tell in advance
+ * that a kind of message is going to be large (see {@link #expectedSize}).
+ */
+public class MessageSizePredictor {
+
+    /**
+     * Prediction for kinds without history
+     */
+    public static final int DEFAULT_SIZE = 256;
+
+    private static final int MIN_SIZE = 64;
+
+    /**
+     * Larger initial capacities are not worth reserving up front for every call of the kind
+     */
+    private static final int MAX_SIZE = 1 << 20;
+
+    /**
+     * Bound on the number of tracked kinds
+     */
+    private static final int MAX_KINDS = 4096;
+
+    private final Map<String, AtomicInteger> predictions = new ConcurrentHashMap<>();
+
+    /**
+     * Predicted size of the next message of this kind.
+     *
+     * @param key the message kind, or null
+     * @return the initial buffer capacity to use
+     */
+    public int predict(String key) {
+        return Math.min(MAX_SIZE, expectedSize(key));
+    }
+
+    /**
+     * Expected size of the next message of this kind, without the capacity cap of {@link #predict}.
+     *
+     * @param key the message kind, or null
+     * @return the expected encoded size in bytes
+     */
+    public int expectedSize(String key) {
+        if (key == null) {
+            return DEFAULT_SIZE;
+        }
+        AtomicInteger prediction = predictions.get(key);
+        return prediction == null ? DEFAULT_SIZE : prediction.get();
+    }
+
+    /**
+     * Record the actual encoded size of a message.
+     *
+     * @param key  the message kind, or null
+     * @param size the encoded size in bytes
+     */
+    public void record(String key, int size) {
+        if (key == null) {
+            return;
+        }
+        AtomicInteger prediction = predictions.get(key);
+        if (prediction == null) {
+            if (predictions.size() >= MAX_KINDS) {
+                return;
+            }
+            prediction = predictions.computeIfAbsent(key, k -> new AtomicInteger(DEFAULT_SIZE));
+        }
+        int target = Math.max(MIN_SIZE, size);
+        int current;
+        int next;
+        do {
+            current = prediction.get();
+            next = target >= current ? target : current - ((current - target) >> 3);
+        } while (next != current && !prediction.compareAndSet(current, next));
+    }
+}
@@ -0,0 +1,162 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.codec.DoubleList;
+import com.xianwei.customrpc.codec.LongList;
+import com.xianwei.customrpc.codec.PrimitiveCollections;
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.PackedArrayUtils;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Primitive Value Codec
+ *
+ * Direct encoding of boxed primitives, Strings, byte[], primitive arrays and LongList/DoubleList,
+ * used by the envelope codec instead of the configured Serializer. The value's class token
+ * already names the type, so the value follows without a length prefix:
+ * - boolean/byte: 1 byte; short/int/long: zig-zag varint; char: varint
+ * - float/double: fixed little-endian
+ * - String/byte[]: varint length + UTF-8/raw bytes
+ * - int[]/long[]/double[] and LongList/DoubleList: packed array blocks (see {@link PackedArrayUtils})
+ */
+public class PrimitiveValueCodec {
+
+    /**
+     * Runtime classes handled by this codec
+     */
+    private static final Set<Class<?>> SUPPORTED_CLASSES = new HashSet<>();
+
+    static {
+        SUPPORTED_CLASSES.add(Boolean.class);
+        SUPPORTED_CLASSES.add(Byte.class);
+        SUPPORTED_CLASSES.add(Short.class);
+        SUPPORTED_CLASSES.add(Character.class);
+        SUPPORTED_CLASSES.add(Integer.class);
+        SUPPORTED_CLASSES.add(Long.class);
+        SUPPORTED_CLASSES.add(Float.class);
+        SUPPORTED_CLASSES.add(Double.class);
+        SUPPORTED_CLASSES.add(String.class);
+        SUPPORTED_CLASSES.add(byte[].class);
+        SUPPORTED_CLASSES.add(int[].class);
+        SUPPORTED_CLASSES.add(long[].class);
+        SUPPORTED_CLASSES.add(double[].class);
+        SUPPORTED_CLASSES.add(LongList.class);
+        SUPPORTED_CLASSES.add(DoubleList.class);
+    }
+
+    /**
+     * Whether values of this runtime class are written by this codec.
+     */
+    public static boolean isSupported(Class<?> clazz) {
+        return SUPPORTED_CLASSES.contains(clazz);
+    }
+
+    /**
+     * Whether every parameter of a method signature is a primitive or a supported class,
+     * i.e. a request for it can be encoded without the general serializer.
+     *
+     * @param parameterTypes the declared parameter types
+     * @return true for an all-primitive signature
+     */
+    public static boolean isPrimitiveSignature(Class<?>[] parameterTypes) {
+        if (parameterTypes == null) {
+            return false;
+        }
+        for (Class<?> parameterType : parameterTypes) {
+            if (!parameterType.isPrimitive() && !SUPPORTED_CLASSES.contains(parameterType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Append a value of a supported class.
+     */
+    public static void write(Buffer buffer, Object value) {
+        Class<?> clazz = value.getClass();
+        if (clazz == String.class) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            VarIntUtils.writeVarInt(buffer, bytes.length);
+            buffer.appendBytes(bytes);
+        } else if (clazz == Integer.class) {
+            VarIntUtils.writeSignedVarInt(buffer, (Integer) value);
+        } else if (clazz == Long.class) {
+            VarIntUtils.writeSignedVarLong(buffer, (Long) value);
+        } else if (clazz == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            VarIntUtils.writeVarInt(buffer, bytes.length);
+            buffer.appendBytes(bytes);
+        } else if (clazz == Boolean.class) {
+            buffer.appendByte((Boolean) value ? (byte) 1 : (byte) 0);
+        } else if (clazz == Double.class) {
+            buffer.appendLongLE(Double.doubleToRawLongBits((Double) value));
+        } else if (clazz == Float.class) {
+            buffer.appendIntLE(Float.floatToRawIntBits((Float) value));
+        } else if (clazz == Byte.class) {
+            buffer.appendByte((Byte) value);
+        } else if (clazz == Short.class) {
+            VarIntUtils.writeSignedVarInt(buffer, (Short) value);
+        } else if (clazz == Character.class) {
+            VarIntUtils.writeVarInt(buffer, (Character) value);
+        } else if (clazz == long[].class) {
+            PackedArrayUtils.writeLongs(buffer, (long[]) value);
+        } else if (clazz == double[].class) {
+            PackedArrayUtils.writeDoubles(buffer, (double[]) value);
+        } else if (clazz == int[].class) {
+            PackedArrayUtils.writeInts(buffer, (int[]) value);
+        } else if (clazz == LongList.class) {
+            PrimitiveCollections.writeLongList(buffer, (LongList) value);
+        } else if (clazz == DoubleList.class) {
+            PrimitiveCollections.writeDoubleList(buffer, (DoubleList) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported primitive value class: " + clazz.getName());
+        }
+    }
+
+    /**
+     * Read a value written by {@link #write}.
+     *
+     * @param reader the reader positioned at the value
+     * @param clazz  the value's class, as given by its class token
+     * @return the value
+     */
+    public static Object read(BufferReader reader, Class<?> clazz) {
+        if (clazz == String.class) {
+            return reader.readUtf8(reader.readVarInt());
+        } else if (clazz == Integer.class) {
+            return reader.readSignedVarInt();
+        } else if (clazz == Long.class) {
+            return reader.readSignedVarLong();
+        } else if (clazz == byte[].class) {
+            return reader.readBytes(reader.readVarInt());
+        } else if (clazz == Boolean.class) {
+            return reader.readByte() != 0;
+        } else if (clazz == Double.class) {
+            return Double.longBitsToDouble(reader.readLongLE());
+        } else if (clazz == Float.class) {
+            return Float.intBitsToFloat(reader.readIntLE());
+        } else if (clazz == Byte.class) {
+            return reader.readByte();
+        } else if (clazz == Short.class) {
+            return (short) reader.readSignedVarInt();
+        } else if (clazz == Character.class) {
+            return (char) reader.readVarInt();
+        } else if (clazz == long[].class) {
+            return PackedArrayUtils.readLongs(reader);
+        } else if (clazz == double[].class) {
+            return PackedArrayUtils.readDoubles(reader);
+        } else if (clazz == int[].class) {
+            return PackedArrayUtils.readInts(reader);
+        } else if (clazz == LongList.class) {
+            return PrimitiveCollections.readLongList(reader);
+        } else if (clazz == DoubleList.class) {
+            return PrimitiveCollections.readDoubleList(reader);
+        }
+        throw new IllegalArgumentException("Unsupported primitive value class: " + clazz.getName());
+    }
+}
@@ -0,0 +1,54 @@
+package com.xianwei.customrpc.protocol;
+
+/**
+ * Protocol Attribute Keys
+ *
+ * IDs of the optional attributes carried by protocol v2 messages (see {@link ProtocolAttributes}).
+ * IDs are part of the wire format: never reuse or renumber one. Receivers skip IDs they do not know.
+ */
+public interface ProtocolAttributeKeys {
+
+    /**
+     * Compression codec of the body, a ProtocolMessageCompressorEnum key (varint)
+     */
+    int COMPRESSION = 2;
+
+    /**
+     * Message flags, a bit set of the FLAG_* values (varint)
+     */
+    int FLAGS = 5;
+
+    /**
+     * Compression codecs the sender can decode, a bit set of (1 << codec key) (varint).
+     * Sent once per connection, on its first message.
+     */
+    int ACCEPT_COMPRESSION = 7;
+
+    /**
+     * Id of the sender's preset compression dictionary (varint), sent along with ACCEPT_COMPRESSION
+     */
+    int COMPRESSION_DICTIONARY = 8;
+
+    /**
+     * Lengths of the blob attachments sent ahead of the message, one varint each in attachment order (bytes)
+     */
+    int ATTACHMENTS = 9;
+
+    /**
+     * Version tag of a conditional call's result (bytes): on a request, the tag of the result the
+     * consumer has (empty if none); on a response, the tag of the result it carries
+     */
+    int VERSION_TAG = 10;
+
+    /**
+     * Id of the subscription an EVENT belongs to (varint); each event has a request ID of its own
+     * so the fragments of large events cannot be confused
+     */
+    int SUBSCRIPTION = 11;
+
+    /**
+     * Flag: the request's arguments may be replaced by references to the provider's argument cache
+     * (see {@link RpcEnvelopeCodec})
+     */
+    long FLAG_CACHED_ARGUMENTS = 1 << 2;
+}
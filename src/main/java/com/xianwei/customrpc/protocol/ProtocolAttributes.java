@@ -0,0 +1,168 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Protocol Attributes
+ *
+ * Optional, typed attributes of a protocol v2 message (deadline, compression, trace id, ...; see
+ * {@link ProtocolAttributeKeys}). They are written at the start of the body as a length-prefixed
+ * section, so a receiver can skip the whole section or any single attribute it does not know:
+ *   varint(section length) | attribute...
+ *   attribute = varint(id << 2 | wireType) | value
+ * Wire types: 0 = varint, 2 = varint length + bytes (1 and 3 are reserved).
+ */
+public class ProtocolAttributes {
+
+    public static final int WIRE_TYPE_VARINT = 0;
+
+    public static final int WIRE_TYPE_BYTES = 2;
+
+    /**
+     * Attribute values by id: Long for varints, byte[] for bytes
+     */
+    private final Map<Integer, Object> values = new TreeMap<>();
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public boolean contains(int id) {
+        return values.containsKey(id);
+    }
+
+    public ProtocolAttributes setLong(int id, long value) {
+        values.put(id, value);
+        return this;
+    }
+
+    /**
+     * @return the varint attribute, or {@code defaultValue} if absent
+     */
+    public long getLong(int id, long defaultValue) {
+        Object value = values.get(id);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public ProtocolAttributes setBytes(int id, byte[] value) {
+        values.put(id, value);
+        return this;
+    }
+
+    /**
+     * @return the bytes attribute, or null if absent
+     */
+    public byte[] getBytes(int id) {
+        Object value = values.get(id);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    public ProtocolAttributes setString(int id, String value) {
+        return setBytes(id, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the bytes attribute as UTF-8, or null if absent
+     */
+    public String getString(int id) {
+        byte[] value = getBytes(id);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    public void remove(int id) {
+        values.remove(id);
+    }
+
+    /**
+     * Append the attribute section; null or empty attributes take a single byte.
+     *
+     * @param attributes the attributes to write, may be null
+     * @param buffer     the buffer to append to
+     */
+    public static void encode(ProtocolAttributes attributes, Buffer buffer) {
+        if (attributes == null || attributes.isEmpty()) {
+            VarIntUtils.writeVarInt(buffer, 0);
+            return;
+        }
+        int sectionLength = 0;
+        for (Map.Entry<Integer, Object> entry : attributes.values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Long) {
+                sectionLength += VarIntUtils.varIntSize(entry.getKey() << 2 | WIRE_TYPE_VARINT)
+                        + VarIntUtils.varLongSize((Long) value);
+            } else {
+                int length = ((byte[]) value).length;
+                sectionLength += VarIntUtils.varIntSize(entry.getKey() << 2 | WIRE_TYPE_BYTES)
+                        + VarIntUtils.varIntSize(length) + length;
+            }
+        }
+        VarIntUtils.writeVarInt(buffer, sectionLength);
+        for (Map.Entry<Integer, Object> entry : attributes.values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Long) {
+                VarIntUtils.writeVarInt(buffer, entry.getKey() << 2 | WIRE_TYPE_VARINT);
+                VarIntUtils.writeVarLong(buffer, (Long) value);
+            } else {
+                byte[] bytes = (byte[]) value;
+                VarIntUtils.writeVarInt(buffer, entry.getKey() << 2 | WIRE_TYPE_BYTES);
+                VarIntUtils.writeVarInt(buffer, bytes.length);
+                buffer.appendBytes(bytes);
+            }
+        }
+    }
+
+    /**
+     * Read an attribute section written by {@link #encode}.
+     *
+     * @param reader reader positioned at the section
+     * @return the attributes, or null if the section is empty
+     */
+    public static ProtocolAttributes decode(BufferReader reader) {
+        int sectionLength = reader.readVarInt();
+        if (sectionLength == 0) {
+            return null;
+        }
+        if (sectionLength < 0 || sectionLength > reader.remaining()) {
+            throw new RuntimeException("Invalid attribute section length: " + sectionLength);
+        }
+        int end = reader.position() + sectionLength;
+        ProtocolAttributes attributes = new ProtocolAttributes();
+        while (reader.position() < end) {
+            int key = reader.readVarInt();
+            int id = key >>> 2;
+            int wireType = key & 0x3;
+            if (wireType == WIRE_TYPE_VARINT) {
+                attributes.values.put(id, reader.readVarLong());
+            } else if (wireType == WIRE_TYPE_BYTES) {
+                attributes.values.put(id, reader.readBytes(reader.readVarInt()));
+            } else {
+                // Reserved types cannot be skipped without knowing their size: skip the rest of the section
+                reader.skip(end - reader.position());
+            }
+        }
+        if (reader.position() != end) {
+            throw new RuntimeException("Malformed attribute section");
+        }
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<Integer, Object> entry : values.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            Object value = entry.getValue();
+            builder.append(entry.getKey()).append('=')
+                    .append(value instanceof byte[] ? ((byte[]) value).length + " bytes" : value);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -20,4 +20,41 @@ public interface ProtocolConstant {
      * Version number
      */
     byte PROTOCOL_VERSION = 0x1;
+
+    /**
+     * Version 2: the body starts with a section of optional attributes (see ProtocolAttributes)
+     */
+    byte PROTOCOL_VERSION_2 = 0x2;
+
+    /**
+     * Highest version this build can read and write
+     */
+    byte MAX_PROTOCOL_VERSION = PROTOCOL_VERSION_2;
+
+    /**
+     * Flag bit in the serializer byte: body is encoded with RpcEnvelopeCodec,
+     * the remaining bits select the serializer used for argument and result values
+     */
+    byte ENVELOPE_CODEC_FLAG = (byte) 0x80;
+
+    /**
+     * Mask extracting the serializer key from the serializer byte
+     */
+    byte SERIALIZER_KEY_MASK = 0x7F;
+
+    /**
+     * Flag bit in the type byte (version 2): the message is encoded without the connection's
+     * class dictionary and may be split into several frames
+     */
+    byte FRAGMENTED_FLAG = 0x40;
+
+    /**
+     * Flag bit in the type byte (version 2): more frames of the same message follow
+     */
+    byte MORE_FRAGMENTS_FLAG = (byte) 0x80;
+
+    /**
+     * Mask extracting the message type from the type byte
+     */
+    byte MESSAGE_TYPE_MASK = 0x3F;
 }
@@ -0,0 +1,133 @@
+package com.xianwei.customrpc.protocol;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Protocol Header View (Flyweight)
+ *
+ * Reads the fixed-length header fields in place from a frame, without copying them into a
+ * {@link ProtocolMessage.Header}. One view can be re-pointed at successive frames with
+ * {@link #wrap}, so the frame decoder inspects headers without allocating.
+ *
+ * Layout: magic(0) | version(1) | serializer(2) | type(3) | status(4) | requestId(5–12) | bodyLength(13–16)
+ */
+public class ProtocolHeaderView {
+
+    public static final int MAGIC_OFFSET = 0;
+
+    public static final int VERSION_OFFSET = 1;
+
+    public static final int SERIALIZER_OFFSET = 2;
+
+    public static final int TYPE_OFFSET = 3;
+
+    public static final int STATUS_OFFSET = 4;
+
+    public static final int REQUEST_ID_OFFSET = 5;
+
+    public static final int BODY_LENGTH_OFFSET = 13;
+
+    private Buffer buffer;
+
+    private int offset;
+
+    public ProtocolHeaderView() {
+    }
+
+    /**
+     * View the header at the start of a frame.
+     */
+    public ProtocolHeaderView(Buffer buffer) {
+        wrap(buffer, 0);
+    }
+
+    /**
+     * Point this view at the header starting at {@code offset} in {@code buffer}.
+     * The caller guarantees that the full header is present.
+     *
+     * @return this view
+     */
+    public ProtocolHeaderView wrap(Buffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    public byte getMagic() {
+        return buffer.getByte(offset + MAGIC_OFFSET);
+    }
+
+    public byte getVersion() {
+        return buffer.getByte(offset + VERSION_OFFSET);
+    }
+
+    public byte getSerializer() {
+        return buffer.getByte(offset + SERIALIZER_OFFSET);
+    }
+
+    public byte getType() {
+        return buffer.getByte(offset + TYPE_OFFSET);
+    }
+
+    public byte getStatus() {
+        return buffer.getByte(offset + STATUS_OFFSET);
+    }
+
+    public long getRequestId() {
+        return buffer.getLong(offset + REQUEST_ID_OFFSET);
+    }
+
+    public int getBodyLength() {
+        return buffer.getInt(offset + BODY_LENGTH_OFFSET);
+    }
+
+    /**
+     * Whether the body is encoded with the envelope codec.
+     */
+    public boolean isEnvelope() {
+        return (getSerializer() & ProtocolConstant.ENVELOPE_CODEC_FLAG) != 0;
+    }
+
+    /**
+     * Message type without the fragment flags.
+     */
+    public int getMessageType() {
+        return getType() & ProtocolConstant.MESSAGE_TYPE_MASK;
+    }
+
+    /**
+     * Whether the frame belongs to a fragmented message (encoded without the class dictionary).
+     */
+    public boolean isFragmented() {
+        return (getType() & ProtocolConstant.FRAGMENTED_FLAG) != 0;
+    }
+
+    /**
+     * Whether more frames of the same message follow.
+     */
+    public boolean hasMoreFragments() {
+        return (getType() & ProtocolConstant.MORE_FRAGMENTS_FLAG) != 0;
+    }
+
+    /**
+     * Total length of the frame (header + body).
+     */
+    public int getFrameLength() {
+        return ProtocolConstant.MESSAGE_HEADER_LENGTH + getBodyLength();
+    }
+
+    /**
+     * Copy the fields into a standalone header.
+     */
+    public ProtocolMessage.Header toHeader() {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(getMagic());
+        header.setVersion(getVersion());
+        header.setSerializer(getSerializer());
+        header.setType(getType());
+        header.setStatus(getStatus());
+        header.setRequestId(getRequestId());
+        header.setBodyLength(getBodyLength());
+        return header;
+    }
+}
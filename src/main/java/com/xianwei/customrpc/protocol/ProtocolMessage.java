@@ -1,9 +1,12 @@
 package com.xianwei.customrpc.protocol;
 
+import io.vertx.core.buffer.Buffer;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * Protocol Message Structure
  *
@@ -75,6 +78,18 @@ public class ProtocolMessage<T> {
          * Used to properly read and decode the message payload.
          */
         private int bodyLength;
+
+        /**
+         * Optional attributes (deadline, compression, trace id, ...), only sent from version 2 on.
+         * Carried at the start of the body and counted in the body length; null when there are none.
+         */
+        private ProtocolAttributes attributes;
+
+        /**
+         * Blob attachments received ahead of the message (see MessageAttachments); null when there are none.
+         * Only set on decoding, never encoded from here.
+         */
+        private List<Buffer> attachments;
     }
 
 }
@@ -0,0 +1,76 @@
+package com.xianwei.customrpc.protocol;
+
+import cn.hutool.core.util.ObjectUtil;
+import lombok.Getter;
+
+/**
+ * Protocol Message Compressor Enum
+ *
+ * This enum defines the supported body compression codecs and their ids on the wire
+ * (the COMPRESSION attribute). Key 0 is reserved for uncompressed bodies.
+ */
+@Getter
+public enum ProtocolMessageCompressorEnum {
+
+    SNAPPY(1, "snappy"),   // Snappy block format
+    DEFLATE(2, "deflate"); // zlib deflate, optionally with a preset dictionary
+
+    /**
+     * Numeric identifier for the codec (used in protocol attributes)
+     */
+    private final int key;
+
+    /**
+     * Name of the codec (the Compressor SPI key)
+     */
+    private final String value;
+
+    ProtocolMessageCompressorEnum(int key, String value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    /**
+     * Bit set of all codec keys, as announced in the ACCEPT_COMPRESSION attribute
+     */
+    public static int getAcceptMask() {
+        int mask = 0;
+        for (ProtocolMessageCompressorEnum anEnum : ProtocolMessageCompressorEnum.values()) {
+            mask |= 1 << anEnum.key;
+        }
+        return mask;
+    }
+
+    /**
+     * Get enum instance by numeric key
+     *
+     * @param key codec ID from the COMPRESSION attribute
+     * @return matching enum or null if not found
+     */
+    public static ProtocolMessageCompressorEnum getEnumByKey(int key) {
+        for (ProtocolMessageCompressorEnum anEnum : ProtocolMessageCompressorEnum.values()) {
+            if (anEnum.key == key) {
+                return anEnum;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get enum instance by string value (name)
+     *
+     * @param value codec name
+     * @return matching enum or null if not found or value is empty
+     */
+    public static ProtocolMessageCompressorEnum getEnumByValue(String value) {
+        if (ObjectUtil.isEmpty(value)) {
+            return null;
+        }
+        for (ProtocolMessageCompressorEnum anEnum : ProtocolMessageCompressorEnum.values()) {
+            if (anEnum.value.equals(value)) {
+                return anEnum;
+            }
+        }
+        return null;
+    }
+}
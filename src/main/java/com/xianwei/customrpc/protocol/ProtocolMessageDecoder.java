@@ -4,6 +4,7 @@ import com.xianwei.customrpc.model.RpcRequest;
 import com.xianwei.customrpc.model.RpcResponse;
 import com.xianwei.customrpc.serializer.Serializer;
 import com.xianwei.customrpc.serializer.SerializerFactory;
+import com.xianwei.customrpc.utils.BufferReader;
 import io.vertx.core.buffer.Buffer;
 
 import java.io.IOException;
@@ -13,6 +14,7 @@ import java.io.IOException;
  *
  * This class is responsible for decoding raw byte data from the buffer
  * into a structured ProtocolMessage (either RpcRequest or RpcResponse).
+ * SUBSCRIBE messages carry an RpcRequest, EVENT and UNSUBSCRIBE messages an RpcResponse.
  */
 public class ProtocolMessageDecoder {
 
@@ -24,47 +26,51 @@ public class ProtocolMessageDecoder {
      * @throws IOException if deserialization fails
      */
     public static ProtocolMessage<?> decode(Buffer buffer) throws IOException {
-        // Create an empty header to fill in
-        ProtocolMessage.Header header = new ProtocolMessage.Header();
-
-        // Read and validate the magic number at position 0
-        byte magic = buffer.getByte(0);
-        if (magic != ProtocolConstant.PROTOCOL_MAGIC) {
-            throw new RuntimeException("Invalid magic number in message");
-        }
-        header.setMagic(magic);
-
-        // Read remaining header fields from fixed offsets
-        header.setVersion(buffer.getByte(1));
-        header.setSerializer(buffer.getByte(2));
-        header.setType(buffer.getByte(3));
-        header.setStatus(buffer.getByte(4));
-        header.setRequestId(buffer.getLong(5));     // request ID spans bytes 5–12
-        header.setBodyLength(buffer.getInt(13));    // body length spans bytes 13–16
-
-        // Solve sticky packet issues by reading only the specified body length
-        byte[] bodyBytes = buffer.getBytes(17, 17 + header.getBodyLength());
+        return decode(buffer, null);
+    }
 
-        // Get serializer based on the serializer key in the header
-        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByKey(header.getSerializer());
-        if (serializerEnum == null) {
-            throw new RuntimeException("Unsupported serialization protocol");
-        }
-        Serializer serializer = SerializerFactory.getInstance(serializerEnum.getValue());
+    /**
+     * Decode a ProtocolMessage from the buffer using a connection's class dictionary
+     *
+     * @param buffer  The raw byte buffer containing the message
+     * @param context the connection's serialization context, or null for stateless decoding.
+     *                Messages must be decoded in the order they arrive, except fragmented
+     *                ones, which do not use the dictionary.
+     * @return A decoded ProtocolMessage instance
+     * @throws IOException if deserialization fails
+     */
+    public static ProtocolMessage<?> decode(Buffer buffer, SerializationContext context) throws IOException {
+        ProtocolMessage.Header header = decodeHeader(buffer);
+        Serializer serializer = getSerializer(header.getSerializer());
+        boolean envelope = (header.getSerializer() & ProtocolConstant.ENVELOPE_CODEC_FLAG) != 0;
 
         // Get the message type (e.g., REQUEST, RESPONSE)
-        ProtocolMessageTypeEnum messageTypeEnum = ProtocolMessageTypeEnum.getEnumByKey(header.getType());
+        ProtocolMessageTypeEnum messageTypeEnum = ProtocolMessageTypeEnum
+                .getEnumByKey(header.getType() & ProtocolConstant.MESSAGE_TYPE_MASK);
         if (messageTypeEnum == null) {
             throw new RuntimeException("Unsupported message type");
         }
 
+        context = messageContext(header, context);
+        Buffer body = bodySlice(buffer, header, context);
+
         // Deserialize based on message type
         switch (messageTypeEnum) {
             case REQUEST:
-                RpcRequest request = serializer.deserialize(bodyBytes, RpcRequest.class);
+            case SUBSCRIBE:
+                RpcRequest request = envelope
+                        ? RpcEnvelopeCodec.decodeRequest(new BufferReader(body), serializer, context,
+                                RpcEnvelopeCodec.hasCachedArguments(header))
+                        : serializer.deserialize(body, RpcRequest.class);
+                MessageAttachments.bind(request.getArgs(), header.getAttachments());
                 return new ProtocolMessage<>(header, request);
             case RESPONSE:
-                RpcResponse response = serializer.deserialize(bodyBytes, RpcResponse.class);
+            case EVENT:
+            case UNSUBSCRIBE:
+                RpcResponse response = envelope
+                        ? RpcEnvelopeCodec.decodeResponse(new BufferReader(body), serializer, context)
+                        : serializer.deserialize(body, RpcResponse.class);
+                MessageAttachments.bind(response.getData(), header.getAttachments());
                 return new ProtocolMessage<>(header, response);
             case HEART_BEAT:
             case OTHERS:
@@ -72,4 +78,105 @@ public class ProtocolMessageDecoder {
                 throw new RuntimeException("Message type not supported yet");
         }
     }
+
+    /**
+     * Decode a request only as far as needed to route it (see {@link LazyRpcRequest}).
+     * The argument values are deserialized later by {@link LazyRpcRequest#decode()},
+     * typically on the thread that executes the method.
+     *
+     * @param buffer  The raw byte buffer containing a request message
+     * @param context the connection's serialization context, or null for stateless decoding.
+     *                Messages must be decoded in the order they arrive, except fragmented
+     *                ones, which do not use the dictionary.
+     * @return the message with a lazily decoded request body
+     */
+    public static ProtocolMessage<LazyRpcRequest> decodeRequestLazily(Buffer buffer, SerializationContext context) {
+        ProtocolMessage.Header header = decodeHeader(buffer);
+        if ((header.getType() & ProtocolConstant.MESSAGE_TYPE_MASK) != ProtocolMessageTypeEnum.REQUEST.getKey()) {
+            throw new RuntimeException("Unsupported message type");
+        }
+        Serializer serializer = getSerializer(header.getSerializer());
+        context = messageContext(header, context);
+        Buffer body = bodySlice(buffer, header, context);
+        LazyRpcRequest request = (header.getSerializer() & ProtocolConstant.ENVELOPE_CODEC_FLAG) != 0
+                ? RpcEnvelopeCodec.decodeRequestLazily(new BufferReader(body), serializer, context,
+                        RpcEnvelopeCodec.hasCachedArguments(header))
+                : new LazyRpcRequest(serializer, body);
+        request.setAttachments(header.getAttachments());
+        return new ProtocolMessage<>(header, request);
+    }
+
+    /**
+     * Decode a response body serialized on its own by {@link ProtocolMessageEncoder#encodeBody}.
+     *
+     * @param serializer the serializer byte of the header the body was encoded with
+     * @param body       the serialized body
+     * @return a new response on every call
+     * @throws IOException if deserialization fails
+     */
+    public static RpcResponse decodeResponseBody(byte serializer, Buffer body) throws IOException {
+        return (serializer & ProtocolConstant.ENVELOPE_CODEC_FLAG) != 0
+                ? RpcEnvelopeCodec.decodeResponse(new BufferReader(body), getSerializer(serializer), null)
+                : getSerializer(serializer).deserialize(body, RpcResponse.class);
+    }
+
+    /**
+     * Read the fixed-length header.
+     */
+    private static ProtocolMessage.Header decodeHeader(Buffer buffer) {
+        ProtocolHeaderView headerView = new ProtocolHeaderView(buffer);
+
+        // Validate the magic number before trusting any other field
+        if (headerView.getMagic() != ProtocolConstant.PROTOCOL_MAGIC) {
+            throw new RuntimeException("Invalid magic number in message");
+        }
+        if (headerView.getVersion() < ProtocolConstant.PROTOCOL_VERSION
+                || headerView.getVersion() > ProtocolConstant.MAX_PROTOCOL_VERSION) {
+            throw new RuntimeException("Unsupported protocol version: " + headerView.getVersion());
+        }
+        if (headerView.getFrameLength() > buffer.length() || headerView.getBodyLength() < 0) {
+            throw new RuntimeException("Invalid body length in message: " + headerView.getBodyLength());
+        }
+        return headerView.toHeader();
+    }
+
+    /**
+     * Fragmented messages are encoded without the connection's class dictionary
+     */
+    private static SerializationContext messageContext(ProtocolMessage.Header header, SerializationContext context) {
+        if (context != null && (header.getType() & ProtocolConstant.FRAGMENTED_FLAG) != 0) {
+            return context.detached();
+        }
+        return context;
+    }
+
+    /**
+     * Get serializer based on the serializer byte of the header (the high bit is the envelope codec flag)
+     */
+    private static Serializer getSerializer(byte serializer) {
+        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum
+                .getEnumByKey(serializer & ProtocolConstant.SERIALIZER_KEY_MASK);
+        if (serializerEnum == null) {
+            throw new RuntimeException("Unsupported serialization protocol");
+        }
+        return SerializerFactory.getInstance(serializerEnum.getValue());
+    }
+
+    /**
+     * Solve sticky packet issues by reading only the specified body length;
+     * the body is read in place from a slice of the frame, without copying it out.
+     * From version 2 on, the attribute section in front of the body is read into the header,
+     * a compressed body is decompressed, and the blob attachments following the frame are sliced.
+     */
+    private static Buffer bodySlice(Buffer buffer, ProtocolMessage.Header header, SerializationContext context) {
+        int bodyStart = ProtocolConstant.MESSAGE_HEADER_LENGTH;
+        int bodyEnd = ProtocolConstant.MESSAGE_HEADER_LENGTH + header.getBodyLength();
+        if (header.getVersion() >= ProtocolConstant.PROTOCOL_VERSION_2) {
+            BufferReader reader = new BufferReader(buffer, bodyStart, header.getBodyLength());
+            header.setAttributes(ProtocolAttributes.decode(reader));
+            header.setAttachments(MessageAttachments.read(header, buffer, bodyEnd));
+            return MessageCompression.readBody(header, context, buffer.slice(reader.position(), bodyEnd));
+        }
+        return buffer.slice(bodyStart, bodyEnd);
+    }
 }
@@ -1,7 +1,12 @@
 package com.xianwei.customrpc.protocol;
 
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
 import com.xianwei.customrpc.serializer.Serializer;
 import com.xianwei.customrpc.serializer.SerializerFactory;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.vertx.core.buffer.Buffer;
 
 import java.io.IOException;
@@ -11,9 +16,19 @@ import java.io.IOException;
  *
  * This class is responsible for encoding a ProtocolMessage (with header and body)
  * into a binary format (Buffer) for transmission over the network.
+ * The initial buffer capacity is predicted per RPC method from recent message sizes;
+ * {@link #encodePooled} takes the buffer from Netty's pooled allocator.
+ * From version 2 on, bodies may be compressed (see {@link MessageCompression}).
+ * A message whose body is a Buffer carries a body serialized beforehand by {@link #encodeBodyPooled},
+ * which is written as is.
  */
 public class ProtocolMessageEncoder {
 
+    /**
+     * Encoded sizes by message kind (request per method, response per result type)
+     */
+    private static final MessageSizePredictor SIZE_PREDICTOR = new MessageSizePredictor();
+
     /**
      * Encode a ProtocolMessage into a Buffer
      *
@@ -22,16 +37,126 @@ public class ProtocolMessageEncoder {
      * @throws IOException if serialization fails
      */
     public static Buffer encode(ProtocolMessage<?> protocolMessage) throws IOException {
+        return encode(protocolMessage, null);
+    }
+
+    /**
+     * Encode a ProtocolMessage into a Buffer using a connection's class dictionary
+     *
+     * @param protocolMessage The message to encode (either request or response)
+     * @param context         the connection's serialization context, or null for stateless encoding.
+     *                        Messages must be written to the socket in the order they are encoded.
+     * @return A Vert.x Buffer containing the serialized message
+     * @throws IOException if serialization fails
+     */
+    public static Buffer encode(ProtocolMessage<?> protocolMessage, SerializationContext context) throws IOException {
         // Return an empty buffer if message or header is null
         if (protocolMessage == null || protocolMessage.getHeader() == null) {
             return Buffer.buffer();
         }
+        String sizeKey = sizeKey(protocolMessage.getBody());
+        Buffer buffer = Buffer.buffer(SIZE_PREDICTOR.predict(sizeKey));
+        encode(protocolMessage, context, buffer);
+        SIZE_PREDICTOR.record(sizeKey, buffer.length());
+        return buffer;
+    }
 
-        // Extract the header
-        ProtocolMessage.Header header = protocolMessage.getHeader();
+    /**
+     * Encode a ProtocolMessage into a buffer from Netty's pooled allocator.
+     * The caller owns the returned ByteBuf and must release it once it has been written,
+     * e.g. {@code socket.write(ByteBufBuffers.wrap(byteBuf)).onComplete(ar -> byteBuf.release())}.
+     *
+     * @param protocolMessage The message to encode (either request or response)
+     * @param context         the connection's serialization context, or null for stateless encoding
+     * @return a pooled buffer containing the serialized message
+     * @throws IOException if serialization fails (the buffer has then been released)
+     */
+    public static ByteBuf encodePooled(ProtocolMessage<?> protocolMessage, SerializationContext context)
+            throws IOException {
+        String sizeKey = sizeKey(protocolMessage.getBody());
+        ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT.ioBuffer(SIZE_PREDICTOR.predict(sizeKey));
+        try {
+            encode(protocolMessage, context, ByteBufBuffers.wrap(byteBuf));
+        } catch (IOException | RuntimeException e) {
+            byteBuf.release();
+            throw e;
+        }
+        SIZE_PREDICTOR.record(sizeKey, byteBuf.readableBytes());
+        return byteBuf;
+    }
 
-        // Initialize a new buffer to hold the serialized data
+    /**
+     * Serialize only the body of a message, without attributes, compression or the connection's
+     * class dictionary. Decode it with {@link ProtocolMessageDecoder#decodeResponseBody}.
+     *
+     * @param protocolMessage the message whose body to serialize (its header selects the serializer)
+     * @return the serialized body
+     * @throws IOException if serialization fails
+     */
+    public static Buffer encodeBody(ProtocolMessage<?> protocolMessage) throws IOException {
         Buffer buffer = Buffer.buffer();
+        writeBody(protocolMessage, getSerializer(protocolMessage.getHeader()), null, buffer);
+        return buffer;
+    }
+
+    /**
+     * Serialize only the body of a message like {@link #encodeBody}, into a buffer from Netty's
+     * pooled allocator. The bytes can be inspected (e.g. hashed) and then sent as the body of the
+     * message, without serializing it again: a message with a Buffer body writes it as is. As they
+     * do not use the class dictionary, such messages are written as fragmented messages.
+     * The caller owns the returned ByteBuf and must release it once the message has been written.
+     *
+     * @param protocolMessage the message whose body to serialize (its header selects the serializer)
+     * @return a pooled buffer containing the serialized body
+     * @throws IOException if serialization fails (the buffer has then been released)
+     */
+    public static ByteBuf encodeBodyPooled(ProtocolMessage<?> protocolMessage) throws IOException {
+        String sizeKey = sizeKey(protocolMessage.getBody());
+        ByteBuf byteBuf = PooledByteBufAllocator.DEFAULT.heapBuffer(SIZE_PREDICTOR.predict(sizeKey));
+        try {
+            writeBody(protocolMessage, getSerializer(protocolMessage.getHeader()), null, ByteBufBuffers.wrap(byteBuf));
+        } catch (IOException | RuntimeException e) {
+            byteBuf.release();
+            throw e;
+        }
+        return byteBuf;
+    }
+
+    /**
+     * Expected encoded size of a message, from the recent sizes of messages of its kind.
+     *
+     * @param protocolMessage the message about to be encoded
+     * @return the expected size in bytes
+     */
+    public static int expectedSize(ProtocolMessage<?> protocolMessage) {
+        if (protocolMessage.getBody() instanceof Buffer) {
+            return ProtocolConstant.MESSAGE_HEADER_LENGTH + ((Buffer) protocolMessage.getBody()).length();
+        }
+        return SIZE_PREDICTOR.expectedSize(sizeKey(protocolMessage.getBody()));
+    }
+
+    /**
+     * Message kind used for size prediction.
+     */
+    private static String sizeKey(Object body) {
+        if (body instanceof RpcRequest) {
+            RpcRequest rpcRequest = (RpcRequest) body;
+            return rpcRequest.getServiceName() + "#" + rpcRequest.getMethodName();
+        }
+        if (body instanceof RpcResponse) {
+            Class<?> dataType = ((RpcResponse) body).getDataType();
+            return dataType == null ? null : dataType.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Append the encoded message to the buffer.
+     */
+    private static void encode(ProtocolMessage<?> protocolMessage, SerializationContext context, Buffer buffer)
+            throws IOException {
+        // Extract the header
+        ProtocolMessage.Header header = protocolMessage.getHeader();
 
         // Append header fields in a fixed order
         buffer.appendByte(header.getMagic());        // 1 byte
@@ -41,20 +166,53 @@ public class ProtocolMessageEncoder {
         buffer.appendByte(header.getStatus());       // 1 byte
         buffer.appendLong(header.getRequestId());    // 8 bytes
 
-        // Get serializer by key from header
-        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum.getEnumByKey(header.getSerializer());
-        if (serializerEnum == null) {
-            throw new RuntimeException("Unsupported serialization protocol");
+        Serializer serializer = getSerializer(header);
+
+        // Reserve the body length (4 bytes) and write the body straight into the buffer
+        buffer.appendInt(0);
+        if (header.getVersion() >= ProtocolConstant.PROTOCOL_VERSION_2) {
+            MessageCompression.writeBody(header, context, buffer,
+                    out -> writeBody(protocolMessage, serializer, context, out));
+        } else {
+            writeBody(protocolMessage, serializer, context, buffer);
         }
-        Serializer serializer = SerializerFactory.getInstance(serializerEnum.getValue());
 
-        // Serialize the message body
-        byte[] bodyBytes = serializer.serialize(protocolMessage.getBody());
+        // Patch the body length now that it is known
+        buffer.setInt(ProtocolHeaderView.BODY_LENGTH_OFFSET, buffer.length() - ProtocolConstant.MESSAGE_HEADER_LENGTH);
+    }
 
-        // Append body length (4 bytes) and actual serialized body
-        buffer.appendInt(bodyBytes.length);          // 4 bytes
-        buffer.appendBytes(bodyBytes);
+    /**
+     * Get serializer by key from header (the high bit is the envelope codec flag)
+     */
+    private static Serializer getSerializer(ProtocolMessage.Header header) {
+        ProtocolMessageSerializerEnum serializerEnum = ProtocolMessageSerializerEnum
+                .getEnumByKey(header.getSerializer() & ProtocolConstant.SERIALIZER_KEY_MASK);
+        if (serializerEnum == null) {
+            throw new RuntimeException("Unsupported serialization protocol");
+        }
+        return SerializerFactory.getInstance(serializerEnum.getValue());
+    }
 
-        return buffer;
+    /**
+     * Append the serialized body.
+     */
+    private static void writeBody(ProtocolMessage<?> protocolMessage, Serializer serializer,
+                                  SerializationContext context, Buffer buffer) throws IOException {
+        Object body = protocolMessage.getBody();
+        if (body instanceof Buffer) {
+            // Serialized beforehand by encodeBodyPooled
+            buffer.appendBuffer((Buffer) body);
+        } else if ((protocolMessage.getHeader().getSerializer() & ProtocolConstant.ENVELOPE_CODEC_FLAG) != 0) {
+            if (body instanceof RpcRequest) {
+                RpcEnvelopeCodec.encodeRequest((RpcRequest) body, serializer, context,
+                        RpcEnvelopeCodec.hasCachedArguments(protocolMessage.getHeader()), buffer);
+            } else if (body instanceof RpcResponse) {
+                RpcEnvelopeCodec.encodeResponse((RpcResponse) body, serializer, context, buffer);
+            } else {
+                throw new RuntimeException("Envelope codec only supports RpcRequest and RpcResponse bodies");
+            }
+        } else {
+            serializer.serialize(body, buffer);
+        }
     }
 }
@@ -18,7 +18,9 @@ public enum ProtocolMessageSerializerEnum {
     JDK(0, "jdk"),         // Java built-in serialization
     JSON(1, "json"),       // JSON serialization
     KRYO(2, "kryo"),       // Kryo serialization
-    HESSIAN(3, "hessian"); // Hessian serialization
+    HESSIAN(3, "hessian"), // Hessian serialization
+    SCHEMA(4, "schema"),   // Schema-based tag/varint serialization
+    HESSIAN2(5, "hessian2"); // Hessian 2 serialization
 
     /**
      * Numeric identifier for the serializer (used in protocol headers)
@@ -12,7 +12,9 @@ import lombok.Getter;
 public enum ProtocolMessageStatusEnum {
 
     OK("ok", 20),                        // Successful request/response
+    NOT_MODIFIED("notModified", 30),    // The result has the version tag sent with the request; no body
     BAD_REQUEST("badRequest", 40),      // Invalid or malformed request
+    NEED_BODY("needBody", 41),          // A cached argument is missing; send the request again with its values
     BAD_RESPONSE("badResponse", 50);    // Error occurred while processing response
 
     /**
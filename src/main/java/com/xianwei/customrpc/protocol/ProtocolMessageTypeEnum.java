@@ -14,7 +14,11 @@ public enum ProtocolMessageTypeEnum {
     REQUEST(0),      // Represents a client-to-server RPC request
     RESPONSE(1),     // Represents a server-to-client RPC response
     HEART_BEAT(2),   // Used for heartbeat/ping messages to keep the connection alive
-    OTHERS(3);       // Placeholder for other message types (future extension)
+    OTHERS(3),       // Placeholder for other message types (future extension)
+    ATTACHMENT(4),   // Raw bytes of blob attachments, sent ahead of the message that refers to them
+    SUBSCRIBE(5),    // Consumer-to-provider subscription to a topic, or more credits for it
+    EVENT(6),        // Provider-to-consumer event of a subscription
+    UNSUBSCRIBE(7);  // End of a subscription, sent by either side
 
     /**
      * Integer identifier for the message type (used in protocol header)
@@ -0,0 +1,356 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.config.ArgumentCacheConfig;
+import com.xianwei.customrpc.model.RpcError;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.serializer.Serializer;
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+
+/**
+ * RPC Envelope Codec
+ *
+ * Hand-written binary codec for the fixed fields of RpcRequest and RpcResponse.
+ * Strings are written as length-prefixed UTF-8, counts as varints and classes as
+ * interned tokens (see {@link ClassIdTable}). Only argument values, result data and
+ * exceptions are handed to the configured Serializer, each as a separate length-prefixed blob.
+ * On a persistent connection, class names are sent once and then referenced by the ids
+ * of the connection's {@link SerializationContext}.
+ *
+ * Request layout:
+ *   serviceName | methodName | serviceVersion | paramCount+1 | paramType tokens... | argCount+1 | values...
+ * Response layout:
+ *   dataType token | message | data value | exception value | error
+ * Error layout (hand-encoded, never passed to the serializer):
+ *   code+1 (0 = no error) | exceptionClass | message | frameCount | frames...
+ * Value layout:
+ *   runtime class token (0 = null) | int32 length | serializer bytes
+ * The value length is fixed-width so the serializer can write straight into the buffer
+ * and the length be patched afterwards. Boxed primitives, Strings, byte[] and int[]/long[]/double[]
+ * skip the serializer: they are written directly after their class token, without a length
+ * (see {@link PrimitiveValueCodec}).
+ *
+ * Requests flagged with FLAG_CACHED_ARGUMENTS prefix each non-null argument (after its class
+ * token) with a marker: INLINE_ARGUMENT, then the value as usual; CACHED_ARGUMENT, then the digest
+ * of a value the provider already has (see {@link ArgumentCache}); or CACHEABLE_ARGUMENT, then
+ * the digest, varint length and the value bytes, which the provider keeps for later references.
+ */
+public class RpcEnvelopeCodec {
+
+    /**
+     * Argument markers of requests flagged with FLAG_CACHED_ARGUMENTS
+     */
+    public static final int INLINE_ARGUMENT = 0;
+    public static final int CACHED_ARGUMENT = 1;
+    public static final int CACHEABLE_ARGUMENT = 2;
+
+    /**
+     * Whether a message is flagged with FLAG_CACHED_ARGUMENTS.
+     */
+    public static boolean hasCachedArguments(ProtocolMessage.Header header) {
+        ProtocolAttributes attributes = header.getAttributes();
+        return attributes != null && (attributes.getLong(ProtocolAttributeKeys.FLAGS, 0)
+                & ProtocolAttributeKeys.FLAG_CACHED_ARGUMENTS) != 0;
+    }
+
+    /**
+     * Encode a request envelope into the buffer.
+     *
+     * @param rpcRequest      the request to encode
+     * @param serializer      serializer used for the argument values
+     * @param context         the connection's class dictionary, or null
+     * @param cachedArguments whether the request is flagged with FLAG_CACHED_ARGUMENTS
+     * @param buffer          the buffer to append to
+     * @throws IOException if an argument cannot be serialized
+     */
+    public static void encodeRequest(RpcRequest rpcRequest, Serializer serializer, SerializationContext context,
+                                     boolean cachedArguments, Buffer buffer) throws IOException {
+        VarIntUtils.writeString(buffer, rpcRequest.getServiceName());
+        VarIntUtils.writeString(buffer, rpcRequest.getMethodName());
+        VarIntUtils.writeString(buffer, rpcRequest.getServiceVersion());
+
+        Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
+        if (parameterTypes == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+        } else {
+            VarIntUtils.writeVarInt(buffer, parameterTypes.length + 1);
+            for (Class<?> parameterType : parameterTypes) {
+                ClassIdTable.writeClass(buffer, parameterType, context);
+            }
+        }
+
+        Object[] args = rpcRequest.getArgs();
+        if (args == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+        } else {
+            VarIntUtils.writeVarInt(buffer, args.length + 1);
+            for (Object arg : args) {
+                if (cachedArguments) {
+                    writeCachedArgument(buffer, arg, serializer, context);
+                } else {
+                    writeValue(buffer, arg, serializer, context);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a request envelope.
+     *
+     * @param reader          reader positioned at the start of the body
+     * @param serializer      serializer used for the argument values
+     * @param context         the connection's class dictionary, or null
+     * @param cachedArguments whether the request is flagged with FLAG_CACHED_ARGUMENTS
+     * @return the decoded request
+     * @throws IOException if an argument cannot be deserialized, or a cached one is missing
+     */
+    public static RpcRequest decodeRequest(BufferReader reader, Serializer serializer, SerializationContext context,
+                                           boolean cachedArguments) throws IOException {
+        return decodeRequestLazily(reader, serializer, context, cachedArguments).decode();
+    }
+
+    /**
+     * Decode the routing fields of a request envelope and the runtime class of each argument,
+     * leaving the argument values as undecoded slices of the buffer.
+     * Must run in arrival order (it reads class tokens); {@link LazyRpcRequest#decode()} may run anywhere.
+     * Cacheable arguments are added to the connection's argument cache and cached ones looked up.
+     *
+     * @param reader          reader positioned at the start of the body
+     * @param serializer      serializer used later for the argument values
+     * @param context         the connection's class dictionary, or null
+     * @param cachedArguments whether the request is flagged with FLAG_CACHED_ARGUMENTS
+     * @return the partially decoded request
+     */
+    public static LazyRpcRequest decodeRequestLazily(BufferReader reader, Serializer serializer,
+                                                     SerializationContext context, boolean cachedArguments) {
+        RpcRequest routing = new RpcRequest();
+        routing.setServiceName(reader.readString());
+        routing.setMethodName(reader.readString());
+        routing.setServiceVersion(reader.readString());
+
+        int paramCount = reader.readVarInt() - 1;
+        if (paramCount >= 0) {
+            Class<?>[] parameterTypes = new Class<?>[paramCount];
+            for (int i = 0; i < paramCount; i++) {
+                parameterTypes[i] = ClassIdTable.readClass(reader, context);
+            }
+            routing.setParameterTypes(parameterTypes);
+        }
+
+        int argCount = reader.readVarInt() - 1;
+        Class<?>[] argClasses = null;
+        Object[] args = null;
+        Buffer[] argValues = null;
+        boolean missingArguments = false;
+        if (argCount >= 0) {
+            argClasses = new Class<?>[argCount];
+            args = new Object[argCount];
+            argValues = new Buffer[argCount];
+            for (int i = 0; i < argCount; i++) {
+                argClasses[i] = ClassIdTable.readClass(reader, context);
+                if (argClasses[i] == null) {
+                    continue;
+                }
+                BufferReader valueReader = cachedArguments ? readCachedArgument(reader, context) : reader;
+                if (valueReader == null) {
+                    missingArguments = true;
+                } else if (PrimitiveValueCodec.isSupported(argClasses[i])) {
+                    // Cheap enough to decode right away, and there is no length to slice by
+                    args[i] = PrimitiveValueCodec.read(valueReader, argClasses[i]);
+                } else {
+                    argValues[i] = valueReader.readSlice(valueReader.readInt());
+                }
+            }
+        }
+        return new LazyRpcRequest(serializer, routing, argClasses, args, argValues, missingArguments);
+    }
+
+    /**
+     * Encode a response envelope into the buffer.
+     *
+     * @param rpcResponse the response to encode
+     * @param serializer  serializer used for the result data and exception
+     * @param context     the connection's class dictionary, or null
+     * @param buffer      the buffer to append to
+     * @throws IOException if the data cannot be serialized
+     */
+    public static void encodeResponse(RpcResponse rpcResponse, Serializer serializer, SerializationContext context,
+                                      Buffer buffer) throws IOException {
+        ClassIdTable.writeClass(buffer, rpcResponse.getDataType(), context);
+        VarIntUtils.writeString(buffer, rpcResponse.getMessage());
+        writeValue(buffer, rpcResponse.getData(), serializer, context);
+        writeValue(buffer, rpcResponse.getException(), serializer, context);
+        writeError(buffer, rpcResponse.getError());
+    }
+
+    /**
+     * Decode a response envelope.
+     *
+     * @param reader     reader positioned at the start of the body
+     * @param serializer serializer used for the result data and exception
+     * @param context    the connection's class dictionary, or null
+     * @return the decoded response
+     * @throws IOException if the data cannot be deserialized
+     */
+    public static RpcResponse decodeResponse(BufferReader reader, Serializer serializer, SerializationContext context)
+            throws IOException {
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setDataType(ClassIdTable.readClass(reader, context));
+        rpcResponse.setMessage(reader.readString());
+        rpcResponse.setData(readValue(reader, serializer, context));
+        rpcResponse.setException((Exception) readValue(reader, serializer, context));
+        rpcResponse.setError(readError(reader));
+        return rpcResponse;
+    }
+
+    /**
+     * Write a single value: its runtime class followed by the serializer output.
+     * Using the runtime class (not the declared one) lets every serializer bind
+     * the value to its concrete type on the other side.
+     */
+    private static void writeValue(Buffer buffer, Object value, Serializer serializer, SerializationContext context)
+            throws IOException {
+        if (value == null) {
+            ClassIdTable.writeClass(buffer, null, context);
+            return;
+        }
+        ClassIdTable.writeClass(buffer, value.getClass(), context);
+        writeValueBytes(buffer, value, serializer);
+    }
+
+    /**
+     * Write what follows the class token of a non-null value.
+     */
+    private static void writeValueBytes(Buffer buffer, Object value, Serializer serializer) throws IOException {
+        if (PrimitiveValueCodec.isSupported(value.getClass())) {
+            PrimitiveValueCodec.write(buffer, value);
+            return;
+        }
+        int lengthIndex = buffer.length();
+        buffer.appendInt(0);
+        serializer.serialize(value, buffer);
+        buffer.setInt(lengthIndex, buffer.length() - lengthIndex - 4);
+    }
+
+    /**
+     * Write an argument of a request flagged with FLAG_CACHED_ARGUMENTS: small values inline, large
+     * ones as a reference if they were sent on the connection before, and as cacheable otherwise.
+     */
+    private static void writeCachedArgument(Buffer buffer, Object value, Serializer serializer,
+                                            SerializationContext context) throws IOException {
+        if (value == null) {
+            ClassIdTable.writeClass(buffer, null, context);
+            return;
+        }
+        ClassIdTable.writeClass(buffer, value.getClass(), context);
+        ArgumentCacheConfig config = RpcApplication.getRpcConfig().getArgumentCacheConfig();
+        ByteBuf valueMemory = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            Buffer valueBytes = ByteBufBuffers.wrap(valueMemory);
+            writeValueBytes(valueBytes, value, serializer);
+            if (context == null || valueBytes.length() < config.getThreshold()) {
+                VarIntUtils.writeVarInt(buffer, INLINE_ARGUMENT);
+                buffer.appendBuffer(valueBytes);
+                return;
+            }
+            byte[] digest = ArgumentCache.digest(valueBytes);
+            if (context.isArgumentSent(digest)) {
+                VarIntUtils.writeVarInt(buffer, CACHED_ARGUMENT);
+                buffer.appendBytes(digest);
+            } else {
+                context.markArgumentSent(digest, config.getMaxEntries());
+                VarIntUtils.writeVarInt(buffer, CACHEABLE_ARGUMENT);
+                buffer.appendBytes(digest);
+                VarIntUtils.writeVarInt(buffer, valueBytes.length());
+                buffer.appendBuffer(valueBytes);
+            }
+        } finally {
+            valueMemory.release();
+        }
+    }
+
+    /**
+     * Read the marker of an argument written by {@link #writeCachedArgument}.
+     *
+     * @return a reader positioned at the value bytes, or null if the argument is not in the cache
+     */
+    private static BufferReader readCachedArgument(BufferReader reader, SerializationContext context) {
+        int marker = reader.readVarInt();
+        switch (marker) {
+            case INLINE_ARGUMENT:
+                return reader;
+            case CACHED_ARGUMENT: {
+                byte[] digest = reader.readBytes(ArgumentCache.DIGEST_LENGTH);
+                Buffer valueBytes = context == null ? null : context.getArgumentCache().get(digest);
+                return valueBytes == null ? null : new BufferReader(valueBytes);
+            }
+            case CACHEABLE_ARGUMENT: {
+                byte[] digest = reader.readBytes(ArgumentCache.DIGEST_LENGTH);
+                Buffer valueBytes = reader.readSlice(reader.readVarInt());
+                if (context != null) {
+                    ArgumentCacheConfig config = RpcApplication.getRpcConfig().getArgumentCacheConfig();
+                    context.getArgumentCache().put(digest, valueBytes, config.getMaxEntries(), config.getMaxBytes());
+                }
+                return new BufferReader(valueBytes);
+            }
+            default:
+                throw new RuntimeException("Invalid argument marker: " + marker);
+        }
+    }
+
+    /**
+     * Read a single value written by {@link #writeValue}.
+     */
+    private static Object readValue(BufferReader reader, Serializer serializer, SerializationContext context)
+            throws IOException {
+        Class<?> valueClass = ClassIdTable.readClass(reader, context);
+        if (valueClass == null) {
+            return null;
+        }
+        if (PrimitiveValueCodec.isSupported(valueClass)) {
+            return PrimitiveValueCodec.read(reader, valueClass);
+        }
+        return serializer.deserialize(reader.readSlice(reader.readInt()), valueClass);
+    }
+
+    private static void writeError(Buffer buffer, RpcError rpcError) {
+        if (rpcError == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+            return;
+        }
+        VarIntUtils.writeVarInt(buffer, rpcError.getCode() + 1);
+        VarIntUtils.writeString(buffer, rpcError.getExceptionClass());
+        VarIntUtils.writeString(buffer, rpcError.getMessage());
+        String[] stackTrace = rpcError.getStackTrace();
+        int frameCount = stackTrace == null ? 0 : stackTrace.length;
+        VarIntUtils.writeVarInt(buffer, frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            VarIntUtils.writeString(buffer, stackTrace[i]);
+        }
+    }
+
+    private static RpcError readError(BufferReader reader) {
+        int code = reader.readVarInt() - 1;
+        if (code < 0) {
+            return null;
+        }
+        RpcError rpcError = new RpcError();
+        rpcError.setCode(code);
+        rpcError.setExceptionClass(reader.readString());
+        rpcError.setMessage(reader.readString());
+        String[] stackTrace = new String[reader.readVarInt()];
+        for (int i = 0; i < stackTrace.length; i++) {
+            stackTrace[i] = reader.readString();
+        }
+        rpcError.setStackTrace(stackTrace);
+        return rpcError;
+    }
+}
@@ -0,0 +1,253 @@
+package com.xianwei.customrpc.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialization Context
+ *
+ * Per-connection class dictionary used by the envelope codec. The first time a class
+ * that is not in the well-known table is written on a connection, its name goes inline
+ * and both ends assign it the next dynamic id; every later occurrence is written as that id.
+ *
+ * Each direction has its own dictionary: the outbound one follows the messages this end
+ * encodes, the inbound one the messages it decodes. Both therefore stay in sync as long as
+ * messages are encoded in the order they are written to the socket and decoded in the order
+ * they arrive. A context belongs to exactly one connection and is discarded with it,
+ * so a reconnect always starts from empty dictionaries.
+ *
+ * The context also records what the peer announced about body compression on its first
+ * version 2 message (see {@link MessageCompression}), which is written by the decoding thread
+ * and read by encoding threads.
+ *
+ * It also holds the connection's {@link ArgumentCache}. Argument values written for caching are
+ * only recorded as sent by {@link #commitOutbound()}, once their message is written, and never
+ * for fragmented messages: the peer decodes those off the event loop, possibly after later
+ * messages that would reference the values.
+ *
+ * Fragmented messages bypass the dictionaries (see {@link #detached()}), so their frames can
+ * be interleaved with other messages and they can be decoded in any order.
+ *
+ * Not thread-safe: callers serialize encode+write per connection, and decoding runs on the
+ * connection's event loop.
+ */
+public class SerializationContext {
+
+    /**
+     * Maximum number of dynamic ids per direction. Once reached, further classes are
+     * written inline on every occurrence (both ends apply the same limit).
+     */
+    public static final int MAX_DYNAMIC_CLASSES = 4096;
+
+    /**
+     * Outbound dictionary: class → dynamic id
+     */
+    private final Map<Class<?>, Integer> outboundIds = new HashMap<>();
+
+    /**
+     * Inbound dictionary, indexed by dynamic id
+     */
+    private final List<Class<?>> inboundClasses = new ArrayList<>();
+
+    /**
+     * Digests of the argument values written for caching by the message being encoded
+     */
+    private final List<byte[]> pendingSentArguments = new ArrayList<>();
+
+    /**
+     * Number of sent digests to remember, as passed with the pending ones
+     */
+    private int maxSentArguments;
+
+    /**
+     * Whether this end has announced its compression codecs on the connection
+     */
+    private boolean compressionAnnounced;
+
+    /**
+     * Compression codecs the peer can decode (bit per codec key), 0 until it announces them
+     */
+    private volatile int peerCompressionMask;
+
+    /**
+     * Id of the peer's preset compression dictionary, or -1 if it has none
+     */
+    private volatile long peerDictionaryId = -1;
+
+    /**
+     * Large argument values cached on this connection, shared with the detached view
+     */
+    private final ArgumentCache argumentCache;
+
+    /**
+     * For a detached view, the connection's context; null for the connection's context itself
+     */
+    private final SerializationContext connection;
+
+    /**
+     * The detached view of this context
+     */
+    private final SerializationContext detached;
+
+    public SerializationContext() {
+        this.connection = null;
+        this.argumentCache = new ArgumentCache();
+        this.detached = new SerializationContext(this);
+    }
+
+    private SerializationContext(SerializationContext connection) {
+        this.connection = connection;
+        this.argumentCache = connection.argumentCache;
+        this.detached = this;
+    }
+
+    /**
+     * A view of this context without class dictionaries: every class is written inline and
+     * nothing is defined, while the compression state is shared with the connection.
+     * Used for fragmented messages.
+     */
+    public SerializationContext detached() {
+        return detached;
+    }
+
+    /**
+     * Get the dynamic id already assigned to a class on this connection.
+     *
+     * @param clazz the class to look up
+     * @return the id, or null if the class has not been sent yet
+     */
+    public Integer getOutboundId(Class<?> clazz) {
+        if (connection != null) {
+            return null;
+        }
+        return outboundIds.get(clazz);
+    }
+
+    /**
+     * Assign the next outbound id to a class that is being written inline.
+     */
+    public void defineOutbound(Class<?> clazz) {
+        if (connection == null && outboundIds.size() < MAX_DYNAMIC_CLASSES) {
+            outboundIds.put(clazz, outboundIds.size());
+        }
+    }
+
+    /**
+     * Number of outbound ids assigned so far; pass to {@link #rollbackOutbound} if the
+     * message being encoded is never written.
+     */
+    public int outboundMark() {
+        return outboundIds.size();
+    }
+
+    /**
+     * Forget the outbound ids assigned after the given mark, and the argument values written
+     * for caching since then.
+     */
+    public void rollbackOutbound(int mark) {
+        outboundIds.values().removeIf(id -> id >= mark);
+        pendingSentArguments.clear();
+    }
+
+    /**
+     * The message being encoded is written: record its argument values as sent.
+     */
+    public void commitOutbound() {
+        for (byte[] digest : pendingSentArguments) {
+            argumentCache.recordSent(digest, maxSentArguments);
+        }
+        pendingSentArguments.clear();
+    }
+
+    /**
+     * Whether an argument value can be referenced by its digest: it was sent for caching by an
+     * earlier message, or earlier in the message being encoded.
+     */
+    public boolean isArgumentSent(byte[] digest) {
+        if (argumentCache.isSent(digest)) {
+            return true;
+        }
+        for (byte[] pending : pendingSentArguments) {
+            if (Arrays.equals(pending, digest)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An argument value is written for caching by the message being encoded; ignored by the
+     * detached view, whose messages are fragmented.
+     *
+     * @param digest     digest of the value
+     * @param maxEntries the number of sent digests to remember
+     */
+    public void markArgumentSent(byte[] digest, int maxEntries) {
+        if (connection != null) {
+            return;
+        }
+        pendingSentArguments.add(digest);
+        maxSentArguments = maxEntries;
+    }
+
+    /**
+     * Get a class previously received inline on this connection.
+     *
+     * @param id the dynamic id
+     * @return the class
+     */
+    public Class<?> getInbound(int id) {
+        if (connection != null || id < 0 || id >= inboundClasses.size()) {
+            throw new RuntimeException("Unknown dynamic class id: " + id);
+        }
+        return inboundClasses.get(id);
+    }
+
+    /**
+     * Assign the next inbound id to a class that was received inline.
+     */
+    public void defineInbound(Class<?> clazz) {
+        if (connection == null && inboundClasses.size() < MAX_DYNAMIC_CLASSES) {
+            inboundClasses.add(clazz);
+        }
+    }
+
+    public ArgumentCache getArgumentCache() {
+        return argumentCache;
+    }
+
+    public boolean isCompressionAnnounced() {
+        return connection != null ? connection.isCompressionAnnounced() : compressionAnnounced;
+    }
+
+    public void setCompressionAnnounced(boolean compressionAnnounced) {
+        if (connection != null) {
+            connection.setCompressionAnnounced(compressionAnnounced);
+            return;
+        }
+        this.compressionAnnounced = compressionAnnounced;
+    }
+
+    public int getPeerCompressionMask() {
+        return connection != null ? connection.getPeerCompressionMask() : peerCompressionMask;
+    }
+
+    public long getPeerDictionaryId() {
+        return connection != null ? connection.getPeerDictionaryId() : peerDictionaryId;
+    }
+
+    /**
+     * Record the compression capabilities announced by the peer.
+     */
+    public void setPeerCompression(int peerCompressionMask, long peerDictionaryId) {
+        if (connection != null) {
+            connection.setPeerCompression(peerCompressionMask, peerDictionaryId);
+            return;
+        }
+        this.peerDictionaryId = peerDictionaryId;
+        this.peerCompressionMask = peerCompressionMask;
+    }
+}
@@ -0,0 +1,43 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.model.VersionTagged;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Version Tags
+ *
+ * Version tags of results for conditional calls (the VERSION_TAG attribute). A result that is
+ * {@link VersionTagged} supplies its own tag; any other result is tagged with the SHA-256 digest
+ * of its serialized response body (see {@link ProtocolMessageEncoder#encodeBodyPooled}), so
+ * serializers that write equal values differently (e.g. unordered maps) only cost a full response,
+ * never a wrong one.
+ */
+public class VersionTags {
+
+    /**
+     * Get the version tag a result supplies.
+     *
+     * @param data the result data
+     * @return the tag, never empty
+     * @throws IllegalStateException if the result supplies an empty tag
+     */
+    public static byte[] of(VersionTagged data) {
+        String versionTag = data.versionTag();
+        if (versionTag == null || versionTag.isEmpty()) {
+            throw new IllegalStateException("Empty version tag from " + data.getClass().getName());
+        }
+        return versionTag.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compute the version tag of a serialized response body.
+     *
+     * @param body the response body, serialized on its own
+     * @return the tag
+     */
+    public static byte[] of(Buffer body) {
+        return ArgumentCache.digest(body);
+    }
+}
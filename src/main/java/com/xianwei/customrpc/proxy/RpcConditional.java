@@ -0,0 +1,24 @@
+package com.xianwei.customrpc.proxy;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Conditional Call Annotation
+ *
+ * Marks a service interface method that consumers poll for data that rarely changes. The consumer
+ * keeps the last result per argument list together with its version tag and sends the tag with
+ * the next call; if the result has not changed, the provider answers NOT_MODIFIED instead of
+ * sending it again, and the kept result is returned (see {@link com.xianwei.customrpc.model.VersionTagged}).
+ *
+ * Arguments must implement equals and hashCode. The same result instance may be returned by
+ * several calls, so callers must not modify it. Needs protocol version 2.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RpcConditional {
+}
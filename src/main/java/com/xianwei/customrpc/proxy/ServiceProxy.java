@@ -18,6 +18,7 @@ import com.xianwei.customrpc.model.ServiceMetaInfo;
 import com.xianwei.customrpc.registry.Registry;
 import com.xianwei.customrpc.registry.RegistryFactory;
 import com.xianwei.customrpc.server.VertxClient;
+import com.xianwei.customrpc.utils.RpcErrorUtils;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
@@ -55,6 +56,43 @@ public class ServiceProxy implements InvocationHandler {
                 .args(args)
                 .build();
 
+        RpcConfig rpcConfig = RpcApplication.getRpcConfig();
+        // Discover the providers and select one
+        ServiceMetaInfo selectedServiceMetaInfo = selectProvider(serviceName, rpcRequest.getMethodName());
+
+        // Execute the RPC request using retry and fault tolerance strategies
+        RpcResponse rpcResponse;
+        try {
+            RetryStrategy retryStrategy = RetryStrategyFactory.getInstance(rpcConfig.getRetryStrategy());
+            rpcResponse = retryStrategy.doRetry(() ->
+                    VertxClient.doRequest(rpcRequest, selectedServiceMetaInfo,
+                            method.isAnnotationPresent(RpcConditional.class))
+            );
+        } catch (Exception e) {
+            // If retry fails, apply the fault-tolerance strategy
+            TolerantStrategy tolerantStrategy = TolerantStrategyFactory.getInstance(rpcConfig.getTolerantStrategy());
+            rpcResponse = tolerantStrategy.doTolerant(null, e);
+        }
+
+        // Re-throw the provider's exception to the caller
+        if (rpcResponse.getError() != null) {
+            throw RpcErrorUtils.toException(rpcResponse.getError());
+        }
+        if (rpcResponse.getException() != null) {
+            throw rpcResponse.getException();
+        }
+
+        return rpcResponse.getData(); // Return result from the RPC response
+    }
+
+    /**
+     * Discover the providers of a service and pick one with the configured load balancer.
+     *
+     * @param serviceName name of the service (its interface name)
+     * @param methodName  method (or topic) the provider is selected for
+     * @return the selected provider
+     */
+    static ServiceMetaInfo selectProvider(String serviceName, String methodName) {
         // Retrieve service provider list from the registry
         RpcConfig rpcConfig = RpcApplication.getRpcConfig();
         Registry registry = RegistryFactory.getInstance(rpcConfig.getRegistryConfig().getRegistry());
@@ -72,22 +110,7 @@ public class ServiceProxy implements InvocationHandler {
         // Apply load balancing to select a target service instance
         LoadBalancer loadBalancer = LoadBalancerFactory.getInstance(rpcConfig.getLoadBalancer());
         Map<String, Object> requestParams = new HashMap<>();
-        requestParams.put("methodName", rpcRequest.getMethodName());
-        ServiceMetaInfo selectedServiceMetaInfo = loadBalancer.select(requestParams, serviceMetaInfoList);
-
-        // Execute the RPC request using retry and fault tolerance strategies
-        RpcResponse rpcResponse;
-        try {
-            RetryStrategy retryStrategy = RetryStrategyFactory.getInstance(rpcConfig.getRetryStrategy());
-            rpcResponse = retryStrategy.doRetry(() ->
-                    VertxClient.doRequest(rpcRequest, selectedServiceMetaInfo)
-            );
-        } catch (Exception e) {
-            // If retry fails, apply the fault-tolerance strategy
-            TolerantStrategy tolerantStrategy = TolerantStrategyFactory.getInstance(rpcConfig.getTolerantStrategy());
-            rpcResponse = tolerantStrategy.doTolerant(null, e);
-        }
-
-        return rpcResponse.getData(); // Return result from the RPC response
+        requestParams.put("methodName", methodName);
+        return loadBalancer.select(requestParams, serviceMetaInfoList);
     }
 }
@@ -1,8 +1,13 @@
 package com.xianwei.customrpc.proxy;
 
 import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.event.RpcEventListener;
+import com.xianwei.customrpc.event.Subscription;
+import com.xianwei.customrpc.model.ServiceMetaInfo;
+import com.xianwei.customrpc.server.VertxClient;
 
 import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Service Proxy Factory (Factory Pattern)
@@ -34,6 +39,24 @@ public class ServiceProxyFactory {
         );
     }
 
+    /**
+     * Subscribe to a topic of a remote service: one of its providers is selected like for a call,
+     * and pushes the events published on the topic (see EventPublisher) to the listener.
+     *
+     * @param serviceClass the interface class representing the remote service
+     * @param topic        the topic
+     * @param listener     receives the events, one at a time on a worker thread
+     * @param <T> the type of the events
+     * @return the subscription, to cancel it
+     * @throws InterruptedException if the thread is interrupted while connecting
+     * @throws ExecutionException if the connection fails or the subscription cannot be sent
+     */
+    public static <T> Subscription subscribe(Class<?> serviceClass, String topic, RpcEventListener<T> listener)
+            throws InterruptedException, ExecutionException {
+        ServiceMetaInfo serviceMetaInfo = ServiceProxy.selectProvider(serviceClass.getName(), topic);
+        return VertxClient.subscribe(serviceMetaInfo, topic, listener);
+    }
+
     /**
      * Get a mock proxy for the given service interface.
      * This is used for testing or fallback when RPC is disabled.
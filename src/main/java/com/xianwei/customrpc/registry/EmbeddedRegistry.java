@@ -0,0 +1,335 @@
+package com.xianwei.customrpc.registry;
+
+import cn.hutool.core.collection.ConcurrentHashSet;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.xianwei.customrpc.config.RegistryConfig;
+import com.xianwei.customrpc.model.ServiceMetaInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Embedded Registry
+ *
+ * In-process registry for benchmarks, tests and deployments without an external registry.
+ * The address selects where the nodes come from:
+ * - anything else (e.g. {@code mem}): nodes registered in this process only, so providers and
+ *   consumers share a JVM;
+ * - {@code file:/path/registry.json}: nodes of all processes on the host, kept in a JSON file
+ *   ({"nodes": {nodeKey: ServiceMetaInfo}}) under a file lock. It can also be written by hand;
+ * - {@code static:host:port,host:port}: a fixed list of providers serving every service,
+ *   connected to directly (they are assumed to speak protocol version 1).
+ *
+ * Nodes registered in this process are always discoverable too. Watched services are updated as
+ * soon as a node is registered or removed here; changes to the file are picked up within a second.
+ */
+@Slf4j
+public class EmbeddedRegistry implements Registry {
+
+    /**
+     * Address prefix of a registry file
+     */
+    static final String FILE_PREFIX = "file:";
+
+    /**
+     * Address prefix of a static provider list
+     */
+    static final String STATIC_PREFIX = "static:";
+
+    /**
+     * Interval between checks of the registry file for changes, in milliseconds
+     */
+    private static final long FILE_POLL_MILLIS = 1000;
+
+    /**
+     * Nodes registered in this process: node key → node
+     */
+    private final Map<String, ServiceMetaInfo> localNodes = new ConcurrentHashMap<>();
+
+    /**
+     * Nodes last read from the registry file (empty without one)
+     */
+    private volatile Map<String, ServiceMetaInfo> fileNodes = Collections.emptyMap();
+
+    /**
+     * Static providers as host:port (empty without a static list)
+     */
+    private List<String> staticProviders = Collections.emptyList();
+
+    /**
+     * Registry file, or null without one
+     */
+    private Path file;
+
+    /**
+     * Modification time and size of the registry file when it was last read
+     */
+    private String fileVersion;
+
+    private ScheduledExecutorService filePoller;
+
+    /**
+     * Snapshots of the discovered services
+     */
+    private final RegistryServiceMultiCache registryServiceMultiCache = new RegistryServiceMultiCache();
+
+    /**
+     * Watched service keys, whose snapshots are rebuilt on every change
+     */
+    private final Set<String> watchingKeySet = new ConcurrentHashSet<>();
+
+    /**
+     * Revision of the nodes, increased on every change
+     */
+    private final AtomicLong revision = new AtomicLong();
+
+    /**
+     * Initialize the registry from the address: read the registry file and start polling it,
+     * or parse the static provider list.
+     */
+    @Override
+    public void init(RegistryConfig registryConfig) {
+        String address = StrUtil.trim(registryConfig.getAddress());
+        if (StrUtil.startWith(address, FILE_PREFIX)) {
+            file = Paths.get(address.substring(FILE_PREFIX.length())).toAbsolutePath();
+            reloadFile();
+            filePoller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "embedded-registry-poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+            filePoller.scheduleWithFixedDelay(this::reloadFile, FILE_POLL_MILLIS, FILE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (StrUtil.startWith(address, STATIC_PREFIX)) {
+            List<String> providers = new ArrayList<>();
+            for (String provider : StrUtil.split(address.substring(STATIC_PREFIX.length()), ',', true, true)) {
+                if (provider.lastIndexOf(':') <= 0) {
+                    throw new RuntimeException("Invalid static provider address: " + provider);
+                }
+                providers.add(provider);
+            }
+            staticProviders = providers;
+        }
+    }
+
+    /**
+     * Register a node in this process, and in the registry file if there is one.
+     */
+    @Override
+    public void register(ServiceMetaInfo serviceMetaInfo) throws Exception {
+        String nodeKey = serviceMetaInfo.getServiceNodeKey();
+        localNodes.put(nodeKey, serviceMetaInfo);
+        if (file != null) {
+            updateFile(nodes -> nodes.put(nodeKey, serviceMetaInfo));
+        }
+        changed(serviceMetaInfo.getServiceKey());
+    }
+
+    /**
+     * Remove a node registered in this process, and from the registry file if there is one.
+     */
+    @Override
+    public void unRegister(ServiceMetaInfo serviceMetaInfo) {
+        String nodeKey = serviceMetaInfo.getServiceNodeKey();
+        localNodes.remove(nodeKey);
+        if (file != null) {
+            try {
+                updateFile(nodes -> nodes.remove(nodeKey));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to deregister node: " + nodeKey, e);
+            }
+        }
+        changed(serviceMetaInfo.getServiceKey());
+    }
+
+    /**
+     * Discover the providers of a service: a memory read, watched from the first discovery on.
+     */
+    @Override
+    public List<ServiceMetaInfo> serviceDiscovery(String serviceKey) {
+        List<ServiceMetaInfo> cached = registryServiceMultiCache.readCache(serviceKey);
+        if (cached != null) {
+            return cached;
+        }
+        watch(serviceKey);
+        return registryServiceMultiCache.readCache(serviceKey);
+    }
+
+    /**
+     * No need for a heartbeat: nodes live as long as they are registered.
+     */
+    @Override
+    public void heartBeat() {
+        // Not required for the embedded registry
+    }
+
+    /**
+     * Keep the snapshot of a service current from now on.
+     *
+     * @param serviceKey the service key whose nodes to watch
+     */
+    @Override
+    public void watch(String serviceKey) {
+        if (watchingKeySet.add(serviceKey)) {
+            refresh(serviceKey);
+        }
+    }
+
+    /**
+     * Remove the nodes of this process from the registry file and stop polling it.
+     */
+    @Override
+    public void destroy() {
+        if (filePoller != null) {
+            filePoller.shutdownNow();
+        }
+        if (file != null && !localNodes.isEmpty()) {
+            try {
+                updateFile(nodes -> nodes.keySet().removeAll(localNodes.keySet()));
+            } catch (IOException e) {
+                log.warn("Failed to remove the local nodes from {}", file, e);
+            }
+        }
+        localNodes.clear();
+    }
+
+    /**
+     * The nodes of a service changed: rebuild its snapshot if it is watched.
+     */
+    private void changed(String serviceKey) {
+        if (watchingKeySet.contains(serviceKey)) {
+            refresh(serviceKey);
+        }
+    }
+
+    /**
+     * Rebuild the snapshot of a service from the static providers, the file and the local nodes.
+     */
+    private synchronized void refresh(String serviceKey) {
+        Map<String, ServiceMetaInfo> instances = new LinkedHashMap<>();
+        int separator = serviceKey.lastIndexOf(':');
+        for (String provider : staticProviders) {
+            int portSeparator = provider.lastIndexOf(':');
+            ServiceMetaInfo serviceMetaInfo = new ServiceMetaInfo();
+            serviceMetaInfo.setServiceName(separator < 0 ? serviceKey : serviceKey.substring(0, separator));
+            if (separator >= 0) {
+                serviceMetaInfo.setServiceVersion(serviceKey.substring(separator + 1));
+            }
+            serviceMetaInfo.setServiceHost(provider.substring(0, portSeparator));
+            serviceMetaInfo.setServicePort(Integer.parseInt(provider.substring(portSeparator + 1)));
+            instances.put(serviceMetaInfo.getServiceNodeKey(), serviceMetaInfo);
+        }
+        putServiceNodes(instances, fileNodes, serviceKey);
+        putServiceNodes(instances, localNodes, serviceKey);
+        registryServiceMultiCache.writeSnapshot(serviceKey,
+                ServiceInstanceSnapshot.of(instances, revision.incrementAndGet()));
+    }
+
+    private static void putServiceNodes(Map<String, ServiceMetaInfo> instances, Map<String, ServiceMetaInfo> nodes,
+                                        String serviceKey) {
+        String prefix = serviceKey + "/";
+        for (Map.Entry<String, ServiceMetaInfo> node : nodes.entrySet()) {
+            if (node.getKey().startsWith(prefix)) {
+                instances.put(node.getKey(), node.getValue());
+            }
+        }
+    }
+
+    /**
+     * Read the registry file if it changed since it was last read, and rebuild the watched snapshots.
+     */
+    private synchronized void reloadFile() {
+        try {
+            String version = Files.exists(file)
+                    ? Files.getLastModifiedTime(file).toMillis() + "/" + Files.size(file)
+                    : null;
+            if (version != null && version.equals(fileVersion)) {
+                return;
+            }
+            fileNodes = readFile();
+            fileVersion = version;
+        } catch (IOException | RuntimeException e) {
+            // Keep the nodes read before; a file being rewritten by hand is read again next time
+            log.warn("Failed to read registry file {}", file, e);
+            return;
+        }
+        for (String serviceKey : watchingKeySet) {
+            refresh(serviceKey);
+        }
+    }
+
+    private Map<String, ServiceMetaInfo> readFile() throws IOException {
+        Map<String, ServiceMetaInfo> nodes = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return nodes;
+        }
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        if (StrUtil.isBlank(content)) {
+            return nodes;
+        }
+        JSONObject nodesJson = JSONUtil.parseObj(content).getJSONObject("nodes");
+        if (nodesJson != null) {
+            for (String nodeKey : nodesJson.keySet()) {
+                nodes.put(nodeKey, nodesJson.getJSONObject(nodeKey).toBean(ServiceMetaInfo.class));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Change the registry file: read, update and atomically replace it while holding a lock that
+     * other processes on the host respect too.
+     */
+    private synchronized void updateFile(Consumer<Map<String, ServiceMetaInfo>> update) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                Map<String, ServiceMetaInfo> nodes = readFile();
+                update.accept(nodes);
+                JSONObject nodesJson = new JSONObject();
+                for (Map.Entry<String, ServiceMetaInfo> node : nodes.entrySet()) {
+                    nodesJson.set(node.getKey(), JSONUtil.parseObj(node.getValue()));
+                }
+                JSONObject root = new JSONObject();
+                root.set("nodes", nodesJson);
+
+                Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temporaryFile, root.toStringPretty().getBytes(StandardCharsets.UTF_8));
+                try {
+                    Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                fileNodes = nodes;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+}
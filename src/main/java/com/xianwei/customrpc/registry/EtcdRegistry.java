@@ -1,6 +1,5 @@
 package com.xianwei.customrpc.registry;
 
-import cn.hutool.core.collection.CollUtil;
 import cn.hutool.core.collection.ConcurrentHashSet;
 import cn.hutool.cron.CronUtil;
 import cn.hutool.cron.task.Task;
@@ -8,32 +7,59 @@ import cn.hutool.json.JSONUtil;
 import com.xianwei.customrpc.config.RegistryConfig;
 import com.xianwei.customrpc.model.ServiceMetaInfo;
 import io.etcd.jetcd.*;
+import io.etcd.jetcd.common.exception.CompactedException;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.lease.LeaseKeepAliveResponse;
 import io.etcd.jetcd.options.GetOption;
 import io.etcd.jetcd.options.PutOption;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.support.CloseableClient;
 import io.etcd.jetcd.watch.WatchEvent;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
 
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Etcd Registry
  *
  * This class implements the Registry interface using Etcd as the backend.
  * It handles service registration, discovery, heartbeat renewal, and watching service changes.
+ * All nodes of the process share one lease, renewed by a keep-alive stream.
+ * Discovered services are cached as versioned snapshots that their prefix watches keep current.
+ * With a snapshot file configured, they also survive restarts and are served while etcd is unreachable.
  */
+@Slf4j
 public class EtcdRegistry implements Registry {
 
     private Client client;
     private KV kvClient;
 
     /**
-     * Locally registered node keys (used for lease renewal).
+     * Locally registered nodes: node key → value (put again if the lease is lost).
      */
-    private final Set<String> localRegisterNodeKeySet = new HashSet<>();
+    private final Map<String, String> localRegisterNodes = new ConcurrentHashMap<>();
+
+    /**
+     * Lease shared by all local nodes, renewed by a keep-alive stream; 0 while there is none
+     */
+    private long leaseId;
+
+    private CloseableClient leaseKeepAlive;
+
+    /**
+     * Guards leaseId and leaseKeepAlive
+     */
+    private final Object leaseLock = new Object();
 
     /**
      * Deprecated: single-service cache (legacy, not recommended).
@@ -47,15 +73,35 @@ public class EtcdRegistry implements Registry {
     private final RegistryServiceMultiCache registryServiceMultiCache = new RegistryServiceMultiCache();
 
     /**
-     * Set of keys currently being watched for changes.
+     * Set of service keys currently being watched for changes.
      */
     private final Set<String> watchingKeySet = new ConcurrentHashSet<>();
 
+    /**
+     * Active prefix watches: serviceKey → watcher
+     */
+    private final Map<String, Watch.Watcher> watchers = new ConcurrentHashMap<>();
+
+    /**
+     * Services whose stale snapshot is being listed again in the background
+     */
+    private final Set<String> refreshingKeySet = new ConcurrentHashSet<>();
+
+    /**
+     * How long listing the nodes of a service may take, in milliseconds
+     */
+    private long timeout;
+
     /**
      * Root path prefix used for all RPC keys in etcd.
      */
     private static final String ETCD_ROOT_PATH = "/rpc/";
 
+    /**
+     * Time to live of the lease, in seconds
+     */
+    private static final long LEASE_TTL_SECONDS = 30;
+
     /**
      * Initialize etcd client using registry config.
      */
@@ -66,25 +112,91 @@ public class EtcdRegistry implements Registry {
                 .connectTimeout(Duration.ofMillis(registryConfig.getTimeout()))
                 .build();
         kvClient = client.getKVClient();
+        timeout = registryConfig.getTimeout();
+        registryServiceMultiCache.init(registryConfig); // Restore the saved snapshots, if any
         heartBeat(); // Start scheduled heartbeats
     }
 
     /**
-     * Register a service node in etcd with a lease (30 seconds).
+     * Register a service node in etcd, attached to the process's lease (30 seconds, kept alive).
      */
     @Override
     public void register(ServiceMetaInfo serviceMetaInfo) throws Exception {
-        Lease leaseClient = client.getLeaseClient();
-        long leaseId = leaseClient.grant(30).get().getID();
-
         String registerKey = ETCD_ROOT_PATH + serviceMetaInfo.getServiceNodeKey();
-        ByteSequence key = ByteSequence.from(registerKey, StandardCharsets.UTF_8);
-        ByteSequence value = ByteSequence.from(JSONUtil.toJsonStr(serviceMetaInfo), StandardCharsets.UTF_8);
+        String value = JSONUtil.toJsonStr(serviceMetaInfo);
+        localRegisterNodes.put(registerKey, value); // track for re-registration
+        putNode(registerKey, value, currentLease());
+    }
 
+    private void putNode(String registerKey, String value, long leaseId) throws Exception {
         PutOption putOption = PutOption.builder().withLeaseId(leaseId).build();
-        kvClient.put(key, value, putOption).get();
+        kvClient.put(ByteSequence.from(registerKey, StandardCharsets.UTF_8),
+                ByteSequence.from(value, StandardCharsets.UTF_8), putOption).get();
+    }
+
+    /**
+     * The lease of the local nodes: granted on first use, then renewed by jetcd's keep-alive stream
+     * (a third of the TTL apart) until it is lost.
+     */
+    private long currentLease() throws Exception {
+        synchronized (leaseLock) {
+            if (leaseId != 0) {
+                return leaseId;
+            }
+            return grantLease();
+        }
+    }
+
+    /**
+     * Grant a new lease and start keeping it alive; called with leaseLock held.
+     */
+    private long grantLease() throws Exception {
+        Lease leaseClient = client.getLeaseClient();
+        long grantedLeaseId = leaseClient.grant(LEASE_TTL_SECONDS).get().getID();
+        leaseKeepAlive = leaseClient.keepAlive(grantedLeaseId, new StreamObserver<LeaseKeepAliveResponse>() {
+            @Override
+            public void onNext(LeaseKeepAliveResponse response) {
+                if (response.getTTL() <= 0) {
+                    leaseLost(grantedLeaseId, null);
+                }
+            }
 
-        localRegisterNodeKeySet.add(registerKey); // track for heartbeats
+            @Override
+            public void onError(Throwable throwable) {
+                leaseLost(grantedLeaseId, throwable);
+            }
+
+            @Override
+            public void onCompleted() {
+                leaseLost(grantedLeaseId, null);
+            }
+        });
+        leaseId = grantedLeaseId;
+        return leaseId;
+    }
+
+    /**
+     * The lease expired or can no longer be kept alive: the nodes are registered again with a new
+     * lease on the next heartbeat.
+     */
+    private void leaseLost(long lostLeaseId, Throwable cause) {
+        synchronized (leaseLock) {
+            if (lostLeaseId != leaseId) {
+                return;
+            }
+            log.warn("Lease {} lost, re-registering {} node(s)", lostLeaseId, localRegisterNodes.size(), cause);
+            leaseId = 0;
+            if (leaseKeepAlive != null) {
+                leaseKeepAlive.close();
+                leaseKeepAlive = null;
+            }
+        }
+    }
+
+    private boolean hasLease() {
+        synchronized (leaseLock) {
+            return leaseId != 0;
+        }
     }
 
     /**
@@ -93,66 +205,111 @@ public class EtcdRegistry implements Registry {
     @Override
     public void unRegister(ServiceMetaInfo serviceMetaInfo) {
         String registerKey = ETCD_ROOT_PATH + serviceMetaInfo.getServiceNodeKey();
+        localRegisterNodes.remove(registerKey);
         kvClient.delete(ByteSequence.from(registerKey, StandardCharsets.UTF_8));
-        localRegisterNodeKeySet.remove(registerKey);
     }
 
     /**
      * Discover service providers for a given serviceKey.
+     * The first discovery of a service lists its nodes and starts a prefix watch on them; after
+     * that it is a memory read, kept current by the watch.
+     * A stale snapshot (restored from the snapshot file, or left by a failed watch) is still
+     * returned, while its nodes are listed again in the background.
      */
     @Override
     public List<ServiceMetaInfo> serviceDiscovery(String serviceKey) {
         // Try cache first
         List<ServiceMetaInfo> cached = registryServiceMultiCache.readCache(serviceKey);
         if (cached != null) {
+            if (registryServiceMultiCache.isStale(serviceKey)) {
+                refreshAsync(serviceKey);
+            }
             return cached;
         }
+        synchronized (this) {
+            ServiceInstanceSnapshot snapshot = registryServiceMultiCache.readSnapshot(serviceKey);
+            if (snapshot == null) {
+                snapshot = loadSnapshot(serviceKey);
+                registryServiceMultiCache.writeSnapshot(serviceKey, snapshot);
+            }
+            watch(serviceKey);
+            return snapshot.getInstances();
+        }
+    }
 
-        String searchPrefix = ETCD_ROOT_PATH + serviceKey + "/";
+    /**
+     * List the nodes of a service with a stale snapshot again and watch them from there.
+     * Until that succeeds, the stale snapshot keeps being served; a failure is retried on the
+     * next discovery.
+     */
+    private void refreshAsync(String serviceKey) {
+        if (!refreshingKeySet.add(serviceKey)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                ServiceInstanceSnapshot snapshot = loadSnapshot(serviceKey);
+                synchronized (this) {
+                    stopWatching(serviceKey, watchers.get(serviceKey));
+                    registryServiceMultiCache.writeSnapshot(serviceKey, snapshot);
+                    watch(serviceKey);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to refresh {}, serving its stale snapshot", serviceKey, e);
+            } finally {
+                refreshingKeySet.remove(serviceKey);
+            }
+        });
+    }
 
+    /**
+     * List the nodes of a service, together with the revision they were read at.
+     */
+    private ServiceInstanceSnapshot loadSnapshot(String serviceKey) {
+        String searchPrefix = ETCD_ROOT_PATH + serviceKey + "/";
         try {
             GetOption getOption = GetOption.builder().isPrefix(true).build();
-            List<KeyValue> keyValues = kvClient.get(
+            GetResponse getResponse = kvClient.get(
                     ByteSequence.from(searchPrefix, StandardCharsets.UTF_8), getOption
-            ).get().getKvs();
-
-            List<ServiceMetaInfo> result = keyValues.stream()
-                    .map(kv -> {
-                        String key = kv.getKey().toString(StandardCharsets.UTF_8);
-                        watch(key); // Start watching for changes
-                        String value = kv.getValue().toString(StandardCharsets.UTF_8);
-                        return JSONUtil.toBean(value, ServiceMetaInfo.class);
-                    })
-                    .collect(Collectors.toList());
-
-            registryServiceMultiCache.writeCache(serviceKey, result);
-            return result;
+            ).get(timeout, TimeUnit.MILLISECONDS);
 
+            Map<String, ServiceMetaInfo> instances = new LinkedHashMap<>();
+            for (KeyValue keyValue : getResponse.getKvs()) {
+                ServiceMetaInfo serviceMetaInfo = toServiceMetaInfo(keyValue);
+                if (serviceMetaInfo != null) {
+                    instances.put(keyValue.getKey().toString(StandardCharsets.UTF_8), serviceMetaInfo);
+                }
+            }
+            return ServiceInstanceSnapshot.of(instances, getResponse.getHeader().getRevision());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Failed to fetch service list", e);
         } catch (Exception e) {
             throw new RuntimeException("Failed to fetch service list", e);
         }
     }
 
     /**
-     * Heartbeat scheduler to renew service leases every 10 seconds.
+     * Heartbeat scheduler: every 10 seconds, registers the local nodes again if their lease was lost.
+     * While the lease is alive, the keep-alive stream renews it and nothing is sent from here.
      */
     @Override
     public void heartBeat() {
         CronUtil.schedule("*/10 * * * * *", new Task() {
             @Override
             public void execute() {
-                for (String key : localRegisterNodeKeySet) {
-                    try {
-                        List<KeyValue> kvs = kvClient.get(ByteSequence.from(key, StandardCharsets.UTF_8)).get().getKvs();
-                        if (CollUtil.isEmpty(kvs)) continue; // already expired
-
-                        String value = kvs.get(0).getValue().toString(StandardCharsets.UTF_8);
-                        ServiceMetaInfo serviceMetaInfo = JSONUtil.toBean(value, ServiceMetaInfo.class);
-                        register(serviceMetaInfo); // re-register (acts as renewal)
-
-                    } catch (Exception e) {
-                        throw new RuntimeException(key + " renewal failed", e);
+                if (localRegisterNodes.isEmpty() || hasLease()) {
+                    return;
+                }
+                try {
+                    long renewedLeaseId = currentLease();
+                    for (Map.Entry<String, String> node : localRegisterNodes.entrySet()) {
+                        putNode(node.getKey(), node.getValue(), renewedLeaseId);
                     }
+                    log.info("Registered {} node(s) again with lease {}", localRegisterNodes.size(), renewedLeaseId);
+                } catch (Exception e) {
+                    // Keep the schedule alive: try again on the next tick
+                    log.error("Re-registration failed, retrying in 10 seconds", e);
                 }
             }
         });
@@ -162,39 +319,133 @@ public class EtcdRegistry implements Registry {
     }
 
     /**
-     * Watch a specific service node key for changes (DELETE/PUT).
+     * Watch all nodes of a service with one prefix watch, starting right after the revision of its
+     * cached snapshot, and apply their PUT and DELETE events to the snapshot.
+     * The etcd client resumes the watch from the last revision it received after a disconnect.
+     * If the watch fails for good, the snapshot is marked stale and the next discovery lists
+     * the nodes again.
+     *
+     * @param serviceKey the service key whose nodes to watch
      */
     @Override
-    public void watch(String serviceNodeKey) {
-        Watch watchClient = client.getWatchClient();
-
-        // Avoid duplicate watches
-        boolean newWatch = watchingKeySet.add(serviceNodeKey);
-        if (newWatch) {
-            watchClient.watch(ByteSequence.from(serviceNodeKey, StandardCharsets.UTF_8), response -> {
-                for (WatchEvent event : response.getEvents()) {
-                    switch (event.getEventType()) {
-                        case DELETE:
-                            // Clear from cache when node is removed
-                            // NOTE: Ideally should use serviceKey, not serviceNodeKey
-                            registryServiceMultiCache.clearCache(serviceNodeKey);
-                            break;
-                        case PUT:
-                        default:
-                            break;
-                    }
+    public void watch(String serviceKey) {
+        ServiceInstanceSnapshot snapshot = registryServiceMultiCache.readSnapshot(serviceKey);
+        // Avoid duplicate watches; the snapshot is loaded by discovery first
+        if (snapshot == null || !watchingKeySet.add(serviceKey)) {
+            return;
+        }
+        String watchPrefix = ETCD_ROOT_PATH + serviceKey + "/";
+        WatchOption watchOption = WatchOption.builder()
+                .isPrefix(true)
+                .withRevision(snapshot.getRevision() + 1)
+                .build();
+        AtomicReference<Watch.Watcher> self = new AtomicReference<>();
+        Watch.Watcher watcher = client.getWatchClient().watch(
+                ByteSequence.from(watchPrefix, StandardCharsets.UTF_8), watchOption, Watch.listener(
+                        response -> applyEvents(serviceKey, response.getEvents()),
+                        error -> onWatchError(serviceKey, self.get(), error),
+                        () -> stopWatching(serviceKey, self.get())));
+        self.set(watcher);
+        Watch.Watcher previous = watchers.put(serviceKey, watcher);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Apply watch events to the snapshot of a service; events older than its revision are skipped.
+     * Events at the snapshot's revision are applied: one etcd revision (a transaction, a prefix
+     * delete or a lease revocation) can change several nodes, and applying the first event moves
+     * the snapshot to that revision. The watch starts after the revision the nodes were listed at.
+     */
+    private void applyEvents(String serviceKey, List<WatchEvent> events) {
+        registryServiceMultiCache.updateSnapshot(serviceKey, snapshot -> {
+            for (WatchEvent event : events) {
+                KeyValue keyValue = event.getKeyValue();
+                long revision = keyValue.getModRevision();
+                if (revision < snapshot.getRevision()) {
+                    continue;
+                }
+                String nodeKey = keyValue.getKey().toString(StandardCharsets.UTF_8);
+                switch (event.getEventType()) {
+                    case PUT:
+                        ServiceMetaInfo serviceMetaInfo = toServiceMetaInfo(keyValue);
+                        snapshot = serviceMetaInfo == null
+                                ? snapshot.remove(nodeKey, revision)
+                                : snapshot.put(nodeKey, serviceMetaInfo, revision);
+                        break;
+                    case DELETE:
+                        snapshot = snapshot.remove(nodeKey, revision);
+                        break;
+                    default:
+                        break;
                 }
-            });
+            }
+            return snapshot;
+        });
+    }
+
+    private void onWatchError(String serviceKey, Watch.Watcher watcher, Throwable error) {
+        stopWatching(serviceKey, watcher);
+        // Keep serving the snapshot, but list the nodes again on the next discovery
+        registryServiceMultiCache.markUnsynced(serviceKey);
+        if (error instanceof CompactedException) {
+            log.warn("Watch on {} fell behind a compaction, reloading its nodes", serviceKey);
+        } else {
+            log.warn("Watch on {} failed, reloading its nodes on the next discovery", serviceKey, error);
+        }
+    }
+
+    /**
+     * Forget an ended watch, unless it has been replaced already.
+     */
+    private void stopWatching(String serviceKey, Watch.Watcher watcher) {
+        if (watcher == null || watchers.remove(serviceKey, watcher)) {
+            watchingKeySet.remove(serviceKey);
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * Parse a node's value; malformed values are skipped.
+     */
+    private static ServiceMetaInfo toServiceMetaInfo(KeyValue keyValue) {
+        String value = keyValue.getValue().toString(StandardCharsets.UTF_8);
+        try {
+            return JSONUtil.toBean(value, ServiceMetaInfo.class);
+        } catch (RuntimeException e) {
+            log.warn("Skipping malformed service node {}", keyValue.getKey().toString(StandardCharsets.UTF_8), e);
+            return null;
         }
     }
 
     /**
-     * Gracefully shut down and deregister all local service nodes.
+     * Gracefully shut down and deregister all local service nodes: revoking the lease deletes
+     * all of them at once.
      */
     @Override
     public void destroy() {
         System.out.println("Shutting down local node(s)");
-        for (String key : localRegisterNodeKeySet) {
+        long revokedLeaseId;
+        synchronized (leaseLock) {
+            revokedLeaseId = leaseId;
+            leaseId = 0;
+            if (leaseKeepAlive != null) {
+                leaseKeepAlive.close();
+                leaseKeepAlive = null;
+            }
+        }
+        if (revokedLeaseId != 0) {
+            try {
+                client.getLeaseClient().revoke(revokedLeaseId).get();
+                localRegisterNodes.clear();
+            } catch (Exception e) {
+                log.warn("Failed to revoke lease {}, deleting the nodes one by one", revokedLeaseId, e);
+            }
+        }
+        for (String key : localRegisterNodes.keySet()) {
             try {
                 kvClient.delete(ByteSequence.from(key, StandardCharsets.UTF_8)).get();
             } catch (Exception e) {
@@ -202,6 +453,9 @@ public class EtcdRegistry implements Registry {
             }
         }
 
+        watchers.values().forEach(Watch.Watcher::close);
+        watchers.clear();
+        registryServiceMultiCache.flush();
         if (kvClient != null) kvClient.close();
         if (client != null) client.close();
     }
@@ -50,11 +50,12 @@ public interface Registry {
     void heartBeat();
 
     /**
-     * Watch for changes (e.g. deletion) on a specific service node key (used by clients).
+     * Watch for changes (e.g. deletion) on a service or a specific service node (used by clients).
      *
-     * @param serviceNodeKey the full key representing a service instance (e.g. `UserService:1.0/localhost:8080`)
+     * @param key the key to watch: a service key, whose nodes are all watched (EtcdRegistry), or the
+     *            full key representing a service instance (e.g. `UserService:1.0/localhost:8080`)
      */
-    void watch(String serviceNodeKey);
+    void watch(String key);
 
     /**
      * Destroy the registry and clean up resources (e.g., remove registered services).
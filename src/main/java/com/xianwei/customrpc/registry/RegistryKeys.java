@@ -18,5 +18,10 @@ public interface RegistryKeys {
      */
     String ZOOKEEPER = "zookeeper";
 
+    /**
+     * Key for the embedded, in-process registry implementation.
+     */
+    String EMBEDDED = "embedded";
+
 }
 
@@ -1,24 +1,77 @@
 package com.xianwei.customrpc.registry;
 
+import com.xianwei.customrpc.config.RegistryConfig;
 import com.xianwei.customrpc.model.ServiceMetaInfo;
+import lombok.extern.slf4j.Slf4j;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
 
 /**
  * Local Registry Service Cache (Supports Multiple Services)
  *
  * This class maintains an in-memory cache for multiple services,
- * mapping each serviceKey to a list of available service instances (ServiceMetaInfo).
+ * mapping each serviceKey to an immutable snapshot of its available service instances.
+ * Registries that watch for changes apply them to the cached snapshot in place of
+ * clearing it, so discovery keeps being served from memory.
+ *
+ * With a snapshot file configured, the snapshots are also saved to it and restored from it
+ * on start. Restored snapshots, and snapshots of services whose watch is broken, are marked
+ * stale until the registry confirms them; they keep being served, and the staleness is
+ * exported over JMX ({@link RegistrySnapshotStatsMXBean}).
  */
-public class RegistryServiceMultiCache {
+@Slf4j
+public class RegistryServiceMultiCache implements RegistrySnapshotStatsMXBean {
 
     /**
-     * Local cache mapping service keys to their respective list of service nodes.
+     * Local cache mapping service keys to the snapshot of their service nodes.
      * ConcurrentHashMap ensures thread safety for concurrent access.
      */
-    Map<String, List<ServiceMetaInfo>> serviceCache = new ConcurrentHashMap<>();
+    Map<String, ServiceInstanceSnapshot> serviceCache = new ConcurrentHashMap<>();
+
+    /**
+     * Stale services, with the time (epoch milliseconds) their snapshot was last known to be in sync
+     */
+    private final Map<String, Long> unsyncedSince = new ConcurrentHashMap<>();
+
+    private final LongAdder staleReads = new LongAdder();
+
+    /**
+     * Store of the snapshot file, or null without one
+     */
+    private RegistrySnapshotStore snapshotStore;
+
+    /**
+     * Restore the snapshots saved in the configured snapshot file, if any, and export the statistics.
+     *
+     * @param registryConfig configuration of the registry this cache belongs to
+     */
+    void init(RegistryConfig registryConfig) {
+        String snapshotFile = registryConfig.getSnapshotFile();
+        if (snapshotFile != null && !snapshotFile.isEmpty()) {
+            snapshotStore = new RegistrySnapshotStore(snapshotFile);
+            Map<String, ServiceInstanceSnapshot> restored = snapshotStore.load();
+            long savedAt = snapshotStore.getLoadedSavedAt();
+            for (Map.Entry<String, ServiceInstanceSnapshot> entry : restored.entrySet()) {
+                serviceCache.putIfAbsent(entry.getKey(), entry.getValue());
+                unsyncedSince.putIfAbsent(entry.getKey(), savedAt);
+            }
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("com.xianwei.customrpc:type=RegistrySnapshot,registry="
+                            + ObjectName.quote(registryConfig.getRegistry())));
+        } catch (Exception e) {
+            log.warn("Failed to register the registry snapshot MBean", e);
+        }
+    }
 
     /**
      * Write (or update) the cache for a specific service key.
@@ -27,19 +80,64 @@ public class RegistryServiceMultiCache {
      * @param newServiceCache the updated list of service instances
      */
     void writeCache(String serviceKey, List<ServiceMetaInfo> newServiceCache) {
-        this.serviceCache.put(serviceKey, newServiceCache);
+        writeSnapshot(serviceKey, ServiceInstanceSnapshot.of(newServiceCache, 0));
     }
 
     /**
      * Read the cached list of service instances for the given service key.
      *
      * @param serviceKey the key identifying the service
-     * @return the list of service nodes, or null if not cached
+     * @return the (unmodifiable) list of service nodes, or null if not cached
      */
     List<ServiceMetaInfo> readCache(String serviceKey) {
+        ServiceInstanceSnapshot snapshot = this.serviceCache.get(serviceKey);
+        if (snapshot == null) {
+            return null;
+        }
+        if (unsyncedSince.containsKey(serviceKey)) {
+            staleReads.increment();
+        }
+        return snapshot.getInstances();
+    }
+
+    /**
+     * Write the snapshot of a service, as just read from the registry.
+     *
+     * @param serviceKey the key identifying the service
+     * @param snapshot   the snapshot of its instances
+     */
+    void writeSnapshot(String serviceKey, ServiceInstanceSnapshot snapshot) {
+        this.serviceCache.put(serviceKey, snapshot);
+        unsyncedSince.remove(serviceKey);
+        scheduleSave();
+    }
+
+    /**
+     * Read the snapshot of a service.
+     *
+     * @param serviceKey the key identifying the service
+     * @return the snapshot, or null if not cached
+     */
+    ServiceInstanceSnapshot readSnapshot(String serviceKey) {
         return this.serviceCache.get(serviceKey);
     }
 
+    /**
+     * Atomically replace the snapshot of a service, if it is cached.
+     *
+     * @param serviceKey the key identifying the service
+     * @param update     computes the new snapshot from the current one
+     * @return the new snapshot, or null if the service is not cached
+     */
+    ServiceInstanceSnapshot updateSnapshot(String serviceKey, UnaryOperator<ServiceInstanceSnapshot> update) {
+        ServiceInstanceSnapshot snapshot = this.serviceCache.computeIfPresent(serviceKey,
+                (key, current) -> update.apply(current));
+        if (snapshot != null) {
+            scheduleSave();
+        }
+        return snapshot;
+    }
+
     /**
      * Clear the cached entry for a specific service key.
      *
@@ -47,5 +145,99 @@ public class RegistryServiceMultiCache {
      */
     void clearCache(String serviceKey) {
         this.serviceCache.remove(serviceKey);
+        unsyncedSince.remove(serviceKey);
+        scheduleSave();
+    }
+
+    /**
+     * Whether the snapshot of a service is not known to be in sync with the registry.
+     */
+    boolean isStale(String serviceKey) {
+        return unsyncedSince.containsKey(serviceKey);
+    }
+
+    /**
+     * The registry can no longer be relied on to report changes of a service (its watch broke):
+     * its snapshot is stale from now on, until {@link #markSynced(String)}.
+     */
+    void markUnsynced(String serviceKey) {
+        if (serviceCache.containsKey(serviceKey)) {
+            unsyncedSince.putIfAbsent(serviceKey, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * The registry confirmed the snapshot of a service is in sync.
+     */
+    void markSynced(String serviceKey) {
+        unsyncedSince.remove(serviceKey);
+    }
+
+    /**
+     * Mark every cached snapshot stale, e.g. when the connection to the registry is lost.
+     */
+    void markAllUnsynced() {
+        for (String serviceKey : serviceCache.keySet()) {
+            markUnsynced(serviceKey);
+        }
+    }
+
+    /**
+     * Write the snapshot file now, e.g. when the registry is destroyed.
+     */
+    void flush() {
+        if (snapshotStore != null) {
+            snapshotStore.save(new HashMap<>(serviceCache));
+        }
+    }
+
+    private void scheduleSave() {
+        if (snapshotStore != null) {
+            snapshotStore.scheduleSave(() -> new HashMap<>(serviceCache));
+        }
+    }
+
+    @Override
+    public int getServices() {
+        return serviceCache.size();
+    }
+
+    @Override
+    public int getStaleServices() {
+        return unsyncedSince.size();
+    }
+
+    @Override
+    public Map<String, Long> getStalenessMillis() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> staleness = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : unsyncedSince.entrySet()) {
+            staleness.put(entry.getKey(), Math.max(now - entry.getValue(), 0L));
+        }
+        return staleness;
+    }
+
+    @Override
+    public long getMaxStalenessMillis() {
+        long max = 0;
+        for (Long staleness : getStalenessMillis().values()) {
+            max = Math.max(max, staleness);
+        }
+        return max;
+    }
+
+    @Override
+    public long getStaleReads() {
+        return staleReads.sum();
+    }
+
+    @Override
+    public long getSnapshotWrites() {
+        return snapshotStore == null ? 0 : snapshotStore.getWrites();
+    }
+
+    @Override
+    public long getSnapshotWriteFailures() {
+        return snapshotStore == null ? 0 : snapshotStore.getWriteFailures();
     }
 }
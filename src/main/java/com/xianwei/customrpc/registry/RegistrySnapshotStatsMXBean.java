@@ -0,0 +1,48 @@
+package com.xianwei.customrpc.registry;
+
+import java.util.Map;
+
+/**
+ * Registry Snapshot Statistics (JMX view)
+ *
+ * Exported as {@code com.xianwei.customrpc:type=RegistrySnapshot,registry=<key>} to tell whether
+ * discovery is served from snapshots the registry has confirmed or from possibly stale ones
+ * (restored from the snapshot file, or while the registry is unreachable).
+ */
+public interface RegistrySnapshotStatsMXBean {
+
+    /**
+     * Services with a cached snapshot
+     */
+    int getServices();
+
+    /**
+     * Services whose snapshot is not known to be in sync with the registry
+     */
+    int getStaleServices();
+
+    /**
+     * Milliseconds since each stale service's snapshot was last known to be in sync
+     */
+    Map<String, Long> getStalenessMillis();
+
+    /**
+     * Largest of those, 0 when no snapshot is stale
+     */
+    long getMaxStalenessMillis();
+
+    /**
+     * Discoveries answered from a stale snapshot
+     */
+    long getStaleReads();
+
+    /**
+     * Times the snapshot file was written
+     */
+    long getSnapshotWrites();
+
+    /**
+     * Times writing the snapshot file failed
+     */
+    long getSnapshotWriteFailures();
+}
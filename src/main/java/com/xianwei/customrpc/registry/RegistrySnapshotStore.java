@@ -0,0 +1,172 @@
+package com.xianwei.customrpc.registry;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.xianwei.customrpc.model.ServiceMetaInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registry Snapshot Store
+ *
+ * Keeps the latest discovery snapshots of a consumer in a local file, so a restart can route
+ * right away and survive a registry outage. The file is one line of JSON:
+ * {"savedAt": millis, "services": {serviceKey: {"revision": n, "instances": {nodeKey: ServiceMetaInfo}}}}.
+ *
+ * Changes are coalesced: the file is written at most once per {@link #SAVE_DELAY_MILLIS}, on a
+ * background thread, to a temporary file that then atomically replaces the previous one, so a
+ * crash never leaves a half-written snapshot behind.
+ */
+@Slf4j
+public class RegistrySnapshotStore {
+
+    /**
+     * Delay between a change and the write that includes it, in milliseconds
+     */
+    static final long SAVE_DELAY_MILLIS = 1000;
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "registry-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path file;
+
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    private final LongAdder writes = new LongAdder();
+
+    private final LongAdder writeFailures = new LongAdder();
+
+    /**
+     * When the loaded snapshots were saved (0 if none were loaded)
+     */
+    private long loadedSavedAt;
+
+    public RegistrySnapshotStore(String file) {
+        this.file = Paths.get(file).toAbsolutePath();
+    }
+
+    /**
+     * Read the saved snapshots.
+     *
+     * @return the snapshots by service key, empty if the file is missing or unreadable
+     */
+    public Map<String, ServiceInstanceSnapshot> load() {
+        if (!Files.exists(file)) {
+            return Collections.emptyMap();
+        }
+        try {
+            JSONObject root = JSONUtil.parseObj(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            Map<String, ServiceInstanceSnapshot> snapshots = new LinkedHashMap<>();
+            JSONObject services = root.getJSONObject("services");
+            if (services != null) {
+                for (String serviceKey : services.keySet()) {
+                    JSONObject service = services.getJSONObject(serviceKey);
+                    JSONObject instances = service.getJSONObject("instances");
+                    Map<String, ServiceMetaInfo> instancesByNodeKey = new LinkedHashMap<>();
+                    if (instances != null) {
+                        for (String nodeKey : instances.keySet()) {
+                            instancesByNodeKey.put(nodeKey, instances.getJSONObject(nodeKey).toBean(ServiceMetaInfo.class));
+                        }
+                    }
+                    snapshots.put(serviceKey, ServiceInstanceSnapshot.of(instancesByNodeKey,
+                            service.getLong("revision", 0L)));
+                }
+            }
+            loadedSavedAt = root.getLong("savedAt", 0L);
+            log.info("Loaded {} service snapshot(s) from {}", snapshots.size(), file);
+            return snapshots;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable registry snapshot file {}", file, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * When the snapshots returned by {@link #load()} were saved, in epoch milliseconds (0 if none).
+     */
+    public long getLoadedSavedAt() {
+        return loadedSavedAt;
+    }
+
+    /**
+     * Write the snapshots soon, together with any other change made until then.
+     *
+     * @param snapshots supplies the snapshots to write, read when the write happens
+     */
+    public void scheduleSave(Supplier<Map<String, ServiceInstanceSnapshot>> snapshots) {
+        if (saveScheduled.compareAndSet(false, true)) {
+            WRITER.schedule(() -> {
+                saveScheduled.set(false);
+                save(snapshots.get());
+            }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write the snapshots now, replacing the file atomically.
+     *
+     * @return whether the file was written
+     */
+    public synchronized boolean save(Map<String, ServiceInstanceSnapshot> snapshots) {
+        JSONObject services = new JSONObject();
+        for (Map.Entry<String, ServiceInstanceSnapshot> entry : snapshots.entrySet()) {
+            JSONObject service = new JSONObject();
+            service.set("revision", entry.getValue().getRevision());
+            JSONObject instances = new JSONObject();
+            for (Map.Entry<String, ServiceMetaInfo> instance : entry.getValue().getInstancesByNodeKey().entrySet()) {
+                instances.set(instance.getKey(), JSONUtil.parseObj(instance.getValue()));
+            }
+            service.set("instances", instances);
+            services.set(entry.getKey(), service);
+        }
+        JSONObject root = new JSONObject();
+        root.set("savedAt", System.currentTimeMillis());
+        root.set("services", services);
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.write(temporaryFile, root.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            writes.increment();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            writeFailures.increment();
+            log.warn("Failed to write registry snapshot file {}", file, e);
+            return false;
+        }
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getWriteFailures() {
+        return writeFailures.sum();
+    }
+}
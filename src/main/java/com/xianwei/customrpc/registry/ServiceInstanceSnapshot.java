@@ -0,0 +1,91 @@
+package com.xianwei.customrpc.registry;
+
+import com.xianwei.customrpc.model.ServiceMetaInfo;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service Instance Snapshot
+ *
+ * Immutable list of the instances of one service, as of a registry revision. Changes never modify
+ * a snapshot but return a new one, so discovery hands out the instance list without copying or
+ * locking while watch events are being applied.
+ */
+@Getter
+public final class ServiceInstanceSnapshot {
+
+    /**
+     * Registry revision the snapshot reflects (0 if the registry has no revisions)
+     */
+    private final long revision;
+
+    /**
+     * Instances by node key (the registry key of the node), in registration order
+     */
+    private final Map<String, ServiceMetaInfo> instancesByNodeKey;
+
+    /**
+     * The instances, as returned by discovery
+     */
+    private final List<ServiceMetaInfo> instances;
+
+    private ServiceInstanceSnapshot(Map<String, ServiceMetaInfo> instancesByNodeKey, long revision) {
+        this.revision = revision;
+        this.instancesByNodeKey = Collections.unmodifiableMap(instancesByNodeKey);
+        this.instances = Collections.unmodifiableList(new ArrayList<>(instancesByNodeKey.values()));
+    }
+
+    /**
+     * Snapshot of the given instances.
+     *
+     * @param instancesByNodeKey instances by node key (copied)
+     * @param revision           registry revision they were read at
+     */
+    public static ServiceInstanceSnapshot of(Map<String, ServiceMetaInfo> instancesByNodeKey, long revision) {
+        return new ServiceInstanceSnapshot(new LinkedHashMap<>(instancesByNodeKey), revision);
+    }
+
+    /**
+     * Snapshot of the given instances, keyed by their service node keys.
+     */
+    public static ServiceInstanceSnapshot of(List<ServiceMetaInfo> instances, long revision) {
+        Map<String, ServiceMetaInfo> instancesByNodeKey = new LinkedHashMap<>();
+        for (ServiceMetaInfo instance : instances) {
+            instancesByNodeKey.put(instance.getServiceNodeKey(), instance);
+        }
+        return new ServiceInstanceSnapshot(instancesByNodeKey, revision);
+    }
+
+    /**
+     * This snapshot with an instance added or replaced.
+     *
+     * @param nodeKey  node key of the instance
+     * @param instance the instance
+     * @param revision revision of the change
+     */
+    public ServiceInstanceSnapshot put(String nodeKey, ServiceMetaInfo instance, long revision) {
+        Map<String, ServiceMetaInfo> instancesByNodeKey = new LinkedHashMap<>(this.instancesByNodeKey);
+        instancesByNodeKey.put(nodeKey, instance);
+        return new ServiceInstanceSnapshot(instancesByNodeKey, revision);
+    }
+
+    /**
+     * This snapshot without an instance.
+     *
+     * @param nodeKey  node key of the instance
+     * @param revision revision of the change
+     */
+    public ServiceInstanceSnapshot remove(String nodeKey, long revision) {
+        if (!instancesByNodeKey.containsKey(nodeKey)) {
+            return new ServiceInstanceSnapshot(new LinkedHashMap<>(instancesByNodeKey), revision);
+        }
+        Map<String, ServiceMetaInfo> instancesByNodeKey = new LinkedHashMap<>(this.instancesByNodeKey);
+        instancesByNodeKey.remove(nodeKey);
+        return new ServiceInstanceSnapshot(instancesByNodeKey, revision);
+    }
+}
@@ -6,18 +6,24 @@ import com.xianwei.customrpc.model.ServiceMetaInfo;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.CuratorCache;
 import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.curator.x.discovery.ServiceDiscovery;
 import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
 import org.apache.curator.x.discovery.ServiceInstance;
 import org.apache.curator.x.discovery.details.JsonInstanceSerializer;
 
-import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -25,6 +31,9 @@ import java.util.stream.Collectors;
  *
  * This class implements the Registry interface using Apache Curator over ZooKeeper.
  * It supports service registration, discovery, caching, and event watching.
+ * Each discovered service is cached as a snapshot that a CuratorCache on its path keeps current.
+ * With a snapshot file configured, the snapshots also survive restarts and are served while
+ * ZooKeeper is unreachable.
  *
  * Docs:
  * - Curator Getting Started: https://curator.apache.org/docs/getting-started
@@ -43,15 +52,36 @@ public class ZooKeeperRegistry implements Registry {
     private final Set<String> localRegisterNodeKeySet = new HashSet<>();
 
     /**
-     * Local cache for a single service (legacy, replace with multi-cache for real apps)
+     * Snapshots of the discovered services, kept current by their CuratorCaches
      */
-    private final RegistryServiceCache registryServiceCache = new RegistryServiceCache();
+    private final RegistryServiceMultiCache registryServiceMultiCache = new RegistryServiceMultiCache();
 
     /**
-     * Tracks already-watched keys to avoid duplicate listeners
+     * Tracks already-watched service keys to avoid duplicate listeners
      */
     private final Set<String> watchingKeySet = new ConcurrentHashSet<>();
 
+    /**
+     * Caches of the watched services: serviceKey → cache of the service's path
+     */
+    private final Map<String, CuratorCache> serviceCaches = new ConcurrentHashMap<>();
+
+    /**
+     * Watched services whose cache has not finished its initial load
+     */
+    private final Set<String> loadingKeySet = new ConcurrentHashSet<>();
+
+    /**
+     * Reads the instance nodes written by Curator's service discovery
+     */
+    private final JsonInstanceSerializer<ServiceMetaInfo> instanceSerializer =
+            new JsonInstanceSerializer<>(ServiceMetaInfo.class);
+
+    /**
+     * How long the first discovery of a service waits for its cache to load, in milliseconds
+     */
+    private long timeout;
+
     /**
      * Root path for services in ZooKeeper
      */
@@ -71,8 +101,11 @@ public class ZooKeeperRegistry implements Registry {
         serviceDiscovery = ServiceDiscoveryBuilder.builder(ServiceMetaInfo.class)
                 .client(client)
                 .basePath(ZK_ROOT_PATH)
-                .serializer(new JsonInstanceSerializer<>(ServiceMetaInfo.class))
+                .serializer(instanceSerializer)
                 .build();
+        timeout = registryConfig.getTimeout();
+        registryServiceMultiCache.init(registryConfig); // Restore the saved snapshots, if any
+        client.getConnectionStateListenable().addListener((curatorClient, newState) -> onConnectionStateChanged(newState));
 
         try {
             client.start();
@@ -107,26 +140,33 @@ public class ZooKeeperRegistry implements Registry {
     }
 
     /**
-     * Discover available instances of a service
+     * Discover available instances of a service.
+     * The first discovery of a service starts a CuratorCache on its path and waits for it to load;
+     * after that it is a read of the service's snapshot, which the cache keeps current.
+     * A snapshot restored from the snapshot file is returned right away, while the cache loads.
      */
     @Override
     public List<ServiceMetaInfo> serviceDiscovery(String serviceKey) {
-        List<ServiceMetaInfo> cached = registryServiceCache.readCache();
+        List<ServiceMetaInfo> cached = registryServiceMultiCache.readCache(serviceKey);
         if (cached != null) {
+            watchService(serviceKey);
             return cached;
         }
 
+        CountDownLatch initialized = watchService(serviceKey);
         try {
-            Collection<ServiceInstance<ServiceMetaInfo>> instances = serviceDiscovery.queryForInstances(serviceKey);
-            List<ServiceMetaInfo> result = instances.stream()
-                    .map(ServiceInstance::getPayload)
-                    .collect(Collectors.toList());
-
-            registryServiceCache.writeCache(result);
-            return result;
-        } catch (Exception e) {
+            if (initialized != null && !initialized.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("Service discovery failed: " + serviceKey + " not loaded within " + timeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException("Service discovery failed", e);
         }
+        cached = registryServiceMultiCache.readCache(serviceKey);
+        if (cached == null) {
+            throw new RuntimeException("Service discovery failed: " + serviceKey + " is still loading");
+        }
+        return cached;
     }
 
     /**
@@ -138,23 +178,130 @@ public class ZooKeeperRegistry implements Registry {
     }
 
     /**
-     * Add a watcher to a specific service node key (used on the client side)
+     * While the connection is suspended or lost, the caches miss changes: every snapshot is stale
+     * until the connection is back and the caches have caught up again.
+     */
+    private void onConnectionStateChanged(ConnectionState newState) {
+        switch (newState) {
+            case SUSPENDED:
+            case LOST:
+                log.warn("ZooKeeper connection {}, serving possibly stale snapshots", newState);
+                registryServiceMultiCache.markAllUnsynced();
+                break;
+            case RECONNECTED:
+                // The caches resynchronize on reconnection; services still loading stay stale
+                for (String serviceKey : serviceCaches.keySet()) {
+                    if (!loadingKeySet.contains(serviceKey)) {
+                        registryServiceMultiCache.markSynced(serviceKey);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Watch all instances of a service (used on the client side)
+     *
+     * @param serviceKey the service key whose instances to watch
      */
     @Override
-    public void watch(String serviceNodeKey) {
-        String watchKey = ZK_ROOT_PATH + "/" + serviceNodeKey;
-        boolean newWatch = watchingKeySet.add(watchKey);
-        if (newWatch) {
-            CuratorCache cache = CuratorCache.build(client, watchKey);
-            cache.start();
-
-            cache.listenable().addListener(
-                    CuratorCacheListener.builder()
-                            .forDeletes(childData -> registryServiceCache.clearCache())
-                            .forChanges((oldNode, newNode) -> registryServiceCache.clearCache())
-                            .build()
-            );
+    public void watch(String serviceKey) {
+        watchService(serviceKey);
+    }
+
+    /**
+     * Start a CuratorCache on the service's path, unless one is running. Its initial load becomes
+     * the service's snapshot; later child creates, updates and deletes are applied to it one by one.
+     *
+     * @return a latch released once the initial load is in the snapshot, or null if the service
+     * was already watched
+     */
+    private CountDownLatch watchService(String serviceKey) {
+        if (!watchingKeySet.add(serviceKey)) {
+            return null;
         }
+        String servicePath = ZK_ROOT_PATH + "/" + serviceKey;
+        CountDownLatch initialized = new CountDownLatch(1);
+        loadingKeySet.add(serviceKey);
+        CuratorCache cache = CuratorCache.build(client, servicePath);
+        cache.listenable().addListener(
+                CuratorCacheListener.builder()
+                        .forCreatesAndChanges((oldNode, node) -> putInstance(serviceKey, servicePath, node))
+                        .forDeletes(node -> removeInstance(serviceKey, servicePath, node))
+                        .forInitialized(() -> {
+                            loadSnapshot(serviceKey, servicePath, cache);
+                            loadingKeySet.remove(serviceKey);
+                            initialized.countDown();
+                        })
+                        .build()
+        );
+        serviceCaches.put(serviceKey, cache);
+        cache.start();
+        return initialized;
+    }
+
+    /**
+     * Build the snapshot of a service from its loaded cache.
+     */
+    private void loadSnapshot(String serviceKey, String servicePath, CuratorCache cache) {
+        Map<String, ServiceMetaInfo> instances = new LinkedHashMap<>();
+        long revision = 0;
+        for (ChildData node : cache.stream().collect(Collectors.toList())) {
+            ServiceMetaInfo serviceMetaInfo = toServiceMetaInfo(servicePath, node);
+            if (serviceMetaInfo != null) {
+                instances.put(node.getPath(), serviceMetaInfo);
+                revision = Math.max(revision, node.getStat().getMzxid());
+            }
+        }
+        registryServiceMultiCache.writeSnapshot(serviceKey, ServiceInstanceSnapshot.of(instances, revision));
+    }
+
+    /**
+     * Apply a created or updated instance node to the service's snapshot (once it has been loaded).
+     */
+    private void putInstance(String serviceKey, String servicePath, ChildData node) {
+        ServiceMetaInfo serviceMetaInfo = toServiceMetaInfo(servicePath, node);
+        if (serviceMetaInfo == null) {
+            return;
+        }
+        registryServiceMultiCache.updateSnapshot(serviceKey, snapshot -> snapshot.put(node.getPath(), serviceMetaInfo,
+                Math.max(snapshot.getRevision(), node.getStat().getMzxid())));
+    }
+
+    /**
+     * Apply a deleted instance node to the service's snapshot (once it has been loaded).
+     */
+    private void removeInstance(String serviceKey, String servicePath, ChildData node) {
+        if (!isInstanceNode(servicePath, node)) {
+            return;
+        }
+        registryServiceMultiCache.updateSnapshot(serviceKey,
+                snapshot -> snapshot.remove(node.getPath(), snapshot.getRevision()));
+    }
+
+    /**
+     * Parse an instance node; the service node itself and malformed instances are skipped.
+     */
+    private ServiceMetaInfo toServiceMetaInfo(String servicePath, ChildData node) {
+        if (!isInstanceNode(servicePath, node) || node.getData() == null) {
+            return null;
+        }
+        try {
+            return instanceSerializer.deserialize(node.getData()).getPayload();
+        } catch (Exception e) {
+            log.warn("Skipping malformed service instance {}", node.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Whether a node is a direct child of the service's path
+     */
+    private static boolean isInstanceNode(String servicePath, ChildData node) {
+        String path = node.getPath();
+        return path.startsWith(servicePath + "/") && path.indexOf('/', servicePath.length() + 1) < 0;
     }
 
     /**
@@ -172,6 +319,9 @@ public class ZooKeeperRegistry implements Registry {
             }
         }
 
+        serviceCaches.values().forEach(CuratorCache::close);
+        serviceCaches.clear();
+        registryServiceMultiCache.flush();
         if (client != null) {
             client.close();
         }
@@ -0,0 +1,66 @@
+package com.xianwei.customrpc.serializer;
+
+import com.xianwei.customrpc.codec.ValueCodec;
+import com.xianwei.customrpc.codec.ValueCodecs;
+import com.xianwei.customrpc.utils.BufferReader;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+
+/**
+ * Codec-Aware Serializer (Decorator)
+ *
+ * Wraps a configured serializer and encodes classes that have a generated {@link ValueCodec}
+ * with that codec instead; every other class, and every field the codec does not cover,
+ * goes to the wrapped serializer. The codec is chosen by the exact class, which the envelope
+ * codec transmits with each value.
+ */
+public class CodecAwareSerializer implements Serializer {
+
+    private final Serializer delegate;
+
+    public CodecAwareSerializer(Serializer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> byte[] serialize(T object) throws IOException {
+        ValueCodec<T> codec = object == null ? null : ValueCodecs.get((Class<T>) object.getClass());
+        if (codec == null) {
+            return delegate.serialize(object);
+        }
+        Buffer buffer = Buffer.buffer();
+        codec.encode(object, buffer, delegate);
+        return buffer.getBytes();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> tClass) throws IOException {
+        ValueCodec<T> codec = ValueCodecs.get(tClass);
+        if (codec == null) {
+            return delegate.deserialize(bytes, tClass);
+        }
+        return codec.decode(new BufferReader(Buffer.buffer(bytes)), delegate);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void serialize(T object, Buffer out) throws IOException {
+        ValueCodec<T> codec = object == null ? null : ValueCodecs.get((Class<T>) object.getClass());
+        if (codec == null) {
+            delegate.serialize(object, out);
+            return;
+        }
+        codec.encode(object, out, delegate);
+    }
+
+    @Override
+    public <T> T deserialize(Buffer in, Class<T> tClass) throws IOException {
+        ValueCodec<T> codec = ValueCodecs.get(tClass);
+        if (codec == null) {
+            return delegate.deserialize(in, tClass);
+        }
+        return codec.decode(new BufferReader(in), delegate);
+    }
+}
@@ -0,0 +1,96 @@
+package com.xianwei.customrpc.serializer;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.xianwei.customrpc.utils.BufferInputStream;
+import com.xianwei.customrpc.utils.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Hessian2 Serializer
+ *
+ * This class implements the Serializer interface using the Hessian 2 protocol.
+ * Compared to the Hessian 1 based {@link HessianSerializer}, each class definition is written
+ * once per message and later instances only refer to it, and small numbers, strings and
+ * lists use compact single-byte encodings, so the output is considerably smaller.
+ *
+ * All streams share one Hessian SerializerFactory (which caches the per-class reflection setup),
+ * and the Hessian2Output/Hessian2Input objects are pooled per thread and reset for every message.
+ * Legacy Hessian 1 peers keep using the "hessian" key, whose frames still decode unchanged.
+ */
+public class Hessian2Serializer implements Serializer {
+
+    /**
+     * Shared factory: serializer/deserializer lookup and field reflection are cached here
+     */
+    private static final com.caucho.hessian.io.SerializerFactory SERIALIZER_FACTORY =
+            new com.caucho.hessian.io.SerializerFactory();
+
+    /**
+     * Hessian2Output/Hessian2Input are not thread-safe; pool one of each per thread.
+     */
+    private static final ThreadLocal<Hessian2Output> OUTPUT_THREAD_LOCAL = ThreadLocal.withInitial(() -> {
+        Hessian2Output output = new Hessian2Output();
+        output.setSerializerFactory(SERIALIZER_FACTORY);
+        return output;
+    });
+    private static final ThreadLocal<Hessian2Input> INPUT_THREAD_LOCAL = ThreadLocal.withInitial(() -> {
+        Hessian2Input input = new Hessian2Input();
+        input.setSerializerFactory(SERIALIZER_FACTORY);
+        return input;
+    });
+
+    @Override
+    public <T> byte[] serialize(T object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        write(object, bos);
+        return bos.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> tClass) throws IOException {
+        return read(new ByteArrayInputStream(bytes), tClass);
+    }
+
+    @Override
+    public <T> void serialize(T object, Buffer out) throws IOException {
+        write(object, new BufferOutputStream(out));
+    }
+
+    @Override
+    public <T> T deserialize(Buffer in, Class<T> tClass) throws IOException {
+        return read(new BufferInputStream(in), tClass);
+    }
+
+    /**
+     * Write one value with this thread's output. init() clears the reference and
+     * class-definition tables, so every message is self-contained.
+     */
+    private void write(Object object, OutputStream os) throws IOException {
+        Hessian2Output output = OUTPUT_THREAD_LOCAL.get();
+        output.init(os);
+        try {
+            output.writeObject(object);
+            output.flush();
+        } finally {
+            output.init(null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(InputStream is, Class<T> tClass) throws IOException {
+        Hessian2Input input = INPUT_THREAD_LOCAL.get();
+        input.init(is);
+        try {
+            return (T) input.readObject(tClass);
+        } finally {
+            input.init(null);
+        }
+    }
+}
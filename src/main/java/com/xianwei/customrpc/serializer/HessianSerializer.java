@@ -2,6 +2,9 @@ package com.xianwei.customrpc.serializer;
 
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
+import com.xianwei.customrpc.utils.BufferInputStream;
+import com.xianwei.customrpc.utils.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -18,6 +21,12 @@ import java.io.IOException;
  */
 public class HessianSerializer implements Serializer {
 
+    /**
+     * Shared factory, so the per-class reflection setup is done once rather than per stream
+     */
+    private static final com.caucho.hessian.io.SerializerFactory SERIALIZER_FACTORY =
+            new com.caucho.hessian.io.SerializerFactory();
+
     /**
      * Serialize an object into a byte array using Hessian.
      *
@@ -30,6 +39,7 @@ public class HessianSerializer implements Serializer {
     public <T> byte[] serialize(T object) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         HessianOutput ho = new HessianOutput(bos);
+        ho.setSerializerFactory(SERIALIZER_FACTORY);
         ho.writeObject(object);
         return bos.toByteArray();
     }
@@ -47,7 +57,28 @@ public class HessianSerializer implements Serializer {
     public <T> T deserialize(byte[] bytes, Class<T> tClass) throws IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
         HessianInput hi = new HessianInput(bis);
+        hi.setSerializerFactory(SERIALIZER_FACTORY);
         return (T) hi.readObject(tClass);
     }
-}
 
+    /**
+     * Serialize an object directly into the given buffer.
+     */
+    @Override
+    public <T> void serialize(T object, Buffer out) throws IOException {
+        HessianOutput ho = new HessianOutput(new BufferOutputStream(out));
+        ho.setSerializerFactory(SERIALIZER_FACTORY);
+        ho.writeObject(object);
+        ho.flush();
+    }
+
+    /**
+     * Deserialize an object directly from the given buffer slice.
+     */
+    @Override
+    public <T> T deserialize(Buffer in, Class<T> tClass) throws IOException {
+        HessianInput hi = new HessianInput(new BufferInputStream(in));
+        hi.setSerializerFactory(SERIALIZER_FACTORY);
+        return (T) hi.readObject(tClass);
+    }
+}
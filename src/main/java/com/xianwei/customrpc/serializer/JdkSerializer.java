@@ -1,5 +1,9 @@
 package com.xianwei.customrpc.serializer;
 
+import com.xianwei.customrpc.utils.BufferInputStream;
+import com.xianwei.customrpc.utils.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
+
 import java.io.*;
 
 /**
@@ -38,7 +42,29 @@ public class JdkSerializer implements Serializer {
      */
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> type) throws IOException {
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
+        return readObject(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Serialize an object directly into the given buffer.
+     */
+    @Override
+    public <T> void serialize(T object, Buffer out) throws IOException {
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(new BufferOutputStream(out));
+        objectOutputStream.writeObject(object);
+        objectOutputStream.close(); // flush remaining block data into the buffer
+    }
+
+    /**
+     * Deserialize an object directly from the given buffer slice.
+     */
+    @Override
+    public <T> T deserialize(Buffer in, Class<T> type) throws IOException {
+        return readObject(new BufferInputStream(in));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readObject(InputStream inputStream) throws IOException {
         ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
         try {
             return (T) objectInputStream.readObject(); // unsafe cast — user must ensure type safety
@@ -1,88 +1,258 @@
 package com.xianwei.customrpc.serializer;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.xianwei.customrpc.model.RpcError;
 import com.xianwei.customrpc.model.RpcRequest;
 import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.utils.BufferInputStream;
+import com.xianwei.customrpc.utils.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * JSON Serializer
  *
  * Implements the Serializer interface using Jackson's ObjectMapper.
- * Handles standard JSON (de)serialization and fixes issues related to type erasure
- * when deserializing generic objects like method arguments and response data.
+ * RpcRequest and RpcResponse are stream-parsed: each argument is bound directly to its
+ * declared parameter type and the response data to its declared return type, in a single
+ * pass, instead of being parsed as generic maps and re-serialized to fix type erasure.
  */
 public class JsonSerializer implements Serializer {
 
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .addMixIn(RpcRequest.class, RpcRequestMixin.class)
+            .addMixIn(RpcResponse.class, RpcResponseMixin.class);
+
+    /**
+     * Readers and writers are immutable and thread-safe; cache one per type.
+     */
+    private static final Map<Class<?>, ObjectReader> READER_CACHE = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, ObjectWriter> WRITER_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Type information must precede the values it describes so they can be bound while streaming.
+     */
+    @JsonPropertyOrder({"serviceName", "methodName", "serviceVersion", "parameterTypes", "args"})
+    private abstract static class RpcRequestMixin {
+    }
+
+    @JsonPropertyOrder({"dataType", "data", "message", "exception", "error"})
+    private abstract static class RpcResponseMixin {
+    }
 
     /**
      * Serialize an object to a JSON byte array.
      */
     @Override
     public <T> byte[] serialize(T obj) throws IOException {
-        return OBJECT_MAPPER.writeValueAsBytes(obj);
+        if (obj == null) {
+            return OBJECT_MAPPER.writeValueAsBytes(null);
+        }
+        return getWriter(obj.getClass()).writeValueAsBytes(obj);
     }
 
     /**
      * Deserialize a byte array into an object of the specified type.
-     * Adds custom handling for RpcRequest and RpcResponse to ensure proper type restoration.
+     * RpcRequest and RpcResponse are bound field by field to restore argument and data types.
      */
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> classType) throws IOException {
-        T obj = OBJECT_MAPPER.readValue(bytes, classType);
+        if (classType == RpcRequest.class || classType == RpcResponse.class) {
+            try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(bytes)) {
+                return readEnvelope(parser, classType);
+            }
+        }
+        return getReader(classType).readValue(bytes);
+    }
 
-        // Special handling for RpcRequest: fix deserialized argument types
-        if (obj instanceof RpcRequest) {
-            return handleRequest((RpcRequest) obj, classType);
+    /**
+     * Serialize an object directly into the given buffer.
+     */
+    @Override
+    public <T> void serialize(T obj, Buffer out) throws IOException {
+        ObjectWriter writer = obj == null ? OBJECT_MAPPER.writer() : getWriter(obj.getClass());
+        writer.writeValue(new BufferOutputStream(out), obj);
+    }
+
+    /**
+     * Deserialize an object directly from the given buffer slice.
+     */
+    @Override
+    public <T> T deserialize(Buffer in, Class<T> classType) throws IOException {
+        if (classType == RpcRequest.class || classType == RpcResponse.class) {
+            try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(new BufferInputStream(in))) {
+                return readEnvelope(parser, classType);
+            }
         }
+        return getReader(classType).readValue(new BufferInputStream(in));
+    }
+
+    private <T> T readEnvelope(JsonParser parser, Class<T> classType) throws IOException {
+        return classType.cast(classType == RpcRequest.class ? readRequest(parser) : readResponse(parser));
+    }
 
-        // Special handling for RpcResponse: fix deserialized response data type
-        if (obj instanceof RpcResponse) {
-            return handleResponse((RpcResponse) obj, classType);
+    /**
+     * Stream-parse an RpcRequest. Args are bound to their parameter types as they are read;
+     * if a peer sends args before parameterTypes they are buffered as tokens and bound afterwards.
+     */
+    private RpcRequest readRequest(JsonParser parser) throws IOException {
+        RpcRequest rpcRequest = new RpcRequest();
+        List<TokenBuffer> pendingArgs = null;
+
+        expectStartObject(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (fieldName) {
+                case "serviceName":
+                    rpcRequest.setServiceName(parser.getValueAsString());
+                    break;
+                case "methodName":
+                    rpcRequest.setMethodName(parser.getValueAsString());
+                    break;
+                case "serviceVersion":
+                    rpcRequest.setServiceVersion(parser.getValueAsString());
+                    break;
+                case "parameterTypes":
+                    rpcRequest.setParameterTypes(token == JsonToken.VALUE_NULL
+                            ? null : getReader(Class[].class).readValue(parser));
+                    break;
+                case "args":
+                    if (token == JsonToken.VALUE_NULL) {
+                        rpcRequest.setArgs(null);
+                    } else if (rpcRequest.getParameterTypes() != null) {
+                        rpcRequest.setArgs(readArgs(parser, rpcRequest.getParameterTypes()));
+                    } else {
+                        pendingArgs = bufferArray(parser);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
         }
 
-        return obj;
+        if (pendingArgs != null) {
+            Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
+            Object[] args = new Object[pendingArgs.size()];
+            for (int i = 0; i < args.length; i++) {
+                try (JsonParser argParser = pendingArgs.get(i).asParser()) {
+                    argParser.nextToken();
+                    args[i] = readValue(argParser, parameterTypes != null && i < parameterTypes.length
+                            ? parameterTypes[i] : Object.class);
+                }
+            }
+            rpcRequest.setArgs(args);
+        }
+        return rpcRequest;
     }
 
     /**
-     * Fix deserialization of RpcRequest due to type erasure of Object[] args.
-     * Each argument may be deserialized as LinkedHashMap instead of its original class.
-     *
-     * @param rpcRequest the request object with raw deserialized args
-     * @param type the target class (RpcRequest)
+     * Bind each element of the args array to its declared parameter type.
      */
-    private <T> T handleRequest(RpcRequest rpcRequest, Class<T> type) throws IOException {
-        Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
-        Object[] args = rpcRequest.getArgs();
-
-        for (int i = 0; i < parameterTypes.length; i++) {
-            Class<?> expectedClass = parameterTypes[i];
-            Object actualArg = args[i];
-
-            // If types do not match, re-serialize and re-deserialize to correct type
-            if (!expectedClass.isAssignableFrom(actualArg.getClass())) {
-                byte[] argBytes = OBJECT_MAPPER.writeValueAsBytes(actualArg);
-                args[i] = OBJECT_MAPPER.readValue(argBytes, expectedClass);
+    private Object[] readArgs(JsonParser parser, Class<?>[] parameterTypes) throws IOException {
+        List<Object> args = new ArrayList<>(parameterTypes.length);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            int index = args.size();
+            args.add(readValue(parser, index < parameterTypes.length ? parameterTypes[index] : Object.class));
+        }
+        return args.toArray();
+    }
+
+    /**
+     * Stream-parse an RpcResponse. Data is bound to dataType as it is read;
+     * if a peer sends data before dataType it is buffered as tokens and bound afterwards.
+     */
+    private RpcResponse readResponse(JsonParser parser) throws IOException {
+        RpcResponse rpcResponse = new RpcResponse();
+        TokenBuffer pendingData = null;
+
+        expectStartObject(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (fieldName) {
+                case "dataType":
+                    rpcResponse.setDataType(token == JsonToken.VALUE_NULL
+                            ? null : getReader(Class.class).readValue(parser));
+                    break;
+                case "data":
+                    if (rpcResponse.getDataType() != null) {
+                        rpcResponse.setData(readValue(parser, rpcResponse.getDataType()));
+                    } else {
+                        pendingData = new TokenBuffer(parser);
+                        pendingData.copyCurrentStructure(parser);
+                    }
+                    break;
+                case "message":
+                    rpcResponse.setMessage(parser.getValueAsString());
+                    break;
+                case "exception":
+                    rpcResponse.setException((Exception) readValue(parser, Exception.class));
+                    break;
+                case "error":
+                    rpcResponse.setError((RpcError) readValue(parser, RpcError.class));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (pendingData != null) {
+            try (JsonParser dataParser = pendingData.asParser()) {
+                dataParser.nextToken();
+                Class<?> dataType = rpcResponse.getDataType();
+                rpcResponse.setData(readValue(dataParser, dataType != null ? dataType : Object.class));
             }
         }
+        return rpcResponse;
+    }
 
-        return type.cast(rpcRequest);
+    /**
+     * Bind the value at the current token to the given type.
+     */
+    private Object readValue(JsonParser parser, Class<?> type) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL || type == void.class || type == Void.class) {
+            parser.skipChildren();
+            return null;
+        }
+        return getReader(type).readValue(parser);
     }
 
     /**
-     * Fix deserialization of RpcResponse due to type erasure of the generic data field.
-     *
-     * @param rpcResponse the response object with raw data
-     * @param type the target class (RpcResponse)
+     * Copy every element of the array at the current token into its own token buffer.
      */
-    private <T> T handleResponse(RpcResponse rpcResponse, Class<T> type) throws IOException {
-        // Deserialize the 'data' field into its original declared type
-        byte[] dataBytes = OBJECT_MAPPER.writeValueAsBytes(rpcResponse.getData());
-        Object correctData = OBJECT_MAPPER.readValue(dataBytes, rpcResponse.getDataType());
-        rpcResponse.setData(correctData);
-        return type.cast(rpcResponse);
+    private List<TokenBuffer> bufferArray(JsonParser parser) throws IOException {
+        List<TokenBuffer> elements = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            TokenBuffer element = new TokenBuffer(parser);
+            element.copyCurrentStructure(parser);
+            elements.add(element);
+        }
+        return elements;
     }
-}
 
+    private static void expectStartObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected JSON object, got " + parser.currentToken());
+        }
+    }
+
+    private static ObjectReader getReader(Class<?> type) {
+        return READER_CACHE.computeIfAbsent(type, OBJECT_MAPPER::readerFor);
+    }
+
+    private static ObjectWriter getWriter(Class<?> type) {
+        return WRITER_CACHE.computeIfAbsent(type, OBJECT_MAPPER::writerFor);
+    }
+}
@@ -3,6 +3,9 @@ package com.xianwei.customrpc.serializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.xianwei.customrpc.utils.BufferInputStream;
+import com.xianwei.customrpc.utils.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -26,6 +29,12 @@ public class KryoSerializer implements Serializer {
         return kryo;
     });
 
+    /**
+     * Reusable stream-backed Output/Input for the Buffer-based methods (4 KB staging area per thread).
+     */
+    private static final ThreadLocal<Output> OUTPUT_THREAD_LOCAL = ThreadLocal.withInitial(() -> new Output(4096, -1));
+    private static final ThreadLocal<Input> INPUT_THREAD_LOCAL = ThreadLocal.withInitial(() -> new Input(4096));
+
     /**
      * Serialize an object into a byte array using Kryo.
      *
@@ -58,5 +67,33 @@ public class KryoSerializer implements Serializer {
         input.close(); // close input stream
         return result;
     }
-}
 
+    /**
+     * Serialize an object directly into the given buffer, reusing this thread's Output.
+     */
+    @Override
+    public <T> void serialize(T obj, Buffer out) {
+        Output output = OUTPUT_THREAD_LOCAL.get();
+        output.setOutputStream(new BufferOutputStream(out));
+        try {
+            KRYO_THREAD_LOCAL.get().writeObject(output, obj);
+            output.flush();
+        } finally {
+            output.setOutputStream(null);
+        }
+    }
+
+    /**
+     * Deserialize an object directly from the given buffer slice, reusing this thread's Input.
+     */
+    @Override
+    public <T> T deserialize(Buffer in, Class<T> classType) {
+        Input input = INPUT_THREAD_LOCAL.get();
+        input.setInputStream(new BufferInputStream(in));
+        try {
+            return KRYO_THREAD_LOCAL.get().readObject(input, classType);
+        } finally {
+            input.setInputStream(null);
+        }
+    }
+}
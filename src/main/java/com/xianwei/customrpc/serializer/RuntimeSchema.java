@@ -0,0 +1,329 @@
+package com.xianwei.customrpc.serializer;
+
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runtime Schema
+ *
+ * Field layout of a POJO derived once via reflection and cached per class.
+ * Fields annotated with {@link SchemaTag} are numbered by their tag. Otherwise fields are
+ * numbered from 1, superclass fields first and by name within each class (the JDK does not
+ * guarantee the order of declared fields), so both ends must use the same version of the class.
+ * These numbers are the tags used by {@link SchemaSerializer}.
+ * Static and transient fields are ignored.
+ */
+class RuntimeSchema {
+
+    /**
+     * Value kinds understood by the schema serializer.
+     * Scalar kinds are written as a single tagged field, the others as a group.
+     */
+    enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE,
+        STRING, BYTES, ENUM, DATE, BIG_DECIMAL, BIG_INTEGER,
+        BOOLEAN_ARRAY, SHORT_ARRAY, CHAR_ARRAY, INT_ARRAY, LONG_ARRAY, FLOAT_ARRAY, DOUBLE_ARRAY,
+        // group kinds
+        COLLECTION, MAP, OBJECT_ARRAY, POJO, DYNAMIC, JAVA_SERIALIZABLE;
+
+        boolean isGroup() {
+            return ordinal() >= COLLECTION.ordinal();
+        }
+    }
+
+    /**
+     * Metadata for one field of a POJO.
+     */
+    static class FieldInfo {
+        final Field field;
+        final int number;
+        final Kind kind;
+        final Class<?> type;
+        final Type genericType;
+
+        FieldInfo(Field field, int number) {
+            this.field = field;
+            this.number = number;
+            this.type = field.getType();
+            this.genericType = field.getGenericType();
+            this.kind = kindOf(type);
+        }
+    }
+
+    /**
+     * Largest tag number a {@link SchemaTag} may use
+     */
+    static final int MAX_TAG = 65535;
+
+    /**
+     * Schema cache: class → schema
+     */
+    private static final Map<Class<?>, RuntimeSchema> SCHEMA_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Kind cache: class → kind
+     */
+    private static final Map<Class<?>, Kind> KIND_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * No-arg constructor cache for POJOs, collections and maps
+     */
+    private static final Map<Class<?>, Optional<Constructor<?>>> CONSTRUCTOR_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Used for classes without a no-arg constructor
+     */
+    private static final Objenesis OBJENESIS = new ObjenesisStd(true);
+
+    final Class<?> type;
+
+    /**
+     * Fields in tag order
+     */
+    final FieldInfo[] fields;
+
+    /**
+     * Fields indexed by number (null where no field has the number)
+     */
+    private final FieldInfo[] fieldsByNumber;
+
+    private RuntimeSchema(Class<?> type) {
+        this.type = type;
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; c != null && !isJdkClass(c); c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+        }
+        List<Field> serializedFields = new ArrayList<>();
+        boolean tagged = false;
+        for (Class<?> c : hierarchy) {
+            Field[] declaredFields = c.getDeclaredFields();
+            Arrays.sort(declaredFields, Comparator.comparing(Field::getName));
+            for (Field field : declaredFields) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                serializedFields.add(field);
+                tagged |= field.isAnnotationPresent(SchemaTag.class);
+            }
+        }
+
+        List<FieldInfo> fieldList = new ArrayList<>();
+        int maxNumber = 0;
+        for (Field field : serializedFields) {
+            int number = tagged ? tagOf(field) : fieldList.size() + 1;
+            fieldList.add(new FieldInfo(field, number));
+            maxNumber = Math.max(maxNumber, number);
+        }
+        fieldList.sort(Comparator.comparingInt(fieldInfo -> fieldInfo.number));
+        this.fields = fieldList.toArray(new FieldInfo[0]);
+        this.fieldsByNumber = new FieldInfo[maxNumber + 1];
+        for (FieldInfo fieldInfo : fields) {
+            if (fieldsByNumber[fieldInfo.number] != null) {
+                throw new IllegalArgumentException("Duplicate @SchemaTag(" + fieldInfo.number + ") in "
+                        + type.getName() + ": " + fieldsByNumber[fieldInfo.number].field.getName()
+                        + " and " + fieldInfo.field.getName());
+            }
+            fieldsByNumber[fieldInfo.number] = fieldInfo;
+        }
+    }
+
+    /**
+     * Tag number of a field in a tagged class hierarchy.
+     */
+    private static int tagOf(Field field) {
+        SchemaTag schemaTag = field.getAnnotation(SchemaTag.class);
+        if (schemaTag == null) {
+            throw new IllegalArgumentException("Field " + field.getDeclaringClass().getName() + "." + field.getName()
+                    + " needs a @SchemaTag: other fields of the class hierarchy have one");
+        }
+        if (schemaTag.value() < 1 || schemaTag.value() > MAX_TAG) {
+            throw new IllegalArgumentException("@SchemaTag of " + field.getDeclaringClass().getName() + "."
+                    + field.getName() + " must be between 1 and " + MAX_TAG + ": " + schemaTag.value());
+        }
+        return schemaTag.value();
+    }
+
+    /**
+     * Get (or build) the schema of a POJO class.
+     */
+    static RuntimeSchema getSchema(Class<?> type) {
+        RuntimeSchema schema = SCHEMA_CACHE.get(type);
+        if (schema == null) {
+            schema = new RuntimeSchema(type);
+            SCHEMA_CACHE.put(type, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Field by tag number, or null for unknown numbers (newer peer).
+     */
+    FieldInfo getField(int number) {
+        return number >= 1 && number < fieldsByNumber.length ? fieldsByNumber[number] : null;
+    }
+
+    /**
+     * Classify a Java type.
+     */
+    static Kind kindOf(Class<?> type) {
+        Kind kind = KIND_CACHE.get(type);
+        if (kind == null) {
+            kind = computeKind(type);
+            KIND_CACHE.put(type, kind);
+        }
+        return kind;
+    }
+
+    private static Kind computeKind(Class<?> type) {
+        if (type == boolean.class || type == Boolean.class) return Kind.BOOLEAN;
+        if (type == byte.class || type == Byte.class) return Kind.BYTE;
+        if (type == short.class || type == Short.class) return Kind.SHORT;
+        if (type == char.class || type == Character.class) return Kind.CHAR;
+        if (type == int.class || type == Integer.class) return Kind.INT;
+        if (type == long.class || type == Long.class) return Kind.LONG;
+        if (type == float.class || type == Float.class) return Kind.FLOAT;
+        if (type == double.class || type == Double.class) return Kind.DOUBLE;
+        if (type == String.class) return Kind.STRING;
+        if (type == byte[].class) return Kind.BYTES;
+        if (type == boolean[].class) return Kind.BOOLEAN_ARRAY;
+        if (type == short[].class) return Kind.SHORT_ARRAY;
+        if (type == char[].class) return Kind.CHAR_ARRAY;
+        if (type == int[].class) return Kind.INT_ARRAY;
+        if (type == long[].class) return Kind.LONG_ARRAY;
+        if (type == float[].class) return Kind.FLOAT_ARRAY;
+        if (type == double[].class) return Kind.DOUBLE_ARRAY;
+        if (type.isEnum()) return Kind.ENUM;
+        if (type == Date.class) return Kind.DATE;
+        if (type == BigDecimal.class) return Kind.BIG_DECIMAL;
+        if (type == BigInteger.class) return Kind.BIG_INTEGER;
+        if (type == Object.class) return Kind.DYNAMIC;
+        if (type.isArray()) return Kind.OBJECT_ARRAY;
+        if (Collection.class.isAssignableFrom(type)) return Kind.COLLECTION;
+        if (Map.class.isAssignableFrom(type)) return Kind.MAP;
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) return Kind.DYNAMIC;
+        if (Throwable.class.isAssignableFrom(type) || isJdkClass(type)) return Kind.JAVA_SERIALIZABLE;
+        return Kind.POJO;
+    }
+
+    /**
+     * JDK classes are never introspected (their fields are not accessible on modern JVMs).
+     */
+    private static boolean isJdkClass(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+                || name.startsWith("jdk.");
+    }
+
+    /**
+     * Implementation used when the declared type is an interface or abstract collection/map.
+     * Values of exactly this class are written without a class marker.
+     */
+    static Class<?> defaultImplementation(Class<?> type) {
+        // Array classes report themselves as abstract
+        if (type.isArray() || (!type.isInterface() && !Modifier.isAbstract(type.getModifiers()))) {
+            return type;
+        }
+        if (SortedSet.class.isAssignableFrom(type)) return TreeSet.class;
+        if (Set.class.isAssignableFrom(type)) return HashSet.class;
+        if (Queue.class.isAssignableFrom(type)) return ArrayDeque.class;
+        if (Collection.class.isAssignableFrom(type)) return ArrayList.class;
+        if (SortedMap.class.isAssignableFrom(type)) return TreeMap.class;
+        if (Map.class.isAssignableFrom(type)) return HashMap.class;
+        return null;
+    }
+
+    /**
+     * Class to record for a collection or map value. Unmodifiable views, Arrays.asList and
+     * other classes without a public no-arg constructor are replaced by the default implementation.
+     */
+    static Class<?> instantiableClass(Class<?> runtimeClass) {
+        if (Modifier.isPublic(runtimeClass.getModifiers()) && getConstructor(runtimeClass) != null) {
+            return runtimeClass;
+        }
+        if (SortedSet.class.isAssignableFrom(runtimeClass)) return TreeSet.class;
+        if (Set.class.isAssignableFrom(runtimeClass)) return HashSet.class;
+        if (Collection.class.isAssignableFrom(runtimeClass)) return ArrayList.class;
+        if (SortedMap.class.isAssignableFrom(runtimeClass)) return TreeMap.class;
+        return HashMap.class;
+    }
+
+    /**
+     * Create an instance, using the no-arg constructor when available.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T newInstance(Class<T> type) {
+        Constructor<?> constructor = getConstructor(type);
+        try {
+            if (constructor != null) {
+                return (T) constructor.newInstance();
+            }
+            return OBJENESIS.newInstance(type);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to instantiate " + type.getName(), e);
+        }
+    }
+
+    private static Constructor<?> getConstructor(Class<?> type) {
+        Optional<Constructor<?>> constructor = CONSTRUCTOR_CACHE.get(type);
+        if (constructor == null) {
+            Constructor<?> found = null;
+            try {
+                found = type.getDeclaredConstructor();
+                found.setAccessible(true);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                // no accessible no-arg constructor
+                found = null;
+            }
+            constructor = Optional.ofNullable(found);
+            CONSTRUCTOR_CACHE.put(type, constructor);
+        }
+        return constructor.orElse(null);
+    }
+
+    /**
+     * Raw class of the n-th type argument of a generic type, or Object when unknown.
+     */
+    static Class<?> typeArgument(Type genericType, int index) {
+        if (genericType instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (index < args.length) {
+                return rawClass(args[index]);
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Generic type of the n-th type argument (keeps nested generics such as List&lt;List&lt;String&gt;&gt;).
+     */
+    static Type genericTypeArgument(Type genericType, int index) {
+        if (genericType instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) genericType).getActualTypeArguments();
+            if (index < args.length) {
+                return args[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawClass(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+}
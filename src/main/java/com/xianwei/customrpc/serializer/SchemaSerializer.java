@@ -0,0 +1,783 @@
+package com.xianwei.customrpc.serializer;
+
+import com.xianwei.customrpc.model.RpcError;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.protocol.ClassIdTable;
+import com.xianwei.customrpc.serializer.RuntimeSchema.FieldInfo;
+import com.xianwei.customrpc.serializer.RuntimeSchema.Kind;
+import com.xianwei.customrpc.utils.BufferReader;
+import com.xianwei.customrpc.utils.VarIntUtils;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Schema Serializer
+ *
+ * Implements the Serializer interface with a protobuf-style tag/varint encoding.
+ * The schema of every POJO is derived at runtime from its fields and cached per class
+ * (see {@link RuntimeSchema}), so no class names or field names are written for values
+ * whose type is known from the declaring field.
+ *
+ * Encoding rules:
+ * - every value is a tagged field: varint(fieldNumber << 3 | wireType)
+ * - integers are zig-zag varints, floats/doubles fixed little-endian, strings/byte[]/primitive arrays length-delimited
+ * - POJOs, collections, maps and object arrays are groups terminated by an end tag
+ * - a class marker is written only when the runtime class differs from the declared type
+ * - like protobuf, null fields are omitted and keep the value assigned by the no-arg constructor
+ *
+ * RpcRequest args and RpcResponse data are encoded against the declared parameter and
+ * return types. Object graphs must be acyclic (no reference tracking).
+ */
+public class SchemaSerializer implements Serializer {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_START_GROUP = 3;
+    private static final int WIRE_END_GROUP = 4;
+    private static final int WIRE_FIXED32 = 5;
+
+    /**
+     * Group terminator (field 0, END_GROUP)
+     */
+    private static final int END_TAG = makeTag(0, WIRE_END_GROUP);
+
+    /**
+     * Class marker (field 0, followed by a ClassIdTable token)
+     */
+    private static final int CLASS_TAG = makeTag(0, WIRE_VARINT);
+
+    /**
+     * Field numbers of element slots in collections, arrays and maps
+     */
+    private static final int VALUE_FIELD = 1;
+    private static final int NULL_FIELD = 2;
+
+    @Override
+    public <T> byte[] serialize(T object) throws IOException {
+        Buffer buffer = Buffer.buffer(256);
+        serialize(object, buffer);
+        return buffer.getBytes();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> tClass) throws IOException {
+        return deserialize(Buffer.buffer(bytes), tClass);
+    }
+
+    @Override
+    public <T> void serialize(T object, Buffer out) throws IOException {
+        if (object instanceof RpcRequest) {
+            writeRequest(out, (RpcRequest) object);
+        } else if (object instanceof RpcResponse) {
+            writeResponse(out, (RpcResponse) object);
+        } else {
+            Class<?> rootClass = object instanceof Enum ? ((Enum<?>) object).getDeclaringClass()
+                    : object == null ? Object.class : object.getClass();
+            writeSlot(out, object, rootClass, null);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(Buffer in, Class<T> tClass) throws IOException {
+        BufferReader reader = new BufferReader(in);
+        if (tClass == RpcRequest.class) {
+            return (T) readRequest(reader);
+        }
+        if (tClass == RpcResponse.class) {
+            return (T) readResponse(reader);
+        }
+        return (T) readSlot(reader, reader.readVarInt(), tClass, null);
+    }
+
+    // ---------------------------------------------------------------- envelope
+
+    /**
+     * Fields: 1 serviceName, 2 methodName, 3 serviceVersion, 4 parameterTypes, 5 args
+     */
+    private void writeRequest(Buffer buffer, RpcRequest rpcRequest) throws IOException {
+        writeString(buffer, 1, rpcRequest.getServiceName());
+        writeString(buffer, 2, rpcRequest.getMethodName());
+        writeString(buffer, 3, rpcRequest.getServiceVersion());
+        Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
+        if (parameterTypes != null) {
+            writeTag(buffer, 4, WIRE_START_GROUP);
+            for (Class<?> parameterType : parameterTypes) {
+                VarIntUtils.writeVarInt(buffer, CLASS_TAG);
+                ClassIdTable.writeClass(buffer, parameterType);
+            }
+            VarIntUtils.writeVarInt(buffer, END_TAG);
+        }
+        Object[] args = rpcRequest.getArgs();
+        if (args != null) {
+            writeTag(buffer, 5, WIRE_START_GROUP);
+            for (int i = 0; i < args.length; i++) {
+                writeSlot(buffer, args[i], declaredType(parameterTypes, i), null);
+            }
+            VarIntUtils.writeVarInt(buffer, END_TAG);
+        }
+        VarIntUtils.writeVarInt(buffer, END_TAG);
+    }
+
+    private RpcRequest readRequest(BufferReader reader) throws IOException {
+        RpcRequest rpcRequest = new RpcRequest();
+        rpcRequest.setServiceVersion(null);
+        for (int tag = reader.readVarInt(); tag != END_TAG; tag = reader.readVarInt()) {
+            switch (tag >>> 3) {
+                case 1:
+                    rpcRequest.setServiceName(reader.readUtf8(reader.readVarInt()));
+                    break;
+                case 2:
+                    rpcRequest.setMethodName(reader.readUtf8(reader.readVarInt()));
+                    break;
+                case 3:
+                    rpcRequest.setServiceVersion(reader.readUtf8(reader.readVarInt()));
+                    break;
+                case 4: {
+                    List<Class<?>> parameterTypes = new ArrayList<>();
+                    for (int inner = reader.readVarInt(); inner != END_TAG; inner = reader.readVarInt()) {
+                        parameterTypes.add(ClassIdTable.readClass(reader));
+                    }
+                    rpcRequest.setParameterTypes(parameterTypes.toArray(new Class<?>[0]));
+                    break;
+                }
+                case 5: {
+                    Class<?>[] parameterTypes = rpcRequest.getParameterTypes();
+                    List<Object> args = new ArrayList<>();
+                    for (int inner = reader.readVarInt(); inner != END_TAG; inner = reader.readVarInt()) {
+                        args.add(readSlot(reader, inner, declaredType(parameterTypes, args.size()), null));
+                    }
+                    rpcRequest.setArgs(args.toArray());
+                    break;
+                }
+                default:
+                    skipField(reader, tag & 7);
+            }
+        }
+        return rpcRequest;
+    }
+
+    /**
+     * Fields: 1 dataType, 2 message, 3 data, 4 exception, 5 error
+     */
+    private void writeResponse(Buffer buffer, RpcResponse rpcResponse) throws IOException {
+        Class<?> dataType = rpcResponse.getDataType();
+        if (dataType != null) {
+            writeTag(buffer, 1, WIRE_START_GROUP);
+            VarIntUtils.writeVarInt(buffer, CLASS_TAG);
+            ClassIdTable.writeClass(buffer, dataType);
+            VarIntUtils.writeVarInt(buffer, END_TAG);
+        }
+        writeString(buffer, 2, rpcResponse.getMessage());
+        if (rpcResponse.getData() != null) {
+            writeField(buffer, 3, rpcResponse.getData(), dataType != null ? dataType : Object.class, null);
+        }
+        if (rpcResponse.getException() != null) {
+            writeField(buffer, 4, rpcResponse.getException(), Exception.class, null);
+        }
+        if (rpcResponse.getError() != null) {
+            writeField(buffer, 5, rpcResponse.getError(), RpcError.class, null);
+        }
+        VarIntUtils.writeVarInt(buffer, END_TAG);
+    }
+
+    private RpcResponse readResponse(BufferReader reader) throws IOException {
+        RpcResponse rpcResponse = new RpcResponse();
+        for (int tag = reader.readVarInt(); tag != END_TAG; tag = reader.readVarInt()) {
+            switch (tag >>> 3) {
+                case 1:
+                    for (int inner = reader.readVarInt(); inner != END_TAG; inner = reader.readVarInt()) {
+                        rpcResponse.setDataType(ClassIdTable.readClass(reader));
+                    }
+                    break;
+                case 2:
+                    rpcResponse.setMessage(reader.readUtf8(reader.readVarInt()));
+                    break;
+                case 3:
+                    Class<?> dataType = rpcResponse.getDataType();
+                    rpcResponse.setData(readField(reader, tag & 7, dataType != null ? dataType : Object.class, null));
+                    break;
+                case 4:
+                    rpcResponse.setException((Exception) readField(reader, tag & 7, Exception.class, null));
+                    break;
+                case 5:
+                    rpcResponse.setError((RpcError) readField(reader, tag & 7, RpcError.class, null));
+                    break;
+                default:
+                    skipField(reader, tag & 7);
+            }
+        }
+        return rpcResponse;
+    }
+
+    private static Class<?> declaredType(Class<?>[] parameterTypes, int index) {
+        return parameterTypes != null && index < parameterTypes.length ? parameterTypes[index] : Object.class;
+    }
+
+    // ---------------------------------------------------------------- writing
+
+    /**
+     * Write a nullable element of a collection, array, map or the root value.
+     */
+    private void writeSlot(Buffer buffer, Object value, Class<?> expected, Type genericType) throws IOException {
+        if (value == null) {
+            writeTag(buffer, NULL_FIELD, WIRE_VARINT);
+            VarIntUtils.writeVarInt(buffer, 0);
+        } else {
+            writeField(buffer, VALUE_FIELD, value, expected, genericType);
+        }
+    }
+
+    /**
+     * Write a non-null value as field {@code number} of the enclosing message.
+     */
+    private void writeField(Buffer buffer, int number, Object value, Class<?> expected, Type genericType)
+            throws IOException {
+        Kind kind = RuntimeSchema.kindOf(expected);
+        if (!kind.isGroup()) {
+            writeScalar(buffer, number, kind, value);
+            return;
+        }
+
+        writeTag(buffer, number, WIRE_START_GROUP);
+        Class<?> runtimeClass = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass();
+        Kind runtimeKind = RuntimeSchema.kindOf(runtimeClass);
+        if (runtimeKind == Kind.COLLECTION || runtimeKind == Kind.MAP) {
+            runtimeClass = RuntimeSchema.instantiableClass(runtimeClass);
+        }
+        if (runtimeClass != expected && runtimeClass != RuntimeSchema.defaultImplementation(expected)) {
+            VarIntUtils.writeVarInt(buffer, CLASS_TAG);
+            ClassIdTable.writeClass(buffer, runtimeClass);
+        }
+        writeGroupContent(buffer, value, runtimeClass, runtimeKind, genericType);
+        VarIntUtils.writeVarInt(buffer, END_TAG);
+    }
+
+    private void writeGroupContent(Buffer buffer, Object value, Class<?> runtimeClass, Kind kind, Type genericType)
+            throws IOException {
+        switch (kind) {
+            case POJO:
+                writePojo(buffer, value, RuntimeSchema.getSchema(runtimeClass));
+                break;
+            case COLLECTION: {
+                Class<?> elementClass = RuntimeSchema.typeArgument(genericType, 0);
+                Type elementType = RuntimeSchema.genericTypeArgument(genericType, 0);
+                for (Object element : (Collection<?>) value) {
+                    writeSlot(buffer, element, elementClass, elementType);
+                }
+                break;
+            }
+            case MAP: {
+                Class<?> keyClass = RuntimeSchema.typeArgument(genericType, 0);
+                Type keyType = RuntimeSchema.genericTypeArgument(genericType, 0);
+                Class<?> valueClass = RuntimeSchema.typeArgument(genericType, 1);
+                Type valueType = RuntimeSchema.genericTypeArgument(genericType, 1);
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    writeSlot(buffer, entry.getKey(), keyClass, keyType);
+                    writeSlot(buffer, entry.getValue(), valueClass, valueType);
+                }
+                break;
+            }
+            case OBJECT_ARRAY: {
+                Class<?> componentClass = runtimeClass.getComponentType();
+                Type componentType = genericType instanceof GenericArrayType
+                        ? ((GenericArrayType) genericType).getGenericComponentType() : componentClass;
+                for (Object element : (Object[]) value) {
+                    writeSlot(buffer, element, componentClass, componentType);
+                }
+                break;
+            }
+            case JAVA_SERIALIZABLE: {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
+                    objectOutputStream.writeObject(value);
+                }
+                writeBytes(buffer, VALUE_FIELD, outputStream.toByteArray());
+                break;
+            }
+            case DYNAMIC:
+                throw new RuntimeException("Cannot serialize instance of " + runtimeClass.getName());
+            default:
+                // Boxed scalar in a dynamic position (e.g. an Integer declared as Object)
+                writeScalar(buffer, VALUE_FIELD, kind, value);
+        }
+    }
+
+    private void writePojo(Buffer buffer, Object value, RuntimeSchema schema) throws IOException {
+        try {
+            for (FieldInfo fieldInfo : schema.fields) {
+                Field field = fieldInfo.field;
+                if (fieldInfo.type.isPrimitive()) {
+                    writePrimitiveField(buffer, fieldInfo, value);
+                    continue;
+                }
+                Object fieldValue = field.get(value);
+                if (fieldValue != null) {
+                    writeField(buffer, fieldInfo.number, fieldValue, fieldInfo.type, fieldInfo.genericType);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to read field of " + schema.type.getName(), e);
+        }
+    }
+
+    /**
+     * Primitive fields are read with the typed accessors to avoid boxing.
+     */
+    private void writePrimitiveField(Buffer buffer, FieldInfo fieldInfo, Object target) throws IllegalAccessException {
+        Field field = fieldInfo.field;
+        int number = fieldInfo.number;
+        switch (fieldInfo.kind) {
+            case BOOLEAN:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeVarInt(buffer, field.getBoolean(target) ? 1 : 0);
+                break;
+            case BYTE:
+            case SHORT:
+            case INT:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeSignedVarInt(buffer, field.getInt(target));
+                break;
+            case CHAR:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeVarInt(buffer, field.getChar(target));
+                break;
+            case LONG:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeSignedVarLong(buffer, field.getLong(target));
+                break;
+            case FLOAT:
+                writeTag(buffer, number, WIRE_FIXED32);
+                buffer.appendIntLE(Float.floatToRawIntBits(field.getFloat(target)));
+                break;
+            case DOUBLE:
+                writeTag(buffer, number, WIRE_FIXED64);
+                buffer.appendLongLE(Double.doubleToRawLongBits(field.getDouble(target)));
+                break;
+            default:
+                throw new IllegalStateException("Not a primitive kind: " + fieldInfo.kind);
+        }
+    }
+
+    private void writeScalar(Buffer buffer, int number, Kind kind, Object value) {
+        switch (kind) {
+            case BOOLEAN:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeVarInt(buffer, (Boolean) value ? 1 : 0);
+                break;
+            case BYTE:
+            case SHORT:
+            case INT:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeSignedVarInt(buffer, ((Number) value).intValue());
+                break;
+            case CHAR:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeVarInt(buffer, (Character) value);
+                break;
+            case LONG:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeSignedVarLong(buffer, (Long) value);
+                break;
+            case FLOAT:
+                writeTag(buffer, number, WIRE_FIXED32);
+                buffer.appendIntLE(Float.floatToRawIntBits((Float) value));
+                break;
+            case DOUBLE:
+                writeTag(buffer, number, WIRE_FIXED64);
+                buffer.appendLongLE(Double.doubleToRawLongBits((Double) value));
+                break;
+            case STRING:
+                writeString(buffer, number, (String) value);
+                break;
+            case BYTES:
+                writeBytes(buffer, number, (byte[]) value);
+                break;
+            case ENUM:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeVarInt(buffer, ((Enum<?>) value).ordinal());
+                break;
+            case DATE:
+                writeTag(buffer, number, WIRE_VARINT);
+                VarIntUtils.writeSignedVarLong(buffer, ((Date) value).getTime());
+                break;
+            case BIG_DECIMAL:
+            case BIG_INTEGER:
+                writeString(buffer, number, value.toString());
+                break;
+            default:
+                writePackedArray(buffer, number, kind, value);
+        }
+    }
+
+    /**
+     * Primitive arrays are written packed: one length prefix, no per-element tags.
+     */
+    private void writePackedArray(Buffer buffer, int number, Kind kind, Object array) {
+        writeTag(buffer, number, WIRE_LENGTH_DELIMITED);
+        switch (kind) {
+            case BOOLEAN_ARRAY: {
+                boolean[] values = (boolean[]) array;
+                VarIntUtils.writeVarInt(buffer, values.length);
+                for (boolean v : values) {
+                    buffer.appendByte((byte) (v ? 1 : 0));
+                }
+                break;
+            }
+            case SHORT_ARRAY: {
+                short[] values = (short[]) array;
+                int size = 0;
+                for (short v : values) {
+                    size += VarIntUtils.varIntSize((v << 1) ^ (v >> 31));
+                }
+                VarIntUtils.writeVarInt(buffer, size);
+                for (short v : values) {
+                    VarIntUtils.writeSignedVarInt(buffer, v);
+                }
+                break;
+            }
+            case CHAR_ARRAY: {
+                char[] values = (char[]) array;
+                int size = 0;
+                for (char v : values) {
+                    size += VarIntUtils.varIntSize(v);
+                }
+                VarIntUtils.writeVarInt(buffer, size);
+                for (char v : values) {
+                    VarIntUtils.writeVarInt(buffer, v);
+                }
+                break;
+            }
+            case INT_ARRAY: {
+                int[] values = (int[]) array;
+                int size = 0;
+                for (int v : values) {
+                    size += VarIntUtils.varIntSize((v << 1) ^ (v >> 31));
+                }
+                VarIntUtils.writeVarInt(buffer, size);
+                for (int v : values) {
+                    VarIntUtils.writeSignedVarInt(buffer, v);
+                }
+                break;
+            }
+            case LONG_ARRAY: {
+                long[] values = (long[]) array;
+                int size = 0;
+                for (long v : values) {
+                    size += VarIntUtils.varLongSize((v << 1) ^ (v >> 63));
+                }
+                VarIntUtils.writeVarInt(buffer, size);
+                for (long v : values) {
+                    VarIntUtils.writeSignedVarLong(buffer, v);
+                }
+                break;
+            }
+            case FLOAT_ARRAY: {
+                float[] values = (float[]) array;
+                VarIntUtils.writeVarInt(buffer, values.length * 4);
+                for (float v : values) {
+                    buffer.appendIntLE(Float.floatToRawIntBits(v));
+                }
+                break;
+            }
+            case DOUBLE_ARRAY: {
+                double[] values = (double[]) array;
+                VarIntUtils.writeVarInt(buffer, values.length * 8);
+                for (double v : values) {
+                    buffer.appendLongLE(Double.doubleToRawLongBits(v));
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Not a packed array kind: " + kind);
+        }
+    }
+
+    private static void writeString(Buffer buffer, int number, String value) {
+        if (value != null) {
+            writeBytes(buffer, number, value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void writeBytes(Buffer buffer, int number, byte[] bytes) {
+        writeTag(buffer, number, WIRE_LENGTH_DELIMITED);
+        VarIntUtils.writeVarInt(buffer, bytes.length);
+        buffer.appendBytes(bytes);
+    }
+
+    private static void writeTag(Buffer buffer, int number, int wireType) {
+        VarIntUtils.writeVarInt(buffer, makeTag(number, wireType));
+    }
+
+    private static int makeTag(int number, int wireType) {
+        return (number << 3) | wireType;
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    /**
+     * Read an element slot whose tag has already been consumed.
+     */
+    private Object readSlot(BufferReader reader, int tag, Class<?> expected, Type genericType) throws IOException {
+        if ((tag >>> 3) == NULL_FIELD) {
+            reader.readVarInt();
+            return null;
+        }
+        return readField(reader, tag & 7, expected, genericType);
+    }
+
+    private Object readField(BufferReader reader, int wireType, Class<?> expected, Type genericType)
+            throws IOException {
+        Kind kind = RuntimeSchema.kindOf(expected);
+        if (!kind.isGroup()) {
+            return readScalar(reader, kind, expected);
+        }
+        if (wireType != WIRE_START_GROUP) {
+            throw new RuntimeException("Expected group for " + expected.getName() + ", got wire type " + wireType);
+        }
+
+        int tag = reader.readVarInt();
+        Class<?> type;
+        if (tag == CLASS_TAG) {
+            type = ClassIdTable.readClass(reader);
+            tag = reader.readVarInt();
+        } else {
+            type = RuntimeSchema.defaultImplementation(expected);
+            if (type == null || RuntimeSchema.kindOf(type) == Kind.DYNAMIC) {
+                throw new RuntimeException("Missing class marker for value of type " + expected.getName());
+            }
+        }
+        return readGroupContent(reader, tag, type, RuntimeSchema.kindOf(type), genericType);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readGroupContent(BufferReader reader, int tag, Class<?> type, Kind kind, Type genericType)
+            throws IOException {
+        switch (kind) {
+            case POJO:
+                return readPojo(reader, tag, RuntimeSchema.getSchema(type));
+            case COLLECTION: {
+                Collection<Object> collection = (Collection<Object>) RuntimeSchema.newInstance(type);
+                Class<?> elementClass = RuntimeSchema.typeArgument(genericType, 0);
+                Type elementType = RuntimeSchema.genericTypeArgument(genericType, 0);
+                for (; tag != END_TAG; tag = reader.readVarInt()) {
+                    collection.add(readSlot(reader, tag, elementClass, elementType));
+                }
+                return collection;
+            }
+            case MAP: {
+                Map<Object, Object> map = (Map<Object, Object>) RuntimeSchema.newInstance(type);
+                Class<?> keyClass = RuntimeSchema.typeArgument(genericType, 0);
+                Type keyType = RuntimeSchema.genericTypeArgument(genericType, 0);
+                Class<?> valueClass = RuntimeSchema.typeArgument(genericType, 1);
+                Type valueType = RuntimeSchema.genericTypeArgument(genericType, 1);
+                for (; tag != END_TAG; tag = reader.readVarInt()) {
+                    Object key = readSlot(reader, tag, keyClass, keyType);
+                    map.put(key, readSlot(reader, reader.readVarInt(), valueClass, valueType));
+                }
+                return map;
+            }
+            case OBJECT_ARRAY: {
+                Class<?> componentClass = type.getComponentType();
+                Type componentType = genericType instanceof GenericArrayType
+                        ? ((GenericArrayType) genericType).getGenericComponentType() : componentClass;
+                List<Object> elements = new ArrayList<>();
+                for (; tag != END_TAG; tag = reader.readVarInt()) {
+                    elements.add(readSlot(reader, tag, componentClass, componentType));
+                }
+                return elements.toArray((Object[]) Array.newInstance(componentClass, elements.size()));
+            }
+            case JAVA_SERIALIZABLE: {
+                Object value = null;
+                for (; tag != END_TAG; tag = reader.readVarInt()) {
+                    if ((tag >>> 3) != VALUE_FIELD) {
+                        skipField(reader, tag & 7);
+                        continue;
+                    }
+                    byte[] bytes = reader.readBytes(reader.readVarInt());
+                    try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        value = objectInputStream.readObject();
+                    } catch (ClassNotFoundException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return value;
+            }
+            case DYNAMIC:
+                throw new RuntimeException("Cannot deserialize instance of " + type.getName());
+            default: {
+                Object value = null;
+                for (; tag != END_TAG; tag = reader.readVarInt()) {
+                    if ((tag >>> 3) == VALUE_FIELD) {
+                        value = readScalar(reader, kind, type);
+                    } else {
+                        skipField(reader, tag & 7);
+                    }
+                }
+                return value;
+            }
+        }
+    }
+
+    private Object readPojo(BufferReader reader, int tag, RuntimeSchema schema) throws IOException {
+        Object target = RuntimeSchema.newInstance(schema.type);
+        try {
+            for (; tag != END_TAG; tag = reader.readVarInt()) {
+                FieldInfo fieldInfo = schema.getField(tag >>> 3);
+                if (fieldInfo == null) {
+                    // Field added by a newer peer
+                    skipField(reader, tag & 7);
+                    continue;
+                }
+                fieldInfo.field.set(target, readField(reader, tag & 7, fieldInfo.type, fieldInfo.genericType));
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to set field of " + schema.type.getName(), e);
+        }
+        return target;
+    }
+
+    private Object readScalar(BufferReader reader, Kind kind, Class<?> type) {
+        switch (kind) {
+            case BOOLEAN:
+                return reader.readVarInt() != 0;
+            case BYTE:
+                return (byte) reader.readSignedVarInt();
+            case SHORT:
+                return (short) reader.readSignedVarInt();
+            case INT:
+                return reader.readSignedVarInt();
+            case CHAR:
+                return (char) reader.readVarInt();
+            case LONG:
+                return reader.readSignedVarLong();
+            case FLOAT:
+                return Float.intBitsToFloat(reader.readIntLE());
+            case DOUBLE:
+                return Double.longBitsToDouble(reader.readLongLE());
+            case STRING:
+                return reader.readUtf8(reader.readVarInt());
+            case BYTES:
+                return reader.readBytes(reader.readVarInt());
+            case ENUM:
+                return type.getEnumConstants()[reader.readVarInt()];
+            case DATE:
+                return new Date(reader.readSignedVarLong());
+            case BIG_DECIMAL:
+                return new BigDecimal(reader.readUtf8(reader.readVarInt()));
+            case BIG_INTEGER:
+                return new BigInteger(reader.readUtf8(reader.readVarInt()));
+            default:
+                return readPackedArray(reader, kind);
+        }
+    }
+
+    private Object readPackedArray(BufferReader reader, Kind kind) {
+        int length = reader.readVarInt();
+        switch (kind) {
+            case BOOLEAN_ARRAY: {
+                boolean[] values = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    values[i] = reader.readByte() != 0;
+                }
+                return values;
+            }
+            case SHORT_ARRAY: {
+                List<Short> values = new ArrayList<>();
+                int end = reader.position() + length;
+                while (reader.position() < end) {
+                    values.add((short) reader.readSignedVarInt());
+                }
+                short[] result = new short[values.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = values.get(i);
+                }
+                return result;
+            }
+            case CHAR_ARRAY: {
+                StringBuilder values = new StringBuilder();
+                int end = reader.position() + length;
+                while (reader.position() < end) {
+                    values.append((char) reader.readVarInt());
+                }
+                return values.toString().toCharArray();
+            }
+            case INT_ARRAY: {
+                int[] values = new int[length];
+                int count = 0;
+                int end = reader.position() + length;
+                while (reader.position() < end) {
+                    values[count++] = reader.readSignedVarInt();
+                }
+                return Arrays.copyOf(values, count);
+            }
+            case LONG_ARRAY: {
+                long[] values = new long[length];
+                int count = 0;
+                int end = reader.position() + length;
+                while (reader.position() < end) {
+                    values[count++] = reader.readSignedVarLong();
+                }
+                return Arrays.copyOf(values, count);
+            }
+            case FLOAT_ARRAY: {
+                float[] values = new float[length / 4];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Float.intBitsToFloat(reader.readIntLE());
+                }
+                return values;
+            }
+            case DOUBLE_ARRAY: {
+                double[] values = new double[length / 8];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Double.longBitsToDouble(reader.readLongLE());
+                }
+                return values;
+            }
+            default:
+                throw new IllegalStateException("Not a packed array kind: " + kind);
+        }
+    }
+
+    /**
+     * Skip a field written by a newer peer.
+     */
+    private void skipField(BufferReader reader, int wireType) {
+        switch (wireType) {
+            case WIRE_VARINT:
+                reader.readVarLong();
+                break;
+            case WIRE_FIXED64:
+                reader.skip(8);
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                reader.skip(reader.readVarInt());
+                break;
+            case WIRE_START_GROUP:
+                for (int tag = reader.readVarInt(); tag != END_TAG; tag = reader.readVarInt()) {
+                    if (tag == CLASS_TAG) {
+                        ClassIdTable.readClass(reader);
+                    } else {
+                        skipField(reader, tag & 7);
+                    }
+                }
+                break;
+            case WIRE_FIXED32:
+                reader.skip(4);
+                break;
+            default:
+                throw new RuntimeException("Unknown wire type: " + wireType);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.xianwei.customrpc.serializer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Schema Tag Annotation
+ *
+ * Fixes the tag number a field is written with by {@link SchemaSerializer}, like a field number
+ * in a .proto file. Once the fields of a class hierarchy are tagged, fields can be added (with
+ * new tags) or removed (never reusing their tags) while older peers keep decoding the others.
+ *
+ * If any field of a class or its superclasses is tagged, all of its serialized fields must be.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface SchemaTag {
+
+    /**
+     * Tag number, from 1 to {@link RuntimeSchema#MAX_TAG}, unique within the class hierarchy
+     */
+    int value();
+}
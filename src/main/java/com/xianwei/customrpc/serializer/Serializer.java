@@ -1,5 +1,7 @@
 package com.xianwei.customrpc.serializer;
 
+import io.vertx.core.buffer.Buffer;
+
 import java.io.IOException;
 
 /**
@@ -7,6 +9,10 @@ import java.io.IOException;
  *
  * Defines a standard interface for serialization and deserialization,
  * allowing different implementations (e.g., JDK, JSON, Kryo, Hessian) to be used interchangeably.
+ *
+ * The Buffer-based methods let the protocol codec serialize straight into the outgoing frame
+ * and deserialize from a slice of the incoming one. Their default implementations fall back
+ * to the byte array methods; built-in serializers override them to avoid the extra copies.
  */
 public interface Serializer {
 
@@ -30,5 +36,30 @@ public interface Serializer {
      * @throws IOException if deserialization fails
      */
     <T> T deserialize(byte[] bytes, Class<T> tClass) throws IOException;
-}
 
+    /**
+     * Serialize an object by appending it to the given buffer.
+     *
+     * @param object the object to serialize
+     * @param out    the buffer to append to
+     * @param <T> the type of the object
+     * @throws IOException if serialization fails
+     */
+    default <T> void serialize(T object, Buffer out) throws IOException {
+        out.appendBytes(serialize(object));
+    }
+
+    /**
+     * Deserialize an object from a buffer holding exactly one serialized value.
+     * The buffer is usually a slice of a received frame and must not be retained.
+     *
+     * @param in     the buffer to read from
+     * @param tClass the target class for deserialization
+     * @param <T> the type of the resulting object
+     * @return the deserialized object
+     * @throws IOException if deserialization fails
+     */
+    default <T> T deserialize(Buffer in, Class<T> tClass) throws IOException {
+        return deserialize(in.getBytes(), tClass);
+    }
+}
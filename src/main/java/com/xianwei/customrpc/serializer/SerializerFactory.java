@@ -1,13 +1,19 @@
 package com.xianwei.customrpc.serializer;
 
+import com.xianwei.customrpc.codec.ValueCodecs;
 import com.xianwei.customrpc.spi.SpiLoader;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Serializer Factory (Factory Pattern)
  *
  * This factory class is responsible for providing Serializer instances
  * based on a specified key (e.g., "json", "kryo", "hessian", "jdk").
  * It uses SPI (Service Provider Interface) to load implementations dynamically.
+ * When generated value codecs are registered, serializers are returned wrapped in a
+ * {@link CodecAwareSerializer} so that those classes bypass reflection.
  */
 public class SerializerFactory {
 
@@ -21,6 +27,11 @@ public class SerializerFactory {
      */
     private static final Serializer DEFAULT_SERIALIZER = new JdkSerializer();
 
+    /**
+     * Codec-aware wrappers by serializer key
+     */
+    private static final Map<String, Serializer> CODEC_AWARE_SERIALIZERS = new ConcurrentHashMap<>();
+
     /**
      * Get a serializer instance by key.
      *
@@ -28,6 +39,10 @@ public class SerializerFactory {
      * @return the corresponding serializer instance
      */
     public static Serializer getInstance(String key) {
-        return SpiLoader.getInstance(Serializer.class, key);
+        Serializer serializer = SpiLoader.getInstance(Serializer.class, key);
+        if (ValueCodecs.isEmpty()) {
+            return serializer;
+        }
+        return CODEC_AWARE_SERIALIZERS.computeIfAbsent(key, k -> new CodecAwareSerializer(serializer));
     }
 }
@@ -27,5 +27,14 @@ public interface SerializerKeys {
      * Key for Hessian serialization (binary, cross-language)
      */
     String HESSIAN = "hessian";
-}
 
+    /**
+     * Key for schema-based tag/varint serialization (protobuf-style, compact binary)
+     */
+    String SCHEMA = "schema";
+
+    /**
+     * Key for Hessian 2 serialization (compact class definitions and references)
+     */
+    String HESSIAN2 = "hessian2";
+}
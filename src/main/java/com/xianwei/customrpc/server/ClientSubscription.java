@@ -0,0 +1,192 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.event.RpcEventListener;
+import com.xianwei.customrpc.event.Subscription;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolMessage;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client Subscription
+ *
+ * Consumer side of a subscription (see {@link com.xianwei.customrpc.event.EventPublisher}).
+ * Received events are queued and handed to the listener one at a time on a worker; every half
+ * window of processed events, the provider is granted as many new credits with a SUBSCRIBE message.
+ * So at most a window of events is ever in flight or queued here, however slow the listener is.
+ */
+@Slf4j
+class ClientSubscription implements Subscription {
+
+    private final TcpClientConnection connection;
+
+    private final long id;
+
+    private final byte version;
+
+    private final byte serializer;
+
+    private final String serviceName;
+
+    private final String topic;
+
+    private final int window;
+
+    @SuppressWarnings("rawtypes")
+    private final RpcEventListener listener;
+
+    private final Executor executor;
+
+    /**
+     * Listener calls not run yet, in order
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Events processed since credits were last granted (only touched by the draining worker)
+     */
+    private int processed;
+
+    /**
+     * @param id     subscription id, the request ID of its SUBSCRIBE messages
+     * @param header header of the first SUBSCRIBE message (version and serializer)
+     * @param window number of credits granted to the provider up front
+     */
+    ClientSubscription(TcpClientConnection connection, long id, ProtocolMessage.Header header, String serviceName,
+                       String topic, int window, RpcEventListener<?> listener, Executor executor) {
+        this.connection = connection;
+        this.id = id;
+        this.version = header.getVersion();
+        this.serializer = header.getSerializer();
+        this.serviceName = serviceName;
+        this.topic = topic;
+        this.window = window;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    /**
+     * A SUBSCRIBE message granting credits.
+     *
+     * @param open whether it opens the subscription; otherwise the provider ignores it once the
+     *             subscription has ended
+     */
+    ProtocolMessage<RpcRequest> subscribeMessage(long credits, boolean open) {
+        RpcRequest rpcRequest = RpcRequest.builder()
+                .serviceName(serviceName)
+                .methodName(topic)
+                .parameterTypes(new Class<?>[]{long.class, boolean.class})
+                .args(new Object[]{credits, open})
+                .build();
+        return new ProtocolMessage<>(newHeader(ProtocolMessageTypeEnum.SUBSCRIBE), rpcRequest);
+    }
+
+    /**
+     * Queue a received event for the listener.
+     */
+    @SuppressWarnings("unchecked")
+    void deliver(Object event) {
+        if (closed.get()) {
+            return;
+        }
+        schedule(() -> {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException e) {
+                log.error("Listener of {}#{} failed", serviceName, topic, e);
+            }
+            if (++processed >= Math.max(window / 2, 1)) {
+                int credits = processed;
+                processed = 0;
+                connection.write(subscribeMessage(credits, false));
+            }
+        });
+    }
+
+    /**
+     * The provider ended the subscription, or the connection closed: the listener is told after
+     * the events received before.
+     */
+    void close(Throwable cause) {
+        if (closed.get()) {
+            return;
+        }
+        schedule(() -> {
+            if (closed.compareAndSet(false, true)) {
+                listener.onClose(cause);
+            }
+        });
+    }
+
+    @Override
+    public void cancel() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        connection.unsubscribe(this);
+        connection.write(new ProtocolMessage<>(newHeader(ProtocolMessageTypeEnum.UNSUBSCRIBE), new RpcResponse()));
+        tasks.clear();
+        schedule(() -> listener.onClose(null));
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Run listener calls one at a time, in order, on the executor.
+     */
+    private void schedule(Runnable task) {
+        tasks.add(task);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Listener of {}#{} failed", serviceName, topic, e);
+                }
+            }
+            draining.set(false);
+            // A task added after the last poll found draining still set: take it over
+            if (tasks.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private ProtocolMessage.Header newHeader(ProtocolMessageTypeEnum type) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(version);
+        header.setSerializer(serializer);
+        header.setType((byte) type.getKey());
+        header.setRequestId(id);
+        return header;
+    }
+}
@@ -0,0 +1,113 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.model.RpcRequest;
+import io.vertx.core.buffer.Buffer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Conditional Result Cache
+ *
+ * The last result of each conditional call made by this consumer, by service, method and
+ * arguments, with the version tag the provider sent with it. Results are kept serialized, so
+ * each call that reuses one decodes its own copy. Least recently used results are dropped beyond
+ * the given number of entries.
+ */
+public class ConditionalResultCache {
+
+    private final Map<CallKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Get the last result of a call.
+     *
+     * @param rpcRequest the call
+     * @return the result and its version tag, or null
+     */
+    public synchronized Entry get(RpcRequest rpcRequest) {
+        return entries.get(new CallKey(rpcRequest));
+    }
+
+    /**
+     * Keep the result of a call.
+     *
+     * @param rpcRequest the call
+     * @param versionTag version tag of the result
+     * @param serializer serializer byte of the header the response body was encoded with
+     * @param body       the response body, serialized on its own
+     * @param maxEntries largest number of results to keep
+     */
+    public synchronized void put(RpcRequest rpcRequest, byte[] versionTag, byte serializer, Buffer body,
+                                 int maxEntries) {
+        entries.put(new CallKey(rpcRequest), new Entry(versionTag, serializer, body));
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * A kept result
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+
+        private final byte[] versionTag;
+
+        private final byte serializer;
+
+        private final Buffer body;
+    }
+
+    /**
+     * Service, method and arguments of a call; the arguments are compared deeply
+     */
+    private static class CallKey {
+
+        private final String serviceName;
+
+        private final String methodName;
+
+        private final String serviceVersion;
+
+        private final Object[] args;
+
+        private final int hash;
+
+        CallKey(RpcRequest rpcRequest) {
+            this.serviceName = rpcRequest.getServiceName();
+            this.methodName = rpcRequest.getMethodName();
+            this.serviceVersion = rpcRequest.getServiceVersion();
+            // Copied so later changes to the caller's array do not move the entry
+            this.args = rpcRequest.getArgs() == null ? null : rpcRequest.getArgs().clone();
+            this.hash = Objects.hash(serviceName, methodName, serviceVersion) * 31 + Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallKey)) {
+                return false;
+            }
+            CallKey that = (CallKey) o;
+            return hash == that.hash && Objects.equals(serviceName, that.serviceName)
+                    && Objects.equals(methodName, that.methodName)
+                    && Objects.equals(serviceVersion, that.serviceVersion)
+                    && Arrays.deepEquals(args, that.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolHeaderView;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fragment Assembler
+ *
+ * Sits between the frame decoder and the message handler of a connection. Frames of fragmented
+ * messages are collected by request ID until the last one (without the MORE_FRAGMENTS flag)
+ * arrives; the message is then handed on as one frame whose body chains the fragment bodies in
+ * a composite buffer, so they are never copied into one large array. Fragments of different
+ * messages may interleave with each other and with unfragmented frames, which pass straight through.
+ * ATTACHMENT frames (blob bytes, see MessageAttachments) are collected the same way and appended
+ * after the frame of the message with the same request ID, which always follows them.
+ *
+ * Fragments are buffered only up to the maximum message size per connection, so a peer cannot
+ * exhaust the heap with a huge or endless message. Fragmented messages are handed on in memory
+ * they own (never pooled), so they may be decoded later on another thread.
+ * Runs on the connection's event loop; not thread-safe.
+ */
+public class FragmentAssembler implements Handler<Buffer> {
+
+    private final Handler<Buffer> messageHandler;
+
+    private final long maxMessageSize;
+
+    private final ProtocolHeaderView headerView = new ProtocolHeaderView();
+
+    /**
+     * Messages being assembled: requestId → header followed by the bodies received so far
+     */
+    private final Map<Long, CompositeByteBuf> pendingMessages = new HashMap<>();
+
+    /**
+     * Attachments received ahead of their message: requestId → attachment bytes so far
+     */
+    private final Map<Long, CompositeByteBuf> pendingAttachments = new HashMap<>();
+
+    /**
+     * Body bytes buffered across all pending messages and attachments
+     */
+    private long pendingBytes;
+
+    /**
+     * @param messageHandler handler of complete messages
+     * @param maxMessageSize largest body buffered for fragmented messages, in total per connection
+     */
+    public FragmentAssembler(Handler<Buffer> messageHandler, long maxMessageSize) {
+        this.messageHandler = messageHandler;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public void handle(Buffer frame) {
+        headerView.wrap(frame, 0);
+        if (headerView.getMessageType() == ProtocolMessageTypeEnum.ATTACHMENT.getKey()) {
+            addAttachment(frame);
+            return;
+        }
+        if (!headerView.isFragmented()) {
+            messageHandler.handle(frame);
+            return;
+        }
+        long requestId = headerView.getRequestId();
+        boolean more = headerView.hasMoreFragments();
+        int bodyLength = headerView.getBodyLength();
+        CompositeByteBuf message = pendingMessages.get(requestId);
+        if (message == null && !more) {
+            // Fragmented message that fits in one frame: only detach it from the inbound buffer
+            handleMessage(requestId, Unpooled.wrappedBuffer(frame.getBytes()));
+            return;
+        }
+        reserve(bodyLength);
+        if (message == null) {
+            message = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+            message.addComponent(true, Unpooled.wrappedBuffer(frame.getBytes(0, ProtocolConstant.MESSAGE_HEADER_LENGTH)));
+            pendingMessages.put(requestId, message);
+        }
+        message.addComponent(true, Unpooled.wrappedBuffer(
+                frame.getBytes(ProtocolConstant.MESSAGE_HEADER_LENGTH, ProtocolConstant.MESSAGE_HEADER_LENGTH + bodyLength)));
+        if (more) {
+            return;
+        }
+
+        // Last fragment: one header for the whole message, with the total body length
+        pendingMessages.remove(requestId);
+        int messageBodyLength = message.readableBytes() - ProtocolConstant.MESSAGE_HEADER_LENGTH;
+        pendingBytes -= messageBodyLength;
+        message.setByte(ProtocolHeaderView.TYPE_OFFSET, headerView.getType());
+        message.setInt(ProtocolHeaderView.BODY_LENGTH_OFFSET, messageBodyLength);
+        handleMessage(requestId, message);
+    }
+
+    private void addAttachment(Buffer frame) {
+        long requestId = headerView.getRequestId();
+        int bodyLength = headerView.getBodyLength();
+        reserve(bodyLength);
+        CompositeByteBuf attachments = pendingAttachments.get(requestId);
+        if (attachments == null) {
+            attachments = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+            pendingAttachments.put(requestId, attachments);
+        }
+        attachments.addComponent(true, Unpooled.wrappedBuffer(
+                frame.getBytes(ProtocolConstant.MESSAGE_HEADER_LENGTH, ProtocolConstant.MESSAGE_HEADER_LENGTH + bodyLength)));
+    }
+
+    /**
+     * Hand on a complete fragmented message, followed by its attachments if any.
+     */
+    private void handleMessage(long requestId, ByteBuf message) {
+        CompositeByteBuf attachments = pendingAttachments.remove(requestId);
+        if (attachments != null) {
+            pendingBytes -= attachments.readableBytes();
+            message = Unpooled.wrappedBuffer(Integer.MAX_VALUE, message, attachments);
+        }
+        messageHandler.handle(ByteBufBuffers.wrap(message));
+    }
+
+    private void reserve(int bodyLength) {
+        if (pendingBytes + bodyLength > maxMessageSize) {
+            throw new RuntimeException("Fragmented messages exceed the maximum message size " + maxMessageSize);
+        }
+        pendingBytes += bodyLength;
+    }
+}
@@ -1,24 +1,68 @@
 package com.xianwei.customrpc.server;
 
 import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolHeaderView;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.parsetools.RecordParser;
 
 /**
  * TCP Message Handler Wrapper
  *
  * This class wraps a raw TCP Buffer handler using the Decorator Pattern,
- * enhancing it with `RecordParser` to solve sticky and half-packet problems.
+ * enhancing it with a frame decoder to solve sticky and half-packet problems.
  * It ensures that a full message (header + body) is received before processing.
+ *
+ * Frames that arrive complete within one inbound buffer are handed out as slices of that
+ * buffer, without copying. Only a frame split across reads is accumulated, in a buffer of
+ * exactly its size (optionally taken from Netty's pooled allocator and released as soon as
+ * the handler returns). Header fields are read in place through a {@link ProtocolHeaderView}.
+ * Frames longer than the maximum frame size are rejected before any memory is reserved.
+ * The connection's close handler must call {@link #close()}, which releases a partial frame.
  */
 public class TcpBufferHandlerWrapper implements Handler<Buffer> {
 
     /**
-     * RecordParser is used to extract complete messages from a TCP stream.
-     * It prevents issues where messages are split or combined during transport.
+     * Handler of complete messages
+     */
+    private final Handler<Buffer> bufferHandler;
+
+    /**
+     * Whether partial frames are accumulated in pooled buffers (the handler must not retain them)
+     */
+    private final boolean pooled;
+
+    /**
+     * Largest accepted frame, header included
+     */
+    private final int maxFrameSize;
+
+    /**
+     * Reused to read the headers of inbound frames
+     */
+    private final ProtocolHeaderView headerView = new ProtocolHeaderView();
+
+    /**
+     * Partial frame carried over from previous reads, or null
+     */
+    private Buffer pending;
+
+    /**
+     * Pooled memory behind {@link #pending}, if any
+     */
+    private ByteBuf pendingMemory;
+
+    /**
+     * Length of the pending frame, or -1 while its header is incomplete
+     */
+    private int pendingFrameLength = -1;
+
+    /**
+     * Set once a corrupt header is seen; the stream cannot be re-synchronized
      */
-    private final RecordParser recordParser;
+    private boolean failed;
 
     /**
      * Constructor that wraps the given buffer handler with parsing logic.
@@ -26,51 +70,130 @@ public class TcpBufferHandlerWrapper implements Handler<Buffer> {
      * @param bufferHandler the original handler that should process complete messages
      */
     public TcpBufferHandlerWrapper(Handler<Buffer> bufferHandler) {
-        recordParser = initRecordParser(bufferHandler);
+        this(bufferHandler, false, Integer.MAX_VALUE);
     }
 
     /**
-     * Delegate incoming buffer data to the record parser.
+     * @param bufferHandler the original handler that should process complete messages
+     * @param pooled        whether to accumulate split messages in pooled buffers; only for handlers
+     *                      that are done with the buffer (and any slice of it) when they return
+     * @param maxFrameSize  largest accepted frame, header included
      */
-    @Override
-    public void handle(Buffer buffer) {
-        recordParser.handle(buffer);
+    public TcpBufferHandlerWrapper(Handler<Buffer> bufferHandler, boolean pooled, int maxFrameSize) {
+        this.bufferHandler = bufferHandler;
+        this.pooled = pooled;
+        this.maxFrameSize = maxFrameSize;
     }
 
     /**
-     * Initializes the RecordParser with logic to parse header and body.
-     *
-     * @param bufferHandler the handler to call once a full message is received
-     * @return a configured RecordParser
+     * Split incoming data into frames and pass each complete one to the wrapped handler.
      */
-    private RecordParser initRecordParser(Handler<Buffer> bufferHandler) {
-        // Start by reading the fixed-length message header
-        RecordParser parser = RecordParser.newFixed(ProtocolConstant.MESSAGE_HEADER_LENGTH);
-
-        parser.setOutput(new Handler<Buffer>() {
-            int size = -1;                         // Size of the message body (read from header)
-            Buffer resultBuffer = Buffer.buffer(); // Buffer to assemble full message
-
-            @Override
-            public void handle(Buffer buffer) {
-                // Phase 1: Read the header
-                if (size == -1) {
-                    size = buffer.getInt(13);                // Body length is stored at byte offset 13
-                    parser.fixedSizeMode(size);              // Switch parser to read the body next
-                    resultBuffer.appendBuffer(buffer);       // Append header to result buffer
-                } else {
-                    // Phase 2: Read the body
-                    resultBuffer.appendBuffer(buffer);       // Append body to result buffer
-                    bufferHandler.handle(resultBuffer);      // Pass complete message to handler
-
-                    // Reset parser to read the next message's header
-                    parser.fixedSizeMode(ProtocolConstant.MESSAGE_HEADER_LENGTH);
-                    size = -1;
-                    resultBuffer = Buffer.buffer();          // Reset result buffer
+    @Override
+    public void handle(Buffer buffer) {
+        if (failed) {
+            return;
+        }
+        int position = 0;
+        int length = buffer.length();
+
+        // Complete the frame left over from previous reads
+        if (pending != null) {
+            if (pendingFrameLength < 0) {
+                int headerBytes = Math.min(ProtocolConstant.MESSAGE_HEADER_LENGTH - pending.length(), length);
+                pending.appendBuffer(buffer, 0, headerBytes);
+                position += headerBytes;
+                if (pending.length() < ProtocolConstant.MESSAGE_HEADER_LENGTH) {
+                    return;
+                }
+                // Header complete: move it into a buffer of the frame's exact size
+                Buffer header = pending;
+                startPending(frameLength(header, 0));
+                pending.appendBuffer(header);
+            }
+            int bodyBytes = Math.min(pendingFrameLength - pending.length(), length - position);
+            pending.appendBuffer(buffer, position, bodyBytes);
+            position += bodyBytes;
+            if (pending.length() < pendingFrameLength) {
+                return;
+            }
+            Buffer frame = pending;
+            ByteBuf frameMemory = pendingMemory;
+            pending = null;
+            pendingMemory = null;
+            pendingFrameLength = -1;
+            try {
+                bufferHandler.handle(frame);
+            } finally {
+                if (frameMemory != null) {
+                    frameMemory.release();
                 }
             }
-        });
+        }
+
+        // Frames fully contained in this read: hand out slices, no copy
+        while (!failed && length - position >= ProtocolConstant.MESSAGE_HEADER_LENGTH) {
+            int frameLength = frameLength(buffer, position);
+            if (length - position < frameLength) {
+                break;
+            }
+            bufferHandler.handle(buffer.slice(position, position + frameLength));
+            position += frameLength;
+        }
 
-        return parser;
+        // Keep the trailing partial frame for the next read
+        if (!failed && position < length) {
+            if (length - position >= ProtocolConstant.MESSAGE_HEADER_LENGTH) {
+                startPending(frameLength(buffer, position));
+            } else {
+                pending = Buffer.buffer(ProtocolConstant.MESSAGE_HEADER_LENGTH);
+            }
+            pending.appendBuffer(buffer, position, length - position);
+        }
+    }
+
+    /**
+     * The connection closed: release the partial frame, if any, and ignore further data.
+     * Must run on the connection's event loop, like {@link #handle(Buffer)}.
+     */
+    public void close() {
+        failed = true;
+        if (pendingMemory != null) {
+            pendingMemory.release();
+            pendingMemory = null;
+        }
+        pending = null;
+        pendingFrameLength = -1;
+    }
+
+    /**
+     * Read the frame length from the header at {@code offset}.
+     */
+    private int frameLength(Buffer buffer, int offset) {
+        headerView.wrap(buffer, offset);
+        int bodyLength = headerView.getBodyLength();
+        if (bodyLength < 0 || bodyLength > Integer.MAX_VALUE - ProtocolConstant.MESSAGE_HEADER_LENGTH) {
+            failed = true;
+            throw new RuntimeException("Invalid body length in message: " + bodyLength);
+        }
+        int frameLength = ProtocolConstant.MESSAGE_HEADER_LENGTH + bodyLength;
+        if (frameLength > maxFrameSize) {
+            failed = true;
+            throw new RuntimeException("Frame of " + frameLength + " bytes exceeds the maximum frame size " + maxFrameSize);
+        }
+        return frameLength;
+    }
+
+    /**
+     * Allocate the buffer that accumulates a split frame of the given length.
+     */
+    private void startPending(int frameLength) {
+        pendingFrameLength = frameLength;
+        if (pooled) {
+            pendingMemory = PooledByteBufAllocator.DEFAULT.heapBuffer(frameLength);
+            pending = ByteBufBuffers.wrap(pendingMemory);
+        } else {
+            pendingMemory = null;
+            pending = Buffer.buffer(frameLength);
+        }
     }
 }
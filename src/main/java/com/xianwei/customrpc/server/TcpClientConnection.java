@@ -0,0 +1,306 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.config.RpcConfig;
+import com.xianwei.customrpc.exception.RpcException;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.protocol.ProtocolAttributeKeys;
+import com.xianwei.customrpc.protocol.ProtocolAttributes;
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolHeaderView;
+import com.xianwei.customrpc.protocol.ProtocolMessage;
+import com.xianwei.customrpc.protocol.ProtocolMessageDecoder;
+import com.xianwei.customrpc.protocol.ProtocolMessageStatusEnum;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import com.xianwei.customrpc.protocol.RpcEnvelopeCodec;
+import com.xianwei.customrpc.protocol.SerializationContext;
+import com.xianwei.customrpc.utils.RpcErrorUtils;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TCP Client Connection
+ *
+ * A persistent connection to one service provider. Requests are multiplexed over the socket
+ * and matched to their responses by request ID. The connection owns the SerializationContext
+ * shared by all of its messages; when the socket closes, pending requests fail and the
+ * context is dropped, so a reconnect starts with fresh dictionaries.
+ * Fragmented responses do not use the dictionaries and are decoded on a worker thread,
+ * so a large response does not hold up the others.
+ * A request that referenced cached arguments is sent once more, unflagged and with all values
+ * inline, if the provider answers NEED_BODY.
+ * EVENT and UNSUBSCRIBE messages go to the connection's subscriptions, which are told when it closes.
+ */
+@Slf4j
+public class TcpClientConnection {
+
+    private final NetSocket socket;
+
+    private final SerializationContext context = new SerializationContext();
+
+    /**
+     * Requests waiting for a response: requestId → future
+     */
+    private final Map<Long, CompletableFuture<ProtocolMessage<RpcResponse>>> pendingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Pending requests flagged with FLAG_CACHED_ARGUMENTS that have not been sent again yet: requestId → request
+     */
+    private final Map<Long, ProtocolMessage<RpcRequest>> resendableRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Open subscriptions: subscription id → subscription
+     */
+    private final Map<Long, ClientSubscription> subscriptions = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param socket  the connected socket
+     * @param onClose callback invoked once the socket is closed (e.g. to evict it from a pool)
+     */
+    public TcpClientConnection(NetSocket socket, Runnable onClose) {
+        this.socket = socket;
+        // Responses are decoded synchronously, so their frames can come from the pool
+        RpcConfig rpcConfig = RpcApplication.getRpcConfig();
+        TcpBufferHandlerWrapper bufferHandlerWrapper = new TcpBufferHandlerWrapper(
+                new FragmentAssembler(this::dispatchResponse, rpcConfig.getMaxMessageSize()),
+                true, rpcConfig.getMaxFrameSize());
+        socket.handler(buffer -> {
+            try {
+                bufferHandlerWrapper.handle(buffer);
+            } catch (RuntimeException e) {
+                log.error("Invalid frame, closing connection to {}", socket.remoteAddress(), e);
+                socket.close();
+            }
+        });
+        socket.exceptionHandler(e -> {
+            log.warn("Connection to {} failed", socket.remoteAddress(), e);
+            socket.close();
+        });
+        socket.closeHandler(v -> {
+            closed = true;
+            bufferHandlerWrapper.close();
+            onClose.run();
+            RpcException cause = new RpcException("Connection to " + socket.remoteAddress() + " closed");
+            pendingRequests.values().forEach(future -> future.completeExceptionally(cause));
+            pendingRequests.clear();
+            resendableRequests.clear();
+            subscriptions.values().forEach(subscription -> subscription.close(cause));
+            subscriptions.clear();
+        });
+    }
+
+    /**
+     * Send a request and return a future completed with its response.
+     *
+     * @param protocolMessage the request message (its header carries the request ID)
+     * @return future of the response message
+     */
+    public CompletableFuture<ProtocolMessage<RpcResponse>> send(ProtocolMessage<RpcRequest> protocolMessage) {
+        long requestId = protocolMessage.getHeader().getRequestId();
+        CompletableFuture<ProtocolMessage<RpcResponse>> future = new CompletableFuture<>();
+        pendingRequests.put(requestId, future);
+        if (RpcEnvelopeCodec.hasCachedArguments(protocolMessage.getHeader())) {
+            resendableRequests.put(requestId, protocolMessage);
+        }
+        if (closed) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(new RpcException("Connection to " + socket.remoteAddress() + " closed"));
+            return future;
+        }
+        try {
+            TcpMessageWriter.write(socket, context, protocolMessage);
+        } catch (IOException | RuntimeException e) {
+            pendingRequests.remove(requestId);
+            resendableRequests.remove(requestId);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Stop waiting for the response to a request (it timed out); a late response is dropped.
+     *
+     * @param requestId the request ID
+     */
+    public void abandon(long requestId) {
+        pendingRequests.remove(requestId);
+        resendableRequests.remove(requestId);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Open a subscription: register it and send its first SUBSCRIBE message with the initial credits.
+     *
+     * @param subscription the subscription
+     * @param credits      number of events the provider may send ahead
+     * @throws IOException if the message cannot be encoded
+     */
+    void subscribe(ClientSubscription subscription, long credits) throws IOException {
+        subscriptions.put(subscription.getId(), subscription);
+        if (closed) {
+            subscriptions.remove(subscription.getId());
+            throw new RpcException("Connection to " + socket.remoteAddress() + " closed");
+        }
+        try {
+            TcpMessageWriter.write(socket, context, subscription.subscribeMessage(credits, true));
+        } catch (IOException | RuntimeException e) {
+            subscriptions.remove(subscription.getId());
+            throw e;
+        }
+    }
+
+    /**
+     * Forget a subscription cancelled by the consumer.
+     */
+    void unsubscribe(ClientSubscription subscription) {
+        subscriptions.remove(subscription.getId(), subscription);
+    }
+
+    /**
+     * Send a message that expects no response; failures are only logged.
+     */
+    void write(ProtocolMessage<?> protocolMessage) {
+        if (closed) {
+            return;
+        }
+        try {
+            TcpMessageWriter.write(socket, context, protocolMessage);
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to send {} message to {}", ProtocolMessageTypeEnum.getEnumByKey(
+                    protocolMessage.getHeader().getType()), socket.remoteAddress(), e);
+        }
+    }
+
+    /**
+     * Decode a response on the event loop, or on a worker if it is fragmented.
+     * Events are always decoded on the event loop, so they reach their subscription in arrival order.
+     */
+    private void dispatchResponse(Buffer buffer) {
+        ProtocolHeaderView headerView = new ProtocolHeaderView(buffer);
+        if (headerView.getMessageType() == ProtocolMessageTypeEnum.EVENT.getKey()
+                || headerView.getMessageType() == ProtocolMessageTypeEnum.UNSUBSCRIBE.getKey()) {
+            handleEvent(buffer);
+            return;
+        }
+        if (headerView.isFragmented()) {
+            Vertx.currentContext().executeBlocking(() -> {
+                handleResponse(buffer);
+                return null;
+            }, false);
+            return;
+        }
+        handleResponse(buffer);
+    }
+
+    /**
+     * Decode a response (on the event loop, in arrival order) and complete its request.
+     */
+    @SuppressWarnings("unchecked")
+    private void handleResponse(Buffer buffer) {
+        ProtocolMessage<RpcResponse> rpcResponseProtocolMessage;
+        try {
+            rpcResponseProtocolMessage = (ProtocolMessage<RpcResponse>) ProtocolMessageDecoder.decode(buffer, context);
+        } catch (IOException | RuntimeException e) {
+            // The frame itself was complete, so only the request it answers fails
+            ProtocolHeaderView headerView = new ProtocolHeaderView(buffer);
+            resendableRequests.remove(headerView.getRequestId());
+            CompletableFuture<ProtocolMessage<RpcResponse>> future = pendingRequests.remove(headerView.getRequestId());
+            if (future != null) {
+                future.completeExceptionally(new RuntimeException("Protocol message decoding error", e));
+            }
+            if (headerView.isEnvelope() && !headerView.isFragmented()) {
+                // The dictionaries can no longer be trusted; start over on a new connection
+                log.error("Protocol message decoding error, closing connection to {}", socket.remoteAddress(), e);
+                socket.close();
+            }
+            return;
+        }
+        ProtocolMessage.Header header = rpcResponseProtocolMessage.getHeader();
+        ProtocolMessage<RpcRequest> resendable = resendableRequests.remove(header.getRequestId());
+        if (header.getStatus() == ProtocolMessageStatusEnum.NEED_BODY.getValue()) {
+            resend(header.getRequestId(), resendable);
+            return;
+        }
+        CompletableFuture<ProtocolMessage<RpcResponse>> future = pendingRequests.remove(header.getRequestId());
+        if (future != null) {
+            future.complete(rpcResponseProtocolMessage);
+        }
+    }
+
+    /**
+     * Decode an event, or the end of a subscription, and hand it to its subscription.
+     */
+    private void handleEvent(Buffer buffer) {
+        ProtocolMessage<?> protocolMessage;
+        try {
+            protocolMessage = ProtocolMessageDecoder.decode(buffer, context);
+        } catch (IOException | RuntimeException e) {
+            ProtocolHeaderView headerView = new ProtocolHeaderView(buffer);
+            if (headerView.isEnvelope() && !headerView.isFragmented()) {
+                log.error("Protocol message decoding error, closing connection to {}", socket.remoteAddress(), e);
+                socket.close();
+            } else {
+                log.error("Failed to decode an event from {}", socket.remoteAddress(), e);
+            }
+            return;
+        }
+        ProtocolMessage.Header header = protocolMessage.getHeader();
+        RpcResponse rpcResponse = (RpcResponse) protocolMessage.getBody();
+        if ((header.getType() & ProtocolConstant.MESSAGE_TYPE_MASK) == ProtocolMessageTypeEnum.UNSUBSCRIBE.getKey()) {
+            ClientSubscription subscription = subscriptions.remove(header.getRequestId());
+            if (subscription != null) {
+                subscription.close(rpcResponse.getError() != null
+                        ? RpcErrorUtils.toException(rpcResponse.getError())
+                        : new RpcException("Subscription ended by " + socket.remoteAddress()));
+            }
+            return;
+        }
+        ProtocolAttributes attributes = header.getAttributes();
+        long subscriptionId = attributes == null ? header.getRequestId()
+                : attributes.getLong(ProtocolAttributeKeys.SUBSCRIPTION, header.getRequestId());
+        ClientSubscription subscription = subscriptions.get(subscriptionId);
+        if (subscription != null) {
+            subscription.deliver(rpcResponse.getData());
+        }
+    }
+
+    /**
+     * Send a request again after the provider reported a cached argument missing. It is sent without
+     * FLAG_CACHED_ARGUMENTS, so it cannot miss again while the provider keeps evicting; what was sent
+     * for caching is forgotten, so later requests send their values to be cached again.
+     */
+    private void resend(long requestId, ProtocolMessage<RpcRequest> protocolMessage) {
+        CompletableFuture<ProtocolMessage<RpcResponse>> future = pendingRequests.get(requestId);
+        if (future == null) {
+            return;
+        }
+        if (protocolMessage == null) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(new RpcException("Unexpected NEED_BODY response from " + socket.remoteAddress()));
+            return;
+        }
+        context.getArgumentCache().clearSent();
+        ProtocolAttributes attributes = protocolMessage.getHeader().getAttributes();
+        attributes.setLong(ProtocolAttributeKeys.FLAGS, attributes.getLong(ProtocolAttributeKeys.FLAGS, 0)
+                & ~ProtocolAttributeKeys.FLAG_CACHED_ARGUMENTS);
+        try {
+            TcpMessageWriter.write(socket, context, protocolMessage);
+        } catch (IOException | RuntimeException e) {
+            pendingRequests.remove(requestId);
+            future.completeExceptionally(e);
+        }
+    }
+}
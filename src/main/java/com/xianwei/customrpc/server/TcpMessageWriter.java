@@ -0,0 +1,176 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.config.RpcConfig;
+import com.xianwei.customrpc.model.RpcBlob;
+import com.xianwei.customrpc.protocol.MessageAttachments;
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolHeaderView;
+import com.xianwei.customrpc.protocol.ProtocolMessage;
+import com.xianwei.customrpc.protocol.ProtocolMessageEncoder;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import com.xianwei.customrpc.protocol.SerializationContext;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * TCP Message Writer
+ *
+ * Encodes messages and writes them to a connection, for both clients and servers. Encoding and
+ * writing are done under the connection's lock so the order on the wire matches the order of
+ * the outbound class dictionary.
+ *
+ * Messages to version 2 peers that are larger than the fragment size are encoded without the
+ * dictionary and split into fragments. Each fragment is written once the previous one has been
+ * flushed, outside the lock, so other messages on the connection are interleaved with them
+ * instead of waiting for the whole large message. Kinds of messages that were large recently
+ * are encoded without the dictionary right away; otherwise a message that turns out to be
+ * large is encoded a second time.
+ *
+ * Blob arguments and results ({@link RpcBlob}) are written ahead of their message as ATTACHMENT
+ * frames, chunk by chunk in the same way, straight from the file (sendfile) or memory they are in.
+ * Their message is then always written as a fragmented message, and so is a message whose body
+ * was serialized beforehand (see {@link ProtocolMessageEncoder#encodeBodyPooled}).
+ */
+@Slf4j
+public class TcpMessageWriter {
+
+    /**
+     * Encode a message and write it to the socket.
+     *
+     * @param socket          the connection
+     * @param context         the connection's serialization context (also its lock)
+     * @param protocolMessage the message to write
+     * @throws IOException if encoding fails; nothing has been written then
+     */
+    public static void write(NetSocket socket, SerializationContext context, ProtocolMessage<?> protocolMessage)
+            throws IOException {
+        RpcConfig rpcConfig = RpcApplication.getRpcConfig();
+        int fragmentSize = rpcConfig.getFragmentSize();
+        if (fragmentSize <= ProtocolConstant.MESSAGE_HEADER_LENGTH) {
+            throw new IllegalArgumentException("fragmentSize must be larger than the message header: " + fragmentSize);
+        }
+        boolean fragmentable = protocolMessage.getHeader().getVersion() >= ProtocolConstant.PROTOCOL_VERSION_2;
+        List<RpcBlob> blobs = MessageAttachments.prepare(protocolMessage);
+        ByteBuf frame;
+        synchronized (context) {
+            int mark = context.outboundMark();
+            try {
+                boolean fragmented = !blobs.isEmpty() || protocolMessage.getBody() instanceof Buffer
+                        || fragmentable && ProtocolMessageEncoder.expectedSize(protocolMessage) > fragmentSize;
+                frame = ProtocolMessageEncoder.encodePooled(protocolMessage, fragmented ? context.detached() : context);
+                if (!fragmented && fragmentable && frame.readableBytes() > fragmentSize) {
+                    // Larger than expected: encode again without the dictionary
+                    frame.release();
+                    context.rollbackOutbound(mark);
+                    fragmented = true;
+                    frame = ProtocolMessageEncoder.encodePooled(protocolMessage, context.detached());
+                }
+                if (!fragmented) {
+                    context.commitOutbound();
+                    ByteBuf byteBuf = frame;
+                    socket.write(ByteBufBuffers.wrap(byteBuf)).onComplete(ar -> byteBuf.release());
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                context.rollbackOutbound(mark);
+                throw e;
+            }
+        }
+        if (blobs.isEmpty()) {
+            writeFragments(socket, context, frame, fragmentSize, 0);
+        } else {
+            writeAttachments(socket, context, frame, fragmentSize, blobs, 0, 0);
+        }
+    }
+
+    /**
+     * Write the blobs from {@code blobs[index]} at {@code position} on as ATTACHMENT frames of at most
+     * {@code fragmentSize} bytes, each after the previous one was written, then the message itself.
+     * A failed write leaves the stream out of sync, so the connection is closed.
+     */
+    private static void writeAttachments(NetSocket socket, SerializationContext context, ByteBuf frame,
+                                         int fragmentSize, List<RpcBlob> blobs, int index, long position) {
+        if (index == blobs.size()) {
+            writeFragments(socket, context, frame, fragmentSize, 0);
+            return;
+        }
+        RpcBlob blob = blobs.get(index);
+        if (position == blob.getLength()) {
+            writeAttachments(socket, context, frame, fragmentSize, blobs, index + 1, 0);
+            return;
+        }
+        int chunkLength = (int) Math.min(fragmentSize - ProtocolConstant.MESSAGE_HEADER_LENGTH, blob.getLength() - position);
+        ByteBuf header = frame.copy(0, ProtocolConstant.MESSAGE_HEADER_LENGTH);
+        header.setByte(ProtocolHeaderView.TYPE_OFFSET, ProtocolMessageTypeEnum.ATTACHMENT.getKey());
+        header.setInt(ProtocolHeaderView.BODY_LENGTH_OFFSET, chunkLength);
+
+        Future<Void> written;
+        synchronized (context) {
+            // Header and bytes must not be separated by another frame
+            socket.write(ByteBufBuffers.wrap(header)).onComplete(ar -> header.release());
+            written = blob.writeTo(socket, position, chunkLength);
+        }
+        written.onComplete(ar -> defer(() -> {
+            if (ar.failed()) {
+                log.error("Failed to send attachment {}, closing connection to {}", index, socket.remoteAddress(), ar.cause());
+                frame.release();
+                socket.close();
+            } else {
+                writeAttachments(socket, context, frame, fragmentSize, blobs, index, position + chunkLength);
+            }
+        }));
+    }
+
+    /**
+     * Write the body of an encoded frame from {@code offset} on as fragments of at most
+     * {@code fragmentSize} bytes, each after the previous one was written; releases the frame at the end.
+     */
+    private static void writeFragments(NetSocket socket, SerializationContext context, ByteBuf frame,
+                                       int fragmentSize, int offset) {
+        int bodyLength = frame.readableBytes() - ProtocolConstant.MESSAGE_HEADER_LENGTH;
+        int fragmentBodyLength = Math.min(fragmentSize - ProtocolConstant.MESSAGE_HEADER_LENGTH, bodyLength - offset);
+        boolean last = offset + fragmentBodyLength == bodyLength;
+
+        ByteBuf header = frame.copy(0, ProtocolConstant.MESSAGE_HEADER_LENGTH);
+        byte type = (byte) (header.getByte(ProtocolHeaderView.TYPE_OFFSET) | ProtocolConstant.FRAGMENTED_FLAG);
+        if (!last) {
+            type |= ProtocolConstant.MORE_FRAGMENTS_FLAG;
+        }
+        header.setByte(ProtocolHeaderView.TYPE_OFFSET, type);
+        header.setInt(ProtocolHeaderView.BODY_LENGTH_OFFSET, fragmentBodyLength);
+        ByteBuf fragment = Unpooled.wrappedBuffer(header,
+                frame.retainedSlice(ProtocolConstant.MESSAGE_HEADER_LENGTH + offset, fragmentBodyLength));
+
+        Future<Void> written;
+        synchronized (context) {
+            written = socket.write(ByteBufBuffers.wrap(fragment));
+        }
+        written.onComplete(ar -> defer(() -> {
+            fragment.release();
+            if (last || ar.failed()) {
+                frame.release();
+            } else {
+                writeFragments(socket, context, frame, fragmentSize, offset + fragmentBodyLength);
+            }
+        }));
+    }
+
+    /**
+     * Run the next step of a chained write as a new task on the connection's event loop. Write callbacks
+     * can fire in the middle of another write to the same socket (while it flushes), on the thread that
+     * already holds the lock, and would otherwise put a frame between an attachment header and its bytes.
+     */
+    private static void defer(Runnable step) {
+        Vertx.currentContext().runOnContext(v -> step.run());
+    }
+}
@@ -1,15 +1,30 @@
 package com.xianwei.customrpc.server;
 
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.config.RpcConfig;
+import com.xianwei.customrpc.event.EventPublisher;
+import com.xianwei.customrpc.exception.RpcBusinessException;
+import com.xianwei.customrpc.exception.RpcErrorCodeEnum;
+import com.xianwei.customrpc.model.RpcBlob;
+import com.xianwei.customrpc.model.RpcError;
 import com.xianwei.customrpc.model.RpcRequest;
 import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.model.VersionTagged;
 import com.xianwei.customrpc.protocol.*;
 import com.xianwei.customrpc.registry.LocalRegistry;
+import com.xianwei.customrpc.utils.ByteBufBuffers;
+import com.xianwei.customrpc.utils.RpcErrorUtils;
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetSocket;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * TCP Request Handler
@@ -17,9 +32,32 @@ import java.lang.reflect.Method;
  * This class handles incoming TCP connections and processes RPC requests.
  * It uses the TcpBufferHandlerWrapper to ensure complete messages are received,
  * then decodes, invokes, and responds to RPC requests.
+ *
+ * Decoding happens in two phases: the event loop only reads the header and the routing
+ * envelope (service, method, version) and rejects requests for unknown services right away;
+ * the arguments are deserialized on a worker thread, right before the method is invoked.
+ * Fragmented requests do not use the class dictionaries, so both phases run on a worker.
+ * Failures are reported as a compact RpcError rather than a serialized exception.
+ * A request referencing an argument the connection's argument cache no longer holds is answered
+ * with the NEED_BODY status, and the consumer sends it again with the values.
+ * Conditional calls (with a VERSION_TAG attribute) get the version tag of their result, or the
+ * NOT_MODIFIED status without a result if it still has the tag the consumer sent. Their results
+ * are serialized once, for both the tag and the response.
+ * SUBSCRIBE and UNSUBSCRIBE messages are handed to the {@link EventPublisher}, which drops the
+ * connection's subscriptions when it closes.
  */
+@Slf4j
 public class TcpServerHandler implements Handler<NetSocket> {
 
+    /**
+     * Vert.x instance whose worker pool executes the requests
+     */
+    private final Vertx vertx;
+
+    public TcpServerHandler(Vertx vertx) {
+        this.vertx = vertx;
+    }
+
     /**
      * Handles new client socket connections.
      *
@@ -27,57 +65,280 @@ public class TcpServerHandler implements Handler<NetSocket> {
      */
     @Override
     public void handle(NetSocket socket) {
+        // Class dictionaries shared by every message on this connection
+        SerializationContext context = new SerializationContext();
+
         // Wrap the socket's data handler with a parser to handle full messages
-        TcpBufferHandlerWrapper bufferHandlerWrapper = new TcpBufferHandlerWrapper(buffer -> {
-            ProtocolMessage<RpcRequest> protocolMessage;
+        // (not pooled: the arguments are decoded from the frame later, on a worker)
+        RpcConfig rpcConfig = RpcApplication.getRpcConfig();
+        TcpBufferHandlerWrapper bufferHandlerWrapper = new TcpBufferHandlerWrapper(new FragmentAssembler(buffer -> {
+            ProtocolHeaderView headerView = new ProtocolHeaderView(buffer);
+            if (headerView.getMessageType() == ProtocolMessageTypeEnum.SUBSCRIBE.getKey()
+                    || headerView.getMessageType() == ProtocolMessageTypeEnum.UNSUBSCRIBE.getKey()) {
+                handleSubscription(socket, context, buffer);
+                return;
+            }
+            if (headerView.isFragmented()) {
+                vertx.executeBlocking(() -> {
+                    handleRequest(socket, context, buffer, true);
+                    return null;
+                }, false).onFailure(e -> log.error("Failed to send response to {}", socket.remoteAddress(), e));
+                return;
+            }
+            handleRequest(socket, context, buffer, false);
+        }, rpcConfig.getMaxMessageSize()), false, rpcConfig.getMaxFrameSize());
 
-            // Decode the protocol message from the raw TCP buffer
+        // Register the wrapped buffer handler to process incoming socket data
+        socket.handler(buffer -> {
             try {
-                protocolMessage = (ProtocolMessage<RpcRequest>) ProtocolMessageDecoder.decode(buffer);
-            } catch (IOException e) {
-                throw new RuntimeException("Protocol message decoding error", e);
+                bufferHandlerWrapper.handle(buffer);
+            } catch (RuntimeException e) {
+                log.error("Invalid frame, closing connection to {}", socket.remoteAddress(), e);
+                socket.close();
             }
+        });
+        socket.closeHandler(v -> {
+            bufferHandlerWrapper.close();
+            EventPublisher.connectionClosed(socket);
+        });
+    }
+
+    /**
+     * Subscribe to a topic, add credits to a subscription, or end one (see {@link EventPublisher}).
+     * Runs on the event loop, in arrival order.
+     */
+    private void handleSubscription(NetSocket socket, SerializationContext context, Buffer buffer) {
+        ProtocolMessage<?> protocolMessage;
+        try {
+            protocolMessage = ProtocolMessageDecoder.decode(buffer, context);
+        } catch (IOException | RuntimeException e) {
+            log.error("Protocol message decoding error, closing connection to {}", socket.remoteAddress(), e);
+            socket.close();
+            return;
+        }
+        ProtocolMessage.Header header = protocolMessage.getHeader();
+        if ((header.getType() & ProtocolConstant.MESSAGE_TYPE_MASK) == ProtocolMessageTypeEnum.UNSUBSCRIBE.getKey()) {
+            EventPublisher.unsubscribe(socket, header.getRequestId());
+            return;
+        }
+        RpcRequest rpcRequest = (RpcRequest) protocolMessage.getBody();
+        Object[] args = rpcRequest.getArgs();
+        long credits = args != null && args.length > 0 && args[0] instanceof Number ? ((Number) args[0]).longValue() : 0;
+        boolean open = args != null && args.length > 1 && Boolean.TRUE.equals(args[1]);
+        EventPublisher.subscribe(socket, context, header, rpcRequest.getServiceName(), rpcRequest.getMethodName(),
+                credits, open);
+    }
 
-            RpcRequest rpcRequest = protocolMessage.getBody();
-            ProtocolMessage.Header header = protocolMessage.getHeader();
+    /**
+     * Decode, route and execute one request.
+     *
+     * @param onWorker whether this already runs on a worker thread (fragmented requests)
+     */
+    private void handleRequest(NetSocket socket, SerializationContext context, Buffer buffer, boolean onWorker) {
+        // Phase 1 (event loop in arrival order, unless fragmented): header and routing envelope only
+        ProtocolMessage<LazyRpcRequest> protocolMessage;
+        try {
+            protocolMessage = ProtocolMessageDecoder.decodeRequestLazily(buffer, context);
+        } catch (RuntimeException e) {
+            // The connection's dictionaries can no longer be trusted
+            log.error("Protocol message decoding error, closing connection to {}", socket.remoteAddress(), e);
+            socket.close();
+            return;
+        }
+        LazyRpcRequest lazyRpcRequest = protocolMessage.getBody();
+        ProtocolMessage.Header header = protocolMessage.getHeader();
 
-            // Build the response
+        // Ask for the values of cached arguments that are gone
+        if (lazyRpcRequest.hasMissingArguments()) {
             RpcResponse rpcResponse = new RpcResponse();
+            rpcResponse.setMessage("Cached argument not found");
+            sendResponse(socket, context, header, ProtocolMessageStatusEnum.NEED_BODY, null, rpcResponse);
+            return;
+        }
+
+        // Reject unknown services without deserializing any argument
+        if (lazyRpcRequest.isRoutable() && LocalRegistry.get(lazyRpcRequest.getServiceName()) == null) {
+            sendResponse(socket, context, header, ProtocolMessageStatusEnum.OK, null,
+                    serviceNotFound(lazyRpcRequest.getServiceName()));
+            return;
+        }
 
+        // Phase 2 (worker): deserialize the arguments, invoke and respond
+        if (onWorker) {
+            execute(socket, context, header, lazyRpcRequest);
+            return;
+        }
+        vertx.executeBlocking(() -> {
+            execute(socket, context, header, lazyRpcRequest);
+            return null;
+        }, false).onFailure(e -> log.error("Failed to send response to {}", socket.remoteAddress(), e));
+    }
+
+    /**
+     * Invoke the request and send its response; a conditional call whose result has not changed
+     * is answered NOT_MODIFIED. Results without their own tag are serialized once: the tag is the
+     * digest of the serialized body, and the same bytes are sent if the consumer needs them.
+     */
+    private void execute(NetSocket socket, SerializationContext context, ProtocolMessage.Header header,
+                         LazyRpcRequest lazyRpcRequest) {
+        ProtocolAttributes attributes = header.getAttributes();
+        byte[] versionTag = attributes == null ? null : attributes.getBytes(ProtocolAttributeKeys.VERSION_TAG);
+        RpcResponse rpcResponse = invoke(lazyRpcRequest);
+        // Blobs are sent as attachments, outside the serialized body, so they cannot be tagged
+        if (versionTag == null || rpcResponse.getError() != null || rpcResponse.getData() instanceof RpcBlob) {
+            sendResponse(socket, context, header, ProtocolMessageStatusEnum.OK, null, rpcResponse);
+            return;
+        }
+        if (rpcResponse.getData() instanceof VersionTagged) {
+            byte[] resultTag;
             try {
-                // Look up the service implementation class
-                Class<?> implClass = LocalRegistry.get(rpcRequest.getServiceName());
-
-                // Use reflection to find and invoke the target method
-                Method method = implClass.getMethod(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
-                Object result = method.invoke(implClass.newInstance(), rpcRequest.getArgs());
-
-                // Populate response with result
-                rpcResponse.setData(result);
-                rpcResponse.setDataType(method.getReturnType());
-                rpcResponse.setMessage("ok");
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                rpcResponse.setMessage(e.getMessage());
-                rpcResponse.setException(e);
+                resultTag = VersionTags.of((VersionTagged) rpcResponse.getData());
+            } catch (RuntimeException e) {
+                log.warn("Failed to get the version tag of a {} result", lazyRpcRequest.getMethodName(), e);
+                sendResponse(socket, context, header, ProtocolMessageStatusEnum.OK, null, rpcResponse);
+                return;
             }
+            sendConditionalResponse(socket, context, header, versionTag, resultTag, rpcResponse);
+            return;
+        }
+        ByteBuf body;
+        try {
+            body = ProtocolMessageEncoder.encodeBodyPooled(new ProtocolMessage<>(header, rpcResponse));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to serialize a {} result for its version tag", lazyRpcRequest.getMethodName(), e);
+            sendResponse(socket, context, header, ProtocolMessageStatusEnum.OK, null, rpcResponse);
+            return;
+        }
+        try {
+            Buffer bodyBytes = ByteBufBuffers.wrap(body);
+            sendConditionalResponse(socket, context, header, versionTag, VersionTags.of(bodyBytes), bodyBytes);
+        } finally {
+            body.release();
+        }
+    }
 
-            // Encode and send the response back to the client
-            header.setType((byte) ProtocolMessageTypeEnum.RESPONSE.getKey());
-            header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+    /**
+     * Answer a conditional call: NOT_MODIFIED if the consumer has the result with this tag already,
+     * the result and its tag otherwise.
+     *
+     * @param body the response, or its body serialized beforehand
+     */
+    private static void sendConditionalResponse(NetSocket socket, SerializationContext context,
+                                                ProtocolMessage.Header header, byte[] versionTag,
+                                                byte[] resultTag, Object body) {
+        if (Arrays.equals(versionTag, resultTag)) {
+            RpcResponse notModified = new RpcResponse();
+            notModified.setMessage("Not modified");
+            sendResponse(socket, context, header, ProtocolMessageStatusEnum.NOT_MODIFIED, null, notModified);
+            return;
+        }
+        sendResponse(socket, context, header, ProtocolMessageStatusEnum.OK,
+                new ProtocolAttributes().setBytes(ProtocolAttributeKeys.VERSION_TAG, resultTag), body);
+    }
 
-            ProtocolMessage<RpcResponse> responseProtocolMessage = new ProtocolMessage<>(header, rpcResponse);
+    /**
+     * Decode the arguments and invoke the target method.
+     */
+    private RpcResponse invoke(LazyRpcRequest lazyRpcRequest) {
+        RpcRequest rpcRequest;
+        try {
+            rpcRequest = lazyRpcRequest.decode();
+        } catch (Exception e) {
+            log.error("Failed to decode request arguments", e);
+            return errorResponse(e, RpcErrorCodeEnum.REQUEST_DECODE_ERROR);
+        }
 
-            try {
-                Buffer encode = ProtocolMessageEncoder.encode(responseProtocolMessage);
-                socket.write(encode);
-            } catch (IOException e) {
-                throw new RuntimeException("Protocol message encoding error", e);
+        // Look up the service implementation class
+        Class<?> implClass = LocalRegistry.get(rpcRequest.getServiceName());
+        if (implClass == null) {
+            return serviceNotFound(rpcRequest.getServiceName());
+        }
+
+        // Use reflection to find the target method
+        Method method;
+        try {
+            method = implClass.getMethod(rpcRequest.getMethodName(), rpcRequest.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            return errorResponse(RpcErrorUtils.toRpcError(RpcErrorCodeEnum.METHOD_NOT_FOUND,
+                    "Method not found: " + rpcRequest.getServiceName() + "." + rpcRequest.getMethodName()));
+        }
+
+        // Build the response
+        RpcResponse rpcResponse = new RpcResponse();
+
+        try {
+            Object result = method.invoke(implClass.newInstance(), rpcRequest.getArgs());
+
+            // Populate response with result
+            rpcResponse.setData(result);
+            rpcResponse.setDataType(method.getReturnType());
+            rpcResponse.setMessage("ok");
+
+        } catch (InvocationTargetException e) {
+            // Exception thrown by the service method itself
+            Throwable cause = e.getCause();
+            if (cause instanceof RpcBusinessException) {
+                log.warn("{}.{} failed: {}", rpcRequest.getServiceName(), rpcRequest.getMethodName(), cause.toString());
+                return errorResponse(cause, RpcErrorCodeEnum.BUSINESS_ERROR);
             }
-        });
+            log.error("{}.{} failed", rpcRequest.getServiceName(), rpcRequest.getMethodName(), cause);
+            return errorResponse(cause, RpcErrorCodeEnum.SERVICE_ERROR);
+        } catch (Exception e) {
+            log.error("Failed to invoke {}.{}", rpcRequest.getServiceName(), rpcRequest.getMethodName(), e);
+            return errorResponse(e, RpcErrorCodeEnum.SERVICE_ERROR);
+        }
+        return rpcResponse;
+    }
 
-        // Register the wrapped buffer handler to process incoming socket data
-        socket.handler(bufferHandlerWrapper);
+    private static RpcResponse serviceNotFound(String serviceName) {
+        return errorResponse(RpcErrorUtils.toRpcError(RpcErrorCodeEnum.SERVICE_NOT_FOUND,
+                "Service not found: " + serviceName));
+    }
+
+    private static RpcResponse errorResponse(Throwable throwable, RpcErrorCodeEnum code) {
+        return errorResponse(RpcErrorUtils.toRpcError(throwable, code,
+                RpcApplication.getRpcConfig().getErrorStackTraceDepth()));
+    }
+
+    private static RpcResponse errorResponse(RpcError rpcError) {
+        RpcResponse rpcResponse = new RpcResponse();
+        rpcResponse.setMessage(rpcError.getMessage());
+        rpcResponse.setError(rpcError);
+        return rpcResponse;
+    }
+
+    /**
+     * Encode and send the response back to the client, reusing the request header
+     * (and so its protocol version; request attributes and attachments are not echoed back).
+     *
+     * @param attributes attributes of the response, or null
+     * @param body       the RpcResponse, or its body serialized beforehand (a Buffer, see
+     *                   {@link ProtocolMessageEncoder#encodeBodyPooled})
+     */
+    private static void sendResponse(NetSocket socket, SerializationContext context, ProtocolMessage.Header header,
+                                     ProtocolMessageStatusEnum status, ProtocolAttributes attributes,
+                                     Object body) {
+        header.setType((byte) ProtocolMessageTypeEnum.RESPONSE.getKey());
+        header.setStatus((byte) status.getValue());
+        header.setAttributes(attributes);
+        header.setAttachments(null);
+
+        ProtocolMessage<Object> responseProtocolMessage = new ProtocolMessage<>(header, body);
+
+        try {
+            TcpMessageWriter.write(socket, context, responseProtocolMessage);
+        } catch (IOException | RuntimeException e) {
+            log.error("Protocol message encoding error", e);
+            // Still answer the request, with a response that carries only the error message
+            RpcResponse errorResponse = errorResponse(RpcErrorUtils.toRpcError(
+                    RpcErrorCodeEnum.RESPONSE_ENCODE_ERROR, "Protocol message encoding error: " + e.getMessage()));
+            header.setStatus((byte) ProtocolMessageStatusEnum.OK.getValue());
+            header.setAttributes(null);
+            try {
+                TcpMessageWriter.write(socket, context, new ProtocolMessage<>(header, errorResponse));
+            } catch (IOException | RuntimeException ex) {
+                throw new RuntimeException("Protocol message encoding error", ex);
+            }
+        }
     }
 }
@@ -2,6 +2,10 @@ package com.xianwei.customrpc.server;
 
 import cn.hutool.core.util.IdUtil;
 import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.config.RpcConfig;
+import com.xianwei.customrpc.event.RpcEventListener;
+import com.xianwei.customrpc.event.Subscription;
+import com.xianwei.customrpc.exception.RpcException;
 import com.xianwei.customrpc.model.RpcRequest;
 import com.xianwei.customrpc.model.RpcResponse;
 import com.xianwei.customrpc.model.ServiceMetaInfo;
@@ -9,20 +13,53 @@ import com.xianwei.customrpc.protocol.*;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetClient;
-import io.vertx.core.net.NetSocket;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Vert.x TCP Request Client
  *
  * This class is responsible for sending RPC requests over TCP to a remote service using Vert.x.
- * It constructs the protocol message, establishes a TCP connection, and decodes the server's response.
+ * It constructs the protocol message, sends it over a persistent connection to the provider
+ * and waits for the matching response. One connection is kept per provider address and is
+ * re-established on the next request after it closes.
+ * For conditional calls it keeps the last result and returns a copy of it when the provider
+ * answers NOT_MODIFIED.
+ * Subscriptions to provider topics share the provider's connection with its requests.
  */
 public class VertxClient {
 
+    /**
+     * Shared Vert.x instance and TCP client for all outgoing connections
+     */
+    private static final Vertx VERTX = Vertx.vertx();
+    private static final NetClient NET_CLIENT = VERTX.createNetClient();
+
+    /**
+     * Open (or opening) connections: host:port → connection
+     */
+    private static final Map<String, CompletableFuture<TcpClientConnection>> CONNECTIONS = new ConcurrentHashMap<>();
+
+    /**
+     * Last results of conditional calls
+     */
+    private static final ConditionalResultCache CONDITIONAL_RESULTS = new ConditionalResultCache();
+
+    /**
+     * Runs event listeners on the worker pool
+     */
+    private static final Executor LISTENER_EXECUTOR = command -> VERTX.executeBlocking(() -> {
+        command.run();
+        return null;
+    }, false);
+
     /**
      * Send an RPC request and receive a response synchronously.
      *
@@ -30,66 +67,203 @@ public class VertxClient {
      * @param serviceMetaInfo metadata of the target service (host, port)
      * @return the RPC response object returned by the server
      * @throws InterruptedException if the thread is interrupted while waiting
-     * @throws ExecutionException if the async execution fails
+     * @throws ExecutionException if the connection or the async execution fails, or no response
+     *                            arrives within the request timeout
      */
     public static RpcResponse doRequest(RpcRequest rpcRequest, ServiceMetaInfo serviceMetaInfo)
             throws InterruptedException, ExecutionException {
+        return doRequest(rpcRequest, serviceMetaInfo, false);
+    }
 
-        // Create a Vert.x instance and a NetClient to handle TCP
-        Vertx vertx = Vertx.vertx();
-        NetClient netClient = vertx.createNetClient();
-        CompletableFuture<RpcResponse> responseFuture = new CompletableFuture<>();
-
-        // Connect to the server
-        netClient.connect(serviceMetaInfo.getServicePort(), serviceMetaInfo.getServiceHost(), result -> {
-            if (!result.succeeded()) {
-                System.err.println("Failed to connect to TCP server");
-                return;
-            }
+    /**
+     * Send an RPC request and receive a response synchronously.
+     *
+     * @param rpcRequest      the request object containing service name, method, args, etc.
+     * @param serviceMetaInfo metadata of the target service (host, port)
+     * @param conditional     whether to send the version tag of the call's last result, so the provider
+     *                        can answer NOT_MODIFIED and the last result is returned (protocol version 2)
+     * @return the RPC response object returned by the server
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws ExecutionException if the connection or the async execution fails, or no response
+     *                            arrives within the request timeout
+     */
+    public static RpcResponse doRequest(RpcRequest rpcRequest, ServiceMetaInfo serviceMetaInfo, boolean conditional)
+            throws InterruptedException, ExecutionException {
 
-            NetSocket socket = result.result();
+        // --- Build the protocol message ---
+        ProtocolMessage<RpcRequest> protocolMessage = new ProtocolMessage<>();
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(negotiateVersion(serviceMetaInfo));
+        RpcConfig rpcConfig = RpcApplication.getRpcConfig();
+        byte serializerKey = (byte) ProtocolMessageSerializerEnum
+                .getEnumByValue(rpcConfig.getSerializer()).getKey();
+        // Providers advertising version 1 may predate the envelope codec and could not decode it
+        if (header.getVersion() >= ProtocolConstant.PROTOCOL_VERSION_2
+                && (rpcConfig.isEnvelopeCodec() || (rpcConfig.isPrimitiveFastPath()
+                && PrimitiveValueCodec.isPrimitiveSignature(rpcRequest.getParameterTypes())))) {
+            serializerKey |= ProtocolConstant.ENVELOPE_CODEC_FLAG;
+        }
+        header.setSerializer(serializerKey);
+        if ((serializerKey & ProtocolConstant.ENVELOPE_CODEC_FLAG) != 0
+                && rpcConfig.getArgumentCacheConfig().isEnabled()) {
+            // Repeated large arguments may be sent as references to the provider's argument cache
+            header.setAttributes(new ProtocolAttributes()
+                    .setLong(ProtocolAttributeKeys.FLAGS, ProtocolAttributeKeys.FLAG_CACHED_ARGUMENTS));
+        }
+        ConditionalResultCache.Entry lastResult = null;
+        conditional &= header.getVersion() >= ProtocolConstant.PROTOCOL_VERSION_2;
+        if (conditional) {
+            lastResult = CONDITIONAL_RESULTS.get(rpcRequest);
+            ProtocolAttributes attributes = header.getAttributes() == null ? new ProtocolAttributes() : header.getAttributes();
+            attributes.setBytes(ProtocolAttributeKeys.VERSION_TAG,
+                    lastResult == null ? new byte[0] : lastResult.getVersionTag());
+            header.setAttributes(attributes);
+        }
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        header.setRequestId(IdUtil.getSnowflakeNextId());
 
-            // --- Build the protocol message ---
-            ProtocolMessage<RpcRequest> protocolMessage = new ProtocolMessage<>();
-            ProtocolMessage.Header header = new ProtocolMessage.Header();
-            header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
-            header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
-            header.setSerializer((byte) ProtocolMessageSerializerEnum
-                    .getEnumByValue(RpcApplication.getRpcConfig().getSerializer()).getKey());
-            header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
-            header.setRequestId(IdUtil.getSnowflakeNextId());
+        protocolMessage.setHeader(header);
+        protocolMessage.setBody(rpcRequest);
 
-            protocolMessage.setHeader(header);
-            protocolMessage.setBody(rpcRequest);
+        // --- Send over the provider's connection and wait for the response ---
+        TcpClientConnection connection = getConnection(serviceMetaInfo);
+        ProtocolMessage<RpcResponse> response;
+        try {
+            response = connection.send(protocolMessage).get(rpcConfig.getRequestTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            connection.abandon(header.getRequestId());
+            throw new ExecutionException(new RpcException("No response from " + serviceMetaInfo.getServiceAddress()
+                    + " to " + rpcRequest.getServiceName() + "#" + rpcRequest.getMethodName()
+                    + " within " + rpcConfig.getRequestTimeout() + " ms"));
+        } catch (InterruptedException e) {
+            connection.abandon(header.getRequestId());
+            throw e;
+        }
+        if (!conditional) {
+            return response.getBody();
+        }
 
-            // --- Encode and send the request ---
+        // --- Conditional call: reuse the last result, or keep the new one ---
+        if (response.getHeader().getStatus() == ProtocolMessageStatusEnum.NOT_MODIFIED.getValue()) {
+            if (lastResult == null) {
+                throw new RpcException("Unexpected NOT_MODIFIED response to " + rpcRequest.getMethodName());
+            }
+            // Decoded again for every call, so callers never share a result
             try {
-                Buffer encodeBuffer = ProtocolMessageEncoder.encode(protocolMessage);
-                socket.write(encodeBuffer);
+                return ProtocolMessageDecoder.decodeResponseBody(lastResult.getSerializer(), lastResult.getBody());
             } catch (IOException e) {
-                throw new RuntimeException("Protocol message encoding error", e);
+                throw new ExecutionException(e);
+            }
+        }
+        ProtocolAttributes attributes = response.getHeader().getAttributes();
+        byte[] versionTag = attributes == null ? null : attributes.getBytes(ProtocolAttributeKeys.VERSION_TAG);
+        if (versionTag != null && response.getBody().getError() == null) {
+            Buffer body;
+            try {
+                body = ProtocolMessageEncoder.encodeBody(response);
+            } catch (IOException | RuntimeException e) {
+                // Not kept: the next call gets the full result again
+                return response.getBody();
             }
+            CONDITIONAL_RESULTS.put(rpcRequest, versionTag, response.getHeader().getSerializer(), body,
+                    rpcConfig.getConditionalResultCacheSize());
+        }
+        return response.getBody();
+    }
 
-            // --- Receive and decode the response ---
-            TcpBufferHandlerWrapper bufferHandlerWrapper = new TcpBufferHandlerWrapper(buffer -> {
-                try {
-                    ProtocolMessage<RpcResponse> rpcResponseProtocolMessage =
-                            (ProtocolMessage<RpcResponse>) ProtocolMessageDecoder.decode(buffer);
-                    responseFuture.complete(rpcResponseProtocolMessage.getBody());
-                } catch (IOException e) {
-                    throw new RuntimeException("Protocol message decoding error", e);
-                }
-            });
-
-            socket.handler(bufferHandlerWrapper);
-        });
+    /**
+     * Subscribe to a topic of a provider (protocol version 2). The subscription lasts until it is
+     * cancelled, the provider ends it or the connection closes; it is not re-established.
+     *
+     * @param serviceMetaInfo metadata of the target service (name, host, port)
+     * @param topic           the topic
+     * @param listener        receives the events, one at a time on a worker thread
+     * @return the subscription
+     * @throws InterruptedException if the thread is interrupted while connecting
+     * @throws ExecutionException if the connection fails or the subscription cannot be sent
+     */
+    public static <T> Subscription subscribe(ServiceMetaInfo serviceMetaInfo, String topic, RpcEventListener<T> listener)
+            throws InterruptedException, ExecutionException {
+        byte version = negotiateVersion(serviceMetaInfo);
+        if (version < ProtocolConstant.PROTOCOL_VERSION_2) {
+            throw new RpcException("Subscriptions require protocol version 2, provider "
+                    + serviceMetaInfo.getServiceAddress() + " supports version " + version);
+        }
+        RpcConfig rpcConfig = RpcApplication.getRpcConfig();
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(version);
+        byte serializerKey = (byte) ProtocolMessageSerializerEnum
+                .getEnumByValue(rpcConfig.getSerializer()).getKey();
+        if (rpcConfig.isEnvelopeCodec()) {
+            serializerKey |= ProtocolConstant.ENVELOPE_CODEC_FLAG;
+        }
+        header.setSerializer(serializerKey);
+
+        TcpClientConnection connection = getConnection(serviceMetaInfo);
+        int window = Math.max(rpcConfig.getEventCredits(), 1);
+        ClientSubscription subscription = new ClientSubscription(connection, IdUtil.getSnowflakeNextId(), header,
+                serviceMetaInfo.getServiceName(), topic, window, listener, LISTENER_EXECUTOR);
+        try {
+            connection.subscribe(subscription, window);
+        } catch (IOException | RuntimeException e) {
+            throw new ExecutionException(e);
+        }
+        return subscription;
+    }
 
-        // Wait for the async response
-        RpcResponse rpcResponse = responseFuture.get();
+    /**
+     * Protocol version to speak with a provider: the highest one both sides support.
+     * Providers registered before version negotiation advertise version 1.
+     */
+    private static byte negotiateVersion(ServiceMetaInfo serviceMetaInfo) {
+        int providerVersion = serviceMetaInfo.getProtocolVersion();
+        if (providerVersion < ProtocolConstant.PROTOCOL_VERSION) {
+            return ProtocolConstant.PROTOCOL_VERSION;
+        }
+        return (byte) Math.min(providerVersion, ProtocolConstant.MAX_PROTOCOL_VERSION);
+    }
+
+    /**
+     * Get the open connection to a provider, connecting first if needed.
+     */
+    private static TcpClientConnection getConnection(ServiceMetaInfo serviceMetaInfo)
+            throws InterruptedException, ExecutionException {
+        String host = serviceMetaInfo.getServiceHost();
+        int port = serviceMetaInfo.getServicePort();
+        String address = host + ":" + port;
 
-        // Close the TCP client after the request is done
-        netClient.close();
+        CompletableFuture<TcpClientConnection> connectionFuture =
+                CONNECTIONS.computeIfAbsent(address, key -> connect(host, port, key));
+        TcpClientConnection connection;
+        try {
+            connection = connectionFuture.get();
+        } catch (ExecutionException e) {
+            // The failure may have been reported before the future was put into the map
+            CONNECTIONS.remove(address, connectionFuture);
+            throw e;
+        }
+        if (connection.isClosed()) {
+            // Closed between lookup and use: replace it
+            CONNECTIONS.remove(address, connectionFuture);
+            connection = CONNECTIONS.computeIfAbsent(address, key -> connect(host, port, key)).get();
+        }
+        return connection;
+    }
 
-        return rpcResponse;
+    private static CompletableFuture<TcpClientConnection> connect(String host, int port, String address) {
+        CompletableFuture<TcpClientConnection> connectionFuture = new CompletableFuture<>();
+        NET_CLIENT.connect(port, host, result -> {
+            if (!result.succeeded()) {
+                // Allow the next request to retry the connection
+                CONNECTIONS.remove(address, connectionFuture);
+                connectionFuture.completeExceptionally(result.cause());
+                return;
+            }
+            connectionFuture.complete(new TcpClientConnection(result.result(),
+                    () -> CONNECTIONS.remove(address, connectionFuture)));
+        });
+        return connectionFuture;
     }
 }
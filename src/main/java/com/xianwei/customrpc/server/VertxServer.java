@@ -26,7 +26,7 @@ public class VertxServer {
         NetServer server = vertx.createNetServer();
 
         // Register the custom request handler for incoming connections
-        server.connectHandler(new TcpServerHandler());
+        server.connectHandler(new TcpServerHandler(vertx));
 
         // Start listening on the specified port
         server.listen(port, result -> {
@@ -56,7 +56,9 @@ public class SpiLoader {
             com.xianwei.customrpc.registry.Registry.class,
             com.xianwei.customrpc.fault.retry.RetryStrategy.class,
             com.xianwei.customrpc.fault.tolerant.TolerantStrategy.class,
-            com.xianwei.customrpc.loadbalancer.LoadBalancer.class
+            com.xianwei.customrpc.loadbalancer.LoadBalancer.class,
+            com.xianwei.customrpc.codec.ValueCodec.class,
+            com.xianwei.customrpc.compressor.Compressor.class
     );
 
     /**
@@ -0,0 +1,74 @@
+package com.xianwei.customrpc.utils;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.InputStream;
+
+/**
+ * Buffer Input Stream
+ *
+ * An InputStream over a Vert.x Buffer (typically a slice of an incoming frame),
+ * so stream-based serializers can read a message body without copying it into a byte array first.
+ */
+public class BufferInputStream extends InputStream {
+
+    private final Buffer buffer;
+
+    private int position;
+
+    private int mark;
+
+    public BufferInputStream(Buffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if (position >= buffer.length()) {
+            return -1;
+        }
+        return buffer.getByte(position++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int available = buffer.length() - position;
+        if (available <= 0) {
+            return -1;
+        }
+        int count = Math.min(length, available);
+        buffer.getBytes(position, position + count, bytes, offset);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, buffer.length() - position));
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.length() - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+}
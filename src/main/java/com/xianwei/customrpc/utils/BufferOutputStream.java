@@ -0,0 +1,37 @@
+package com.xianwei.customrpc.utils;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.OutputStream;
+
+/**
+ * Buffer Output Stream
+ *
+ * An OutputStream that appends everything written to it to a Vert.x Buffer,
+ * so stream-based serializers can write straight into an outgoing frame.
+ */
+public class BufferOutputStream extends OutputStream {
+
+    private final Buffer buffer;
+
+    public BufferOutputStream(Buffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer.appendByte((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        buffer.appendBytes(bytes, offset, length);
+    }
+
+    /**
+     * Number of bytes in the underlying buffer (not only those written through this stream).
+     */
+    public int length() {
+        return buffer.length();
+    }
+}
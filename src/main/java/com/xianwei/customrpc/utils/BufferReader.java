@@ -0,0 +1,175 @@
+package com.xianwei.customrpc.utils;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffer Reader
+ *
+ * A forward-only cursor over a region of a Vert.x Buffer.
+ * It is the read-side counterpart of {@link VarIntUtils} and never copies the
+ * underlying buffer unless a value (string, byte array) has to be materialized.
+ */
+public class BufferReader {
+
+    private final Buffer buffer;
+
+    /**
+     * Current read position (absolute index into the buffer).
+     */
+    private int position;
+
+    /**
+     * Exclusive end of the readable region.
+     */
+    private final int limit;
+
+    public BufferReader(Buffer buffer) {
+        this(buffer, 0, buffer.length());
+    }
+
+    /**
+     * @param buffer the buffer to read from
+     * @param offset absolute index of the first readable byte
+     * @param length number of readable bytes
+     */
+    public BufferReader(Buffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public byte readByte() {
+        ensure(1);
+        return buffer.getByte(position++);
+    }
+
+    public int readInt() {
+        ensure(4);
+        int value = buffer.getInt(position);
+        position += 4;
+        return value;
+    }
+
+    public long readLong() {
+        ensure(8);
+        long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    public int readIntLE() {
+        ensure(4);
+        int value = buffer.getIntLE(position);
+        position += 4;
+        return value;
+    }
+
+    public long readLongLE() {
+        ensure(8);
+        long value = buffer.getLongLE(position);
+        position += 8;
+        return value;
+    }
+
+    /**
+     * Read an unsigned varint written by {@link VarIntUtils#writeVarInt}.
+     */
+    public int readVarInt() {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned 64-bit varint written by {@link VarIntUtils#writeVarLong}.
+     */
+    public long readVarLong() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException("Malformed varlong");
+    }
+
+    public int readSignedVarInt() {
+        int raw = readVarInt();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public long readSignedVarLong() {
+        long raw = readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    /**
+     * Read a nullable string written by {@link VarIntUtils#writeString}.
+     */
+    public String readString() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        return readUtf8(length);
+    }
+
+    /**
+     * Read {@code length} bytes as a UTF-8 string (no null marker).
+     */
+    public String readUtf8(int length) {
+        ensure(length);
+        String value = buffer.getString(position, position + length, StandardCharsets.UTF_8.name());
+        position += length;
+        return value;
+    }
+
+    /**
+     * Copy the next {@code length} bytes into a new array.
+     */
+    public byte[] readBytes(int length) {
+        ensure(length);
+        byte[] bytes = buffer.getBytes(position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    /**
+     * Return a view (no copy) of the next {@code length} bytes and advance past them.
+     */
+    public Buffer readSlice(int length) {
+        ensure(length);
+        Buffer slice = buffer.slice(position, position + length);
+        position += length;
+        return slice;
+    }
+
+    public void skip(int length) {
+        ensure(length);
+        position += length;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public int remaining() {
+        return limit - position;
+    }
+
+    private void ensure(int length) {
+        if (length < 0 || position + length > limit) {
+            throw new RuntimeException("Buffer underflow: need " + length + " bytes, " + remaining() + " remaining");
+        }
+    }
+}
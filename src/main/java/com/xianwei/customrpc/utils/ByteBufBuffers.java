@@ -0,0 +1,40 @@
+package com.xianwei.customrpc.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * ByteBuf Buffers
+ *
+ * The one place that converts between Netty ByteBufs and Vert.x Buffers without copying,
+ * so pooled and direct memory can be written to sockets and read through the Buffer API.
+ * A wrapping Buffer shares the ByteBuf's memory and reference count: releasing the ByteBuf
+ * frees the Buffer's bytes too.
+ */
+// Vert.x 4 deprecates the ByteBuf conversions (Vert.x 5 moves them to BufferInternal); there is no public alternative
+@SuppressWarnings("deprecation")
+public final class ByteBufBuffers {
+
+    private ByteBufBuffers() {
+    }
+
+    /**
+     * Wrap a ByteBuf into a Buffer. Appending to the Buffer writes into the ByteBuf.
+     *
+     * @param byteBuf the memory to wrap
+     * @return a Buffer over the ByteBuf's readable bytes
+     */
+    public static Buffer wrap(ByteBuf byteBuf) {
+        return Buffer.buffer(byteBuf);
+    }
+
+    /**
+     * Get the ByteBuf behind a Buffer, e.g. to hand its memory to a Netty codec.
+     *
+     * @param buffer the buffer
+     * @return the ByteBuf holding the buffer's bytes
+     */
+    public static ByteBuf unwrap(Buffer buffer) {
+        return buffer.getByteBuf();
+    }
+}
@@ -0,0 +1,232 @@
+package com.xianwei.customrpc.utils;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Packed Array Utility Class
+ *
+ * Writes primitive arrays as one block without boxing:
+ *   varint(length + 1) (0 = null) | encoding | elements
+ * Integer blocks pick the smallest of three encodings after one sizing pass over the data:
+ * - FIXED: little-endian, 4 or 8 bytes per element (random or large values)
+ * - VARINT: zig-zag varints (small values)
+ * - DELTA: zig-zag varints of the difference to the previous element (sorted ids, timestamps)
+ * Double blocks are always fixed little-endian.
+ * Blocks are read back into primitive arrays with the matching read method.
+ */
+public class PackedArrayUtils {
+
+    public static final byte FIXED = 0;
+
+    public static final byte VARINT = 1;
+
+    public static final byte DELTA = 2;
+
+    /**
+     * Append a nullable long array.
+     */
+    public static void writeLongs(Buffer buffer, long[] values) {
+        if (values == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+            return;
+        }
+        writeLongs(buffer, values, values.length);
+    }
+
+    /**
+     * Append the first {@code length} elements of a long array.
+     */
+    public static void writeLongs(Buffer buffer, long[] values, int length) {
+        VarIntUtils.writeVarInt(buffer, length + 1);
+        long varintSize = 0;
+        long deltaSize = 0;
+        long previous = 0;
+        for (int i = 0; i < length; i++) {
+            long value = values[i];
+            varintSize += VarIntUtils.varLongSize(zigZag(value));
+            deltaSize += VarIntUtils.varLongSize(zigZag(value - previous));
+            previous = value;
+        }
+        byte encoding = chooseEncoding(8L * length, varintSize, deltaSize);
+        buffer.appendByte(encoding);
+        if (encoding == FIXED) {
+            for (int i = 0; i < length; i++) {
+                buffer.appendLongLE(values[i]);
+            }
+        } else if (encoding == VARINT) {
+            for (int i = 0; i < length; i++) {
+                VarIntUtils.writeSignedVarLong(buffer, values[i]);
+            }
+        } else {
+            previous = 0;
+            for (int i = 0; i < length; i++) {
+                VarIntUtils.writeSignedVarLong(buffer, values[i] - previous);
+                previous = values[i];
+            }
+        }
+    }
+
+    /**
+     * Read a nullable long array written by {@link #writeLongs}.
+     */
+    public static long[] readLongs(BufferReader reader) {
+        int length = reader.readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte encoding = reader.readByte();
+        long[] values = new long[checkedLength(reader, length, encoding == FIXED ? 8 : 1)];
+        if (encoding == FIXED) {
+            for (int i = 0; i < length; i++) {
+                values[i] = reader.readLongLE();
+            }
+        } else if (encoding == VARINT) {
+            for (int i = 0; i < length; i++) {
+                values[i] = reader.readSignedVarLong();
+            }
+        } else if (encoding == DELTA) {
+            long previous = 0;
+            for (int i = 0; i < length; i++) {
+                previous += reader.readSignedVarLong();
+                values[i] = previous;
+            }
+        } else {
+            throw new RuntimeException("Unknown packed array encoding: " + encoding);
+        }
+        return values;
+    }
+
+    /**
+     * Append a nullable int array.
+     */
+    public static void writeInts(Buffer buffer, int[] values) {
+        if (values == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+            return;
+        }
+        int length = values.length;
+        VarIntUtils.writeVarInt(buffer, length + 1);
+        long varintSize = 0;
+        long deltaSize = 0;
+        int previous = 0;
+        for (int value : values) {
+            varintSize += VarIntUtils.varIntSize(zigZag(value));
+            deltaSize += VarIntUtils.varIntSize(zigZag(value - previous));
+            previous = value;
+        }
+        byte encoding = chooseEncoding(4L * length, varintSize, deltaSize);
+        buffer.appendByte(encoding);
+        if (encoding == FIXED) {
+            for (int value : values) {
+                buffer.appendIntLE(value);
+            }
+        } else if (encoding == VARINT) {
+            for (int value : values) {
+                VarIntUtils.writeSignedVarInt(buffer, value);
+            }
+        } else {
+            previous = 0;
+            for (int value : values) {
+                VarIntUtils.writeSignedVarInt(buffer, value - previous);
+                previous = value;
+            }
+        }
+    }
+
+    /**
+     * Read a nullable int array written by {@link #writeInts}.
+     */
+    public static int[] readInts(BufferReader reader) {
+        int length = reader.readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte encoding = reader.readByte();
+        int[] values = new int[checkedLength(reader, length, encoding == FIXED ? 4 : 1)];
+        if (encoding == FIXED) {
+            for (int i = 0; i < length; i++) {
+                values[i] = reader.readIntLE();
+            }
+        } else if (encoding == VARINT) {
+            for (int i = 0; i < length; i++) {
+                values[i] = reader.readSignedVarInt();
+            }
+        } else if (encoding == DELTA) {
+            int previous = 0;
+            for (int i = 0; i < length; i++) {
+                previous += reader.readSignedVarInt();
+                values[i] = previous;
+            }
+        } else {
+            throw new RuntimeException("Unknown packed array encoding: " + encoding);
+        }
+        return values;
+    }
+
+    /**
+     * Append a nullable double array.
+     */
+    public static void writeDoubles(Buffer buffer, double[] values) {
+        if (values == null) {
+            VarIntUtils.writeVarInt(buffer, 0);
+            return;
+        }
+        writeDoubles(buffer, values, values.length);
+    }
+
+    /**
+     * Append the first {@code length} elements of a double array.
+     */
+    public static void writeDoubles(Buffer buffer, double[] values, int length) {
+        VarIntUtils.writeVarInt(buffer, length + 1);
+        buffer.appendByte(FIXED);
+        for (int i = 0; i < length; i++) {
+            buffer.appendLongLE(Double.doubleToRawLongBits(values[i]));
+        }
+    }
+
+    /**
+     * Read a nullable double array written by {@link #writeDoubles}.
+     */
+    public static double[] readDoubles(BufferReader reader) {
+        int length = reader.readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte encoding = reader.readByte();
+        if (encoding != FIXED) {
+            throw new RuntimeException("Unknown packed array encoding: " + encoding);
+        }
+        double[] values = new double[checkedLength(reader, length, 8)];
+        for (int i = 0; i < length; i++) {
+            values[i] = Double.longBitsToDouble(reader.readLongLE());
+        }
+        return values;
+    }
+
+    private static byte chooseEncoding(long fixedSize, long varintSize, long deltaSize) {
+        if (deltaSize < varintSize && deltaSize < fixedSize) {
+            return DELTA;
+        }
+        return varintSize < fixedSize ? VARINT : FIXED;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reject lengths the remaining bytes cannot possibly hold, so a corrupt frame
+     * cannot trigger a huge allocation.
+     */
+    private static int checkedLength(BufferReader reader, int length, int minElementSize) {
+        if ((long) length * minElementSize > reader.remaining()) {
+            throw new RuntimeException("Invalid array length: " + length);
+        }
+        return length;
+    }
+}
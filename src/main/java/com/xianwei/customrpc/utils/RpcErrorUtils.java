@@ -0,0 +1,146 @@
+package com.xianwei.customrpc.utils;
+
+import com.xianwei.customrpc.exception.RpcBusinessException;
+import com.xianwei.customrpc.exception.RpcErrorCodeEnum;
+import com.xianwei.customrpc.exception.RpcException;
+import com.xianwei.customrpc.model.RpcError;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RPC Error Utility Class
+ *
+ * Converts exceptions to the compact {@link RpcError} model on the provider
+ * and back to exceptions on the consumer.
+ */
+public class RpcErrorUtils {
+
+    private static final String[] NO_STACK_TRACE = new String[0];
+
+    /**
+     * (String message) constructors of exception classes, resolved once per class name
+     */
+    private static final Map<String, Optional<Constructor<?>>> CONSTRUCTOR_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Describe an exception thrown while handling a call.
+     *
+     * @param throwable       the exception
+     * @param code            the error code
+     * @param stackTraceDepth maximum number of stack frames to include (0 = none);
+     *                        never applied to business exceptions
+     * @return the error
+     */
+    public static RpcError toRpcError(Throwable throwable, RpcErrorCodeEnum code, int stackTraceDepth) {
+        String[] stackTrace = NO_STACK_TRACE;
+        if (stackTraceDepth > 0 && !(throwable instanceof RpcBusinessException)) {
+            StackTraceElement[] elements = throwable.getStackTrace();
+            stackTrace = new String[Math.min(stackTraceDepth, elements.length)];
+            for (int i = 0; i < stackTrace.length; i++) {
+                StackTraceElement element = elements[i];
+                stackTrace[i] = element.getClassName() + "." + element.getMethodName()
+                        + "(" + element.getFileName() + ":" + element.getLineNumber() + ")";
+            }
+        }
+        return RpcError.builder()
+                .code(code.getValue())
+                .exceptionClass(throwable.getClass().getName())
+                .message(throwable.getMessage())
+                .stackTrace(stackTrace)
+                .build();
+    }
+
+    /**
+     * Describe a framework-level failure, reported to the consumer as an RpcException.
+     */
+    public static RpcError toRpcError(RpcErrorCodeEnum code, String message) {
+        return RpcError.builder()
+                .code(code.getValue())
+                .exceptionClass(RpcException.class.getName())
+                .message(message)
+                .stackTrace(NO_STACK_TRACE)
+                .build();
+    }
+
+    /**
+     * Re-create the exception described by an error. Uses the original class when it is
+     * available locally and has a (String) constructor, otherwise an RpcException.
+     *
+     * @param rpcError the error received from the provider
+     * @return the exception to throw to the caller
+     */
+    public static Throwable toException(RpcError rpcError) {
+        Throwable throwable = null;
+        Constructor<?> constructor = getConstructor(rpcError.getExceptionClass());
+        if (constructor != null) {
+            try {
+                throwable = (Throwable) constructor.newInstance(rpcError.getMessage());
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throwable = null;
+            }
+        }
+        if (throwable == null) {
+            throwable = new RpcException(rpcError.getExceptionClass() + ": " + rpcError.getMessage());
+        }
+        String[] stackTrace = rpcError.getStackTrace();
+        if (stackTrace != null && stackTrace.length > 0) {
+            throwable.setStackTrace(parseStackTrace(stackTrace));
+        }
+        return throwable;
+    }
+
+    private static Constructor<?> getConstructor(String className) {
+        if (className == null) {
+            return null;
+        }
+        Optional<Constructor<?>> constructor = CONSTRUCTOR_CACHE.get(className);
+        if (constructor == null) {
+            Constructor<?> found = null;
+            try {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                Class<?> clazz = Class.forName(className, false,
+                        classLoader != null ? classLoader : RpcErrorUtils.class.getClassLoader());
+                // Only ever instantiate exception classes
+                if (Throwable.class.isAssignableFrom(clazz)) {
+                    found = clazz.getConstructor(String.class);
+                }
+            } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+                found = null;
+            }
+            constructor = Optional.ofNullable(found);
+            CONSTRUCTOR_CACHE.put(className, constructor);
+        }
+        return constructor.orElse(null);
+    }
+
+    private static StackTraceElement[] parseStackTrace(String[] frames) {
+        StackTraceElement[] elements = new StackTraceElement[frames.length];
+        int count = 0;
+        for (String frame : frames) {
+            int paren = frame.lastIndexOf('(');
+            int dot = paren > 0 ? frame.lastIndexOf('.', paren) : -1;
+            int colon = frame.lastIndexOf(':');
+            if (dot < 0 || colon < paren || !frame.endsWith(")")) {
+                continue;
+            }
+            String fileName = frame.substring(paren + 1, colon);
+            int lineNumber;
+            try {
+                lineNumber = Integer.parseInt(frame.substring(colon + 1, frame.length() - 1));
+            } catch (NumberFormatException e) {
+                lineNumber = -1;
+            }
+            elements[count++] = new StackTraceElement(frame.substring(0, dot), frame.substring(dot + 1, paren),
+                    "null".equals(fileName) ? null : fileName, lineNumber);
+        }
+        if (count < elements.length) {
+            StackTraceElement[] trimmed = new StackTraceElement[count];
+            System.arraycopy(elements, 0, trimmed, 0, count);
+            return trimmed;
+        }
+        return elements;
+    }
+}
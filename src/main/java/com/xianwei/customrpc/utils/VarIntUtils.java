@@ -0,0 +1,104 @@
+package com.xianwei.customrpc.utils;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Variable-Length Integer Utility Class
+ *
+ * Provides methods to append protobuf-style varints, zig-zag encoded numbers
+ * and length-prefixed UTF-8 strings to a Vert.x Buffer.
+ * Values are read back with {@link BufferReader}.
+ */
+public class VarIntUtils {
+
+    /**
+     * Append an unsigned varint (7 bits per byte, high bit = "more bytes follow").
+     *
+     * @param buffer the buffer to append to
+     * @param value  the value to write (treated as unsigned)
+     */
+    public static void writeVarInt(Buffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.appendByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.appendByte((byte) value);
+    }
+
+    /**
+     * Append an unsigned 64-bit varint.
+     *
+     * @param buffer the buffer to append to
+     * @param value  the value to write (treated as unsigned)
+     */
+    public static void writeVarLong(Buffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.appendByte((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.appendByte((byte) value);
+    }
+
+    /**
+     * Append a signed int using zig-zag encoding, so small negative numbers stay short.
+     */
+    public static void writeSignedVarInt(Buffer buffer, int value) {
+        writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Append a signed long using zig-zag encoding.
+     */
+    public static void writeSignedVarLong(Buffer buffer, long value) {
+        writeVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Append a nullable UTF-8 string as varint(length + 1) followed by the bytes.
+     * A length prefix of 0 marks a null string.
+     *
+     * @param buffer the buffer to append to
+     * @param value  the string to write, may be null
+     */
+    public static void writeString(Buffer buffer, String value) {
+        if (value == null) {
+            writeVarInt(buffer, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buffer, bytes.length + 1);
+        buffer.appendBytes(bytes);
+    }
+
+    /**
+     * Number of bytes an unsigned varint occupies on the wire.
+     *
+     * @param value the value to measure
+     * @return encoded size in bytes (1 to 5)
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Number of bytes an unsigned 64-bit varint occupies on the wire.
+     *
+     * @param value the value to measure
+     * @return encoded size in bytes (1 to 10)
+     */
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
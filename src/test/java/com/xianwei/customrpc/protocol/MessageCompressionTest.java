@@ -0,0 +1,195 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.RpcApplication;
+import com.xianwei.customrpc.compressor.CompressionDictionary;
+import com.xianwei.customrpc.compressor.CompressorKeys;
+import com.xianwei.customrpc.config.CompressionConfig;
+import com.xianwei.customrpc.config.RpcConfig;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.registry.RegistryKeys;
+import io.vertx.core.buffer.Buffer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Message Compression Test
+ *
+ * Round-trips version 2 messages through the encoder and decoder with each codec,
+ * with and without a preset dictionary, and checks when bodies are left uncompressed.
+ */
+public class MessageCompressionTest {
+
+    private static final String TEXT = "{\"id\":%d,\"name\":\"user-%d\",\"email\":\"user-%d@example.com\",\"active\":true}";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void resetConfig() {
+        init(new CompressionConfig());
+    }
+
+    @Test
+    public void compressedOnceThePeerAccepts() throws IOException {
+        for (String compressor : new String[]{CompressorKeys.SNAPPY, CompressorKeys.DEFLATE}) {
+            init(compression(compressor, 1024, null));
+            RpcResponse response = response(200);
+            int uncompressedLength = ProtocolMessageEncoder.encode(message(response), null).length();
+
+            SerializationContext sender = new SerializationContext();
+            sender.setPeerCompression(ProtocolMessageCompressorEnum.getAcceptMask(), -1);
+            Buffer encoded = ProtocolMessageEncoder.encode(message(response), sender);
+            ProtocolMessage<?> decoded = ProtocolMessageDecoder.decode(encoded, new SerializationContext());
+
+            assertEquals(compressor, ProtocolMessageCompressorEnum.getEnumByValue(compressor).getKey(),
+                    decoded.getHeader().getAttributes().getLong(ProtocolAttributeKeys.COMPRESSION, 0));
+            assertTrue(compressor, encoded.length() < uncompressedLength / 2);
+            assertEquals(compressor, response.getData(), ((RpcResponse) decoded.getBody()).getData());
+        }
+    }
+
+    @Test
+    public void negotiatedOnTheFirstMessages() throws IOException {
+        init(compression(CompressorKeys.DEFLATE, 1024, null));
+        SerializationContext client = new SerializationContext();
+        SerializationContext server = new SerializationContext();
+
+        // The client has not heard from the server: it announces its codecs and sends uncompressed
+        Buffer request = ProtocolMessageEncoder.encode(message(response(200)), client);
+        ProtocolMessage<?> received = ProtocolMessageDecoder.decode(request, server);
+        ProtocolAttributes attributes = received.getHeader().getAttributes();
+        assertEquals(ProtocolMessageCompressorEnum.getAcceptMask(),
+                attributes.getLong(ProtocolAttributeKeys.ACCEPT_COMPRESSION, 0));
+        assertFalse(attributes.contains(ProtocolAttributeKeys.COMPRESSION));
+
+        // The server has: it compresses its reply, and announces its own codecs once
+        Buffer reply = ProtocolMessageEncoder.encode(message(response(200)), server);
+        ProtocolMessage<?> replyReceived = ProtocolMessageDecoder.decode(reply, client);
+        assertTrue(replyReceived.getHeader().getAttributes().contains(ProtocolAttributeKeys.COMPRESSION));
+        assertTrue(replyReceived.getHeader().getAttributes().contains(ProtocolAttributeKeys.ACCEPT_COMPRESSION));
+
+        // Now the client compresses too, and neither announces again
+        ProtocolMessage<?> second = ProtocolMessageDecoder.decode(
+                ProtocolMessageEncoder.encode(message(response(200)), client), server);
+        assertTrue(second.getHeader().getAttributes().contains(ProtocolAttributeKeys.COMPRESSION));
+        assertFalse(second.getHeader().getAttributes().contains(ProtocolAttributeKeys.ACCEPT_COMPRESSION));
+        assertEquals(response(200).getData(), ((RpcResponse) second.getBody()).getData());
+    }
+
+    @Test
+    public void smallAndStatelessBodiesAreNotCompressed() throws IOException {
+        init(compression(CompressorKeys.SNAPPY, 1024, null));
+        SerializationContext sender = new SerializationContext();
+        sender.setPeerCompression(ProtocolMessageCompressorEnum.getAcceptMask(), -1);
+
+        ProtocolMessage<?> small = ProtocolMessageDecoder.decode(
+                ProtocolMessageEncoder.encode(message(response(2)), sender), new SerializationContext());
+        assertFalse(small.getHeader().getAttributes().contains(ProtocolAttributeKeys.COMPRESSION));
+        assertEquals(response(2).getData(), ((RpcResponse) small.getBody()).getData());
+
+        ProtocolMessage<?> stateless = ProtocolMessageDecoder.decode(
+                ProtocolMessageEncoder.encode(message(response(200)), null), null);
+        assertNull(stateless.getHeader().getAttributes());
+        assertEquals(response(200).getData(), ((RpcResponse) stateless.getBody()).getData());
+    }
+
+    @Test
+    public void sharedDictionary() throws IOException {
+        String dictionary = dictionaryFile();
+        long dictionaryId = CompressionDictionary.load(dictionary).getId();
+        RpcResponse response = response(3);
+
+        init(compression(CompressorKeys.DEFLATE, 0, null));
+        SerializationContext plainSender = new SerializationContext();
+        plainSender.setPeerCompression(ProtocolMessageCompressorEnum.getAcceptMask(), -1);
+        // The announcement attributes only go out once: compare second messages
+        ProtocolMessageEncoder.encode(message(response), plainSender);
+        int withoutDictionary = ProtocolMessageEncoder.encode(message(response), plainSender).length();
+
+        init(compression(CompressorKeys.DEFLATE, 0, dictionary));
+        SerializationContext sender = new SerializationContext();
+        sender.setPeerCompression(ProtocolMessageCompressorEnum.getAcceptMask(), dictionaryId);
+        SerializationContext receiver = new SerializationContext();
+        Buffer encoded = ProtocolMessageEncoder.encode(message(response), sender);
+        ProtocolMessage<?> decoded = ProtocolMessageDecoder.decode(encoded, receiver);
+
+        assertTrue(decoded.getHeader().getAttributes().contains(ProtocolAttributeKeys.COMPRESSION));
+        assertEquals(dictionaryId, decoded.getHeader().getAttributes()
+                .getLong(ProtocolAttributeKeys.COMPRESSION_DICTIONARY, -1));
+        assertEquals(dictionaryId, receiver.getPeerDictionaryId());
+        assertEquals(response.getData(), ((RpcResponse) decoded.getBody()).getData());
+        assertTrue(ProtocolMessageEncoder.encode(message(response), sender).length() < withoutDictionary);
+    }
+
+    @Test
+    public void dictionaryIsNotUsedWithAPeerWithoutIt() throws IOException {
+        init(compression(CompressorKeys.DEFLATE, 0, dictionaryFile()));
+        RpcResponse response = response(3);
+        SerializationContext sender = new SerializationContext();
+        sender.setPeerCompression(ProtocolMessageCompressorEnum.getAcceptMask(), 12345);
+
+        Buffer encoded = ProtocolMessageEncoder.encode(message(response), sender);
+
+        // Decodable by a receiver that has no dictionary configured
+        init(compression(CompressorKeys.DEFLATE, 0, null));
+        ProtocolMessage<?> decoded = ProtocolMessageDecoder.decode(encoded, new SerializationContext());
+        assertTrue(decoded.getHeader().getAttributes().contains(ProtocolAttributeKeys.COMPRESSION));
+        assertEquals(response.getData(), ((RpcResponse) decoded.getBody()).getData());
+    }
+
+    private String dictionaryFile() throws IOException {
+        StringBuilder samples = new StringBuilder();
+        for (int i = 1000; i < 1020; i++) {
+            samples.append(String.format(TEXT, i, i, i));
+        }
+        File file = temporaryFolder.newFile("rpc.dict");
+        Files.write(file.toPath(), samples.toString().getBytes(StandardCharsets.UTF_8));
+        return file.getAbsolutePath();
+    }
+
+    private static RpcResponse response(int records) {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            data.append(String.format(TEXT, i, i, i));
+        }
+        RpcResponse response = new RpcResponse();
+        response.setData(data.toString());
+        response.setDataType(String.class);
+        return response;
+    }
+
+    private static ProtocolMessage<RpcResponse> message(RpcResponse response) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION_2);
+        header.setSerializer((byte) ProtocolMessageSerializerEnum.KRYO.getKey());
+        header.setType((byte) ProtocolMessageTypeEnum.RESPONSE.getKey());
+        header.setRequestId(1);
+        return new ProtocolMessage<>(header, response);
+    }
+
+    private static CompressionConfig compression(String compressor, int threshold, String dictionary) {
+        CompressionConfig compressionConfig = new CompressionConfig();
+        compressionConfig.setCompressor(compressor);
+        compressionConfig.setThreshold(threshold);
+        compressionConfig.setDictionary(dictionary);
+        return compressionConfig;
+    }
+
+    private static void init(CompressionConfig compressionConfig) {
+        RpcConfig rpcConfig = new RpcConfig();
+        rpcConfig.getRegistryConfig().setRegistry(RegistryKeys.EMBEDDED);
+        rpcConfig.getRegistryConfig().setAddress("mem");
+        rpcConfig.setCompressionConfig(compressionConfig);
+        RpcApplication.init(rpcConfig);
+    }
+}
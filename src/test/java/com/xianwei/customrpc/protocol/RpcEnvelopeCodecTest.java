@@ -0,0 +1,277 @@
+package com.xianwei.customrpc.protocol;
+
+import com.xianwei.customrpc.model.RpcError;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import com.xianwei.customrpc.serializer.Serializer;
+import com.xianwei.customrpc.serializer.SerializerFactory;
+import com.xianwei.customrpc.serializer.SerializerKeys;
+import com.xianwei.customrpc.utils.BufferReader;
+import io.vertx.core.buffer.Buffer;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * RPC Envelope Codec Test
+ *
+ * Round-trips requests, responses and error blocks through the envelope codec with every
+ * serializer, and requests with all-primitive signatures with and without the envelope.
+ */
+public class RpcEnvelopeCodecTest {
+
+    private static final String[] SERIALIZERS = {
+            SerializerKeys.JDK, SerializerKeys.KRYO, SerializerKeys.HESSIAN, SerializerKeys.HESSIAN2
+    };
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private int x;
+        private int y;
+    }
+
+    @Test
+    public void requestRoundTrip() throws IOException {
+        for (String key : SERIALIZERS) {
+            Serializer serializer = SerializerFactory.getInstance(key);
+            RpcRequest request = request(new Point(3, 4), Arrays.asList("a", "b"));
+
+            Buffer buffer = Buffer.buffer();
+            RpcEnvelopeCodec.encodeRequest(request, serializer, null, false, buffer);
+            RpcRequest decoded = RpcEnvelopeCodec.decodeRequest(new BufferReader(buffer), serializer, null, false);
+
+            assertRequestEquals(key, request, decoded);
+        }
+    }
+
+    @Test
+    public void requestWithNulls() throws IOException {
+        Serializer serializer = SerializerFactory.getInstance(SerializerKeys.KRYO);
+        RpcRequest request = new RpcRequest();
+        request.setServiceName("com.example.UserService");
+        request.setMethodName("ping");
+        request.setServiceVersion(null);
+
+        Buffer buffer = Buffer.buffer();
+        RpcEnvelopeCodec.encodeRequest(request, serializer, null, false, buffer);
+        RpcRequest decoded = RpcEnvelopeCodec.decodeRequest(new BufferReader(buffer), serializer, null, false);
+        assertNull(decoded.getServiceVersion());
+        assertNull(decoded.getParameterTypes());
+        assertNull(decoded.getArgs());
+
+        request.setParameterTypes(new Class<?>[]{Point.class});
+        request.setArgs(new Object[]{null});
+        buffer = Buffer.buffer();
+        RpcEnvelopeCodec.encodeRequest(request, serializer, null, false, buffer);
+        decoded = RpcEnvelopeCodec.decodeRequest(new BufferReader(buffer), serializer, null, false);
+        assertArrayEquals(new Class<?>[]{Point.class}, decoded.getParameterTypes());
+        assertArrayEquals(new Object[]{null}, decoded.getArgs());
+    }
+
+    @Test
+    public void requestWithClassDictionary() throws IOException {
+        Serializer serializer = SerializerFactory.getInstance(SerializerKeys.KRYO);
+        SerializationContext sender = new SerializationContext();
+        SerializationContext receiver = new SerializationContext();
+        RpcRequest request = request(new Point(1, 2), new ArrayList<>(Arrays.asList("x")));
+
+        Buffer first = Buffer.buffer();
+        RpcEnvelopeCodec.encodeRequest(request, serializer, sender, false, first);
+        Buffer second = Buffer.buffer();
+        RpcEnvelopeCodec.encodeRequest(request, serializer, sender, false, second);
+
+        // The second message refers to the classes by the ids the first one defined
+        assertTrue(second.length() < first.length());
+        assertRequestEquals("first", request,
+                RpcEnvelopeCodec.decodeRequest(new BufferReader(first), serializer, receiver, false));
+        assertRequestEquals("second", request,
+                RpcEnvelopeCodec.decodeRequest(new BufferReader(second), serializer, receiver, false));
+    }
+
+    @Test
+    public void responseRoundTrip() throws IOException {
+        for (String key : SERIALIZERS) {
+            Serializer serializer = SerializerFactory.getInstance(key);
+            Map<String, Point> data = new HashMap<>();
+            data.put("origin", new Point(0, 0));
+            RpcResponse response = new RpcResponse();
+            response.setData(data);
+            response.setDataType(Map.class);
+            response.setMessage("ok");
+
+            RpcResponse decoded = roundTrip(response, serializer);
+
+            assertEquals(key, data, decoded.getData());
+            assertEquals(key, Map.class, decoded.getDataType());
+            assertEquals(key, "ok", decoded.getMessage());
+            assertNull(key, decoded.getException());
+            assertNull(key, decoded.getError());
+        }
+    }
+
+    @Test
+    public void responseWithException() throws IOException {
+        Serializer serializer = SerializerFactory.getInstance(SerializerKeys.JDK);
+        RpcResponse response = new RpcResponse();
+        response.setException(new IllegalArgumentException("bad id"));
+
+        RpcResponse decoded = roundTrip(response, serializer);
+
+        assertNull(decoded.getData());
+        assertNull(decoded.getDataType());
+        assertTrue(decoded.getException() instanceof IllegalArgumentException);
+        assertEquals("bad id", decoded.getException().getMessage());
+    }
+
+    @Test
+    public void errorBlockRoundTrip() throws IOException {
+        // The error block is hand-encoded: a serializer that fails proves it is never involved
+        Serializer failing = failingSerializer();
+        RpcError error = RpcError.builder()
+                .code(5001)
+                .exceptionClass("com.example.UserNotFoundException")
+                .message("No user 42")
+                .stackTrace(new String[]{"com.example.UserService.find(UserService.java:10)", "java.lang.Thread.run"})
+                .build();
+        RpcResponse response = new RpcResponse();
+        response.setMessage("failed");
+        response.setError(error);
+
+        RpcResponse decoded = roundTrip(response, failing);
+
+        assertEquals(error, decoded.getError());
+        assertEquals("failed", decoded.getMessage());
+
+        // Without stack frames, and with code 0 (which must not read as "no error")
+        error.setCode(0);
+        error.setStackTrace(null);
+        decoded = roundTrip(response, failing);
+        assertEquals(0, decoded.getError().getCode());
+        assertEquals(0, decoded.getError().getStackTrace().length);
+    }
+
+    @Test
+    public void primitiveSignature() {
+        assertTrue(PrimitiveValueCodec.isPrimitiveSignature(new Class<?>[]{}));
+        assertTrue(PrimitiveValueCodec.isPrimitiveSignature(new Class<?>[]{int.class, long.class, String.class,
+                Integer.class, byte[].class, double[].class}));
+        assertFalse(PrimitiveValueCodec.isPrimitiveSignature(new Class<?>[]{int.class, List.class}));
+        assertFalse(PrimitiveValueCodec.isPrimitiveSignature(null));
+    }
+
+    @Test
+    public void primitiveFastPathSkipsTheSerializer() throws IOException {
+        RpcRequest request = primitiveRequest();
+        Serializer failing = failingSerializer();
+
+        Buffer buffer = Buffer.buffer();
+        RpcEnvelopeCodec.encodeRequest(request, failing, null, false, buffer);
+        RpcRequest decoded = RpcEnvelopeCodec.decodeRequest(new BufferReader(buffer), failing, null, false);
+
+        assertPrimitiveArgs(decoded);
+    }
+
+    @Test
+    public void primitiveRequestWithAndWithoutEnvelope() throws IOException {
+        for (String key : SERIALIZERS) {
+            byte serializerKey = (byte) ProtocolMessageSerializerEnum.getEnumByValue(key).getKey();
+            for (boolean envelope : new boolean[]{true, false}) {
+                byte serializer = envelope ? (byte) (serializerKey | ProtocolConstant.ENVELOPE_CODEC_FLAG) : serializerKey;
+                ProtocolMessage<RpcRequest> message = new ProtocolMessage<>(header(serializer), primitiveRequest());
+
+                ProtocolMessage<?> decoded = ProtocolMessageDecoder.decode(ProtocolMessageEncoder.encode(message));
+
+                assertEquals(serializer, decoded.getHeader().getSerializer());
+                assertPrimitiveArgs((RpcRequest) decoded.getBody());
+            }
+        }
+    }
+
+    private static RpcRequest request(Point point, List<String> tags) {
+        return RpcRequest.builder()
+                .serviceName("com.example.UserService")
+                .methodName("move")
+                .serviceVersion("2.0")
+                .parameterTypes(new Class<?>[]{Point.class, List.class, int.class, String.class})
+                .args(new Object[]{point, tags, 7, "fast"})
+                .build();
+    }
+
+    private static RpcRequest primitiveRequest() {
+        RpcRequest request = new RpcRequest();
+        request.setServiceName("com.example.MathService");
+        request.setMethodName("scale");
+        request.setParameterTypes(new Class<?>[]{int.class, long.class, boolean.class, String.class,
+                byte[].class, double[].class});
+        request.setArgs(new Object[]{-7, 1L << 40, true, "naïve", new byte[]{1, 2, 3}, new double[]{0.5, -1.25}});
+        assertTrue(PrimitiveValueCodec.isPrimitiveSignature(request.getParameterTypes()));
+        return request;
+    }
+
+    private static void assertPrimitiveArgs(RpcRequest decoded) {
+        Object[] args = decoded.getArgs();
+        assertEquals("com.example.MathService", decoded.getServiceName());
+        assertEquals("scale", decoded.getMethodName());
+        assertEquals(-7, args[0]);
+        assertEquals(1L << 40, args[1]);
+        assertEquals(true, args[2]);
+        assertEquals("naïve", args[3]);
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) args[4]);
+        assertArrayEquals(new double[]{0.5, -1.25}, (double[]) args[5], 0);
+    }
+
+    private static void assertRequestEquals(String message, RpcRequest expected, RpcRequest actual) {
+        assertEquals(message, expected.getServiceName(), actual.getServiceName());
+        assertEquals(message, expected.getMethodName(), actual.getMethodName());
+        assertEquals(message, expected.getServiceVersion(), actual.getServiceVersion());
+        assertArrayEquals(message, expected.getParameterTypes(), actual.getParameterTypes());
+        assertArrayEquals(message, expected.getArgs(), actual.getArgs());
+    }
+
+    private static RpcResponse roundTrip(RpcResponse response, Serializer serializer) throws IOException {
+        Buffer buffer = Buffer.buffer();
+        RpcEnvelopeCodec.encodeResponse(response, serializer, null, buffer);
+        BufferReader reader = new BufferReader(buffer);
+        RpcResponse decoded = RpcEnvelopeCodec.decodeResponse(reader, serializer, null);
+        assertEquals(0, reader.remaining());
+        return decoded;
+    }
+
+    private static ProtocolMessage.Header header(byte serializer) {
+        ProtocolMessage.Header header = new ProtocolMessage.Header();
+        header.setMagic(ProtocolConstant.PROTOCOL_MAGIC);
+        header.setVersion(ProtocolConstant.PROTOCOL_VERSION);
+        header.setSerializer(serializer);
+        header.setType((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        header.setRequestId(1);
+        return header;
+    }
+
+    private static Serializer failingSerializer() {
+        return new Serializer() {
+            @Override
+            public <T> byte[] serialize(T object) {
+                throw new AssertionError("Serializer called for " + object);
+            }
+
+            @Override
+            public <T> T deserialize(byte[] bytes, Class<T> tClass) {
+                throw new AssertionError("Serializer called for " + tClass);
+            }
+        };
+    }
+}
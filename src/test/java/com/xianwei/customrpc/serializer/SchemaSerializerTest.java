@@ -0,0 +1,290 @@
+package com.xianwei.customrpc.serializer;
+
+import com.xianwei.customrpc.model.RpcError;
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import io.vertx.core.buffer.Buffer;
+import lombok.Data;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Schema Serializer Test
+ *
+ * Round-trips POJOs, collections and RPC envelopes through the schema serializer,
+ * and checks that tagged classes stay compatible as fields are added and removed.
+ */
+public class SchemaSerializerTest {
+
+    private final SchemaSerializer serializer = new SchemaSerializer();
+
+    public enum Level {
+        LOW, HIGH
+    }
+
+    @Data
+    public static class Address {
+        private String city;
+        private int zip;
+    }
+
+    @Data
+    public static class HomeAddress extends Address {
+        private String street;
+    }
+
+    @Data
+    public static class User {
+        private long id;
+        private String name;
+        private boolean active;
+        private double score;
+        private char initial;
+        private Integer age;
+        private Level level;
+        private Date createdAt;
+        private BigDecimal balance;
+        private BigInteger serial;
+        private byte[] avatar;
+        private int[] ranks;
+        private List<Address> addresses;
+        private Map<String, Integer> counters;
+        private Set<String> tags;
+        private Address primary;
+        private Object extra;
+        private String nickname = "none";
+    }
+
+    @Data
+    public static class OrderV1 {
+        @SchemaTag(1)
+        private long id;
+        @SchemaTag(2)
+        private String note;
+        @SchemaTag(3)
+        private int quantity;
+    }
+
+    /**
+     * OrderV1 with the note removed (tag 2 retired) and a field added under a new tag
+     */
+    @Data
+    public static class OrderV2 {
+        @SchemaTag(1)
+        private long id;
+        @SchemaTag(3)
+        private int quantity;
+        @SchemaTag(4)
+        private String currency = "EUR";
+    }
+
+    @Data
+    public static class DuplicateTags {
+        @SchemaTag(1)
+        private int a;
+        @SchemaTag(1)
+        private int b;
+    }
+
+    @Data
+    public static class MissingTag {
+        @SchemaTag(1)
+        private int a;
+        private int b;
+    }
+
+    @Test
+    public void pojoRoundTrip() throws IOException {
+        User user = user();
+
+        User decoded = roundTrip(user, User.class);
+
+        assertEquals(user.getId(), decoded.getId());
+        assertEquals(user.getName(), decoded.getName());
+        assertEquals(user.isActive(), decoded.isActive());
+        assertEquals(user.getScore(), decoded.getScore(), 0);
+        assertEquals(user.getInitial(), decoded.getInitial());
+        assertEquals(user.getAge(), decoded.getAge());
+        assertEquals(user.getLevel(), decoded.getLevel());
+        assertEquals(user.getCreatedAt(), decoded.getCreatedAt());
+        assertEquals(user.getBalance(), decoded.getBalance());
+        assertEquals(user.getSerial(), decoded.getSerial());
+        assertArrayEquals(user.getAvatar(), decoded.getAvatar());
+        assertArrayEquals(user.getRanks(), decoded.getRanks());
+        assertEquals(user.getAddresses(), decoded.getAddresses());
+        assertEquals(user.getCounters(), decoded.getCounters());
+        assertEquals(user.getTags(), decoded.getTags());
+        assertEquals(user.getExtra(), decoded.getExtra());
+        assertEquals(user.getNickname(), decoded.getNickname());
+    }
+
+    @Test
+    public void subclassOfDeclaredType() throws IOException {
+        User user = user();
+        HomeAddress home = new HomeAddress();
+        home.setCity("Lyon");
+        home.setZip(69001);
+        home.setStreet("Rue de la République");
+        user.setPrimary(home);
+        user.setAddresses(new ArrayList<>(Arrays.asList(home, address("Nice", 6000))));
+
+        User decoded = roundTrip(user, User.class);
+
+        assertEquals(HomeAddress.class, decoded.getPrimary().getClass());
+        assertEquals(home, decoded.getPrimary());
+        assertEquals(user.getAddresses(), decoded.getAddresses());
+    }
+
+    @Test
+    public void nullFieldsKeepConstructorDefaults() throws IOException {
+        User user = new User();
+        user.setNickname(null);
+
+        User decoded = roundTrip(user, User.class);
+
+        // Like protobuf, a null field is omitted and keeps the value assigned by the constructor
+        assertEquals("none", decoded.getNickname());
+        assertNull(decoded.getName());
+        assertNull(decoded.getAddresses());
+    }
+
+    @Test
+    public void rootValues() throws IOException {
+        assertEquals("héllo", roundTrip("héllo", String.class));
+        assertEquals(Integer.valueOf(-42), roundTrip(-42, Integer.class));
+        assertEquals(Level.HIGH, roundTrip(Level.HIGH, Level.class));
+        List<Object> list = new ArrayList<>(Arrays.asList(1, "two", 3L, null));
+        assertEquals(list, roundTrip(list, ArrayList.class));
+    }
+
+    @Test
+    public void requestRoundTrip() throws IOException {
+        RpcRequest request = RpcRequest.builder()
+                .serviceName("com.example.UserService")
+                .methodName("save")
+                .serviceVersion("1.0")
+                .parameterTypes(new Class<?>[]{User.class, int.class, List.class})
+                .args(new Object[]{user(), 3, new ArrayList<>(Arrays.asList("a", "b"))})
+                .build();
+
+        RpcRequest decoded = roundTrip(request, RpcRequest.class);
+
+        assertEquals(request.getServiceName(), decoded.getServiceName());
+        assertEquals(request.getMethodName(), decoded.getMethodName());
+        assertEquals(request.getServiceVersion(), decoded.getServiceVersion());
+        assertArrayEquals(request.getParameterTypes(), decoded.getParameterTypes());
+        assertEquals(((User) request.getArgs()[0]).getAddresses(), ((User) decoded.getArgs()[0]).getAddresses());
+        assertEquals(3, decoded.getArgs()[1]);
+        assertEquals(request.getArgs()[2], decoded.getArgs()[2]);
+    }
+
+    @Test
+    public void responseRoundTrip() throws IOException {
+        RpcResponse response = new RpcResponse();
+        response.setData(address("Paris", 75001));
+        response.setDataType(Address.class);
+        response.setMessage("ok");
+
+        RpcResponse decoded = roundTrip(response, RpcResponse.class);
+
+        assertEquals(response.getData(), decoded.getData());
+        assertEquals(Address.class, decoded.getDataType());
+        assertEquals("ok", decoded.getMessage());
+        assertNull(decoded.getError());
+
+        RpcResponse failed = new RpcResponse();
+        failed.setError(RpcError.builder().code(500).exceptionClass("java.lang.IllegalStateException")
+                .message("closed").stackTrace(new String[]{"a.B.c(B.java:1)"}).build());
+        assertEquals(failed.getError(), roundTrip(failed, RpcResponse.class).getError());
+    }
+
+    @Test
+    public void taggedFieldsCanBeAddedAndRemoved() throws IOException {
+        OrderV1 v1 = new OrderV1();
+        v1.setId(9);
+        v1.setNote("gift");
+        v1.setQuantity(2);
+
+        OrderV2 v2 = serializer.deserialize(serializer.serialize(v1), OrderV2.class);
+        assertEquals(9, v2.getId());
+        assertEquals(2, v2.getQuantity());
+        assertEquals("EUR", v2.getCurrency());
+
+        v2.setCurrency("USD");
+        OrderV1 back = serializer.deserialize(serializer.serialize(v2), OrderV1.class);
+        assertEquals(9, back.getId());
+        assertEquals(2, back.getQuantity());
+        assertNull(back.getNote());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateTagsAreRejected() throws IOException {
+        serializer.serialize(new DuplicateTags());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void untaggedFieldInTaggedClassIsRejected() throws IOException {
+        serializer.serialize(new MissingTag());
+    }
+
+    @Test
+    public void bufferAndByteArrayFormsMatch() throws IOException {
+        User user = user();
+        Buffer buffer = Buffer.buffer("prefix");
+        serializer.serialize(user, buffer);
+
+        assertArrayEquals(serializer.serialize(user), buffer.getBytes("prefix".length(), buffer.length()));
+        assertEquals(user.getCounters(),
+                serializer.deserialize(buffer.slice("prefix".length(), buffer.length()), User.class).getCounters());
+    }
+
+    private <T> T roundTrip(Object value, Class<T> type) throws IOException {
+        return serializer.deserialize(serializer.serialize(value), type);
+    }
+
+    private static User user() {
+        User user = new User();
+        user.setId(1L << 33);
+        user.setName("Ada");
+        user.setActive(true);
+        user.setScore(-0.125);
+        user.setInitial('Å');
+        user.setAge(36);
+        user.setLevel(Level.HIGH);
+        user.setCreatedAt(new Date(1_700_000_000_000L));
+        user.setBalance(new BigDecimal("-1234.5600"));
+        user.setSerial(new BigInteger("123456789012345678901234567890"));
+        user.setAvatar(new byte[]{0, -1, 127});
+        user.setRanks(new int[]{3, -1, Integer.MAX_VALUE});
+        user.setAddresses(new ArrayList<>(Arrays.asList(address("Paris", 75001), address("Nice", 6000))));
+        Map<String, Integer> counters = new HashMap<>();
+        counters.put("logins", 12);
+        counters.put("orders", 0);
+        user.setCounters(counters);
+        user.setTags(new LinkedHashSet<>(Arrays.asList("admin", "beta")));
+        user.setPrimary(address("Paris", 75001));
+        user.setExtra(Arrays.asList(1L, "x"));
+        user.setNickname("ada");
+        return user;
+    }
+
+    private static Address address(String city, int zip) {
+        Address address = new Address();
+        address.setCity(city);
+        address.setZip(zip);
+        return address;
+    }
+}
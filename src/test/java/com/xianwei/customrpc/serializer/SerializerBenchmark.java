@@ -0,0 +1,174 @@
+package com.xianwei.customrpc.serializer;
+
+import com.xianwei.customrpc.model.RpcRequest;
+import com.xianwei.customrpc.model.RpcResponse;
+import io.vertx.core.buffer.Buffer;
+import lombok.Data;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer Benchmark
+ *
+ * Serializes the same RpcRequest (one User argument with a nested friend, a list and a map)
+ * and the matching RpcResponse with every built-in serializer, through the Buffer methods the
+ * protocol codec uses, and prints the README comparison table. Each serializer is warmed up,
+ * then timed over several rounds; the fastest round is reported, in µs per request + response pair.
+ *
+ * Run from the project root:
+ *   mvn -B -q test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=com.xianwei.customrpc.serializer.SerializerBenchmark [-Dexec.args="200000 5"]
+ * The arguments are the iterations per round (default 200000) and the number of rounds (default 5).
+ */
+public class SerializerBenchmark {
+
+    private static final String[] SERIALIZERS = {
+            SerializerKeys.JDK, SerializerKeys.JSON, SerializerKeys.KRYO,
+            SerializerKeys.HESSIAN, SerializerKeys.HESSIAN2, SerializerKeys.SCHEMA
+    };
+
+    @Data
+    public static class User implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long id;
+        private String name;
+        private String email;
+        private int age;
+        private boolean active;
+        private double score;
+        private List<String> tags;
+        private Map<String, String> attributes;
+        private User friend;
+    }
+
+    /**
+     * Defeats dead-code elimination of the measured calls
+     */
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        RpcRequest request = request();
+        RpcResponse response = response();
+
+        StringBuilder table = new StringBuilder()
+                .append("| Serializer | Request bytes | Response bytes | Serialize (µs) | Deserialize (µs) |\n")
+                .append("|------------|--------------:|---------------:|---------------:|-----------------:|\n");
+        for (String key : SERIALIZERS) {
+            Serializer serializer = SerializerFactory.getInstance(key);
+            Buffer requestBytes = serialize(serializer, request);
+            Buffer responseBytes = serialize(serializer, response);
+            check(key, serializer, requestBytes, responseBytes);
+
+            // Warm-up: one round, untimed
+            serializeNanos(serializer, request, response, iterations);
+            deserializeNanos(serializer, requestBytes, responseBytes, iterations);
+            long serializeNanos = Long.MAX_VALUE;
+            long deserializeNanos = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                serializeNanos = Math.min(serializeNanos, serializeNanos(serializer, request, response, iterations));
+                deserializeNanos = Math.min(deserializeNanos,
+                        deserializeNanos(serializer, requestBytes, responseBytes, iterations));
+            }
+            table.append(String.format("| %-10s | %d | %d | %.2f | %.2f |%n", key,
+                    requestBytes.length(), responseBytes.length(),
+                    serializeNanos / 1000.0 / iterations, deserializeNanos / 1000.0 / iterations));
+        }
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+        out.printf("%d iterations, best of %d rounds, Java %s (sink %d)%n%n",
+                iterations, rounds, System.getProperty("java.version"), sink);
+        out.print(table);
+    }
+
+    private static long serializeNanos(Serializer serializer, RpcRequest request, RpcResponse response,
+                                       int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += serialize(serializer, request).length() + serialize(serializer, response).length();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long deserializeNanos(Serializer serializer, Buffer requestBytes, Buffer responseBytes,
+                                         int iterations) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += serializer.deserialize(requestBytes, RpcRequest.class).getArgs().length
+                    + serializer.deserialize(responseBytes, RpcResponse.class).getMessage().length();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Buffer serialize(Serializer serializer, Object value) throws IOException {
+        Buffer buffer = Buffer.buffer(256);
+        serializer.serialize(value, buffer);
+        return buffer;
+    }
+
+    /**
+     * Make sure the timed output decodes back to the original values.
+     */
+    private static void check(String key, Serializer serializer, Buffer requestBytes, Buffer responseBytes)
+            throws IOException {
+        RpcRequest request = serializer.deserialize(requestBytes, RpcRequest.class);
+        RpcResponse response = serializer.deserialize(responseBytes, RpcResponse.class);
+        if (!user().equals(request.getArgs()[0]) || !user().equals(response.getData())) {
+            throw new IllegalStateException(key + " does not round-trip the benchmark values");
+        }
+    }
+
+    private static RpcRequest request() {
+        return RpcRequest.builder()
+                .serviceName("com.example.UserService")
+                .methodName("updateUser")
+                .serviceVersion("1.0")
+                .parameterTypes(new Class<?>[]{User.class})
+                .args(new Object[]{user()})
+                .build();
+    }
+
+    private static RpcResponse response() {
+        RpcResponse response = new RpcResponse();
+        response.setData(user());
+        response.setDataType(User.class);
+        response.setMessage("ok");
+        return response;
+    }
+
+    private static User user() {
+        User friend = new User();
+        friend.setId(2002);
+        friend.setName("Grace");
+        friend.setEmail("grace@example.com");
+        friend.setAge(45);
+        friend.setActive(true);
+        friend.setScore(88.5);
+        friend.setTags(new ArrayList<>(Arrays.asList("navy")));
+        friend.setAttributes(new LinkedHashMap<>());
+
+        User user = new User();
+        user.setId(1001);
+        user.setName("Ada");
+        user.setEmail("ada@example.com");
+        user.setAge(36);
+        user.setActive(true);
+        user.setScore(97.25);
+        user.setTags(new ArrayList<>(Arrays.asList("admin", "beta", "math")));
+        Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put("city", "London");
+        attributes.put("team", "engines");
+        user.setAttributes(attributes);
+        user.setFriend(friend);
+        return user;
+    }
+}
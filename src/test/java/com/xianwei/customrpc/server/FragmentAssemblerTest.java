@@ -0,0 +1,172 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolHeaderView;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fragment Assembler Test
+ *
+ * Interleaves the fragments and attachments of several messages and checks each message
+ * is handed on whole, with a single header and its attachments appended.
+ */
+public class FragmentAssemblerTest {
+
+    private static final byte REQUEST = (byte) ProtocolMessageTypeEnum.REQUEST.getKey();
+
+    private static final byte RESPONSE = (byte) ProtocolMessageTypeEnum.RESPONSE.getKey();
+
+    private static final byte ATTACHMENT = (byte) ProtocolMessageTypeEnum.ATTACHMENT.getKey();
+
+    @Test
+    public void unfragmentedFramesPassThrough() {
+        List<Buffer> received = new ArrayList<>();
+        FragmentAssembler assembler = assembler(received, Long.MAX_VALUE);
+        Buffer frame = frame(1, REQUEST, bytes(1, 0, 10));
+
+        assembler.handle(frame);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(frame.getBytes(), received.get(0).getBytes());
+    }
+
+    @Test
+    public void singleFragmentWithAttachments() {
+        List<Buffer> received = new ArrayList<>();
+        FragmentAssembler assembler = assembler(received, Long.MAX_VALUE);
+        Buffer body = bytes(1, 0, 8);
+        Buffer attachment = bytes(1, 100, 5);
+
+        assembler.handle(frame(1, ATTACHMENT, attachment));
+        assertTrue(received.isEmpty());
+        assembler.handle(frame(1, (byte) (REQUEST | ProtocolConstant.FRAGMENTED_FLAG), body));
+
+        assertMessage(received.get(0), 1, REQUEST, body, attachment);
+    }
+
+    @Test
+    public void interleavedFragmentsAndAttachments() {
+        List<Buffer> received = new ArrayList<>();
+        FragmentAssembler assembler = assembler(received, Long.MAX_VALUE);
+        byte last = (byte) (REQUEST | ProtocolConstant.FRAGMENTED_FLAG);
+        byte more = (byte) (last | ProtocolConstant.MORE_FRAGMENTS_FLAG);
+        byte response = (byte) (RESPONSE | ProtocolConstant.FRAGMENTED_FLAG);
+        byte responseMore = (byte) (response | ProtocolConstant.MORE_FRAGMENTS_FLAG);
+
+        // Message 1: three fragments and two attachment frames; message 2: two fragments, no attachments;
+        // message 3: an unfragmented message in between
+        assembler.handle(frame(1, ATTACHMENT, bytes(1, 100, 3)));
+        assembler.handle(frame(2, responseMore, bytes(2, 0, 6)));
+        assembler.handle(frame(1, more, bytes(1, 0, 4)));
+        assembler.handle(frame(3, REQUEST, bytes(3, 0, 2)));
+        assembler.handle(frame(1, ATTACHMENT, bytes(1, 103, 4)));
+        assembler.handle(frame(1, more, bytes(1, 4, 0)));
+        assembler.handle(frame(2, response, bytes(2, 6, 7)));
+        assembler.handle(frame(1, last, bytes(1, 4, 9)));
+
+        assertEquals(3, received.size());
+        assertArrayEquals(frame(3, REQUEST, bytes(3, 0, 2)).getBytes(), received.get(0).getBytes());
+        assertMessage(received.get(1), 2, RESPONSE, bytes(2, 0, 13), Buffer.buffer());
+        assertMessage(received.get(2), 1, REQUEST, bytes(1, 0, 13), bytes(1, 100, 7));
+    }
+
+    @Test
+    public void requestIdsCanBeReused() {
+        List<Buffer> received = new ArrayList<>();
+        FragmentAssembler assembler = assembler(received, Long.MAX_VALUE);
+        byte last = (byte) (REQUEST | ProtocolConstant.FRAGMENTED_FLAG);
+        byte more = (byte) (last | ProtocolConstant.MORE_FRAGMENTS_FLAG);
+
+        for (int round = 0; round < 2; round++) {
+            assembler.handle(frame(7, ATTACHMENT, bytes(round, 50, 2)));
+            assembler.handle(frame(7, more, bytes(round, 0, 5)));
+            assembler.handle(frame(7, last, bytes(round, 5, 5)));
+        }
+
+        assertEquals(2, received.size());
+        assertMessage(received.get(0), 7, REQUEST, bytes(0, 0, 10), bytes(0, 50, 2));
+        assertMessage(received.get(1), 7, REQUEST, bytes(1, 0, 10), bytes(1, 50, 2));
+    }
+
+    @Test
+    public void pendingBytesAreLimited() {
+        List<Buffer> received = new ArrayList<>();
+        FragmentAssembler assembler = assembler(received, 20);
+        byte more = (byte) (REQUEST | ProtocolConstant.FRAGMENTED_FLAG | ProtocolConstant.MORE_FRAGMENTS_FLAG);
+
+        assembler.handle(frame(1, ATTACHMENT, bytes(1, 0, 8)));
+        assembler.handle(frame(2, more, bytes(2, 0, 12)));
+        try {
+            assembler.handle(frame(1, more, bytes(1, 0, 1)));
+            fail("Pending bytes above the maximum message size accepted");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exceed the maximum message size"));
+        }
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void completedMessagesFreeTheirBytes() {
+        List<Buffer> received = new ArrayList<>();
+        FragmentAssembler assembler = assembler(received, 20);
+        byte last = (byte) (REQUEST | ProtocolConstant.FRAGMENTED_FLAG);
+        byte more = (byte) (last | ProtocolConstant.MORE_FRAGMENTS_FLAG);
+
+        for (int id = 0; id < 10; id++) {
+            assembler.handle(frame(id, ATTACHMENT, bytes(id, 0, 5)));
+            assembler.handle(frame(id, more, bytes(id, 0, 10)));
+            assembler.handle(frame(id, last, bytes(id, 10, 5)));
+        }
+        assertEquals(10, received.size());
+    }
+
+    private static FragmentAssembler assembler(List<Buffer> received, long maxMessageSize) {
+        return new FragmentAssembler(message -> received.add(Buffer.buffer(message.getBytes())), maxMessageSize);
+    }
+
+    /**
+     * Check an assembled message: one header with the last fragment's type and the total body length,
+     * the bodies of all fragments, then the attachment bytes.
+     */
+    private static void assertMessage(Buffer message, long requestId, byte messageType, Buffer body, Buffer attachments) {
+        ProtocolHeaderView header = new ProtocolHeaderView(message);
+        assertEquals(requestId, header.getRequestId());
+        assertEquals(messageType, header.getMessageType());
+        assertTrue(header.isFragmented());
+        assertFalse(header.hasMoreFragments());
+        assertEquals(body.length(), header.getBodyLength());
+        int bodyEnd = ProtocolConstant.MESSAGE_HEADER_LENGTH + body.length();
+        assertArrayEquals(body.getBytes(), message.getBytes(ProtocolConstant.MESSAGE_HEADER_LENGTH, bodyEnd));
+        assertArrayEquals(attachments.getBytes(), message.getBytes(bodyEnd, message.length()));
+    }
+
+    private static Buffer frame(long requestId, byte type, Buffer body) {
+        return Buffer.buffer()
+                .appendByte(ProtocolConstant.PROTOCOL_MAGIC)
+                .appendByte(ProtocolConstant.PROTOCOL_VERSION_2)
+                .appendByte((byte) 0)
+                .appendByte(type)
+                .appendByte((byte) 0)
+                .appendLong(requestId)
+                .appendInt(body.length())
+                .appendBuffer(body);
+    }
+
+    /**
+     * Bytes {@code offset} to {@code offset + length} of a message's content, derived from its id.
+     */
+    private static Buffer bytes(long requestId, int offset, int length) {
+        Buffer bytes = Buffer.buffer(length);
+        for (int i = offset; i < offset + length; i++) {
+            bytes.appendByte((byte) (requestId * 31 + i));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,177 @@
+package com.xianwei.customrpc.server;
+
+import com.xianwei.customrpc.protocol.ProtocolConstant;
+import com.xianwei.customrpc.protocol.ProtocolHeaderView;
+import com.xianwei.customrpc.protocol.ProtocolMessageTypeEnum;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * TCP Buffer Handler Wrapper Test
+ *
+ * Feeds streams of frames split at every byte offset, and frames that are too large or corrupt.
+ */
+public class TcpBufferHandlerWrapperTest {
+
+    private static final int[] BODY_LENGTHS = {5, 0, 40, 1, 17};
+
+    @Test
+    public void splitAtEveryOffset() {
+        for (boolean pooled : new boolean[]{false, true}) {
+            List<Buffer> frames = frames();
+            Buffer stream = concat(frames);
+            for (int split = 0; split <= stream.length(); split++) {
+                List<Buffer> received = new ArrayList<>();
+                TcpBufferHandlerWrapper wrapper = wrapper(received, pooled, Integer.MAX_VALUE);
+                wrapper.handle(stream.getBuffer(0, split));
+                wrapper.handle(stream.getBuffer(split, stream.length()));
+                assertFrames("pooled=" + pooled + " split=" + split, frames, received);
+            }
+        }
+    }
+
+    @Test
+    public void splitTwiceAtEveryOffset() {
+        List<Buffer> frames = frames();
+        Buffer stream = concat(frames);
+        for (int first = 0; first <= stream.length(); first++) {
+            for (int second = first; second <= stream.length(); second++) {
+                List<Buffer> received = new ArrayList<>();
+                TcpBufferHandlerWrapper wrapper = wrapper(received, true, Integer.MAX_VALUE);
+                wrapper.handle(stream.getBuffer(0, first));
+                wrapper.handle(stream.getBuffer(first, second));
+                wrapper.handle(stream.getBuffer(second, stream.length()));
+                assertFrames("split=" + first + "," + second, frames, received);
+            }
+        }
+    }
+
+    @Test
+    public void oneByteAtATime() {
+        for (boolean pooled : new boolean[]{false, true}) {
+            List<Buffer> frames = frames();
+            Buffer stream = concat(frames);
+            List<Buffer> received = new ArrayList<>();
+            TcpBufferHandlerWrapper wrapper = wrapper(received, pooled, Integer.MAX_VALUE);
+            for (int i = 0; i < stream.length(); i++) {
+                wrapper.handle(stream.getBuffer(i, i + 1));
+            }
+            assertFrames("pooled=" + pooled, frames, received);
+        }
+    }
+
+    @Test
+    public void frameOfMaximumSizeIsAccepted() {
+        Buffer frame = frame(1, 100);
+        List<Buffer> received = new ArrayList<>();
+        TcpBufferHandlerWrapper wrapper = wrapper(received, false, frame.length());
+        wrapper.handle(frame.getBuffer(0, 10));
+        wrapper.handle(frame.getBuffer(10, frame.length()));
+        assertFrames("", Arrays.asList(frame), received);
+    }
+
+    @Test
+    public void oversizeFrameFailsTheStream() {
+        for (int split : new int[]{0, 10, ProtocolConstant.MESSAGE_HEADER_LENGTH, 30}) {
+            Buffer small = frame(1, 10);
+            Buffer large = frame(2, 100);
+            Buffer stream = concat(Arrays.asList(small, large, frame(3, 10)));
+            int start = small.length() + split;
+            List<Buffer> received = new ArrayList<>();
+            TcpBufferHandlerWrapper wrapper = wrapper(received, false, large.length() - 1);
+
+            try {
+                wrapper.handle(stream.getBuffer(0, start));
+                wrapper.handle(stream.getBuffer(start, stream.length()));
+                fail("Oversize frame accepted, split=" + split);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("exceeds the maximum frame size"));
+            }
+            // The frame before the oversize one is delivered; the stream is dead from then on
+            assertFrames("split=" + split, Arrays.asList(small), received);
+            wrapper.handle(frame(4, 1));
+            assertEquals(1, received.size());
+        }
+    }
+
+    @Test
+    public void negativeBodyLengthFailsTheStream() {
+        Buffer corrupt = frame(1, 4);
+        corrupt.setInt(ProtocolHeaderView.BODY_LENGTH_OFFSET, -1);
+        List<Buffer> received = new ArrayList<>();
+        TcpBufferHandlerWrapper wrapper = wrapper(received, false, Integer.MAX_VALUE);
+        try {
+            wrapper.handle(corrupt);
+            fail("Negative body length accepted");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Invalid body length"));
+        }
+        wrapper.handle(frame(2, 1));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void closeDropsThePartialFrame() {
+        Buffer frame = frame(1, 40);
+        List<Buffer> received = new ArrayList<>();
+        TcpBufferHandlerWrapper wrapper = wrapper(received, true, Integer.MAX_VALUE);
+        wrapper.handle(frame.getBuffer(0, 20));
+        wrapper.close();
+        wrapper.handle(frame.getBuffer(20, frame.length()));
+        assertTrue(received.isEmpty());
+    }
+
+    /**
+     * A wrapper whose handler copies every frame, as pooled frames are only valid during the call.
+     */
+    private static TcpBufferHandlerWrapper wrapper(List<Buffer> received, boolean pooled, int maxFrameSize) {
+        return new TcpBufferHandlerWrapper(frame -> received.add(Buffer.buffer(frame.getBytes())), pooled, maxFrameSize);
+    }
+
+    private static List<Buffer> frames() {
+        List<Buffer> frames = new ArrayList<>();
+        for (int i = 0; i < BODY_LENGTHS.length; i++) {
+            frames.add(frame(i + 1, BODY_LENGTHS[i]));
+        }
+        return frames;
+    }
+
+    /**
+     * A frame whose body bytes are derived from the request id and their position.
+     */
+    private static Buffer frame(long requestId, int bodyLength) {
+        Buffer frame = Buffer.buffer();
+        frame.appendByte(ProtocolConstant.PROTOCOL_MAGIC);
+        frame.appendByte(ProtocolConstant.PROTOCOL_VERSION);
+        frame.appendByte((byte) 0);
+        frame.appendByte((byte) ProtocolMessageTypeEnum.REQUEST.getKey());
+        frame.appendByte((byte) 0);
+        frame.appendLong(requestId);
+        frame.appendInt(bodyLength);
+        for (int i = 0; i < bodyLength; i++) {
+            frame.appendByte((byte) (requestId * 31 + i));
+        }
+        return frame;
+    }
+
+    private static Buffer concat(List<Buffer> frames) {
+        Buffer stream = Buffer.buffer();
+        for (Buffer frame : frames) {
+            stream.appendBuffer(frame);
+        }
+        return stream;
+    }
+
+    private static void assertFrames(String message, List<Buffer> expected, List<Buffer> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(message + " frame " + i, expected.get(i).getBytes(), actual.get(i).getBytes());
+        }
+    }
+}